@@ -29,6 +29,14 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    androidResources {
+        // DTC tables are memory-mapped straight out of the APK
+        noCompress += "dtc"
+    }
+    testOptions {
+        // Lets the polling code run against the simulator in plain JVM tests (Log, Bundle, ...)
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -0,0 +1,28 @@
+package com.example.zavobd;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.zavobd.obd.AdapterProfile;
+
+// Remembers what the full initialisation learned about each adapter, keyed by its MAC address.
+public class AdapterProfileStore {
+
+    private static final String PREFS_NAME = "adapter_profiles";
+
+    private final SharedPreferences prefs;
+
+    public AdapterProfileStore(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // The profile saved for this adapter, or null if it was never initialised
+    public AdapterProfile load(String adapterAddress) {
+        return AdapterProfile.decode(prefs.getString(adapterAddress, null));
+    }
+
+    public void save(String adapterAddress, AdapterProfile profile) {
+        if (profile == null) return;
+        prefs.edit().putString(adapterAddress, profile.encode()).apply();
+    }
+}
@@ -4,236 +4,844 @@ import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
+import com.example.zavobd.fuel.FuelRateSource;
+import com.example.zavobd.fuel.FuelStats;
+import com.example.zavobd.fuel.FuelType;
 import com.example.zavobd.obd.AbstractObdCommand;
-import com.example.zavobd.obd.CoolantCommand;
-import com.example.zavobd.obd.DtcCommand;
+import com.example.zavobd.obd.AdapterInitializer;
+import com.example.zavobd.obd.AdapterProfile;
+import com.example.zavobd.obd.AdaptivePacer;
+import com.example.zavobd.obd.DiagnosticReport;
+import com.example.zavobd.obd.DiagnosticSweep;
+import com.example.zavobd.obd.ErrorRecovery;
 import com.example.zavobd.obd.FuelLevelCommand;
+import com.example.zavobd.obd.IsoTpAssembler;
 import com.example.zavobd.obd.MafCommand;
+import com.example.zavobd.obd.Mode01Batcher;
+import com.example.zavobd.obd.ObdChannel;
+import com.example.zavobd.obd.PidDecoders;
+import com.example.zavobd.obd.PidHealth;
+import com.example.zavobd.obd.PollScheduler;
+import com.example.zavobd.obd.ReconnectBackoff;
+import com.example.zavobd.obd.ResponseCountHints;
+import com.example.zavobd.obd.ResponsePayload;
+import com.example.zavobd.obd.ResponseStatus;
 import com.example.zavobd.obd.RpmCommand;
 import com.example.zavobd.obd.SpeedCommand;
+import com.example.zavobd.obd.SupportedPids;
+import com.example.zavobd.trip.TripRecorder;
 import com.example.zavobd.PID;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CommunicationThread extends Thread {
     private static final String TAG = "CommunicationThread";
 
-    // These message codes are now used for AFTER a connection is established
-    public static final int MSG_UPDATE_DASHBOARD = 1;
-    public static final int MSG_UPDATE_FUEL_STATS = 2;
+    // These message codes are now used for AFTER a connection is established.
+    // Numeric live values are not messages: they go to the LiveSnapshot, which screens read per frame.
     public static final int MSG_UPDATE_DTC_RESULT = 3;
     public static final int MSG_UPDATE_PID_RESULT = 4;
     public static final int MSG_CONNECTION_LOST = 98;
     public static final int MSG_INVALID_DEVICE = 99; // This is now unused but safe to keep
 
-    // Mode constants
+    // One-shot modes. Live data is polled whenever no one-shot mode is pending and live PIDs are set.
     public static final int MODE_IDLE = 0;
-    public static final int MODE_DASHBOARD = 1;
-    public static final int MODE_FUEL_STATS = 2;
     public static final int MODE_DTC_SCAN = 3;
-    public static final int MODE_CUSTOM_SCAN = 4;
     public static final int MODE_DTC_CLEAR = 5;
 
-    private final BluetoothSocket socket;
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
-    private final Handler serviceHandler;
+    // Reconnects give up after this long without getting the adapter back
+    private static final long RECONNECT_BUDGET_NANOS = 60_000_000_000L;
+    private static final long RECONNECT_BASE_DELAY_MS = 100;
+    private static final long RECONNECT_MAX_DELAY_MS = 5000;
+
+    // What closes the current connection: the Bluetooth socket, or whatever the reconnector opened
+    private volatile Closeable link;
+    // Owns the adapter streams; every request goes through it. Replaced when the link is re-established.
+    private volatile ObdChannel channel;
+    private volatile Reconnector reconnector = null;
+    // One-shot mode being run, so it can be run again if the link drops halfway
+    private int oneShotInProgress = MODE_IDLE;
+    private volatile int reconnectCount = 0;
+    // What to do about ELM327 error replies, and how often it took a re-initialisation
+    private final ErrorRecovery errorRecovery = new ErrorRecovery();
+    private volatile int reinitCount = 0;
+    private final Mode01Batcher batcher = new Mode01Batcher();
+    // ATDPN reply of the sanity check, e.g. "A6"; null before it ran
+    private volatile String describedProtocol = null;
+    // What the initialisation learned or confirmed about the adapter; null if no protocol answered
+    private volatile AdapterProfile adapterProfile = null;
+    // When connecting started, and when the first live value arrived (0 until then)
+    private volatile long connectStartNanos = 0;
+    private volatile long firstSampleNanos = 0;
+    private final int[] payload = new int[256];
+    // "01" + up to six PIDs + response count + CR
+    private final byte[] batchFrame = new byte[4 + 2 * Mode01Batcher.MAX_PIDS_PER_REQUEST];
+    // How many ECUs answer each PID, so the adapter can stop listening once they have
+    private final ResponseCountHints countHints = new ResponseCountHints();
+    // Request header of the one ECU that answers, e.g. 0x7E0, when requests are addressed to it; 0 for functional addressing
+    private volatile int physicalHeader = 0;
+    // PIDs the connected vehicle answers; null until discovery has run
+    private volatile SupportedPids supportedPids = null;
+    private final Listener listener;
+    // Latest value of every live PID, overwritten in place after each poll
+    private volatile LiveSnapshot snapshot = new LiveSnapshot();
+    // Persists every live sample when set
+    private volatile TripRecorder tripRecorder = null;
 
     private volatile int currentMode = MODE_IDLE;
-    private volatile ArrayList<PID> customScanPids = null;
-
-    // Fuel stats variables
-    private final double AIR_FUEL_RATIO = 14.7;
-    private final double FUEL_DENSITY_GRAMS_PER_LITER = 745.0;
-    private final Queue<Double> consumptionReadings = new LinkedList<>();
-    private final int SMOOTHING_WINDOW_SIZE = 12;
-
-    public CommunicationThread(BluetoothSocket socket, Handler serviceHandler) {
-        this.socket = socket;
-        this.serviceHandler = serviceHandler;
-        InputStream tmpIn = null;
-        OutputStream tmpOut = null;
+    private final Object modeLock = new Object();
+    // Mode 01 PIDs to poll, the union of what all subscribers need
+    private volatile int[] livePids = new int[0];
+
+    // Polling schedule of the live PIDs, rebuilt when the set changes
+    private static final long MAX_SCHEDULER_WAIT_NANOS = 100_000_000L;
+    private static final long RATE_REPORT_INTERVAL_NANOS = 10_000_000_000L;
+    private volatile PollScheduler scheduler = null;
+    // Live PIDs the vehicle keeps leaving unanswered are only probed now and then
+    private final PidHealth pidHealth = new PidHealth();
+    private int[] scheduledPids = null;
+    private AbstractObdCommand[] liveCommands = null;
+    private final AbstractObdCommand[] dueCommands = new AbstractObdCommand[Mode01Batcher.MAX_PIDS_PER_REQUEST];
+    private long lastRateReportNanos = 0;
+    // Polls every scheduled PID at this interval instead of its default when >= 0; 0 means back-to-back
+    private volatile long intervalOverrideMs = -1;
+    // Commands answered since the thread started, for throughput measurements
+    private volatile long sampleCount = 0;
+
+    // Live data commands, reused every cycle
+    private final SpeedCommand speedCmd = new SpeedCommand();
+    private final RpmCommand rpmCmd = new RpmCommand();
+    private final MafCommand mafCmd = new MafCommand();
+    private final FuelLevelCommand fuelLevelCmd = new FuelLevelCommand();
+    private DiagnosticSweep diagnosticSweep;
+
+    // Fuel consumption figures, fed after every poll that includes the fuel rate source's main PID
+    private final FuelStats fuelStats = new FuelStats();
+    private volatile FuelRateSource fuelRateSource = FuelRateSource.MAF;
+    private volatile FuelType fuelType = FuelType.GASOLINE;
+
+    // Receives everything the thread publishes: the MSG_* code and its Bundle (null for MSG_CONNECTION_LOST).
+    public interface Listener {
+        void onResult(int what, Object result);
+
+        // Results nobody wants are not built at all
+        default boolean wants(int what) {
+            return true;
+        }
+    }
+
+    // A new connection to the adapter after the old one dropped
+    public static final class Link {
+        final InputStream in;
+        final OutputStream out;
+        final Closeable closeable;
+
+        public Link(InputStream in, OutputStream out, Closeable closeable) {
+            this.in = in;
+            this.out = out;
+            this.closeable = closeable;
+        }
+    }
+
+    // Opens links to the same adapter, for reconnecting after a dropout
+    public interface Reconnector {
+        // Throws if the adapter cannot be reached right now; it is tried again after a backoff
+        Link open() throws IOException;
+    }
+
+    public CommunicationThread(BluetoothSocket socket, Listener listener) {
+        this(socket, getInputStream(socket), getOutputStream(socket), listener);
+    }
+
+    // Talks to whatever is behind the streams instead of a Bluetooth adapter, e.g. a simulator.
+    public CommunicationThread(InputStream in, OutputStream out, Listener listener) {
+        this(null, in, out, listener);
+    }
+
+    // Uses the given streams for the socket's traffic, e.g. the socket's own wrapped by an AdapterCapture.
+    public CommunicationThread(BluetoothSocket socket, InputStream in, OutputStream out, Listener listener) {
+        this.link = socket;
+        this.listener = listener;
+        channel = in != null && out != null ? new ObdChannel(in, out) : null;
+        diagnosticSweep = channel != null ? new DiagnosticSweep(channel) : null;
+    }
+
+    private static InputStream getInputStream(BluetoothSocket socket) {
         try {
-            tmpIn = socket.getInputStream();
-            tmpOut = socket.getOutputStream();
-        } catch (IOException e) { Log.e(TAG, "Error obtaining streams", e); }
-        inputStream = tmpIn;
-        outputStream = tmpOut;
+            return socket.getInputStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Error obtaining streams", e);
+            return null;
+        }
     }
 
-    public void setMode(int mode) { this.currentMode = mode; }
-    public void startCustomScan(ArrayList<PID> pids) {
-        this.customScanPids = pids;
-        setMode(MODE_CUSTOM_SCAN);
+    private static OutputStream getOutputStream(BluetoothSocket socket) {
+        try {
+            return socket.getOutputStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Error obtaining streams", e);
+            return null;
+        }
+    }
+
+    public void setMode(int mode) {
+        synchronized (modeLock) {
+            this.currentMode = mode;
+            modeLock.notifyAll(); // Wake the idle loop
+        }
+    }
+
+    // Where live values are published. Set before start(); the service keeps one across connections.
+    public void setSnapshot(LiveSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public LiveSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setTripRecorder(TripRecorder recorder) {
+        this.tripRecorder = recorder;
+    }
+
+    // Sets the mode 01 PIDs to poll live. The array must not be modified afterwards.
+    public void setLivePids(int[] pids) {
+        synchronized (modeLock) {
+            this.livePids = pids;
+            modeLock.notifyAll();
+        }
+    }
+
+    // Sets the live PIDs only custom scans need. Only these are quarantined when the vehicle keeps leaving them unanswered.
+    public void setScanOnlyPids(int[] pids) {
+        pidHealth.setQuarantinable(pids);
     }
 
+    // Learned adapter timing, for comparing adapters
+    public AdaptivePacer getPacer() { return channel.getPacer(); }
+
+    // The link to the adapter, for queuing requests from other threads while this one polls.
+    // A new one takes its place after a reconnect.
+    public ObdChannel getChannel() { return channel; }
+
+    /**
+     * Reconnects through this when the link drops or stalls, instead of giving up with
+     * MSG_CONNECTION_LOST. Polling resumes where it stopped: same live PIDs and subscribers, and a
+     * one-shot mode that was cut short is run again.
+     */
+    public void setReconnector(Reconnector reconnector) { this.reconnector = reconnector; }
+
+    // Times the link was re-established
+    public int getReconnectCount() { return reconnectCount; }
+
+    // Times the adapter was initialised again because of the errors it reported
+    public int getReinitCount() { return reinitCount; }
+
+    // ELM327 error replies (BUS ERROR, STOPPED, UNABLE TO CONNECT...) and timeouts seen while polling
+    public long getErrorCount() { return errorRecovery.getErrorCount(); }
+
     private String executeSimpleCommand(String command) throws IOException {
-        if(outputStream == null || inputStream == null) return "";
-        outputStream.write((command + "\r").getBytes());
-        outputStream.flush();
-        try { Thread.sleep(300); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        StringBuilder response = new StringBuilder();
-        // This read is blocking, which is what we want for this simple command
-        while(inputStream.available() > 0) {
-            response.append((char) inputStream.read());
+        if (channel == null) return "";
+        return channel.executeText(command);
+    }
+
+    // Runs one command, retrying or re-initialising the adapter as its reply calls for. A command
+    // that still fails is left without a value (its status says why) until its next poll.
+    private void runCommand(AbstractObdCommand command) throws IOException, InterruptedException {
+        int attempt = 0;
+        do {
+            sendCommand(command);
+        } while (recover(command.getStatus(), attempt++));
+        sampleCount++;
+    }
+
+    private void sendCommand(AbstractObdCommand command) throws IOException, InterruptedException {
+        int pid = command.getPid();
+        if (pid < 0) {
+            channel.execute(command);
+            return;
+        }
+        int hint = countHints.hintFor(pid);
+        command.setResponseCountHint(hint);
+        ReentrantLock wireLock = channel.getWireLock();
+        wireLock.lock(); // Until the answers are counted
+        try {
+            channel.execute(command);
+            int messages = ResponsePayload.countMessages(channel.getReader());
+            if (!countHints.onReply(pid, messages, hint, command.getStatus())) onCountHintFailed();
+        } finally {
+            wireLock.unlock();
+        }
+    }
+
+    /**
+     * Acts on the recovery a reply calls for: nothing for answers, a re-initialisation of the
+     * adapter, or an IOException that makes run() re-establish the link.
+     *
+     * @return true if the request should be sent again
+     */
+    private boolean recover(ResponseStatus status, int attempt) throws IOException {
+        switch (errorRecovery.onReply(status, attempt)) {
+            case RETRY:
+                return true;
+            case REINIT:
+                reinitialize(status);
+                return true;
+            case RECONNECT:
+                throw new IOException("Adapter keeps failing with " + status);
+            default:
+                return false;
+        }
+    }
+
+    // Sets the adapter up again after it reported UNABLE TO CONNECT or LV RESET, or kept reporting bus errors
+    private void reinitialize(ResponseStatus cause) throws IOException {
+        Log.w(TAG, "Adapter reported " + cause + ", initialising it again");
+        channel.getPacer().onAdapterReset();
+        channel.setWatchdog(false); // A protocol search or bus init prints its progress slowly
+        try {
+            String response = performSanityCheck(adapterProfile);
+            if (!response.contains("4100")) throw new IOException("Adapter answered 0100 with " + response + " after " + cause);
+        } finally {
+            channel.setWatchdog(true);
+        }
+        reinitCount++;
+    }
+
+    /**
+     * On 11 bit CAN, asks with headers on who answers 0100. If a single ECU does, requests are
+     * addressed to it (ATSH7E0 for an ECU answering as 7E8) instead of broadcast to 7DF: then exactly
+     * one answer can come, and every request can tell the adapter so.
+     */
+    private void detectResponders() throws IOException {
+        if (IsoTpAssembler.headerDigitsFor(describedProtocol) != IsoTpAssembler.CAN_11_BIT) return;
+        IsoTpAssembler assembler = new IsoTpAssembler();
+        int responders;
+        int header = 0;
+        ReentrantLock wireLock = channel.getWireLock();
+        wireLock.lock();
+        try {
+            if (physicalHeader != 0) executeSimpleCommand("ATSH7DF"); // Hear every ECU
+            executeSimpleCommand("ATH1");
+            try {
+                executeSimpleCommand("0100");
+                responders = assembler.assemble(channel.getReader(), IsoTpAssembler.CAN_11_BIT);
+                if (responders == 1) header = assembler.getEcu(0);
+            } finally {
+                executeSimpleCommand("ATH0");
+            }
+        } finally {
+            wireLock.unlock();
+        }
+        // Replies come from the request header + 8 in the 7E0-7E7 range
+        boolean physical = responders == 1 && header >= 0x7E8 && header <= 0x7EF;
+        setPhysicalHeader(physical ? header - 8 : 0);
+        Log.i(TAG, responders + " ECU(s) answer 0100" + (physical ? String.format(Locale.US, ", addressing %03X", physicalHeader) : ""));
+    }
+
+    private void setPhysicalHeader(int header) throws IOException {
+        if (header != 0) executeSimpleCommand(String.format(Locale.US, "ATSH%03X", header));
+        physicalHeader = header;
+        countHints.setSingleResponder(header != 0);
+        if (diagnosticSweep != null) diagnosticSweep.setPhysicalHeader(header);
+    }
+
+    // A hinted request came back short. If it was addressed to one ECU, go back to asking all of them.
+    private void onCountHintFailed() throws IOException {
+        if (physicalHeader == 0) return;
+        Log.w(TAG, "Count hint failed with physical addressing, back to functional requests");
+        executeSimpleCommand("ATSH7DF");
+        setPhysicalHeader(0);
+    }
+
+    public void setSupportedPids(SupportedPids pids) { this.supportedPids = pids; }
+
+    // How the fuel figures are computed; pick with FuelRateSource.select() once the supported PIDs are known
+    public void setFuelRateSource(FuelRateSource source, FuelType fuel) {
+        this.fuelType = fuel;
+        this.fuelRateSource = source;
+    }
+
+    // Overrides the per-PID refresh intervals of live modes, 0 to poll as fast as the adapter answers.
+    // Takes effect when the live PID set next changes. Meant for benchmarks; pass -1 to go back to the defaults.
+    public void setIntervalOverrideMs(long intervalMs) { this.intervalOverrideMs = intervalMs; }
+
+    public long getSampleCount() { return sampleCount; }
+    public SupportedPids getSupportedPids() { return supportedPids; }
+
+    // Walks the 0100, 0120, 0140, ... bitmaps for as long as the vehicle reports another one.
+    public SupportedPids discoverSupportedPids() throws IOException {
+        SupportedPids pids = new SupportedPids();
+        for (int basePid : SupportedPids.BITMAP_PIDS) {
+            int length;
+            channel.getWireLock().lock();
+            try {
+                executeSimpleCommand(String.format(Locale.US, "01%02X", basePid));
+                length = ResponsePayload.decode(channel.getReader(), payload);
+            } finally {
+                channel.getWireLock().unlock();
+            }
+            // Every answering ECU sends "41 <base> A B C D"
+            for (int i = 0; i + 5 < length; i++) {
+                if (payload[i] == 0x41 && payload[i + 1] == basePid) {
+                    pids.addBitmap(basePid, payload[i + 2], payload[i + 3], payload[i + 4], payload[i + 5]);
+                    i += 5;
+                }
+            }
+            if (!pids.hasNextBitmap(basePid)) break;
+        }
+        Log.i(TAG, "Vehicle supports " + pids.count() + " mode 01 PIDs");
+        return pids;
+    }
+
+    // Reads the fuel type code (PID 0151), -1 if the vehicle does not answer it
+    public int readFuelType() throws IOException {
+        int length;
+        channel.getWireLock().lock();
+        try {
+            executeSimpleCommand("0151");
+            length = ResponsePayload.decode(channel.getReader(), payload);
+        } finally {
+            channel.getWireLock().unlock();
+        }
+        for (int i = 0; i + 2 < length; i++) {
+            if (payload[i] == 0x41 && payload[i + 1] == 0x51) return payload[i + 2];
+        }
+        return -1;
+    }
+
+    // Reads the VIN (mode 09 PID 02). Returns null if the vehicle does not report one.
+    public String readVin() throws IOException {
+        int length;
+        channel.getWireLock().lock();
+        try {
+            executeSimpleCommand("0902");
+            length = ResponsePayload.decode(channel.getReader(), payload);
+        } finally {
+            channel.getWireLock().unlock();
+        }
+        StringBuilder vin = new StringBuilder(17);
+        for (int i = 0; i < length; i++) {
+            if (payload[i] == 0x49 && i + 2 < length && payload[i + 1] == 0x02) {
+                i += 2; // Skip "49 02" and the message/item counter
+                continue;
+            }
+            int c = payload[i];
+            if ((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z')) vin.append((char) c);
         }
-        return response.toString().replaceAll("\\s", "");
+        if (vin.length() < 17) return null;
+        return vin.substring(vin.length() - 17);
+    }
+
+    // Runs commands[0, count) in order, packing consecutive mode 01 PIDs into multi-PID requests where the link allows it.
+    private void runCommands(AbstractObdCommand[] commands, int count) throws IOException, InterruptedException {
+        int i = 0;
+        while (i < count) {
+            int end = i;
+            while (end < count && end - i < Mode01Batcher.MAX_PIDS_PER_REQUEST
+                    && Mode01Batcher.isBatchable(commands[end].getPid())) {
+                end++;
+            }
+            if (end - i >= 2 && batcher.isEnabled() && runBatch(commands, i, end)) {
+                i = end;
+            } else {
+                runCommand(commands[i]);
+                i++;
+            }
+        }
+    }
+
+    // Sets up the polling schedule of the live PIDs. PIDs the vehicle cannot report never make it onto
+    // the schedule; they get NO DATA once so their display does not wait forever.
+    private void schedule(AbstractObdCommand... commands) {
+        SupportedPids supported = supportedPids;
+        scheduler = new PollScheduler(commands.length);
+        for (AbstractObdCommand command : commands) {
+            int pid = command.getPid();
+            if (supported != null && pid >= 0 && !supported.isSupported(pid)) {
+                command.applyStatus(ResponseStatus.NO_DATA);
+                continue;
+            }
+            long override = intervalOverrideMs;
+            scheduler.add(command, override >= 0 ? override : PollScheduler.defaultIntervalMs(pid));
+        }
+        Log.d(TAG, "Scheduled " + scheduler.size() + " live PIDs");
+    }
+
+    /**
+     * Polls whatever is most overdue, back-to-back while there is work. When nothing is due it waits
+     * for the next deadline (capped, so mode changes are picked up quickly) and returns 0.
+     *
+     * @return the number of commands polled; they are in dueCommands[0, count)
+     */
+    private int runScheduledStep() throws IOException, InterruptedException {
+        long now = System.nanoTime();
+        boolean batching = batcher.isEnabled();
+        int count = scheduler.collectDue(now, dueCommands, batching ? Mode01Batcher.MAX_PIDS_PER_REQUEST : 1, batching);
+        if (count == 0) {
+            long waitNanos = Math.min(scheduler.nanosUntilNextDue(now), MAX_SCHEDULER_WAIT_NANOS);
+            Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+            return 0;
+        }
+        runCommands(dueCommands, count);
+        for (int i = 0; i < count; i++) {
+            long holdMs = pidHealth.onReply(dueCommands[i].getPid(), dueCommands[i].getStatus());
+            if (holdMs > 0) scheduler.deferCollected(i, holdMs * 1_000_000L);
+        }
+        long polledAt = System.nanoTime();
+        scheduler.completeCollected(polledAt);
+        if (polledAt - lastRateReportNanos > RATE_REPORT_INTERVAL_NANOS) {
+            lastRateReportNanos = polledAt;
+            Log.i(TAG, "Achieved sample rates: " + scheduler.describe() + "; " + pidHealth.describe());
+        }
+        return count;
+    }
+
+    private boolean wasPolled(int pid, int count) {
+        if (pid < 0) return false;
+        for (int i = 0; i < count; i++) {
+            if (dueCommands[i].getPid() == pid) return true;
+        }
+        return false;
+    }
+
+    // Target vs. achieved sample rate per live PID.
+    public String getPollingReport() {
+        PollScheduler current = scheduler;
+        return current != null ? current.describe() : "Not polling";
+    }
+
+    public PidHealth getPidHealth() { return pidHealth; }
+
+    // Sends commands[from, to) as one multi-PID request. Returns false if they need to be polled one by one.
+    private boolean runBatch(AbstractObdCommand[] commands, int from, int to) throws IOException, InterruptedException {
+        int hint = countHints.hintForBatch();
+        int length = batcher.buildRequest(commands, from, to, hint, batchFrame);
+        ResponseStatus status;
+        ReentrantLock wireLock = channel.getWireLock();
+        wireLock.lock(); // Until the reply is parsed
+        try {
+            status = channel.exchange(batchFrame, length, -1);
+            // Replies without the PIDs (NO DATA, ?) still go to the batcher, which stops batching if they keep coming
+            if (!status.isError() && !batcher.parse(channel.getReader(), commands, from, to)) {
+                if (hint > 0) onCountHintFailed();
+                return false;
+            }
+        } finally {
+            wireLock.unlock();
+        }
+        if (status.isError()) {
+            // A bus or adapter fault rather than a batching problem; the PIDs go one by one this time
+            recover(status, 0);
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            batcher.applyTo(commands[i]);
+        }
+        sampleCount += to - from;
+        return true;
     }
 
     // --- The run() method is now JUST the polling loop ---
     @Override
     public void run() {
+        // No values from a previous connection. Done here, since only the polling thread may write the snapshot
+        snapshot.clear();
         try {
-            while (!Thread.currentThread().isInterrupted()) {
-                switch (currentMode) {
-                    case MODE_DASHBOARD: pollDashboardData(); break;
-                    case MODE_FUEL_STATS: pollFuelStatsData(); break;
-                    case MODE_DTC_SCAN:
-                        pollDtcData();
-                        currentMode = MODE_IDLE;
-                        break;
-                    case MODE_DTC_CLEAR:
-                        clearDtcCodes();
-                        pollDtcData();
-                        currentMode = MODE_IDLE;
-                        break;
-                    case MODE_CUSTOM_SCAN:
-                        pollCustomData();
-                        break;
-                    case MODE_IDLE:
-                    default:
-                        Thread.sleep(1000);
-                        break;
+            channel.setWatchdog(true);
+            while (true) {
+                try {
+                    serve();
+                    return; // Interrupted, i.e. cancelled
+                } catch (IOException e) {
+                    if (isInterrupted() || !reconnect(e)) throw e;
                 }
             }
         } catch (IOException | InterruptedException e) {
             Log.e(TAG, "Communication lost.", e);
-            serviceHandler.sendEmptyMessage(MSG_CONNECTION_LOST);
+            publish(MSG_CONNECTION_LOST, null);
+        }
+    }
+
+    private void serve() throws IOException, InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            switch (currentMode) {
+                case MODE_DTC_SCAN:
+                    // One-shot modes go back to idle before running, so a request made meanwhile is not lost
+                    consumeMode(MODE_DTC_SCAN);
+                    oneShotInProgress = MODE_DTC_SCAN;
+                    pollDtcData();
+                    oneShotInProgress = MODE_IDLE;
+                    break;
+                case MODE_DTC_CLEAR:
+                    consumeMode(MODE_DTC_CLEAR);
+                    oneShotInProgress = MODE_DTC_CLEAR;
+                    clearDtcCodes();
+                    pollDtcData();
+                    oneShotInProgress = MODE_IDLE;
+                    break;
+                case MODE_IDLE:
+                default:
+                    if (livePids.length > 0) {
+                        pollLiveData();
+                        break;
+                    }
+                    scheduledPids = null; // Start with fresh deadlines when live polling resumes
+                    synchronized (modeLock) {
+                        if (currentMode == MODE_IDLE && livePids.length == 0) modeLock.wait(1000);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Gets the adapter back after the link failed, retrying with a jittered exponential backoff
+     * for up to RECONNECT_BUDGET_NANOS. The learned pacing and read deadlines carry over to the new channel.
+     *
+     * @return false if there is no reconnector or the adapter did not come back
+     */
+    private boolean reconnect(IOException cause) throws InterruptedException {
+        Reconnector current = reconnector;
+        if (current == null) return false;
+        Log.w(TAG, "Link lost (" + cause.getMessage() + "), reconnecting");
+        closeLink();
+        ReconnectBackoff backoff = new ReconnectBackoff(RECONNECT_BASE_DELAY_MS, RECONNECT_MAX_DELAY_MS);
+        long started = System.nanoTime();
+        while (System.nanoTime() - started < RECONNECT_BUDGET_NANOS) {
+            Thread.sleep(backoff.nextDelayMs());
+            Link next = null;
+            try {
+                next = current.open();
+                link = next.closeable;
+                channel = new ObdChannel(next.in, next.out, channel.getPacer(), channel.getTimeouts());
+                diagnosticSweep = new DiagnosticSweep(channel);
+                diagnosticSweep.setPhysicalHeader(physicalHeader);
+                boolean resumed = resumeSession();
+                channel.setWatchdog(true);
+                scheduledPids = null; // The scheduler was cut off mid-step; start it over with fresh deadlines
+                reconnectCount++;
+                Log.i(TAG, (resumed ? "Resumed" : "Re-initialised") + " after " + backoff.getAttempts()
+                        + " attempt(s), " + (System.nanoTime() - started) / 1_000_000L + " ms");
+                if (oneShotInProgress != MODE_IDLE) {
+                    synchronized (modeLock) {
+                        if (currentMode == MODE_IDLE) currentMode = oneShotInProgress;
+                    }
+                    oneShotInProgress = MODE_IDLE;
+                }
+                return true;
+            } catch (IOException e) {
+                Log.w(TAG, "Reconnect attempt " + backoff.getAttempts() + " failed: " + e.getMessage());
+                closeLink();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Brings a freshly opened link back into service. An adapter that only lost the Bluetooth link
+     * keeps its settings (echo, spaces, protocol, timing), which ATDPN shows: same protocol, no echo.
+     * Then nothing needs to be sent again. Otherwise it was reset and gets the full initialisation.
+     *
+     * @return true if the session was resumed as it was
+     */
+    private boolean resumeSession() throws IOException {
+        String protocol = executeSimpleCommand("ATDPN");
+        if (describedProtocol != null && protocol.equals(describedProtocol)) {
+            // A diagnostic sweep cut short leaves headers on and requests broadcast
+            if (oneShotInProgress != MODE_IDLE) {
+                executeSimpleCommand("ATH0");
+                if (physicalHeader != 0) executeSimpleCommand(String.format(Locale.US, "ATSH%03X", physicalHeader));
+            }
+            return true;
+        }
+        channel.getPacer().onAdapterReset();
+        String response = performSanityCheck(adapterProfile);
+        if (!response.contains("4100")) throw new IOException("Adapter answered 0100 with " + response);
+        return false;
+    }
+
+    private void closeLink() {
+        ObdChannel current = channel;
+        if (current != null) current.close();
+        Closeable closeable = link;
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close link", e);
+        }
+    }
+
+    private void consumeMode(int mode) {
+        synchronized (modeLock) {
+            if (currentMode == mode) currentMode = MODE_IDLE;
         }
     }
 
     // --- THIS IS THE NEW PUBLIC SANITY CHECK METHOD ---
     public String performSanityCheck() throws IOException {
-        executeSimpleCommand("ATE0");
-        executeSimpleCommand("ATSP6");
-        return executeSimpleCommand("0100");
+        return performSanityCheck(null);
     }
 
-    private void pollDashboardData() throws IOException, InterruptedException {
-        SpeedCommand speedCmd = new SpeedCommand();
-        RpmCommand rpmCmd = new RpmCommand();
-        speedCmd.run(inputStream, outputStream);
-        rpmCmd.run(inputStream, outputStream);
-        Bundle bundle = new Bundle();
-        bundle.putInt("speed", speedCmd.getResultValue());
-        bundle.putInt("rpm", rpmCmd.getResultValue());
-        Message msg = serviceHandler.obtainMessage(MSG_UPDATE_DASHBOARD);
-        msg.obj = bundle;
-        serviceHandler.sendMessage(msg);
-        Thread.sleep(500);
-    }
-
-    private void pollFuelStatsData() throws IOException, InterruptedException {
-        SpeedCommand speedCmd = new SpeedCommand();
-        MafCommand mafCmd = new MafCommand();
-        FuelLevelCommand fuelCmd = new FuelLevelCommand();
-        speedCmd.run(inputStream, outputStream);
-        mafCmd.run(inputStream, outputStream);
-        fuelCmd.run(inputStream, outputStream);
-        final double speedKmh = speedCmd.getResultValue();
-        final double mafGramsPerSec = mafCmd.getMaf();
-        Log.d(TAG, "pollFuelStatsData - MAF from getMaf(): " + mafGramsPerSec + " g/s");
-        final int fuelLevelPercent = fuelCmd.getResultValue();
-        final double fuelLitersPerHour = (mafGramsPerSec * 3600) / (FUEL_DENSITY_GRAMS_PER_LITER * AIR_FUEL_RATIO);
-        final double instantaneousLitersPer100km = (speedKmh > 0) ? (fuelLitersPerHour / speedKmh) * 100 : 0.0;
-        consumptionReadings.add(instantaneousLitersPer100km);
-        if (consumptionReadings.size() > SMOOTHING_WINDOW_SIZE) consumptionReadings.poll();
-        double sum = 0;
-        for (double reading : consumptionReadings) sum += reading;
-        final double smoothedLitersPer100km = sum / consumptionReadings.size();
-        Bundle bundle = new Bundle();
-        bundle.putInt("fuelLevel", fuelLevelPercent);
-        bundle.putDouble("smoothedConsumption", smoothedLitersPer100km);
-        bundle.putDouble("idleConsumption", fuelLitersPerHour);
-        bundle.putDouble("speed", speedKmh);
-        Message msg = serviceHandler.obtainMessage(MSG_UPDATE_FUEL_STATS);
-        msg.obj = bundle;
-        serviceHandler.sendMessage(msg);
-        Thread.sleep(1000);
+    /**
+     * Initialises the adapter, in five commands if the profile cached for it still fits, and
+     * returns its reply to 0100. {@link #getAdapterProfile()} then has the profile to save.
+     */
+    public String performSanityCheck(AdapterProfile cached) throws IOException {
+        if (connectStartNanos == 0) connectStartNanos = System.nanoTime();
+        AdapterInitializer initializer = new AdapterInitializer(channel);
+        AdapterProfile profile = initializer.initialize(cached);
+        adapterProfile = profile;
+        describedProtocol = initializer.getDescribedProtocol();
+        if (profile != null) {
+            // Multi-PID requests are only used on CAN protocols
+            batcher.setProtocol(describedProtocol);
+            if (!profile.has(AdapterProfile.MULTI_PID)) batcher.disable();
+            channel.getPacer().setAdaptiveTimingSupported(profile.has(AdapterProfile.ADAPTIVE_TIMING));
+            detectResponders();
+        }
+        return initializer.getFirstResponse();
     }
 
-    private void pollDtcData() throws IOException, InterruptedException {
-        DtcCommand dtcCmd = new DtcCommand();
-        Log.d(TAG, "Polling DTC data: Running DtcCommand...");
-        dtcCmd.run(inputStream, outputStream);
-        Bundle bundle = new Bundle();
-        ArrayList<String> codes = new ArrayList<>(dtcCmd.getFormattedCodes());
-        Log.i(TAG, "Polling DTC Data: Codes from DtcCommand.getFormattedCodes(): " + (codes != null ? codes.toString() : "null")); // SAFER LOG
-        bundle.putStringArrayList("dtcCodes", codes);
-        Message msg = serviceHandler.obtainMessage(MSG_UPDATE_DTC_RESULT);
-        msg.obj = bundle;
-        serviceHandler.sendMessage(msg);
+    // The profile to save for this adapter, with what polling has learned since; null if initialisation failed
+    public AdapterProfile getAdapterProfile() {
+        AdapterProfile profile = adapterProfile;
+        return profile != null ? profile.with(AdapterProfile.MULTI_PID, batcher.isEnabled()) : null;
     }
 
-    private void pollCustomData() throws IOException, InterruptedException {
-        if (customScanPids == null || customScanPids.isEmpty()) {
-            setMode(MODE_IDLE);
-            return;
-        }
-        HashMap<String, String> results = new HashMap<>();
-        for (PID pid : customScanPids) {
-            AbstractObdCommand command = null;
-            // This "factory" creates the correct command object based on the PID's command string.
-            switch (pid.getCommand()) {
-                case "010C": command = new RpmCommand(); break;
-                case "010D": command = new SpeedCommand(); break;
-                case "0105": command = new CoolantCommand(); break;
-                case "012F": command = new FuelLevelCommand(); break;
-                case "0110": command = new MafCommand(); break;
-                // Add more "case" statements here for other PIDs you support.
-            }
+    // Counts time to first sample from here instead of from the sanity check, e.g. from opening the socket
+    public void setConnectStartNanos(long nanos) { this.connectStartNanos = nanos; }
 
-            if (command != null) {
-                command.run(inputStream, outputStream);
-                // We put the PID's command string and its final formatted result in the map.
-                results.put(pid.getCommand(), command.getFormattedResult());
-            } else {
-                // If the command is not supported by a specific class, get the raw value.
-                String rawResponse = executeSimpleCommand(pid.getCommand());
-                results.put(pid.getCommand(), "Raw: " + rawResponse);
+    // From connecting to the first live value, -1 until one arrived
+    public long getTimeToFirstSampleMs() {
+        long first = firstSampleNanos;
+        return first == 0 ? -1 : (first - connectStartNanos) / 1_000_000L;
+    }
+
+    // Polls whatever live PIDs are due, publishes their values to the snapshot and builds the
+    // per-PID text results if anyone wants them.
+    private void pollLiveData() throws IOException, InterruptedException {
+        int[] pids = livePids;
+        if (pids != scheduledPids) {
+            scheduledPids = pids;
+            liveCommands = new AbstractObdCommand[pids.length];
+            for (int i = 0; i < pids.length; i++) {
+                liveCommands[i] = commandFor(pids[i]);
             }
+            schedule(liveCommands);
+        }
+        int count = runScheduledStep();
+        if (count == 0) return;
+        if (firstSampleNanos == 0) {
+            firstSampleNanos = System.nanoTime();
+            Log.i(TAG, "Time to first sample: " + getTimeToFirstSampleMs() + " ms");
         }
 
+        publishSnapshot(count);
+        if (listener.wants(MSG_UPDATE_PID_RESULT)) {
+            publishPidResults();
+        }
+    }
+
+    // The dashboard and fuel stats read the dedicated commands; other catalog PIDs are decoded from their table entry.
+    private AbstractObdCommand commandFor(int pid) {
+        switch (pid) {
+            case 0x0C: return rpmCmd;
+            case 0x0D: return speedCmd;
+            case 0x10: return mafCmd;
+            case 0x2F: return fuelLevelCmd;
+            default: return PidDecoders.createCommand(String.format(Locale.US, "01%02X", pid));
+        }
+    }
+
+    // Writes the values just polled as one frame, and to the trip if one is recorded. Allocation-free.
+    private void publishSnapshot(int count) {
+        long now = System.nanoTime();
+        LiveSnapshot target = snapshot;
+        TripRecorder recorder = tripRecorder;
+        target.beginWrite();
+        for (int i = 0; i < count; i++) {
+            AbstractObdCommand command = dueCommands[i];
+            int pid = command.getPid();
+            if (pid < 0) continue;
+            double value = command.getNumericValue();
+            target.put(pid, value);
+            if (recorder != null) recorder.record(pid, now, value, command.getData(), command.getDataLength());
+        }
+        FuelRateSource source = fuelRateSource;
+        if (wasPolled(source.getTriggerPid(), count)) {
+            fuelStats.update(now, source.litersPerHour(target, fuelType), target.getLatest(0x0D));
+            fuelStats.writeTo(target);
+        }
+        target.endWrite(now);
+    }
+
+    // Reads stored, pending and permanent codes and the freeze frame in one sweep and publishes the report
+    private void pollDtcData() throws IOException, InterruptedException {
+        DiagnosticReport report = diagnosticSweep.run(describedProtocol);
+        sampleCount += report.getRequestCount();
         Bundle bundle = new Bundle();
-        bundle.putSerializable("customResults", results);
-        Message msg = serviceHandler.obtainMessage(MSG_UPDATE_PID_RESULT);
-        msg.obj = bundle;
-        serviceHandler.sendMessage(msg);
+        bundle.putStringArrayList("dtcCodes", report.getStoredCodes());
+        bundle.putStringArrayList("pendingCodes", report.getPendingCodes());
+        bundle.putStringArrayList("permanentCodes", report.getPermanentCodes());
+        bundle.putBoolean("permanentSupported", report.isPermanentSupported());
+        bundle.putString("freezeFrameCode", report.getFreezeFrameCode());
+        bundle.putSerializable("freezeFrame", report.getFreezeFrame());
+        bundle.putLong("sweepMillis", report.getDurationMillis());
+        if (report.getError() != null) bundle.putString("sweepError", report.getError().name());
+        publish(MSG_UPDATE_DTC_RESULT, bundle);
+    }
+
+    private void publishPidResults() {
+        Bundle bundle = new Bundle();
+        bundle.putSerializable("customResults", getPidResults());
+        bundle.putStringArrayList("quarantinedPids", pidHealth.quarantinedOf(scheduledPids));
+        publish(MSG_UPDATE_PID_RESULT, bundle);
+    }
 
-        Thread.sleep(1000);
+    /**
+     * The formatted value of every live PID polled so far, keyed by its command ("010D"). Reads the
+     * polling thread's commands, so call it from that thread, e.g. in a listener callback.
+     */
+    public HashMap<String, String> getPidResults() {
+        HashMap<String, String> results = new HashMap<>();
+        AbstractObdCommand[] commands = liveCommands;
+        if (commands == null) return results;
+        for (AbstractObdCommand command : commands) {
+            if (!command.hasResponse()) continue; // Not polled yet
+            results.put(command.getCommand(), command.getFormattedResult());
+        }
+        return results;
+    }
+
+    // Hands a result to the listener. Callbacks run on this thread, so one that throws is logged and
+    // dropped rather than ending the polling loop without a word.
+    private void publish(int what, Object result) {
+        try {
+            listener.onResult(what, result);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Listener failed on message " + what, e);
+        }
     }
 
     private void clearDtcCodes() throws IOException, InterruptedException {
         Log.d(TAG, "Executing Clear DTC command (04)...");
-        outputStream.write("04\r".getBytes());
-        outputStream.flush();
-        Thread.sleep(1000);
+        // Read the reply too, otherwise it would be taken as the response to the following scan
+        executeSimpleCommand("04");
     }
 
     public void cancel() {
-        try {
-            interrupt();
-            if (socket != null) socket.close();
-        } catch (IOException e) { Log.e(TAG, "Could not close socket", e); }
+        interrupt();
+        closeLink();
     }
 }
\ No newline at end of file
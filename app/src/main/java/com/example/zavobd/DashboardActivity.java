@@ -7,10 +7,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
+import android.view.Choreographer;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -28,23 +26,30 @@ public class DashboardActivity extends AppCompatActivity {
     // Service-related variables
     private ObdService obdService;
     private boolean isServiceBound = false;
+    private LiveDataBus.Subscription subscription;
 
-    // --- The Handler for receiving messages from the ObdService ---
-    private final Handler uiHandler = new Handler(Looper.getMainLooper()) {
+    // --- Receives results from the ObdService, on the main thread ---
+    private final CommunicationThread.Listener liveDataListener = (what, result) -> {
+        if (what == CommunicationThread.MSG_CONNECTION_LOST) {
+            // This case is triggered if the connection drops during use
+            showErrorDialog("Connection Lost", "Communication with the device has been lost.");
+        }
+    };
+
+    // --- Live values are pulled once per display frame, so stale ones never pile up ---
+    private LiveSnapshot snapshot;
+    private final LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+    private boolean rendering = false;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case CommunicationThread.MSG_UPDATE_DASHBOARD:
-                    // This case is triggered when new data arrives
-                    Bundle bundle = (Bundle) msg.obj;
-                    speedView.speedTo(bundle.getInt("speed"));
-                    rpmGauge.speedTo(bundle.getInt("rpm") / 1000f);
-                    break;
-                case CommunicationThread.MSG_CONNECTION_LOST:
-                    // This case is triggered if the connection drops during use
-                    showErrorDialog("Connection Lost", "Communication with the device has been lost.");
-                    break;
+        public void doFrame(long frameTimeNanos) {
+            if (!rendering) return;
+            if (snapshot.readInto(frame)) {
+                // Only redraw when a newer poll has arrived
+                if (frame.has(0x0D)) speedView.speedTo((float) frame.get(0x0D));
+                if (frame.has(0x0C)) rpmGauge.speedTo((float) (frame.get(0x0C) / 1000));
             }
+            Choreographer.getInstance().postFrameCallback(this);
         }
     };
 
@@ -56,10 +61,11 @@ public class DashboardActivity extends AppCompatActivity {
             obdService = binder.getService();
             isServiceBound = true;
 
-            // Now that we are bound, register this activity's handler with the service
-            obdService.registerClient(uiHandler);
-            // And tell the service to start sending us dashboard data
-            obdService.setCommunicationMode(CommunicationThread.MODE_DASHBOARD);
+            // Now that we are bound, have RPM and speed polled and start drawing them
+            subscription = obdService.subscribe(new int[] {0x0C, 0x0D}, new int[0], getMainExecutor(), liveDataListener);
+            snapshot = obdService.getLiveSnapshot();
+            rendering = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
             tvConnectionStatus.setText("Status: Live Data");
         }
 
@@ -92,12 +98,13 @@ public class DashboardActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         // When the activity is no longer visible, unbind from the service
+        rendering = false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
         if (isServiceBound) {
             if (obdService != null) {
-                // Tell the service to stop sending data for this dashboard
-                obdService.setCommunicationMode(CommunicationThread.MODE_IDLE);
-                // Unregister this activity's handler
-                obdService.unregisterClient();
+                // Stop receiving data; the PIDs stop being polled unless someone else needs them
+                obdService.unsubscribe(subscription);
+                subscription = null;
             }
             unbindService(serviceConnection);
             isServiceBound = false;
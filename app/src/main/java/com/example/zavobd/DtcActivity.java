@@ -7,18 +7,19 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
 import android.util.Log;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
+
+import com.example.zavobd.dtc.DtcDescriptions;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class DtcActivity extends AppCompatActivity {
     private TextView tvStatus;
@@ -30,38 +31,61 @@ public class DtcActivity extends AppCompatActivity {
 
     private ObdService obdService;
     private boolean isServiceBound = false;
+    private LiveDataBus.Subscription subscription;
 
-    private final Handler uiHandler = new Handler(Looper.getMainLooper()) {
-        @Override
-        public void handleMessage(Message msg) {
-            if (msg.what == CommunicationThread.MSG_UPDATE_DTC_RESULT) {
-                Log.d("DtcActivity", "uiHandler received MSG_UPDATE_DTC_RESULT");
-                // When we receive the results, update the UI
-                tvStatus.setText("Scan complete.");
-                Bundle bundle = (Bundle) msg.obj;
-                List<String> codes = bundle.getStringArrayList("dtcCodes");
-                Log.i("DtcActivity", "Received DTC codes in Activity: " + (codes != null ? codes.toString() : "null list"));
-                dtcList.clear();
-                if (codes == null || codes.isEmpty()) {
-                    Log.d("DtcActivity", "No DTC codes to display or list was empty/null.");
-                    tvStatus.append(" No trouble codes found.");
-                } else {
-                    tvStatus.append(" " + codes.size() + " code(s) found:");
-                    dtcList.addAll(codes);
-                    Log.d("DtcActivity", "Displaying codes: " + dtcList.toString());
+    private final CommunicationThread.Listener dtcListener = (what, result) -> {
+        if (what == CommunicationThread.MSG_UPDATE_DTC_RESULT) {
+            Log.d("DtcActivity", "dtcListener received MSG_UPDATE_DTC_RESULT");
+            // When we receive the report, update the UI
+            Bundle bundle = (Bundle) result;
+            tvStatus.setText("Scan complete in " + bundle.getLong("sweepMillis") + " ms.");
+            dtcList.clear();
+            DtcDescriptions descriptions = DtcDescriptions.get(this);
+            addCodes(descriptions, bundle.getStringArrayList("dtcCodes"), "");
+            addCodes(descriptions, bundle.getStringArrayList("pendingCodes"), " (pending)");
+            addCodes(descriptions, bundle.getStringArrayList("permanentCodes"), " (permanent)");
+            String sweepError = bundle.getString("sweepError");
+            if (sweepError != null) {
+                // Some mode went unanswered, so an empty list does not mean there are no codes
+                tvStatus.append(" Incomplete, the adapter reported " + sweepError + ".");
+            }
+            if (dtcList.isEmpty()) {
+                if (sweepError == null) tvStatus.append(" No trouble codes found.");
+            } else {
+                tvStatus.append(" " + dtcList.size() + " code(s) found:");
+            }
+            String freezeFrameCode = bundle.getString("freezeFrameCode");
+            @SuppressWarnings("unchecked")
+            Map<String, String> freezeFrame = (Map<String, String>) bundle.getSerializable("freezeFrame");
+            if (freezeFrameCode != null && freezeFrame != null) {
+                dtcList.add("Freeze frame of " + freezeFrameCode + ":");
+                for (Map.Entry<String, String> entry : freezeFrame.entrySet()) {
+                    dtcList.add("    " + entry.getKey() + ": " + entry.getValue());
                 }
-                dtcListAdapter.notifyDataSetChanged();
             }
+            Log.d("DtcActivity", "Displaying: " + dtcList.toString());
+            dtcListAdapter.notifyDataSetChanged();
         }
     };
 
+    // One row per code, with its description where one is known
+    private void addCodes(DtcDescriptions descriptions, List<String> codes, String kind) {
+        if (codes == null) return;
+        for (String code : codes) {
+            String description = descriptions.describe(code);
+            dtcList.add(code + kind + (description != null ? " - " + description : ""));
+        }
+    }
+
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName className, IBinder service) {
             ObdService.ObdServiceBinder binder = (ObdService.ObdServiceBinder) service;
             obdService = binder.getService();
             isServiceBound = true;
-            obdService.registerClient(uiHandler);
+            // No live PIDs, just the scan results
+            subscription = obdService.subscribe(new int[0],
+                    new int[] {CommunicationThread.MSG_UPDATE_DTC_RESULT}, getMainExecutor(), dtcListener);
             // After connecting, immediately trigger the refresh button's logic
             btnRefreshScan.performClick();
         }
@@ -131,8 +155,10 @@ public class DtcActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         if (isServiceBound) {
+            // Drops a scan that has not started yet
             obdService.setCommunicationMode(CommunicationThread.MODE_IDLE);
-            obdService.unregisterClient();
+            obdService.unsubscribe(subscription);
+            subscription = null;
             unbindService(serviceConnection);
             isServiceBound = false;
         }
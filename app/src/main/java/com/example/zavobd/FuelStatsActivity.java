@@ -7,40 +7,41 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
+import android.view.Choreographer;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import java.util.Locale;
 
 public class FuelStatsActivity extends AppCompatActivity {
 
-    private TextView tvCurrentConsumption, tvIdleConsumption, tvFuelLevel;
+    private TextView tvCurrentConsumption, tvIdleConsumption, tvTripConsumption, tvFuelLevel;
     private ProgressBar fuelLevelProgress;
 
     private ObdService obdService;
     private boolean isServiceBound = false;
+    private LiveDataBus.Subscription subscription;
 
-    private final Handler uiHandler = new Handler(Looper.getMainLooper()) {
+    private final CommunicationThread.Listener liveDataListener = (what, result) -> {
+        // --- THIS IS THE FIX ---
+        if (what == CommunicationThread.MSG_CONNECTION_LOST) {
+            showErrorDialog("Connection Lost", "Communication with the device has been lost.");
+        }
+    };
+
+    // Live values are pulled once per display frame from the service's snapshot
+    private LiveSnapshot snapshot;
+    private final LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+    private boolean rendering = false;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case CommunicationThread.MSG_UPDATE_FUEL_STATS:
-                    Bundle bundle = (Bundle) msg.obj;
-                    updateFuelUi(
-                            bundle.getInt("fuelLevel"),
-                            bundle.getDouble("smoothedConsumption"),
-                            bundle.getDouble("idleConsumption"),
-                            bundle.getDouble("speed")
-                    );
-                    break;
-                // --- THIS IS THE FIX ---
-                case CommunicationThread.MSG_CONNECTION_LOST:
-                    showErrorDialog("Connection Lost", "Communication with the device has been lost.");
-                    break;
+        public void doFrame(long frameTimeNanos) {
+            if (!rendering) return;
+            // Fuel figures are only there once the fuel rate source has been polled
+            if (snapshot.readInto(frame) && frame.has(LiveSnapshot.SLOT_FUEL_RATE_LPH)) {
+                updateFuelUi(frame);
             }
+            Choreographer.getInstance().postFrameCallback(this);
         }
     };
 
@@ -50,8 +51,11 @@ public class FuelStatsActivity extends AppCompatActivity {
             ObdService.ObdServiceBinder binder = (ObdService.ObdServiceBinder) service;
             obdService = binder.getService();
             isServiceBound = true;
-            obdService.registerClient(uiHandler);
-            obdService.setCommunicationMode(CommunicationThread.MODE_FUEL_STATS);
+            // The vehicle's fuel rate source, speed and fuel level (which is polled on a slow tier)
+            subscription = obdService.subscribe(obdService.getFuelStatsPids(), new int[0], getMainExecutor(), liveDataListener);
+            snapshot = obdService.getLiveSnapshot();
+            rendering = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
         }
         @Override
         public void onServiceDisconnected(ComponentName arg0) { isServiceBound = false; }
@@ -81,6 +85,7 @@ public class FuelStatsActivity extends AppCompatActivity {
         setContentView(R.layout.activity_fuel_stats);
         tvCurrentConsumption = findViewById(R.id.tv_current_consumption);
         tvIdleConsumption = findViewById(R.id.tv_idle_consumption);
+        tvTripConsumption = findViewById(R.id.tv_trip_consumption);
         tvFuelLevel = findViewById(R.id.tv_fuel_level);
         fuelLevelProgress = findViewById(R.id.fuel_level_progress);
     }
@@ -93,23 +98,32 @@ public class FuelStatsActivity extends AppCompatActivity {
     @Override
     protected void onStop() {
         super.onStop();
+        rendering = false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
         if (isServiceBound) {
             if (obdService != null) {
-                obdService.setCommunicationMode(CommunicationThread.MODE_IDLE);
-                obdService.unregisterClient();
+                obdService.unsubscribe(subscription);
+                subscription = null;
             }
             unbindService(serviceConnection);
             isServiceBound = false;
         }
     }
-    private void updateFuelUi(int fuelLevelPercent, double smoothedLitersPer100km, double fuelLitersPerHour, double speedKmh) {
+    // L/100km is NaN while standing still or before enough distance was covered
+    private void updateFuelUi(LiveSnapshot.Frame frame) {
+        int fuelLevelPercent = frame.has(0x2F) ? (int) frame.get(0x2F) : 0;
         tvFuelLevel.setText(String.format(Locale.US, "Fuel Level: %d%%", fuelLevelPercent));
         fuelLevelProgress.setProgress(fuelLevelPercent);
-        if (speedKmh > 0) {
-            tvCurrentConsumption.setText(String.format(Locale.US, "%.1f L/100km", smoothedLitersPer100km));
-        } else {
-            tvCurrentConsumption.setText("-- L/100km");
-        }
-        tvIdleConsumption.setText(String.format(Locale.US, "%.1f L/h", fuelLitersPerHour));
+        tvCurrentConsumption.setText(formatPer100km(frame.get(LiveSnapshot.SLOT_CONSUMPTION_L100KM)));
+        double litersPerHour = frame.has(LiveSnapshot.SLOT_FUEL_RATE_EWMA_LPH)
+                ? frame.get(LiveSnapshot.SLOT_FUEL_RATE_EWMA_LPH) : frame.get(LiveSnapshot.SLOT_FUEL_RATE_LPH);
+        tvIdleConsumption.setText(String.format(Locale.US, "%.1f L/h", litersPerHour));
+        tvTripConsumption.setText(String.format(Locale.US, "%s  (%.2f L over %.1f km)",
+                formatPer100km(frame.get(LiveSnapshot.SLOT_TRIP_CONSUMPTION_L100KM)),
+                frame.get(LiveSnapshot.SLOT_TRIP_FUEL_L), frame.get(LiveSnapshot.SLOT_TRIP_DISTANCE_KM)));
+    }
+
+    private static String formatPer100km(double litersPer100km) {
+        return Double.isNaN(litersPer100km) ? "-- L/100km" : String.format(Locale.US, "%.1f L/100km", litersPer100km);
     }
 }
\ No newline at end of file
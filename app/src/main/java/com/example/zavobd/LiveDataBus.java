@@ -0,0 +1,159 @@
+package com.example.zavobd;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans the results of the polling thread out to any number of subscribers (screens, loggers,
+ * notifications, ...).
+ *
+ * Each subscriber declares the PIDs it needs, the MSG_* codes it handles, and the executor its
+ * callbacks run on. The polling thread polls the union of all subscribers' PIDs and skips building
+ * results nobody wants. Subscribers live in a copy-on-write list, so publishing never takes a
+ * lock: it only hands each interested subscriber's callback to its executor.
+ */
+public class LiveDataBus implements CommunicationThread.Listener {
+
+    private static final String TAG = "LiveDataBus";
+
+    public static final class Subscription {
+        private final int[] pids;
+        private final long messageMask;
+        private final Executor executor;
+        private final CommunicationThread.Listener listener;
+
+        private Subscription(int[] pids, long messageMask, Executor executor, CommunicationThread.Listener listener) {
+            this.pids = pids;
+            this.messageMask = messageMask;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        private boolean wants(int what) {
+            // Losing the connection concerns everyone
+            return what == CommunicationThread.MSG_CONNECTION_LOST || (messageMask & maskOf(what)) != 0;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile int[] polledPids = new int[0];
+    private volatile int[] scanOnlyPids = new int[0];
+    private volatile long messageMask = 0;
+    private volatile Runnable onPidsChanged = null;
+
+    /**
+     * Adds a subscriber.
+     *
+     * @param pids     mode 01 PIDs the subscriber needs polled, may be empty
+     * @param messages MSG_* codes it wants; MSG_CONNECTION_LOST is always delivered
+     * @param executor where callbacks run, e.g. the main thread's executor for screens
+     * @return the handle to pass to {@link #unsubscribe}
+     */
+    public Subscription subscribe(int[] pids, int[] messages, Executor executor, CommunicationThread.Listener listener) {
+        long mask = 0;
+        for (int what : messages) mask |= maskOf(what);
+        Subscription subscription = new Subscription(pids.clone(), mask, executor, listener);
+        subscriptions.add(subscription);
+        recompute();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription != null && subscriptions.remove(subscription)) {
+            recompute();
+        }
+    }
+
+    // Called whenever the union of subscribed PIDs, or which of them only custom scans need, changes
+    public void setOnPidsChangedListener(Runnable listener) {
+        this.onPidsChanged = listener;
+    }
+
+    // The union of all subscribers' PIDs, sorted. The array is replaced, never modified.
+    public int[] getPolledPids() {
+        return polledPids;
+    }
+
+    /**
+     * The polled PIDs that only subscribers to MSG_UPDATE_PID_RESULT (custom scans) ask for, sorted.
+     * PIDs the dashboard or the fuel figures need as well are not among them.
+     */
+    public int[] getScanOnlyPids() {
+        return scanOnlyPids;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public boolean wants(int what) {
+        return what == CommunicationThread.MSG_CONNECTION_LOST || (messageMask & maskOf(what)) != 0;
+    }
+
+    @Override
+    public void onResult(int what, Object result) {
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.wants(what)) continue;
+            try {
+                subscription.executor.execute(() -> subscription.listener.onResult(what, result));
+            } catch (RuntimeException e) {
+                // A direct executor runs the callback right here; its failure must not cost the others their result
+                Log.e(TAG, "Subscriber failed on message " + what, e);
+            }
+        }
+    }
+
+    private void recompute() {
+        // The listener runs outside the lock: it hands the PIDs to the polling thread, which may itself
+        // be waiting to subscribe or unsubscribe
+        if (updatePids()) {
+            Runnable listener = onPidsChanged;
+            if (listener != null) listener.run();
+        }
+    }
+
+    // Recomputes the PID sets and the message mask; true if a PID set changed
+    private synchronized boolean updatePids() {
+        boolean[] wanted = new boolean[256];
+        boolean[] scanned = new boolean[256];
+        boolean[] needed = new boolean[256]; // By a subscriber that is not a custom scan
+        long mask = 0;
+        for (Subscription subscription : subscriptions) {
+            mask |= subscription.messageMask;
+            boolean scan = (subscription.messageMask & maskOf(CommunicationThread.MSG_UPDATE_PID_RESULT)) != 0;
+            for (int pid : subscription.pids) {
+                if (pid < 0 || pid >= 256) continue;
+                wanted[pid] = true;
+                if (scan) scanned[pid] = true; else needed[pid] = true;
+            }
+        }
+        int[] union = collect(wanted, null);
+        int[] scanOnly = collect(scanned, needed);
+        messageMask = mask;
+        if (Arrays.equals(union, polledPids) && Arrays.equals(scanOnly, scanOnlyPids)) return false;
+        polledPids = union;
+        scanOnlyPids = scanOnly;
+        return true;
+    }
+
+    // The PIDs set in include and not in exclude (if given), sorted
+    private static int[] collect(boolean[] include, boolean[] exclude) {
+        int count = 0;
+        for (int pid = 0; pid < include.length; pid++) {
+            if (include[pid] && (exclude == null || !exclude[pid])) count++;
+        }
+        int[] pids = new int[count];
+        for (int pid = 0, i = 0; pid < include.length; pid++) {
+            if (include[pid] && (exclude == null || !exclude[pid])) pids[i++] = pid;
+        }
+        return pids;
+    }
+
+    private static long maskOf(int what) {
+        return what >= 0 && what < 64 ? 1L << what : 0;
+    }
+}
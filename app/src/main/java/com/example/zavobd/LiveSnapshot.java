@@ -0,0 +1,133 @@
+package com.example.zavobd;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latest value of every live PID plus the derived fuel figures, as one conflated frame.
+ *
+ * The polling thread overwrites slots in place after each poll; screens copy the newest frame
+ * once per display frame. Nothing is queued, so a stalled screen simply skips to the newest
+ * values, and nothing is allocated per sample on either side.
+ *
+ * Publishing is a seqlock: the writer makes the sequence odd, updates the slots and makes it even
+ * again. A reader copies the slots between two reads of the sequence and retries if it changed,
+ * so a copied frame never mixes two polls. Slots are AtomicLongArray elements (double bits), which
+ * gives the ordering a seqlock needs without any lock.
+ */
+public final class LiveSnapshot {
+
+    // Slots 0-255 hold mode 01 PIDs by number, in their unit (e.g. 0x0C -> RPM)
+    public static final int PID_SLOTS = 256;
+    // Derived fuel figures, computed by the polling thread's FuelStats; NaN while unknown
+    public static final int SLOT_FUEL_RATE_LPH = PID_SLOTS; // Instantaneous
+    public static final int SLOT_CONSUMPTION_L100KM = PID_SLOTS + 1; // Over the last FuelStats.WINDOW_SIZE polls
+    public static final int SLOT_CONSUMPTION_INSTANT_L100KM = PID_SLOTS + 2;
+    public static final int SLOT_FUEL_RATE_WINDOW_LPH = PID_SLOTS + 3;
+    public static final int SLOT_FUEL_RATE_EWMA_LPH = PID_SLOTS + 4;
+    public static final int SLOT_CONSUMPTION_EWMA_L100KM = PID_SLOTS + 5;
+    public static final int SLOT_TRIP_FUEL_L = PID_SLOTS + 6;
+    public static final int SLOT_TRIP_DISTANCE_KM = PID_SLOTS + 7;
+    public static final int SLOT_TRIP_FUEL_RATE_LPH = PID_SLOTS + 8;
+    public static final int SLOT_TRIP_CONSUMPTION_L100KM = PID_SLOTS + 9;
+    public static final int SLOT_COUNT = PID_SLOTS + 10;
+
+    private static final long NO_VALUE = Double.doubleToRawLongBits(Double.NaN);
+
+    private final AtomicLongArray slots = new AtomicLongArray(SLOT_COUNT);
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long timestampNanos = 0;
+
+    public LiveSnapshot() {
+        for (int i = 0; i < SLOT_COUNT; i++) slots.set(i, NO_VALUE);
+    }
+
+    // --- Writer side, the polling thread only ---
+
+    public void beginWrite() {
+        sequence.incrementAndGet(); // Odd: readers retry
+    }
+
+    // NaN means "no value", e.g. the PID answered NO DATA
+    public void put(int slot, double value) {
+        slots.set(slot, Double.doubleToRawLongBits(value));
+    }
+
+    // The value last put in a slot, for values derived from other slots while writing
+    public double getLatest(int slot) {
+        return Double.longBitsToDouble(slots.get(slot));
+    }
+
+    public void endWrite(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+        sequence.incrementAndGet(); // Even again: the frame is consistent
+    }
+
+    // Forgets all values, e.g. when the connection is replaced. A write like any other, so only from the writer's thread
+    public void clear() {
+        beginWrite();
+        for (int i = 0; i < SLOT_COUNT; i++) slots.set(i, NO_VALUE);
+        endWrite(System.nanoTime());
+    }
+
+    // --- Reader side, any thread ---
+
+    // Increases with every published frame
+    public long getSequence() {
+        return sequence.get() & ~1L;
+    }
+
+    /**
+     * Copies the newest frame into {@code frame} if it is newer than what the frame holds.
+     *
+     * @return true if the frame was updated
+     */
+    public boolean readInto(Frame frame) {
+        while (true) {
+            long before = sequence.get();
+            if (before == frame.sequence) return false;
+            if ((before & 1) != 0) {
+                Thread.yield(); // A write is in progress; it is a few dozen stores at most
+                continue;
+            }
+            long timestamp = timestampNanos;
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                frame.values[i] = Double.longBitsToDouble(slots.get(i));
+            }
+            if (sequence.get() == before) {
+                frame.sequence = before;
+                frame.timestampNanos = timestamp;
+                return true;
+            }
+        }
+    }
+
+    // A reader's private copy, allocated once and refilled by readInto()
+    public static final class Frame {
+        private final double[] values = new double[SLOT_COUNT];
+        private long sequence = 0;
+        private long timestampNanos = 0;
+
+        public Frame() {
+            Arrays.fill(values, Double.NaN);
+        }
+
+        public double get(int slot) {
+            return values[slot];
+        }
+
+        public boolean has(int slot) {
+            return !Double.isNaN(values[slot]);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        // System.nanoTime() of the poll that produced this frame
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+    }
+}
@@ -11,17 +11,25 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager; // Added import
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import com.example.zavobd.PID;
+import com.example.zavobd.fuel.FuelRateSource;
+import com.example.zavobd.fuel.FuelType;
+import com.example.zavobd.obd.AdapterCapture;
+import com.example.zavobd.obd.SupportedPids;
+import com.example.zavobd.trip.TripRecorder;
 
 public class ObdService extends Service {
     private static final String TAG = "ObdService";
@@ -32,11 +40,23 @@ public class ObdService extends Service {
     public static final String ACTION_CONNECT = "com.example.zavobd.ACTION_CONNECT";
     public static final String ACTION_DISCONNECT = "com.example.zavobd.ACTION_DISCONNECT";
     public static final String EXTRA_DEVICE_ADDRESS = "EXTRA_DEVICE_ADDRESS";
+    // Developer option on ACTION_CONNECT: capture the raw adapter traffic to files/captures for AdapterReplay
+    public static final String EXTRA_CAPTURE = "EXTRA_CAPTURE";
 
-    private BluetoothSocket socket;
+    private volatile BluetoothSocket socket;
     private CommunicationThread communicationThread;
     private final IBinder binder = new ObdServiceBinder();
-    private Handler activityHandler = null;
+    // Outlives connections, so screens can subscribe before the adapter is connected
+    private final LiveDataBus liveDataBus = new LiveDataBus();
+    private final LiveSnapshot liveSnapshot = new LiveSnapshot();
+    private TripRecorder tripRecorder;
+    private volatile AdapterCapture adapterCapture;
+    // MAC address of the adapter connected to, for saving its profile on disconnect
+    private String adapterAddress;
+    // Identifies the connected vehicle in the SupportedPidStore, for saving what was learned about it
+    private String vehicleKey;
+    // Chosen per vehicle once its supported PIDs are known
+    private volatile FuelRateSource fuelRateSource = FuelRateSource.MAF;
 
     public class ObdServiceBinder extends Binder {
         public ObdService getService() {
@@ -53,8 +73,9 @@ public class ObdService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null && ACTION_CONNECT.equals(intent.getAction())) {
             final String deviceAddress = intent.getStringExtra(EXTRA_DEVICE_ADDRESS);
+            final boolean capture = intent.getBooleanExtra(EXTRA_CAPTURE, false);
             if (deviceAddress != null) {
-                new Thread(() -> connectToDevice(deviceAddress)).start();
+                new Thread(() -> connectToDevice(deviceAddress, capture)).start();
             }
         } else if (intent != null && ACTION_DISCONNECT.equals(intent.getAction())) {
             stopService();
@@ -62,14 +83,11 @@ public class ObdService extends Service {
         return START_NOT_STICKY;
     }
 
-    private void connectToDevice(String macAddress) {
+    private void connectToDevice(String macAddress, boolean capture) {
         try {
             if (socket != null && socket.isConnected()) socket.close();
             if (communicationThread != null && communicationThread.isAlive()) communicationThread.cancel();
 
-            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
-            UUID sppUuid = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
                 // TODO: Consider calling
                 //    ActivityCompat#requestPermissions
@@ -80,29 +98,45 @@ public class ObdService extends Service {
                 // for ActivityCompat#requestPermissions for more details.
                 return;
             }
-            socket = device.createRfcommSocketToServiceRecord(sppUuid);
-
-            Log.d(TAG, "Attempting to connect socket...");
-            socket.connect();
+            if (adapterCapture != null) {
+                adapterCapture.close();
+                adapterCapture = null;
+            }
+            if (capture) {
+                File file = new File(new File(getFilesDir(), "captures"), "capture-" + System.currentTimeMillis() + ".elm");
+                adapterCapture = AdapterCapture.create(file);
+                Log.d(TAG, "Capturing adapter traffic to " + file);
+            }
+            long connectStart = System.nanoTime();
+            CommunicationThread.Link link = openLink(macAddress);
             Log.d(TAG, "Socket connected. Performing sanity check...");
 
-            Handler serviceHandler = new Handler(Looper.getMainLooper()) {
-                @Override
-                public void handleMessage(Message msg) {
-                    if (activityHandler != null) {
-                        activityHandler.sendMessage(Message.obtain(msg));
-                    }
-                }
-            };
+            final CommunicationThread thread = new CommunicationThread(socket, link.in, link.out, liveDataBus);
+            communicationThread = thread;
+            adapterAddress = macAddress;
+            thread.setConnectStartNanos(connectStart);
+            // Dropouts are reconnected by the thread itself; the UI only hears of them if that fails
+            thread.setReconnector(() -> openLink(macAddress));
+            thread.setSnapshot(liveSnapshot); // Cleared by the thread when it starts
+            // Poll whatever the current subscribers need, and follow them as they come and go
+            liveDataBus.setOnPidsChangedListener(() -> {
+                thread.setScanOnlyPids(liveDataBus.getScanOnlyPids());
+                thread.setLivePids(liveDataBus.getPolledPids());
+            });
+            thread.setScanOnlyPids(liveDataBus.getScanOnlyPids());
+            thread.setLivePids(liveDataBus.getPolledPids());
 
-            communicationThread = new CommunicationThread(socket, serviceHandler);
-
-            // The service now performs the sanity check using the thread
-            String initialResponse = communicationThread.performSanityCheck();
+            // The service now performs the sanity check using the thread, starting from the adapter's saved profile
+            AdapterProfileStore profiles = new AdapterProfileStore(this);
+            String initialResponse = communicationThread.performSanityCheck(profiles.load(macAddress));
 
             if (initialResponse.contains("4100")) {
-                Log.d(TAG, "Sanity check PASSED. Broadcasting success.");
+                profiles.save(macAddress, communicationThread.getAdapterProfile());
+                Log.d(TAG, "Sanity check PASSED. Loading supported PIDs...");
+                loadSupportedPids(macAddress);
+                Log.d(TAG, "Broadcasting success.");
                 LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(ACTION_CONNECTION_SUCCESS)); // MODIFIED
+                startTripRecording();
                 // If successful, we now start the thread's main polling loop
                 communicationThread.start();
             } else {
@@ -134,6 +168,81 @@ public class ObdService extends Service {
 
     }
 
+    // Connects to the adapter's serial port profile, through the capture if one is running
+    private CommunicationThread.Link openLink(String macAddress) throws IOException {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            throw new IOException("BLUETOOTH_CONNECT permission not granted");
+        }
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
+        UUID sppUuid = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+        BluetoothSocket next = device.createRfcommSocketToServiceRecord(sppUuid);
+
+        Log.d(TAG, "Attempting to connect socket...");
+        try {
+            next.connect();
+        } catch (IOException e) {
+            try { next.close(); } catch (IOException ignored) { /* ignore */ }
+            throw e;
+        }
+        socket = next;
+
+        InputStream in = next.getInputStream();
+        OutputStream out = next.getOutputStream();
+        AdapterCapture capture = adapterCapture;
+        if (capture != null) {
+            // A reconnect keeps writing to the same capture
+            in = capture.wrap(in);
+            out = capture.wrap(out);
+        }
+        return new CommunicationThread.Link(in, out, next);
+    }
+
+    // Uses the cached PID set of this vehicle, or walks the supported-PID bitmaps once and caches the result.
+    private void loadSupportedPids(String macAddress) throws IOException {
+        SupportedPidStore store = new SupportedPidStore(this);
+        String vehicleKey = SupportedPidStore.vehicleKey(communicationThread.readVin(), macAddress);
+        this.vehicleKey = vehicleKey;
+        // Read deadlines learned on earlier drives apply from the first request
+        communicationThread.getChannel().getTimeouts().restore(store.loadTimeouts(vehicleKey));
+        SupportedPids pids = store.load(vehicleKey);
+        if (pids == null || pids.isEmpty()) {
+            pids = communicationThread.discoverSupportedPids();
+            if (!pids.isEmpty()) store.save(vehicleKey, pids);
+        } else {
+            Log.d(TAG, "Using cached supported PIDs for " + vehicleKey);
+            store.setLastVehicle(vehicleKey);
+        }
+        if (!pids.isEmpty()) communicationThread.setSupportedPids(pids);
+        selectFuelRateSource(store, vehicleKey, pids.isEmpty() ? null : pids);
+    }
+
+    // Picks the cheapest fuel rate source of this vehicle; its fuel type is read once and cached with the PIDs
+    private void selectFuelRateSource(SupportedPidStore store, String vehicleKey, SupportedPids pids) throws IOException {
+        FuelRateSource source = FuelRateSource.select(pids);
+        Integer fuelTypeCode = store.loadFuelType(vehicleKey);
+        if (fuelTypeCode == null) {
+            fuelTypeCode = pids != null && pids.isSupported(0x51) ? communicationThread.readFuelType() : -1;
+            store.saveFuelType(vehicleKey, fuelTypeCode);
+        }
+        FuelType fuel = FuelType.fromCode(fuelTypeCode);
+        Log.i(TAG, "Fuel rate from " + source + ", fuel " + fuel);
+        fuelRateSource = source;
+        communicationThread.setFuelRateSource(source, fuel);
+    }
+
+    // Every live sample of this connection goes to a new trip under files/trips
+    private void startTripRecording() {
+        if (tripRecorder != null) tripRecorder.close(); // Previous connection's trip
+        try {
+            tripRecorder = TripRecorder.start(new File(getFilesDir(), "trips"));
+            communicationThread.setTripRecorder(tripRecorder);
+            Log.d(TAG, "Recording trip to " + tripRecorder.getDirectory());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start trip recording, continuing without it", e);
+        }
+    }
+
     private void sendFailureBroadcast(String message) {
         Intent intent = new Intent(ACTION_CONNECTION_FAILURE);
         intent.putExtra(EXTRA_FAILURE_MESSAGE, message);
@@ -141,8 +250,37 @@ public class ObdService extends Service {
         Log.d(TAG, "sendFailureBroadcast (Local): Broadcast sent for action: " + ACTION_CONNECTION_FAILURE + ", message: " + message); // MODIFIED Log
     }
 
-    public void registerClient(Handler handler) { this.activityHandler = handler; }
-    public void unregisterClient() { this.activityHandler = null; }
+    /**
+     * Subscribes to live results. Any number of subscribers may be active; the adapter is polled
+     * for the union of their PIDs.
+     *
+     * @param pids     mode 01 PIDs to poll for this subscriber, e.g. {0x0C, 0x0D}
+     * @param messages CommunicationThread.MSG_* codes to deliver
+     * @param executor where the listener runs, e.g. getMainExecutor() for a screen
+     */
+    public LiveDataBus.Subscription subscribe(int[] pids, int[] messages, Executor executor, CommunicationThread.Listener listener) {
+        return liveDataBus.subscribe(pids, messages, executor, listener);
+    }
+
+    public void unsubscribe(LiveDataBus.Subscription subscription) {
+        liveDataBus.unsubscribe(subscription);
+    }
+
+    // Latest live values; screens read it once per display frame instead of receiving a message per sample
+    public LiveSnapshot getLiveSnapshot() {
+        return liveSnapshot;
+    }
+
+    // What a fuel consumption screen has to poll: the fuel rate source's PIDs, speed and fuel level
+    public int[] getFuelStatsPids() {
+        int[] sourcePids = fuelRateSource.getPids();
+        int[] pids = Arrays.copyOf(sourcePids, sourcePids.length + 2);
+        pids[sourcePids.length] = 0x0D;
+        pids[sourcePids.length + 1] = 0x2F;
+        return pids;
+    }
+
+    // One-shot modes (DTC scan / clear); live data keeps flowing around them
     public void setCommunicationMode(int mode) {
         if (communicationThread != null && communicationThread.isAlive()) {
             communicationThread.setMode(mode);
@@ -155,13 +293,6 @@ public class ObdService extends Service {
         }
     }
 
-    // --- NEW METHOD to handle the request from PidResultsActivity ---
-    public void startCustomScan(ArrayList<PID> pids) {
-        if (communicationThread != null && communicationThread.isAlive()) {
-            communicationThread.startCustomScan(pids);
-        }
-    }
-
     // --- NEW METHOD to request a DTC scan ---
     public void requestDtcScan() {
         if (communicationThread != null && communicationThread.isAlive()) {
@@ -175,11 +306,39 @@ public class ObdService extends Service {
     }
 
 
+    // Learned timing of the connected adapter, so different adapters can be compared
+    public String getAdapterTimingSummary() {
+        if (communicationThread == null) return "Not connected";
+        return communicationThread.getPacer().describe();
+    }
+
+    // Target vs. achieved sample rate of each PID being polled
+    public String getPollingReport() {
+        if (communicationThread == null) return "Not connected";
+        return communicationThread.getPollingReport();
+    }
+
     private void stopService() {
         if (communicationThread != null) {
+            Log.i(TAG, "Adapter timing at disconnect: " + communicationThread.getPacer().describe());
+            Log.i(TAG, "Time to first sample was " + communicationThread.getTimeToFirstSampleMs() + " ms");
+            // Keeps what polling learned, e.g. that the vehicle rejects multi-PID requests
+            if (adapterAddress != null) new AdapterProfileStore(this).save(adapterAddress, communicationThread.getAdapterProfile());
+            Log.i(TAG, "Read deadlines at disconnect: " + communicationThread.getChannel().describeDeadlines());
+            if (vehicleKey != null) {
+                new SupportedPidStore(this).saveTimeouts(vehicleKey, communicationThread.getChannel().getTimeouts().encode());
+            }
             communicationThread.cancel();
             communicationThread = null;
         }
+        if (tripRecorder != null) {
+            tripRecorder.close();
+            tripRecorder = null;
+        }
+        if (adapterCapture != null) {
+            adapterCapture.close();
+            adapterCapture = null;
+        }
         if (socket != null) {
             try { socket.close(); } catch (IOException e) { /* ignore */ }
         }
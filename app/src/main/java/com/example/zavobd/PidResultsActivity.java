@@ -6,14 +6,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 
 public class PidResultsActivity extends AppCompatActivity {
 
@@ -26,20 +25,33 @@ public class PidResultsActivity extends AppCompatActivity {
 
     private ObdService obdService;
     private boolean isServiceBound = false;
+    private LiveDataBus.Subscription subscription;
 
-    private final Handler uiHandler = new Handler(Looper.getMainLooper()) {
-        @Override
-        public void handleMessage(Message msg) {
-            if (msg.what == CommunicationThread.MSG_UPDATE_PID_RESULT) {
-                // When new data comes from the service, update our list
-                ArrayList<String> values = msg.getData().getStringArrayList("customResults");
-                if (values != null && values.size() == resultList.size()) {
-                    for (int i = 0; i < values.size(); i++) {
-                        resultList.get(i).setValue(values.get(i));
-                    }
-                    resultAdapter.notifyDataSetChanged();
+    private final CommunicationThread.Listener liveDataListener = (what, result) -> {
+        if (what == CommunicationThread.MSG_UPDATE_PID_RESULT) {
+            // When new data comes from the service, update our list.
+            // The thread sends a Bundle holding a map from PID command to formatted value.
+            if (!(result instanceof Bundle)) return;
+            @SuppressWarnings("unchecked")
+            Map<String, String> values = (Map<String, String>) ((Bundle) result).getSerializable("customResults");
+            if (values == null) return;
+            // PIDs the car keeps leaving unanswered are only probed now and then, until they answer again
+            ArrayList<String> quarantined = ((Bundle) result).getStringArrayList("quarantinedPids");
+            for (int i = 0; i < selectedPids.size(); i++) {
+                String command = selectedPids.get(i).getCommand();
+                if (quarantined != null && quarantined.contains(command)) {
+                    resultList.get(i).setValue("Not answering, checking now and then");
+                    continue;
+                }
+                String value = values.get(command);
+                if (value != null) {
+                    resultList.get(i).setValue(value);
                 }
             }
+            String status = "Live Data from " + selectedPids.size() + " parameters";
+            if (quarantined != null && !quarantined.isEmpty()) status += " (" + quarantined.size() + " not answering)";
+            tvStatus.setText(status + ":");
+            resultAdapter.notifyDataSetChanged();
         }
     };
 
@@ -49,11 +61,11 @@ public class PidResultsActivity extends AppCompatActivity {
             ObdService.ObdServiceBinder binder = (ObdService.ObdServiceBinder) service;
             obdService = binder.getService();
             isServiceBound = true;
-            obdService.registerClient(uiHandler);
 
-            // Now that we are bound, tell the service to run our custom scan
+            // Now that we are bound, subscribe to the selected PIDs
             tvStatus.setText("Live Data from " + selectedPids.size() + " parameters:");
-            obdService.startCustomScan(selectedPids);
+            subscription = obdService.subscribe(toPidNumbers(selectedPids),
+                    new int[] {CommunicationThread.MSG_UPDATE_PID_RESULT}, getMainExecutor(), liveDataListener);
         }
         @Override
         public void onServiceDisconnected(ComponentName arg0) { isServiceBound = false; }
@@ -95,10 +107,27 @@ public class PidResultsActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         if (isServiceBound) {
-            obdService.setCommunicationMode(CommunicationThread.MODE_IDLE);
-            obdService.unregisterClient();
+            obdService.unsubscribe(subscription);
+            subscription = null;
             unbindService(serviceConnection);
             isServiceBound = false;
         }
     }
+
+    // "010C" -> 0x0C. Only mode 01 PIDs can be polled live.
+    private static int[] toPidNumbers(ArrayList<PID> pids) {
+        int[] numbers = new int[pids.size()];
+        int count = 0;
+        for (PID pid : pids) {
+            String command = pid.getCommand();
+            if (command.length() != 4 || !command.startsWith("01")) continue;
+            try {
+                numbers[count] = Integer.parseInt(command.substring(2), 16);
+                count++;
+            } catch (NumberFormatException e) {
+                // Not a PID, skip it
+            }
+        }
+        return Arrays.copyOf(numbers, count);
+    }
 }
\ No newline at end of file
@@ -28,7 +28,8 @@ public class PidSelectionActivity extends AppCompatActivity {
         selectAllCheckbox = findViewById(R.id.checkbox_select_all);
         runScanButton = findViewById(R.id.btn_run_scan);
 
-        supportedPids = PidList.getSupportedPids();
+        // Only offer what the last connected vehicle can actually answer
+        supportedPids = PidList.getSupportedPids(new SupportedPidStore(this).loadLastVehicle());
         pidAdapter = new PidAdapter(this, supportedPids);
         pidListView.setAdapter(pidAdapter);
 
@@ -0,0 +1,70 @@
+package com.example.zavobd;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.zavobd.obd.SupportedPids;
+
+// Remembers which PIDs each vehicle supports, so discovery only has to walk the bitmaps once per vehicle.
+public class SupportedPidStore {
+
+    private static final String PREFS_NAME = "supported_pids";
+    private static final String KEY_LAST_VEHICLE = "last_vehicle";
+    private static final String FUEL_TYPE_SUFFIX = "/fuel_type";
+    private static final String TIMEOUTS_SUFFIX = "/timeouts";
+
+    private final SharedPreferences prefs;
+
+    public SupportedPidStore(Context context) {
+        this(context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    SupportedPidStore(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    // Vehicles are identified by VIN when the car reports one, otherwise by the adapter's MAC address.
+    public static String vehicleKey(String vin, String adapterAddress) {
+        return vin != null && !vin.isEmpty() ? "VIN:" + vin : "MAC:" + adapterAddress;
+    }
+
+    public SupportedPids load(String vehicleKey) {
+        return SupportedPids.fromHex(prefs.getString(vehicleKey, null));
+    }
+
+    public void save(String vehicleKey, SupportedPids pids) {
+        prefs.edit()
+                .putString(vehicleKey, pids.toHex())
+                .putString(KEY_LAST_VEHICLE, vehicleKey)
+                .apply();
+    }
+
+    // The PID 0151 code read once from this vehicle, -1 if it did not report one, null if never read.
+    public Integer loadFuelType(String vehicleKey) {
+        String key = vehicleKey + FUEL_TYPE_SUFFIX;
+        return prefs.contains(key) ? prefs.getInt(key, -1) : null;
+    }
+
+    public void saveFuelType(String vehicleKey, int fuelTypeCode) {
+        prefs.edit().putInt(vehicleKey + FUEL_TYPE_SUFFIX, fuelTypeCode).apply();
+    }
+
+    // The latency histograms CommandTimeouts learned on this vehicle, null if none were saved
+    public String loadTimeouts(String vehicleKey) {
+        return prefs.getString(vehicleKey + TIMEOUTS_SUFFIX, null);
+    }
+
+    public void saveTimeouts(String vehicleKey, String encodedTimeouts) {
+        prefs.edit().putString(vehicleKey + TIMEOUTS_SUFFIX, encodedTimeouts).apply();
+    }
+
+    public void setLastVehicle(String vehicleKey) {
+        prefs.edit().putString(KEY_LAST_VEHICLE, vehicleKey).apply();
+    }
+
+    // The set of the vehicle we last connected to, or null if it was never discovered.
+    public SupportedPids loadLastVehicle() {
+        String vehicleKey = prefs.getString(KEY_LAST_VEHICLE, null);
+        return vehicleKey != null ? load(vehicleKey) : null;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.zavobd.dtc;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Descriptions of trouble codes, from the generic SAE table shipped in assets/dtc/generic.dtc and
+ * an optional manufacturer overlay (assets/dtc/overlay/&lt;make&gt;.dtc) that is consulted first.
+ *
+ * The tables are mapped straight out of the APK (they are stored uncompressed, see
+ * build.gradle.kts) the first time a description is asked for, so nothing is read at startup and
+ * the text stays out of the Java heap.
+ */
+public final class DtcDescriptions {
+
+    private static final String TAG = "DtcDescriptions";
+    private static final String GENERIC_TABLE = "dtc/generic.dtc";
+    private static final String OVERLAY_DIRECTORY = "dtc/overlay/";
+
+    private static DtcDescriptions instance;
+
+    private final AssetManager assets;
+    private DtcIndex generic;
+    private DtcIndex overlay;
+    private boolean genericLoaded = false;
+
+    private DtcDescriptions(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    public static synchronized DtcDescriptions get(Context context) {
+        if (instance == null) instance = new DtcDescriptions(context.getApplicationContext().getAssets());
+        return instance;
+    }
+
+    /**
+     * Consults the overlay of one manufacturer (e.g. "toyota") before the generic table, or none
+     * if make is null.
+     *
+     * @return false if there is no overlay for that make
+     */
+    public synchronized boolean useOverlay(String make) {
+        overlay = make != null ? open(OVERLAY_DIRECTORY + make.toLowerCase() + ".dtc") : null;
+        return make == null || overlay != null;
+    }
+
+    // The description of a packed code (see DtcIndex.pack), or null if no table has it
+    public synchronized String describe(int code) {
+        if (overlay != null) {
+            int index = overlay.indexOf(code);
+            if (index >= 0) return overlay.getDescription(index);
+        }
+        if (!genericLoaded) {
+            generic = open(GENERIC_TABLE);
+            genericLoaded = true;
+        }
+        return generic != null ? generic.describe(code) : null;
+    }
+
+    // The description of a code like "P0133", or null if it is unknown
+    public String describe(String code) {
+        int packed = DtcIndex.pack(code);
+        return packed >= 0 ? describe(packed) : null;
+    }
+
+    private DtcIndex open(String path) {
+        try (AssetFileDescriptor fd = assets.openFd(path);
+             FileInputStream in = fd.createInputStream()) {
+            // Map offsets are into the whole APK file; the mapping outlives the descriptor
+            return DtcIndex.map(in.getChannel(), fd.getStartOffset(), fd.getLength());
+        } catch (FileNotFoundException e) {
+            // Either missing or compressed after all; the latter can still be read into memory
+            return read(path);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot map " + path, e);
+            return null;
+        }
+    }
+
+    private DtcIndex read(String path) {
+        try (InputStream in = assets.open(path)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+            Log.w(TAG, path + " is compressed in the APK, read into memory");
+            return DtcIndex.wrap(ByteBuffer.wrap(out.toByteArray()));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + path, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.zavobd.dtc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only table of DTC descriptions, searched in place in a (usually memory-mapped) buffer.
+ *
+ * Layout, big-endian, as written by {@link DtcIndexWriter}:
+ *
+ *   0  int     MAGIC
+ *   4  int     number of codes N
+ *   8  char[N] codes as packed 16-bit keys (the two bytes the ECU sends), ascending
+ *      int[N]  end of each description in the string pool, 4-byte aligned
+ *      bytes   string pool, UTF-8, descriptions back to back
+ *
+ * Nothing is decoded up front: opening a table reads the 8-byte header, and a lookup is a binary
+ * search over the keys that allocates nothing. Only the description that is asked for is turned
+ * into a String. Thousands of codes cost 6 bytes each plus their text, and the pages of a mapped
+ * file are only paged in when touched.
+ */
+public final class DtcIndex {
+
+    static final int MAGIC = 0x44544331; // "DTC1"
+    static final int HEADER_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int endsOffset;
+    private final int poolOffset;
+
+    private DtcIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a DTC index");
+        }
+        count = buffer.getInt(4);
+        endsOffset = align4(HEADER_SIZE + 2 * count);
+        poolOffset = endsOffset + 4 * count;
+        if (count < 0 || poolOffset > buffer.capacity()
+                || (count > 0 && poolOffset + buffer.getInt(endsOffset + 4 * (count - 1)) > buffer.capacity())) {
+            throw new IOException("Truncated DTC index");
+        }
+    }
+
+    // A table held in a buffer, e.g. a mapped asset; the buffer's position and limit are ignored
+    public static DtcIndex wrap(ByteBuffer buffer) throws IOException {
+        return new DtcIndex(buffer.duplicate());
+    }
+
+    // Maps a whole table file read-only; the mapping stays valid after the file is closed
+    public static DtcIndex map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return map(raf.getChannel(), 0, raf.length());
+        }
+    }
+
+    // Maps a table stored at [offset, offset + length) of a file, e.g. an uncompressed APK asset
+    public static DtcIndex map(FileChannel channel, long offset, long length) throws IOException {
+        return new DtcIndex(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    static int align4(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // The position of a packed code, or -1 if the table does not describe it
+    public int indexOf(int code) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int key = buffer.getChar(HEADER_SIZE + 2 * mid);
+            if (key < code) {
+                low = mid + 1;
+            } else if (key > code) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int getCode(int index) {
+        return buffer.getChar(HEADER_SIZE + 2 * index);
+    }
+
+    public String getDescription(int index) {
+        int start = index == 0 ? 0 : buffer.getInt(endsOffset + 4 * (index - 1));
+        int end = buffer.getInt(endsOffset + 4 * index);
+        byte[] text = new byte[end - start];
+        ByteBuffer pool = buffer.duplicate();
+        pool.position(poolOffset + start);
+        pool.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // The description of a packed code, or null if the table does not have one
+    public String describe(int code) {
+        int index = indexOf(code);
+        return index >= 0 ? getDescription(index) : null;
+    }
+
+    /**
+     * "P0133" -> 0x0133, "U0100" -> 0xC100: the two bytes an ECU reports for the code.
+     *
+     * @return the packed code, or -1 if text is not a five-character code
+     */
+    public static int pack(CharSequence text) {
+        if (text == null || text.length() != 5) return -1;
+        int system = "PCBU".indexOf(Character.toUpperCase(text.charAt(0)));
+        int first = Character.digit(text.charAt(1), 16);
+        if (system < 0 || first < 0 || first > 3) return -1;
+        int code = (system << 14) | (first << 12);
+        for (int i = 2; i < 5; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) return -1;
+            code |= digit << (4 * (4 - i));
+        }
+        return code;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.zavobd.dtc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles a text table of descriptions into the binary layout {@link DtcIndex} reads.
+ *
+ * The text form is one "P0133&lt;TAB&gt;description" per line; blank lines and lines starting with
+ * '#' are skipped. The shipped table is regenerated from the project root with
+ *
+ *   java com.example.zavobd.dtc.DtcIndexWriter app/dtc/generic.tsv app/src/main/assets/dtc/generic.dtc
+ *
+ * and manufacturer overlays are compiled the same way into assets/dtc/overlay/.
+ */
+public final class DtcIndexWriter {
+
+    private DtcIndexWriter() {
+    }
+
+    public static TreeMap<Integer, String> parse(Reader source) throws IOException {
+        TreeMap<Integer, String> table = new TreeMap<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) continue;
+            int tab = line.indexOf('\t');
+            int code = tab > 0 ? DtcIndex.pack(line.substring(0, tab).trim()) : -1;
+            if (code < 0) throw new IOException("Line " + lineNumber + ": expected code<TAB>description");
+            if (table.put(code, line.substring(tab + 1).trim()) != null) {
+                throw new IOException("Line " + lineNumber + ": " + line.substring(0, tab) + " listed twice");
+            }
+        }
+        return table;
+    }
+
+    public static void write(Map<Integer, String> table, OutputStream out) throws IOException {
+        // Keys must be ascending for the binary search; a TreeMap keeps them so
+        TreeMap<Integer, String> sorted = new TreeMap<>(table);
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int[] ends = new int[sorted.size()];
+        int i = 0;
+        for (String description : sorted.values()) {
+            byte[] text = description.getBytes(StandardCharsets.UTF_8);
+            pool.write(text, 0, text.length);
+            ends[i++] = pool.size();
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(DtcIndex.MAGIC);
+        data.writeInt(sorted.size());
+        for (int code : sorted.keySet()) data.writeChar(code);
+        int written = DtcIndex.HEADER_SIZE + 2 * sorted.size();
+        for (; written < DtcIndex.align4(written); written++) data.writeByte(0);
+        for (int end : ends) data.writeInt(end);
+        pool.writeTo(data);
+        data.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: DtcIndexWriter <table.tsv> <table.dtc>");
+            System.exit(2);
+        }
+        TreeMap<Integer, String> table;
+        try (Reader in = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+            table = parse(in);
+        }
+        try (OutputStream out = new FileOutputStream(args[1])) {
+            write(table, out);
+        }
+        System.out.println(table.size() + " codes written to " + args[1]);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.zavobd.fuel;
+
+import com.example.zavobd.LiveSnapshot;
+import com.example.zavobd.obd.SupportedPids;
+
+/**
+ * Where the fuel rate comes from, picked once per vehicle from its supported PIDs so each
+ * consumption sample costs as few requests as possible:
+ * - ENGINE_FUEL_RATE: PID 015E, the ECU's own figure in L/h, one PID and exact,
+ * - MAF: PID 0110 airflow, converted at the fuel's stoichiometric ratio,
+ * - SPEED_DENSITY: airflow estimated from MAP (010B), intake temperature (010F) and RPM (010C),
+ * - NONE: the vehicle reports none of these.
+ */
+public enum FuelRateSource {
+
+    ENGINE_FUEL_RATE(0x5E) {
+        @Override
+        public double litersPerHour(LiveSnapshot values, FuelType fuel) {
+            return values.getLatest(0x5E);
+        }
+    },
+    MAF(0x10) {
+        @Override
+        public double litersPerHour(LiveSnapshot values, FuelType fuel) {
+            return fuel.litersPerHourFromAirflow(values.getLatest(0x10));
+        }
+    },
+    // Intake temperature changes slowly and comes on its own schedule; the estimate follows MAP and RPM
+    SPEED_DENSITY(0x0B, 0x0C, 0x0F) {
+        @Override
+        public double litersPerHour(LiveSnapshot values, FuelType fuel) {
+            return fuel.litersPerHourFromAirflow(estimateAirflow(
+                    values.getLatest(0x0B), values.getLatest(0x0C), values.getLatest(0x0F)));
+        }
+    },
+    NONE() {
+        @Override
+        public double litersPerHour(LiveSnapshot values, FuelType fuel) {
+            return Double.NaN;
+        }
+    };
+
+    // Speed-density needs the engine size and how well it breathes; without them, a typical 2.0 L engine
+    static final double DISPLACEMENT_LITERS = 2.0;
+    static final double VOLUMETRIC_EFFICIENCY = 0.85;
+    private static final double AIR_GAS_CONSTANT = 287.05; // J/(kg K)
+
+    private final int[] pids;
+
+    FuelRateSource(int... pids) {
+        this.pids = pids;
+    }
+
+    // The best source the vehicle supports; MAF when the supported set is not known
+    public static FuelRateSource select(SupportedPids supported) {
+        if (supported == null) return MAF;
+        if (supported.isSupported(0x5E)) return ENGINE_FUEL_RATE;
+        if (supported.isSupported(0x10)) return MAF;
+        if (supported.isSupported(0x0B) && supported.isSupported(0x0C) && supported.isSupported(0x0F)) {
+            return SPEED_DENSITY;
+        }
+        return NONE;
+    }
+
+    // The PIDs to poll; a fresh consumption sample is computed whenever the first one was polled
+    public int[] getPids() {
+        return pids.clone();
+    }
+
+    // -1 for NONE
+    public int getTriggerPid() {
+        return pids.length > 0 ? pids[0] : -1;
+    }
+
+    /**
+     * The current fuel rate in L/h from the latest polled values, NaN if one is missing.
+     * Called by the polling thread while it writes the snapshot.
+     */
+    public abstract double litersPerHour(LiveSnapshot values, FuelType fuel);
+
+    // Ideal gas law: air mass drawn per second by a four-stroke engine, in g/s
+    static double estimateAirflow(double mapKpa, double rpm, double intakeCelsius) {
+        double cubicMetersPerSecond = DISPLACEMENT_LITERS / 1000 * VOLUMETRIC_EFFICIENCY * rpm / 120;
+        double kilogramsPerCubicMeter = mapKpa * 1000 / (AIR_GAS_CONSTANT * (intakeCelsius + 273.15));
+        return cubicMetersPerSecond * kilogramsPerCubicMeter * 1000;
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.zavobd.fuel;
+
+import com.example.zavobd.LiveSnapshot;
+
+/**
+ * Streaming fuel statistics: fed one (time, fuel rate, speed) sample per poll, it keeps several
+ * views of consumption up to date at once:
+ * - instantaneous: the latest sample,
+ * - window: the last WINDOW_SIZE intervals,
+ * - EWMA: exponentially weighted with time constant EWMA_TAU_SECONDS,
+ * - trip: everything since the engine was created or reset.
+ *
+ * Fuel used and distance are integrated over the real time between samples (trapezoid rule), so
+ * an uneven poll rate does not skew the results, and L/100km averages are fuel over distance
+ * rather than an average of ratios. Window sums are kept in primitive rings and updated in O(1);
+ * nothing is allocated per sample.
+ *
+ * Not thread-safe: owned by the polling thread, screens and loggers read the values it writes to
+ * a {@link LiveSnapshot}.
+ */
+public final class FuelStats {
+
+    public static final int WINDOW_SIZE = 12;
+    static final double EWMA_TAU_SECONDS = 5.0;
+    // A longer gap (e.g. a reconnect) is not integrated: nothing is known about it
+    static final double MAX_GAP_SECONDS = 5.0;
+
+    // Last WINDOW_SIZE intervals: fuel in liters, distance in km, duration in seconds
+    private final double[] windowFuel = new double[WINDOW_SIZE];
+    private final double[] windowDistance = new double[WINDOW_SIZE];
+    private final double[] windowSeconds = new double[WINDOW_SIZE];
+    private int windowNext = 0;
+    private int windowCount = 0;
+    private double windowFuelSum, windowDistanceSum, windowSecondsSum;
+
+    private long lastNanos;
+    private double lastLitersPerHour = Double.NaN;
+    private double lastSpeedKmh = Double.NaN;
+
+    private double ewmaLitersPerHour = Double.NaN;
+    private double ewmaSpeedKmh = Double.NaN;
+
+    private double tripFuelLiters, tripDistanceKm, tripSeconds;
+
+    /**
+     * Adds a sample.
+     *
+     * @param nanos monotonic time of the sample (System.nanoTime())
+     * @param litersPerHour fuel rate, NaN if unknown
+     * @param speedKmh vehicle speed, NaN if unknown
+     */
+    public void update(long nanos, double litersPerHour, double speedKmh) {
+        if (Double.isNaN(litersPerHour)) return;
+        if (!Double.isNaN(lastLitersPerHour)) {
+            double seconds = (nanos - lastNanos) / 1e9;
+            if (seconds > 0 && seconds <= MAX_GAP_SECONDS) {
+                integrate(seconds, litersPerHour, speedKmh);
+            }
+        }
+        lastNanos = nanos;
+        lastLitersPerHour = litersPerHour;
+        lastSpeedKmh = speedKmh;
+    }
+
+    private void integrate(double seconds, double litersPerHour, double speedKmh) {
+        double hours = seconds / 3600;
+        double fuel = (lastLitersPerHour + litersPerHour) / 2 * hours;
+        // Without a speed on either side, the distance of this interval counts as zero
+        double distance = Double.isNaN(speedKmh) || Double.isNaN(lastSpeedKmh)
+                ? 0 : (lastSpeedKmh + speedKmh) / 2 * hours;
+
+        // The window sums swap the oldest interval for this one
+        windowFuelSum += fuel - windowFuel[windowNext];
+        windowDistanceSum += distance - windowDistance[windowNext];
+        windowSecondsSum += seconds - windowSeconds[windowNext];
+        windowFuel[windowNext] = fuel;
+        windowDistance[windowNext] = distance;
+        windowSeconds[windowNext] = seconds;
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+        if (windowCount < WINDOW_SIZE) windowCount++;
+        if (windowNext == 0) resumWindow(); // Once per wrap, so rounding errors cannot pile up
+
+        double alpha = 1 - Math.exp(-seconds / EWMA_TAU_SECONDS);
+        ewmaLitersPerHour = Double.isNaN(ewmaLitersPerHour)
+                ? litersPerHour : ewmaLitersPerHour + alpha * (litersPerHour - ewmaLitersPerHour);
+        if (!Double.isNaN(speedKmh)) {
+            ewmaSpeedKmh = Double.isNaN(ewmaSpeedKmh) ? speedKmh : ewmaSpeedKmh + alpha * (speedKmh - ewmaSpeedKmh);
+        }
+
+        tripFuelLiters += fuel;
+        tripDistanceKm += distance;
+        tripSeconds += seconds;
+    }
+
+    private void resumWindow() {
+        windowFuelSum = windowDistanceSum = windowSecondsSum = 0;
+        for (int i = 0; i < windowCount; i++) {
+            windowFuelSum += windowFuel[i];
+            windowDistanceSum += windowDistance[i];
+            windowSecondsSum += windowSeconds[i];
+        }
+    }
+
+    // Starts a new trip and forgets all windows
+    public void reset() {
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            windowFuel[i] = windowDistance[i] = windowSeconds[i] = 0;
+        }
+        windowNext = windowCount = 0;
+        windowFuelSum = windowDistanceSum = windowSecondsSum = 0;
+        lastLitersPerHour = lastSpeedKmh = Double.NaN;
+        ewmaLitersPerHour = ewmaSpeedKmh = Double.NaN;
+        tripFuelLiters = tripDistanceKm = tripSeconds = 0;
+    }
+
+    // --- Results; NaN when not known yet, L/100km also NaN while standing still ---
+
+    public double getInstantLitersPerHour() {
+        return lastLitersPerHour;
+    }
+
+    public double getInstantLitersPer100km() {
+        return per100km(lastLitersPerHour, lastSpeedKmh);
+    }
+
+    public double getWindowLitersPerHour() {
+        return windowSecondsSum > 0 ? windowFuelSum / (windowSecondsSum / 3600) : Double.NaN;
+    }
+
+    public double getWindowLitersPer100km() {
+        return distanceRatio(windowFuelSum, windowDistanceSum);
+    }
+
+    public double getEwmaLitersPerHour() {
+        return ewmaLitersPerHour;
+    }
+
+    public double getEwmaLitersPer100km() {
+        return per100km(ewmaLitersPerHour, ewmaSpeedKmh);
+    }
+
+    public double getTripFuelLiters() {
+        return tripFuelLiters;
+    }
+
+    public double getTripDistanceKm() {
+        return tripDistanceKm;
+    }
+
+    public double getTripLitersPerHour() {
+        return tripSeconds > 0 ? tripFuelLiters / (tripSeconds / 3600) : Double.NaN;
+    }
+
+    public double getTripLitersPer100km() {
+        return distanceRatio(tripFuelLiters, tripDistanceKm);
+    }
+
+    // Publishes every figure into its snapshot slot; called between beginWrite() and endWrite()
+    public void writeTo(LiveSnapshot snapshot) {
+        snapshot.put(LiveSnapshot.SLOT_FUEL_RATE_LPH, getInstantLitersPerHour());
+        snapshot.put(LiveSnapshot.SLOT_CONSUMPTION_INSTANT_L100KM, getInstantLitersPer100km());
+        snapshot.put(LiveSnapshot.SLOT_FUEL_RATE_WINDOW_LPH, getWindowLitersPerHour());
+        snapshot.put(LiveSnapshot.SLOT_CONSUMPTION_L100KM, getWindowLitersPer100km());
+        snapshot.put(LiveSnapshot.SLOT_FUEL_RATE_EWMA_LPH, getEwmaLitersPerHour());
+        snapshot.put(LiveSnapshot.SLOT_CONSUMPTION_EWMA_L100KM, getEwmaLitersPer100km());
+        snapshot.put(LiveSnapshot.SLOT_TRIP_FUEL_L, tripFuelLiters);
+        snapshot.put(LiveSnapshot.SLOT_TRIP_DISTANCE_KM, tripDistanceKm);
+        snapshot.put(LiveSnapshot.SLOT_TRIP_FUEL_RATE_LPH, getTripLitersPerHour());
+        snapshot.put(LiveSnapshot.SLOT_TRIP_CONSUMPTION_L100KM, getTripLitersPer100km());
+    }
+
+    private static double per100km(double litersPerHour, double speedKmh) {
+        return speedKmh > 0 ? litersPerHour / speedKmh * 100 : Double.NaN;
+    }
+
+    // Tiny distances (a few meters) would make the ratio meaningless
+    private static double distanceRatio(double liters, double km) {
+        return km > 0.001 ? liters / km * 100 : Double.NaN;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.zavobd.fuel;
+
+/**
+ * Stoichiometric air/fuel ratio and density of the fuel the engine burns, from the fuel type the
+ * vehicle reports in PID 0151. They turn an airflow into a fuel volume.
+ */
+public final class FuelType {
+
+    public static final FuelType GASOLINE = new FuelType("Gasoline", 14.7, 745.0);
+    // Diesel runs lean except at full load, so airflow-based figures overestimate; 015E is exact
+    public static final FuelType DIESEL = new FuelType("Diesel", 14.5, 832.0);
+    public static final FuelType ETHANOL = new FuelType("Ethanol", 9.0, 789.0);
+    public static final FuelType METHANOL = new FuelType("Methanol", 6.4, 792.0);
+    // As liquid in the tank
+    public static final FuelType LPG = new FuelType("LPG", 15.5, 540.0);
+    public static final FuelType PROPANE = new FuelType("Propane", 15.7, 493.0);
+
+    private final String name;
+    private final double airFuelRatio;
+    private final double densityGramsPerLiter;
+
+    private FuelType(String name, double airFuelRatio, double densityGramsPerLiter) {
+        this.name = name;
+        this.airFuelRatio = airFuelRatio;
+        this.densityGramsPerLiter = densityGramsPerLiter;
+    }
+
+    /**
+     * The fuel for a PID 0151 value (bi-fuel and hybrid codes map to the fuel currently burnt).
+     * Unknown codes, -1 (not reported), CNG and electric fall back to gasoline: CNG has no liquid
+     * volume to report, so its figures read as a gasoline equivalent.
+     */
+    public static FuelType fromCode(int code) {
+        switch (code) {
+            case 0x04: case 0x13: case 0x17:
+                return DIESEL;
+            case 0x03: case 0x0B: case 0x12:
+                return ETHANOL;
+            case 0x02: case 0x0A:
+                return METHANOL;
+            case 0x05: case 0x0C:
+                return LPG;
+            case 0x07: case 0x0E:
+                return PROPANE;
+            default:
+                return GASOLINE;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getAirFuelRatio() {
+        return airFuelRatio;
+    }
+
+    public double getDensityGramsPerLiter() {
+        return densityGramsPerLiter;
+    }
+
+    // Fuel burnt at stoichiometry for an airflow in g/s; NaN stays NaN
+    public double litersPerHourFromAirflow(double airGramsPerSec) {
+        return airGramsPerSec * 3600 / (densityGramsPerLiter * airFuelRatio);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
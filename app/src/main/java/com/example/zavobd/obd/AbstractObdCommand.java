@@ -3,10 +3,17 @@ package com.example.zavobd.obd;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
-// This is the template for all OBD commands.
+/**
+ * This is the template for all OBD commands.
+ *
+ * Mode 01 commands ("01XX") are decoded straight from the reader's byte buffer: the reply is
+ * hex-decoded into reusable data bytes A, B, C, D... and subclasses compute their value from
+ * those. Together with the pre-encoded request frame this keeps steady-state polling free of
+ * allocations, so command instances are meant to be created once and run over and over.
+ * Other commands (e.g. mode 03) still get the cleaned reply as text in rawResponse.
+ */
 public abstract class AbstractObdCommand {
 
     private static final String TAG = AbstractObdCommand.class.getSimpleName();
@@ -16,144 +23,248 @@ public abstract class AbstractObdCommand {
     protected String rawResponse = null;
     protected int value = 0;
     protected String unit = "";
-    // private String cmd; // This field was previously used incorrectly and is unused now. Consider removing it.
+
+    // Request as ASCII bytes including the trailing CR, encoded once
+    private final byte[] requestFrame;
+    // The same with a response count digit before the CR, e.g. "010C1\r"; null for non-PID commands
+    private final byte[] hintedFrame;
+    private int responseCountHint = 0;
+    private final int pid;
+    // Which of the learned read deadlines applies, see CommandTimeouts.keyOf()
+    private final int timeoutKey;
+    protected ResponseStatus status = null;
+    // Data bytes following "41 <pid>" in the last reply
+    protected final int[] data = new int[8];
+    protected int dataLength = 0;
+    // Scratch space for the decoded reply
+    private final int[] payload = new int[128];
 
     public AbstractObdCommand(String command, String name, String unit) {
         this.command = command;
         this.name = name;
         this.unit = unit;
+        this.requestFrame = (command + "\r").getBytes();
+        this.pid = parsePid(command);
+        this.hintedFrame = pid >= 0 ? (command + "0\r").getBytes() : null;
+        this.timeoutKey = CommandTimeouts.keyOf(command);
     }
 
-    // This is the main method that will be called from our communication thread.
-    // It sends the command, reads the response, and performs the calculation.
-    public void run(InputStream in, OutputStream out) throws IOException, InterruptedException {
-        synchronized (AbstractObdCommand.class) { // Ensure only one command runs at a time.
-            Log.d(TAG, "Command [" + this.command + "] run: Sending command.");
-            sendCommand(out);
-            Log.d(TAG, "Command [" + this.command + "] run: Reading result.");
-            readResult(in);
-            // After readResult, rawResponse is populated (or should be)
-            // Now call the abstract method for calculations
-            performCalculations(); // Make sure this is called before logging the finished state
-            Log.d(TAG, "Command [" + this.command + "] run: Finished. Raw response: '" + rawResponse + "', Calculated value: " + value);
+    // Sends the command, reads the response, and performs the calculation.
+    // Only called by ObdChannel, which owns the streams and keeps one request on the wire at a time.
+    void run(ElmResponseReader reader, OutputStream out, long timeoutMs) throws IOException, InterruptedException {
+        reader.discardPending(); // Drop stale bytes so they are not taken for this response
+        sendCommand(out);
+        readResult(reader, timeoutMs);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Command [" + this.command + "] run: Finished. Raw response: '" + getRawResponse() + "', Calculated value: " + value);
         }
     }
 
     protected void sendCommand(OutputStream out) throws IOException, InterruptedException {
-        // Add the carriage return char
-        String commandString = this.command + "\r";
-        Log.d(TAG, "Sending command string: '" + commandString.replace("\r", "<CR>") + "'");
-        out.write(commandString.getBytes());
+        int hint = responseCountHint;
+        if (hint > 0 && hintedFrame != null) {
+            hintedFrame[hintedFrame.length - 2] = (byte) Character.toUpperCase(Character.forDigit(hint, 16));
+            out.write(hintedFrame);
+        } else {
+            out.write(requestFrame);
+        }
         out.flush();
-        // Pause between sending and trying to read - ELM327 is slow
-        // Adjust this delay based on your adapter's responsiveness
-        Thread.sleep(100); // Consider making this configurable or dynamic
-        Log.d(TAG, "Command sent and flushed.");
+        // No pause needed here: readResult() waits for the prompt, and AdaptivePacer handles any gap between commands
     }
 
-    protected void readResult(InputStream in) throws IOException {
-        Log.d(TAG, "readResult: Starting to read from InputStream...");
-        StringBuilder res = new StringBuilder();
-        char c;
-        // End of response is marked by '>' character.
-        // Make sure to handle potential timeouts if '>' is never received.
-        long startTime = System.currentTimeMillis();
-        long timeout = 5000; // 5 seconds timeout for reading response
-
+    protected void readResult(ElmResponseReader reader, long timeoutMs) throws IOException {
+        // End of response is marked by the '>' prompt. The reader blocks until it arrives or the deadline passes.
         try {
-            while ((System.currentTimeMillis() - startTime) < timeout) {
-                Log.v(TAG, "readResult: Loop iteration. Time remaining: " + (timeout - (System.currentTimeMillis() - startTime)) + "ms. Checking available bytes...");
-                int availableBytes = in.available(); // Check available bytes once per loop iteration
-                Log.v(TAG, "readResult: in.available() = " + availableBytes);
-
-                if (availableBytes > 0) {
-                    c = (char) in.read();
-                    Log.v(TAG, "readResult: Read char: '" + (c == '\r' ? "<CR>" : c) + "' (int: " + (int) c + ")");
-                    if (c == '>') {
-                        Log.d(TAG, "readResult: End character '>' found. Breaking read loop.");
-                        break;
-                    }
-                    res.append(c);
-                } else {
-                    Log.v(TAG, "readResult: No data available. Sleeping for 20ms.");
-                    // No data available, yield a bit to prevent busy-waiting
-                    try {
-                        Thread.sleep(20); // Short sleep
-                    } catch (InterruptedException e) {
-                        Log.w(TAG, "readResult: Sleep interrupted.", e);
-                        Thread.currentThread().interrupt(); // Restore interrupt status
-                        break; // Exit loop on interrupt
-                    }
-                }
+            if (reader.readResponse(timeoutMs) == ElmResponseReader.TIMEOUT) {
+                Log.w(TAG, "readResult: Timeout occurred before '>' was found for " + command);
+                // Set a known error state so performCalculations() doesn't operate on
+                // partial data or data from a previous successful read.
+                applyStatus(ResponseStatus.TIMEOUT);
+                return;
             }
-
-            if ((System.currentTimeMillis() - startTime) >= timeout && res.indexOf(">") == -1) {
-                Log.w(TAG, "readResult: Timeout occurred before '>' was found. Partial response: '" + res.toString().replace("\r", "<CR>") + "'");
-                // Set rawResponse to a known error or empty state if timeout occurs
-                // This ensures performCalculations() doesn't operate on potentially partial/corrupt data
-                // or data from a previous successful read.
-                rawResponse = "TIMEOUT"; // Or some other indicator
-                return; // Early exit if timeout with no end character
-            }
-
         } catch (IOException e) {
             Log.e(TAG, "readResult: IOException during read.", e);
-            // Similar to timeout, set rawResponse to an error state
             rawResponse = "IO_ERROR";
-            throw e; // Re-throw the exception, or handle it by returning
+            throw e;
+        }
+
+        if (pid >= 0) {
+            decodeData(reader);
+        } else {
+            readReply(reader);
+        }
+    }
+
+    // Takes the reply of a command that is not a mode 01 PID. By default it is cleaned into rawResponse
+    // for performCalculations(); commands that parse the reader's bytes themselves override this.
+    protected void readReply(ElmResponseReader reader) {
+        readTextResult(reader);
+    }
+
+    // Finds "41 <pid>" in the reply and copies the data bytes after it. Allocation-free.
+    private void decodeData(ElmResponseReader reader) {
+        int length = ResponsePayload.decode(reader, payload);
+        int expected = PidDecoders.dataLength(pid);
+        for (int i = 0; i + 1 < length; i++) {
+            if (payload[i] == 0x41 && payload[i + 1] == pid) {
+                int available = length - i - 2;
+                int count = expected > 0 ? Math.min(expected, available) : Math.min(available, data.length);
+                applyData(payload, i + 2, count);
+                return;
+            }
         }
+        applyStatus(ResponsePayload.classify(reader));
+    }
 
+    private void readTextResult(ElmResponseReader reader) {
         // Clean up the response: remove echoes, prompts, and whitespace
-        // Corrected: use replaceAll to remove all whitespace characters
-        rawResponse = res.toString().replace("SEARCHING...", "").replaceAll("\\s", "").replace("\r", "").trim();
-        
+        rawResponse = reader.getCompactText().replace("SEARCHING...", "");
+
         // Further cleaning specific to some adapters might be needed, e.g., removing the command echo if present.
         // For example, if '03' is sent, the response might be '03\r\n4300\r\n>'. We want to remove '03'.
-        if (this.command != null && !rawResponse.equals("TIMEOUT") && !rawResponse.equals("IO_ERROR") && rawResponse.startsWith(this.command)) { // Added null check for safety and ensure not TIMEOUT/IO_ERROR
-            Log.d(TAG, "readResult: Raw response before stripping command echo: '" + rawResponse + "'");
-            rawResponse = rawResponse.substring(this.command.length()).trim();
-            Log.d(TAG, "readResult: Raw response after stripping command echo: '" + rawResponse + "'");
+        if (this.command != null && rawResponse.startsWith(this.command)) {
+            rawResponse = rawResponse.substring(this.command.length());
         }
+        ResponseStatus error = ResponsePayload.errorStatus(reader);
+        status = error != null ? error : ResponseStatus.OK;
 
         Log.i(TAG, "readResult: Final processed rawResponse: '" + rawResponse + "'");
+        if (status == ResponseStatus.OK) {
+            performCalculations();
+        } else {
+            value = 0; // Nothing to calculate from an ELM327 message
+        }
     }
 
-
-
-    // This method reads the raw data from the car's ECU.
-    // This method seems unused given the current readResult implementation. Consider removing if confirmed.
-    private String readRawData(InputStream in) throws IOException {
-        StringBuilder responseBuffer = new StringBuilder();
-        long startTime = System.currentTimeMillis();
-        // Read character by character until we see the '>' prompt or time out.
-        while ((System.currentTimeMillis() - startTime) < 2000) { // Note: This uses a fixed 2s timeout
-            if (in.available() > 0) {
-                char c = (char) in.read();
-                if (c == '>') {
-                    break;
-                }
-                responseBuffer.append(c);
-            }
+    // Takes data bytes obtained outside of run(), e.g. this command's share of a multi-PID reply.
+    public void applyData(int[] source, int offset, int length) {
+        int count = Math.min(length, data.length);
+        System.arraycopy(source, offset, data, 0, count);
+        dataLength = count;
+        status = ResponseStatus.OK;
+        rawResponse = null;
+        int expected = PidDecoders.dataLength(pid);
+        if (expected > 0 && dataLength < expected) {
+            status = ResponseStatus.UNPARSEABLE;
+            value = 0;
+            return;
         }
-        // Clean up the response string
-        // Corrected: use replaceAll to remove all whitespace characters if this method were to be used
-        return responseBuffer.toString().replaceAll("\\s", "").replace("\r", "").replace("\n", "").trim();
+        performCalculations();
+    }
+
+    // Records a reply that carried no data for this command.
+    public void applyStatus(ResponseStatus status) {
+        this.status = status;
+        dataLength = 0;
+        rawResponse = null;
+        value = 0;
     }
 
     // Abstract method that each specific command MUST implement.
-    // This is where the parsing logic (e.g., "410C" -> 750) will go.
+    // Mode 01 commands compute value from data[0, dataLength); text commands parse rawResponse.
     protected abstract void performCalculations();
 
-    // Getter for the final, formatted result (e.g., "750 RPM")
+    // Getter for the final, formatted result (e.g., "750 RPM"); "No data" or "-" when the last reply carried no value
     public String getFormattedResult() {
-        // It's good practice to re-calculate or ensure calculations are fresh if state can change
-        // However, with the current run() flow, performCalculations() is called before this usually.
-        // If performCalculations sets value to 0 on error, this will reflect that.
+        if (!hasValue()) return describeMissingValue();
         return value + " " + unit;
     }
 
+    // What getFormattedResult() shows instead of a value: "No data" for a PID the ECU did not answer, "-" after an error
+    protected String describeMissingValue() {
+        return status == ResponseStatus.NO_DATA ? "No data" : "-";
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    // The PID byte for mode 01 commands (e.g. 0x0C for "010C"), -1 for anything else.
+    public int getPid() {
+        return pid;
+    }
+
+    public byte[] getRequestFrame() {
+        return requestFrame;
+    }
+
+    public int getTimeoutKey() {
+        return timeoutKey;
+    }
+
+    /**
+     * Makes the next runs tell the adapter how many ECUs will answer (1-15), so it returns as soon
+     * as they have instead of waiting out its timeout. 0 sends the plain request.
+     */
+    public void setResponseCountHint(int responseCountHint) {
+        this.responseCountHint = responseCountHint;
+    }
+
+    public int getResponseCountHint() {
+        return responseCountHint;
+    }
+
+    // Outcome of the last run, null if the command has not been run yet.
+    public ResponseStatus getStatus() {
+        return status;
+    }
+
+    public boolean hasResponse() {
+        return status != null;
+    }
+
+    // True if the last reply carried a value. Otherwise getResultValue() is 0, which must not be shown as a reading.
+    public boolean hasValue() {
+        return status == ResponseStatus.OK;
+    }
+
+    /**
+     * The cleaned response, e.g. "410C1AF8", or "NODATA"/"TIMEOUT"/"IO_ERROR"/"BUS_ERROR"... if there was none.
+     * Built on demand for mode 01 commands, so keep it off the polling path.
+     */
+    public String getRawResponse() {
+        if (rawResponse != null || status == null) return rawResponse;
+        switch (status) {
+            case OK:
+                StringBuilder sb = new StringBuilder(4 + dataLength * 2);
+                sb.append("41").append(command, 2, 4);
+                for (int i = 0; i < dataLength; i++) {
+                    sb.append(Character.toUpperCase(Character.forDigit(data[i] >> 4, 16)));
+                    sb.append(Character.toUpperCase(Character.forDigit(data[i] & 0xF, 16)));
+                }
+                return sb.toString();
+            case NO_DATA:
+                return "NODATA";
+            case TIMEOUT:
+                return "TIMEOUT";
+            default:
+                return status.name();
+        }
+    }
+
     // Getter for the raw integer value.
     public int getResultValue() {
         return value;
     }
+
+    // Data bytes A, B, C... of the last reply, for recording it as received
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    public int[] getData() {
+        return data;
+    }
+
+    // The value in its unit at full precision, NaN if the last reply carried none.
+    public double getNumericValue() {
+        return status == ResponseStatus.OK ? value : Double.NaN;
+    }
+
+    private static int parsePid(String command) {
+        if (command == null || command.length() != 4 || !command.startsWith("01")) return -1;
+        int high = Character.digit(command.charAt(2), 16);
+        int low = Character.digit(command.charAt(3), 16);
+        return high < 0 || low < 0 ? -1 : high << 4 | low;
+    }
 }
@@ -0,0 +1,133 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records the raw bytes exchanged with the adapter, in both directions and with timestamps, so the
+ * session can be replayed later through {@link AdapterReplay}.
+ *
+ * Wrap the socket streams with {@link #wrap(InputStream)} and {@link #wrap(OutputStream)} and hand
+ * the wrappers to the code that talks to the adapter. A failing capture file never breaks the link:
+ * capturing just stops.
+ *
+ * File format (big-endian):
+ *   int MAGIC, int VERSION, long wall-clock millis at start
+ *   per event: byte direction, long nanos since start, unsigned short length, bytes
+ */
+public class AdapterCapture implements Closeable {
+
+    private static final String TAG = "AdapterCapture";
+
+    static final int MAGIC = 0x5A434150; // "ZCAP"
+    static final int VERSION = 1;
+    static final byte TO_ADAPTER = 0;
+    static final byte FROM_ADAPTER = 1;
+
+    private static final int MAX_EVENT_LENGTH = 0xFFFF;
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final DataOutputStream sink;
+    private final long startNanos;
+    private long lastFlushNanos;
+    private boolean closed = false;
+
+    public AdapterCapture(OutputStream destination) throws IOException {
+        this.sink = new DataOutputStream(new BufferedOutputStream(destination, 64 * 1024));
+        this.startNanos = System.nanoTime();
+        this.lastFlushNanos = startNanos;
+        sink.writeInt(MAGIC);
+        sink.writeInt(VERSION);
+        sink.writeLong(System.currentTimeMillis());
+    }
+
+    public static AdapterCapture create(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return new AdapterCapture(new FileOutputStream(file));
+    }
+
+    // Bytes read through the returned stream are captured as coming from the adapter
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) record(FROM_ADAPTER, new byte[] {(byte) b}, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) record(FROM_ADAPTER, b, off, count);
+                return count;
+            }
+        };
+    }
+
+    // Bytes written through the returned stream are captured as sent to the adapter
+    public OutputStream wrap(OutputStream adapterOut) {
+        return new FilterOutputStream(adapterOut) {
+            @Override
+            public void write(int b) throws IOException {
+                // Recorded first: the reply may already be read on another thread when write() returns
+                record(TO_ADAPTER, new byte[] {(byte) b}, 0, 1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                record(TO_ADAPTER, b, off, len);
+                out.write(b, off, len); // FilterOutputStream would write byte by byte
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            sink.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not finish the capture", e);
+        }
+    }
+
+    private synchronized void record(byte direction, byte[] bytes, int offset, int length) {
+        if (closed) return;
+        long now = System.nanoTime();
+        try {
+            while (length > 0) {
+                int count = Math.min(length, MAX_EVENT_LENGTH);
+                sink.writeByte(direction);
+                sink.writeLong(now - startNanos);
+                sink.writeShort(count);
+                sink.write(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+            // Bounds what is lost if the app dies mid-session
+            if (now - lastFlushNanos > FLUSH_INTERVAL_NANOS) {
+                sink.flush();
+                lastFlushNanos = now;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Capture failed, no longer capturing", e);
+            closed = true;
+        }
+    }
+}
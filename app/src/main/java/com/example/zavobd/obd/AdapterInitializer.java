@@ -0,0 +1,129 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Brings a freshly connected adapter to the point where it answers 0100.
+ *
+ * Every connection starts with the transport settings: echo, linefeeds and spaces off (ATE0, ATL0,
+ * ATS0), so "41 0C 1A F8 \r\n" arrives as "410C1AF8\r". Headers stay off (the power-on default)
+ * and are only switched on around requests that need replies told apart per ECU; CAN formatting
+ * (ATCAF1) stays on so the adapter strips the PCI bytes.
+ *
+ * With the profile cached from an earlier connection that is followed by just ATSP with the
+ * cached protocol and 0100, five prompt-driven commands in all. Only when that fails, or on the
+ * first connection, is the adapter probed: its version (ATI), whether it supports adaptive timing
+ * (ATAT1), and the protocol.
+ * The protocol comes from the adapter's own search (ATSP0), and if even that finds nothing, from
+ * trying each protocol in turn.
+ */
+public class AdapterInitializer {
+
+    private static final String TAG = "AdapterInitializer";
+
+    // Tried one by one when the automatic search fails: CAN first (every car since 2008), then
+    // K-line, then J1850
+    private static final String[] PROTOCOLS = {"6", "8", "7", "9", "3", "4", "5", "1", "2"};
+
+    private final ObdChannel channel;
+    private String describedProtocol = null;
+    private String firstResponse = "";
+    private boolean probed = false;
+    private int requestCount = 0;
+    private long durationNanos = 0;
+
+    public AdapterInitializer(ObdChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param cached the profile saved for this adapter, null if there is none
+     * @return the profile that worked, to be saved for next time; null if no protocol answered
+     */
+    public AdapterProfile initialize(AdapterProfile cached) throws IOException {
+        long start = System.nanoTime();
+        try {
+            send("ATE0");
+            send("ATL0");
+            send("ATS0");
+            if (cached != null && tryProtocol(cached.getProtocol())) {
+                describedProtocol = cached.getProtocol();
+                return cached;
+            }
+            if (cached != null) Log.i(TAG, "Cached protocol " + cached.getProtocol() + " did not answer, probing");
+            return probe(cached);
+        } finally {
+            durationNanos = System.nanoTime() - start;
+            Log.i(TAG, (probed ? "Probed" : "Initialised from profile") + " in " + getDurationMillis()
+                    + " ms, " + requestCount + " commands, protocol " + describedProtocol);
+        }
+    }
+
+    private AdapterProfile probe(AdapterProfile cached) throws IOException {
+        probed = true;
+        send("ATI");
+        String version = channel.getReader().getText().trim();
+        int options = AdapterProfile.MULTI_PID;
+        if (send("ATAT1").endsWith("OK")) options |= AdapterProfile.ADAPTIVE_TIMING;
+
+        String protocol = null;
+        if (tryProtocol("0")) {
+            protocol = AdapterProfile.protocolOf(send("ATDPN"));
+        } else {
+            for (String candidate : PROTOCOLS) {
+                if (cached != null && candidate.equals(cached.getProtocol())) continue; // Already failed
+                if (tryProtocol(candidate)) {
+                    protocol = candidate;
+                    break;
+                }
+            }
+        }
+        if (protocol == null) {
+            Log.w(TAG, "No protocol answered 0100, last reply " + firstResponse);
+            return null;
+        }
+        // Fixed from now on, so later connections do not search
+        send("ATSP" + protocol);
+        describedProtocol = protocol;
+        AdapterProfile profile = new AdapterProfile(protocol, options, version);
+        Log.i(TAG, "Adapter profile: " + profile);
+        return profile;
+    }
+
+    // Selects the protocol ("0" for the automatic search) and checks that the vehicle answers on it
+    private boolean tryProtocol(String protocol) throws IOException {
+        send("ATSP" + protocol);
+        firstResponse = send("0100");
+        return firstResponse.contains("4100");
+    }
+
+    private String send(String command) throws IOException {
+        requestCount++;
+        return channel.executeText(command);
+    }
+
+    // The protocol now in use, as ATDPN would report it; null if none was found
+    public String getDescribedProtocol() {
+        return describedProtocol;
+    }
+
+    // The last reply to 0100, containing "4100" if the vehicle answered
+    public String getFirstResponse() {
+        return firstResponse;
+    }
+
+    // False if the cached profile was enough
+    public boolean wasProbed() {
+        return probed;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000L;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.zavobd.obd;
+
+import java.util.Locale;
+
+/**
+ * What was learned about one adapter (and the vehicle it is plugged into) during a full
+ * initialisation, so the next connection can skip the probing.
+ *
+ * Kept as one short line of text for persisting: protocol, option flags, then the ATI version,
+ * e.g. "6;3;ELM327 v1.5".
+ */
+public class AdapterProfile {
+
+    // The adapter answered ATAT1 with OK; many clones reply "?" and keep fixed timing
+    public static final int ADAPTIVE_TIMING = 1;
+    // The vehicle accepted multi-PID mode 01 requests
+    public static final int MULTI_PID = 1 << 1;
+
+    private final String protocol;
+    private final int options;
+    private final String version;
+
+    /**
+     * @param protocol the protocol number ATSP takes, e.g. "6" (no "A" prefix)
+     * @param options  ADAPTIVE_TIMING and MULTI_PID flags
+     * @param version  the ATI reply, e.g. "ELM327 v1.5"
+     */
+    public AdapterProfile(String protocol, int options, String version) {
+        this.protocol = protocol;
+        this.options = options;
+        this.version = version != null ? version : "";
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean has(int option) {
+        return (options & option) != 0;
+    }
+
+    // The same profile with an option switched on or off
+    public AdapterProfile with(int option, boolean enabled) {
+        return new AdapterProfile(protocol, enabled ? options | option : options & ~option, version);
+    }
+
+    public String encode() {
+        return protocol + ";" + options + ";" + version;
+    }
+
+    // Parses the output of encode(). Returns null if the text is not a valid profile.
+    public static AdapterProfile decode(String text) {
+        if (text == null) return null;
+        String[] parts = text.split(";", 3);
+        if (parts.length != 3 || !isProtocolNumber(parts[0])) return null;
+        try {
+            return new AdapterProfile(parts[0], Integer.parseInt(parts[1]), parts[2]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The protocol of an ATDPN reply: "A6" (found by the automatic search) and "6" are both "6"
+    public static String protocolOf(String describedProtocolNumber) {
+        if (describedProtocolNumber == null || describedProtocolNumber.isEmpty()) return null;
+        String protocol = describedProtocolNumber.substring(describedProtocolNumber.length() - 1).toUpperCase(Locale.US);
+        return isProtocolNumber(protocol) ? protocol : null;
+    }
+
+    // 1-9 and A-C; 0 is "automatic", which is not a protocol
+    private static boolean isProtocolNumber(String text) {
+        if (text.length() != 1) return false;
+        char c = text.charAt(0);
+        return (c >= '1' && c <= '9') || (c >= 'A' && c <= 'C');
+    }
+
+    @Override
+    public String toString() {
+        return version + ", protocol " + protocol
+                + (has(ADAPTIVE_TIMING) ? "" : ", no adaptive timing")
+                + (has(MULTI_PID) ? "" : ", single PID requests");
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.zavobd.obd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Plays an {@link AdapterCapture} back as a stand-in adapter, so a recorded session runs through
+ * the real reader, decoders and CommunicationThread.
+ *
+ * The capture is split into exchanges: a request line and the reply bytes that followed it, with
+ * their offsets in time. When the app sends a request, the next exchange with the same request is
+ * looked up (within MATCH_WINDOW, so a few extra or missing requests, e.g. timing adjustments, do
+ * not derail the replay; multi-PID requests match in any PID order) and its reply is delivered:
+ * - at speed 1 with the recorded delays, at speed N N times faster,
+ * - at AS_FAST_AS_POSSIBLE immediately.
+ * Requests out of their recorded place (timing adjustments the pacer makes at a different moment,
+ * PIDs the scheduler groups differently) get the reply recorded for the same request elsewhere
+ * without moving the replay along.
+ * A request with no recorded counterpart gets "OK" (AT commands) or "NO DATA". Once the capture is
+ * used up, or MAX_CONSECUTIVE_MISMATCHES requests in a row had no counterpart (the session went its
+ * own way), the input stream ends, unless the replay loops.
+ */
+public class AdapterReplay implements Closeable {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    private static final int MATCH_WINDOW = 256;
+    private static final int MAX_CONSECUTIVE_MISMATCHES = 32;
+
+    private final ArrayList<Exchange> exchanges = new ArrayList<>();
+    private double speed = AS_FAST_AS_POSSIBLE;
+    private boolean loop = false;
+
+    // Guarded by this
+    private int cursor = 0;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private final ArrayDeque<Chunk> toApp = new ArrayDeque<>();
+    private int chunkPosition = 0;
+    private boolean exhausted = false;
+    private boolean closed = false;
+    private long servedCount = 0;
+    private long mismatchCount = 0;
+    private int consecutiveMismatches = 0;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readFromReplay(b, off, len);
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+            writeToReplay(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writeToReplay(b, off, len);
+        }
+    };
+
+    private AdapterReplay() {
+    }
+
+    public static AdapterReplay load(File capture) throws IOException {
+        try (InputStream in = new FileInputStream(capture)) {
+            return load(in);
+        }
+    }
+
+    public static AdapterReplay load(InputStream capture) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(capture));
+        if (in.readInt() != AdapterCapture.MAGIC || in.readInt() != AdapterCapture.VERSION) {
+            throw new IOException("Not an adapter capture");
+        }
+        in.readLong(); // Wall clock at start
+
+        AdapterReplay replay = new AdapterReplay();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        Exchange last = null;
+        while (true) {
+            byte direction;
+            try {
+                direction = in.readByte();
+            } catch (EOFException e) {
+                break;
+            }
+            long nanos = in.readLong();
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            if (direction == AdapterCapture.TO_ADAPTER) {
+                // Requests may be written in pieces or several at once; they end at CR
+                for (byte b : bytes) {
+                    line.write(b);
+                    if (b == '\r') {
+                        last = new Exchange(matchKey(line.toByteArray()), nanos);
+                        replay.exchanges.add(last);
+                        line.reset();
+                    }
+                }
+            } else if (last != null) {
+                last.chunks.add(new Chunk(bytes, nanos - last.requestNanos));
+            }
+        }
+        // Requests still waiting for their prompt when the capture stopped were cut off, not answered
+        ArrayList<Exchange> exchanges = replay.exchanges;
+        while (!exchanges.isEmpty() && !exchanges.get(exchanges.size() - 1).isComplete()) {
+            exchanges.remove(exchanges.size() - 1);
+        }
+        return replay;
+    }
+
+    // 1 for recorded timing, N for N times faster, AS_FAST_AS_POSSIBLE for no delays at all
+    public AdapterReplay setSpeed(double speed) {
+        this.speed = speed;
+        return this;
+    }
+
+    // Starts over at the end of the capture instead of ending the stream, e.g. for benchmarks
+    public AdapterReplay setLoop(boolean loop) {
+        this.loop = loop;
+        return this;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public int getExchangeCount() {
+        return exchanges.size();
+    }
+
+    // Requests answered from the capture
+    public synchronized long getServedCount() {
+        return servedCount;
+    }
+
+    // Requests the capture had no answer for
+    public synchronized long getMismatchCount() {
+        return mismatchCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void writeToReplay(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            request.write(bytes[i]);
+            if (bytes[i] == '\r') {
+                answer(matchKey(request.toByteArray()));
+                request.reset();
+            }
+        }
+    }
+
+    private void answer(String request) {
+        long now = System.nanoTime();
+        Exchange exchange = find(request);
+        if (exchange == null) {
+            if (exhausted) return;
+            mismatchCount++;
+            if (++consecutiveMismatches >= MAX_CONSECUTIVE_MISMATCHES && !loop) {
+                exhausted = true;
+                notifyAll();
+                return;
+            }
+            String reply = (request.startsWith("AT") ? "OK" : "NO DATA") + "\r\r>";
+            toApp.add(new Chunk(reply.getBytes(), 0, now));
+        } else {
+            servedCount++;
+            consecutiveMismatches = 0;
+            for (Chunk chunk : exchange.chunks) {
+                long delay = speed > 0 ? (long) (chunk.offsetNanos / speed) : 0;
+                toApp.add(new Chunk(chunk.bytes, chunk.offsetNanos, now + delay));
+            }
+        }
+        notifyAll();
+    }
+
+    // The next recorded exchange with this request, moving the cursor past it
+    private Exchange find(String request) {
+        if (exchanges.isEmpty()) {
+            exhausted = true;
+            return null;
+        }
+        boolean atCommand = request.startsWith("AT");
+        for (int i = 0; i < (atCommand ? 1 : MATCH_WINDOW) && i < exchanges.size(); i++) {
+            int index = cursor + i;
+            if (index >= exchanges.size()) {
+                if (!loop) break;
+                index %= exchanges.size();
+            }
+            Exchange exchange = exchanges.get(index);
+            if (exchange.request.equals(request)) {
+                cursor = index + 1;
+                if (cursor >= exchanges.size()) {
+                    if (loop) {
+                        cursor = 0;
+                    } else {
+                        exhausted = true;
+                    }
+                }
+                return exchange;
+            }
+        }
+        // Sent out of its recorded place: any recorded reply to it will do
+        for (Exchange exchange : exchanges) {
+            if (exchange.request.equals(request)) return exchange;
+        }
+        return null;
+    }
+
+    private synchronized int readFromReplay(byte[] b, int off, int len) throws IOException {
+        try {
+            while (true) {
+                if (closed) return -1;
+                Chunk chunk = toApp.peek();
+                if (chunk == null) {
+                    if (exhausted) return -1; // End of the recorded session
+                    wait();
+                    continue;
+                }
+                long wait = chunk.dueNanos - System.nanoTime();
+                if (wait > 0) {
+                    wait(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                    continue;
+                }
+                int count = Math.min(len, chunk.bytes.length - chunkPosition);
+                System.arraycopy(chunk.bytes, chunkPosition, b, off, count);
+                chunkPosition += count;
+                if (chunkPosition == chunk.bytes.length) {
+                    toApp.poll();
+                    chunkPosition = 0;
+                }
+                return count;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // The request without CR and whitespace, upper case, with the PIDs of a multi-PID mode 01 request sorted
+    static String matchKey(byte[] line) {
+        StringBuilder sb = new StringBuilder(line.length);
+        for (byte b : line) {
+            if (b > ' ') sb.append(Character.toUpperCase((char) b));
+        }
+        String key = sb.toString();
+        if (key.length() <= 4 || key.length() % 2 != 0 || !key.startsWith("01")) return key;
+        String[] pids = new String[(key.length() - 2) / 2];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = key.substring(2 + 2 * i, 4 + 2 * i);
+        }
+        Arrays.sort(pids);
+        return "01" + String.join("", pids);
+    }
+
+    private static final class Exchange {
+        final String request;
+        final long requestNanos;
+        final ArrayList<Chunk> chunks = new ArrayList<>();
+
+        Exchange(String request, long requestNanos) {
+            this.request = request;
+            this.requestNanos = requestNanos;
+        }
+
+        boolean isComplete() {
+            for (Chunk chunk : chunks) {
+                for (byte b : chunk.bytes) {
+                    if (b == '>') return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] bytes;
+        final long offsetNanos;
+        final long dueNanos;
+
+        Chunk(byte[] bytes, long offsetNanos) {
+            this(bytes, offsetNanos, 0);
+        }
+
+        Chunk(byte[] bytes, long offsetNanos, long dueNanos) {
+            this.bytes = bytes;
+            this.offsetNanos = offsetNanos;
+            this.dueNanos = dueNanos;
+        }
+    }
+}
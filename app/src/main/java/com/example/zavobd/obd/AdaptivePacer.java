@@ -0,0 +1,263 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Learns how fast the connected adapter and ECU really answer and paces commands accordingly.
+ *
+ * Replaces the fixed sleeps that used to sit between sending a command and reading its reply.
+ * With the prompt-driven {@link ElmResponseReader} no pre-read delay is needed at all, so the only
+ * pacing left is a small gap after the prompt for clones that drop characters when commands come
+ * back-to-back. That gap starts at zero and only grows when the adapter garbles a command.
+ *
+ * From a rolling window of ECU response times the pacer also derives the adapter's ECU response
+ * timeout (ATST, in 4 ms units) and adaptive timing mode (ATAT1 or the more aggressive ATAT2),
+ * and backs off again as soon as a shortened timeout costs an answer. A response time runs from
+ * sending the request to the first byte of its reply: the prompt comes only once the adapter
+ * stopped listening for further ECUs, which takes up to the timeout itself, so timing the prompt
+ * would let every timeout raise the next one.
+ */
+public class AdaptivePacer {
+
+    private static final String TAG = "AdaptivePacer";
+
+    private static final int WINDOW_SIZE = 32;
+    private static final int MIN_SAMPLES = 16;
+    // Extra time on top of the learned p95 before the adapter gives up on the ECU
+    private static final long TIMEOUT_MARGIN_MS = 20;
+    private static final int MIN_TIMEOUT_SETTING = 0x08; // 32 ms
+    private static final int MAX_TIMEOUT_SETTING = 0xFF; // 1020 ms
+    private static final int DEFAULT_TIMEOUT_SETTING = 0x32; // ELM327 power-on default, 200 ms
+    // Tightened settings are only re-sent when they move by at least this many 4 ms steps
+    private static final int MIN_TIMEOUT_STEP = 2;
+    private static final int BACKOFF_HOLD_SAMPLES = 64;
+    private static final long MAX_GAP_MS = 50;
+    private static final int CLEAN_RESPONSES_TO_SHRINK_GAP = 50;
+
+    private final long[] window = new long[WINDOW_SIZE];
+    private final long[] scratch = new long[WINDOW_SIZE];
+    private int windowPos = 0;
+    private int windowCount = 0;
+    private long totalSamples = 0;
+
+    // PIDs (mode 01) that have answered at least once, so a later NO DATA is a pacing failure
+    private final long[] answeredPids = new long[4];
+
+    private long gapMs = 0;
+    private int cleanResponses = 0;
+    private long lastResponseNanos = 0;
+
+    private int timeoutSetting = DEFAULT_TIMEOUT_SETTING;
+    private int adaptiveMode = 1;
+    private int appliedTimeoutSetting = DEFAULT_TIMEOUT_SETTING;
+    private int appliedAdaptiveMode = 1;
+    private int holdSamples = 0;
+    private boolean adaptiveTimingSupported = true;
+    private int consecutiveFailures = 0;
+
+    // Waits out the inter-command gap, if the adapter needs one. Usually returns immediately.
+    public void awaitTurn() throws InterruptedException {
+        if (gapMs == 0 || lastResponseNanos == 0) return;
+        long waitNanos = lastResponseNanos + gapMs * 1_000_000L - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+        }
+    }
+
+    /**
+     * Records the outcome of one command sent as text.
+     *
+     * @param command  the request that was sent, e.g. "010C"
+     * @param response the cleaned response, "TIMEOUT" if no prompt arrived
+     * @param responseNanos time from sending the command to the first byte of its reply
+     */
+    public void onResponse(String command, String response, long responseNanos) {
+        if (command == null || command.startsWith("AT")) { // Adapter-local, says nothing about the ECU
+            synchronized (this) {
+                lastResponseNanos = System.nanoTime();
+            }
+            return;
+        }
+        ResponseStatus status;
+        if ("TIMEOUT".equals(response)) {
+            status = ResponseStatus.TIMEOUT;
+        } else if (response == null || response.isEmpty()) {
+            status = ResponseStatus.NOT_UNDERSTOOD;
+        } else {
+            ResponseStatus error = ResponsePayload.errorStatus(response);
+            status = error != null ? error : ResponseStatus.OK;
+        }
+        onResponse(mode01Pid(command), status, responseNanos);
+    }
+
+    /**
+     * Records the outcome of one ECU request. Allocation-free, for the polling path.
+     *
+     * @param pid    the mode 01 PID that was requested, -1 for other requests
+     * @param status how the request was answered
+     * @param responseNanos time from sending the command to the first byte of its reply
+     */
+    public synchronized void onResponse(int pid, ResponseStatus status, long responseNanos) {
+        lastResponseNanos = System.nanoTime();
+        boolean noData = status == ResponseStatus.NO_DATA;
+
+        if (status == ResponseStatus.NOT_UNDERSTOOD || status == ResponseStatus.STOPPED
+                || status == ResponseStatus.BUFFER_FULL) {
+            // The adapter did not understand what it received, most likely a dropped character, or
+            // the next command cut it short: either way commands come too fast for it
+            gapMs = Math.min(MAX_GAP_MS, gapMs + 5);
+            cleanResponses = 0;
+            Log.w(TAG, status + " after PID " + pid + ", inter-command gap now " + gapMs + " ms");
+            return;
+        }
+        if (status.isError() && status != ResponseStatus.TIMEOUT) return; // Bus or adapter fault, says nothing about timing
+
+        if (status == ResponseStatus.TIMEOUT || (noData && pid >= 0 && isAnswered(pid))) {
+            onFailure(pid);
+            return;
+        }
+        if (noData) return; // PID not supported, no timing information
+
+        consecutiveFailures = 0;
+        if (pid >= 0) markAnswered(pid);
+        if (gapMs > 0 && ++cleanResponses >= CLEAN_RESPONSES_TO_SHRINK_GAP) {
+            gapMs--;
+            cleanResponses = 0;
+        }
+
+        window[windowPos] = responseNanos;
+        windowPos = (windowPos + 1) % WINDOW_SIZE;
+        if (windowCount < WINDOW_SIZE) windowCount++;
+        totalSamples++;
+        if (holdSamples > 0) holdSamples--;
+        recompute();
+    }
+
+    // Adapters that answer ATAT with "?" only get the timeout (ATST) adjusted
+    public synchronized void setAdaptiveTimingSupported(boolean supported) {
+        adaptiveTimingSupported = supported;
+    }
+
+    // True when the adapter's timing settings should be updated.
+    public synchronized boolean hasPendingAdjustment() {
+        return timeoutSetting != appliedTimeoutSetting
+                || (adaptiveTimingSupported && adaptiveMode != appliedAdaptiveMode);
+    }
+
+    // The AT commands that bring the adapter in line with the learned values.
+    public synchronized String[] getAdjustmentCommands() {
+        String timeout = String.format(Locale.US, "ATST%02X", timeoutSetting);
+        return adaptiveTimingSupported ? new String[] {timeout, "ATAT" + adaptiveMode} : new String[] {timeout};
+    }
+
+    public synchronized void onAdjustmentApplied() {
+        appliedTimeoutSetting = timeoutSetting;
+        appliedAdaptiveMode = adaptiveMode;
+        Log.i(TAG, "Adapter timing updated: " + describe());
+    }
+
+    // The adapter lost its settings (power cycle, ATZ): the learned values are sent again
+    public synchronized void onAdapterReset() {
+        appliedTimeoutSetting = DEFAULT_TIMEOUT_SETTING;
+        appliedAdaptiveMode = 1;
+    }
+
+    // The ECU timeout the adapter is using right now, which bounds how long it can stay silent
+    public synchronized long getAppliedTimeoutMs() {
+        return appliedTimeoutSetting * 4L;
+    }
+
+    // --- Learned values, exposed so adapters can be compared ---
+
+    public synchronized long getInterCommandGapMs() {
+        return gapMs;
+    }
+
+    public synchronized int getTimeoutSetting() {
+        return timeoutSetting;
+    }
+
+    public synchronized long getTimeoutMs() {
+        return timeoutSetting * 4L;
+    }
+
+    public synchronized int getAdaptiveMode() {
+        return adaptiveMode;
+    }
+
+    public synchronized double getMeanLatencyMs() {
+        if (windowCount == 0) return 0;
+        long sum = 0;
+        for (int i = 0; i < windowCount; i++) sum += window[i];
+        return sum / (double) windowCount / 1e6;
+    }
+
+    public synchronized double getP95LatencyMs() {
+        return percentileNanos(95) / 1e6;
+    }
+
+    public synchronized long getSampleCount() {
+        return totalSamples;
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.US,
+                "mean=%.1fms p95=%.1fms samples=%d ATST%02X (%dms) ATAT%d gap=%dms",
+                getMeanLatencyMs(), getP95LatencyMs(), totalSamples,
+                timeoutSetting, getTimeoutMs(), adaptiveMode, gapMs);
+    }
+
+    private void recompute() {
+        if (windowCount < MIN_SAMPLES || holdSamples > 0) return;
+        long p50 = percentileNanos(50);
+        long p95 = percentileNanos(95);
+        long targetMs = p95 / 1_000_000L + TIMEOUT_MARGIN_MS;
+        int target = (int) Math.min(MAX_TIMEOUT_SETTING, Math.max(MIN_TIMEOUT_SETTING, (targetMs + 3) / 4));
+        // Only go aggressive when the ECU is consistent; jittery ECUs keep the standard adaptive timing
+        int mode = p95 < 2 * p50 ? 2 : 1;
+        if (Math.abs(target - appliedTimeoutSetting) >= MIN_TIMEOUT_STEP || mode != appliedAdaptiveMode) {
+            timeoutSetting = target;
+            adaptiveMode = mode;
+        }
+    }
+
+    private void onFailure(int pid) {
+        consecutiveFailures++;
+        if (consecutiveFailures < 2) return; // A single miss can be the ECU, two in a row is us
+        consecutiveFailures = 0;
+        // Back off: standard adaptive timing with twice the timeout, and keep it for a while
+        timeoutSetting = Math.min(MAX_TIMEOUT_SETTING, Math.max(DEFAULT_TIMEOUT_SETTING, appliedTimeoutSetting * 2));
+        adaptiveMode = 1;
+        holdSamples = BACKOFF_HOLD_SAMPLES;
+        Log.w(TAG, String.format(Locale.US, "Missed answers after PID %d, backing off to ATST%02X ATAT1",
+                pid, timeoutSetting));
+    }
+
+    private long percentileNanos(int percentile) {
+        if (windowCount == 0) return 0;
+        System.arraycopy(window, 0, scratch, 0, windowCount);
+        Arrays.sort(scratch, 0, windowCount);
+        int index = Math.min(windowCount - 1, (windowCount * percentile) / 100);
+        return scratch[index];
+    }
+
+    private static int mode01Pid(String command) {
+        if (command.length() != 4 || !command.startsWith("01")) return -1;
+        try {
+            return Integer.parseInt(command.substring(2), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean isAnswered(int pid) {
+        return (answeredPids[pid >> 6] & (1L << (pid & 63))) != 0;
+    }
+
+    private void markAnswered(int pid) {
+        answeredPids[pid >> 6] |= 1L << (pid & 63);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Read deadlines per kind of request, learned from how long each kind takes on this vehicle:
+ * every mode 01 PID on its own, multi-PID requests, and every other mode (03, 02, 09...).
+ *
+ * Each kind keeps a {@link LatencyHistogram}; once it has MIN_SAMPLES, its deadline is the p99
+ * plus half of it again plus MARGIN_MS, within [floor, MAX_TIMEOUT_MS]. The floor is the adapter's
+ * own ECU timeout plus a margin, since the adapter always answers within that, if only with NO
+ * DATA. Until then a kind gets the reader's default. A request that runs into its deadline counts
+ * as a sample of twice the deadline, so a deadline that turns out too tight grows again quickly.
+ *
+ * On a CAN car a hung 010D then costs a few hundred ms instead of 5 s, while a multi-frame mode 03
+ * on a slow K-line car gets more than the default if it needs it.
+ *
+ * The histograms are kept per vehicle ({@link #encode()}), so the next connection starts with them.
+ */
+public class CommandTimeouts {
+
+    private static final String TAG = "CommandTimeouts";
+
+    // Key of multi-PID mode 01 requests; single PIDs use the PID itself, other modes OTHER_MODES + mode
+    public static final int MULTI_PID = 0x100;
+    private static final int OTHER_MODES = 0x101;
+    private static final int KEYS = OTHER_MODES + 0x100;
+    // For requests that are not learned, e.g. AT commands
+    public static final int NO_KEY = -1;
+
+    private static final int MIN_SAMPLES = 20;
+    private static final int PERCENTILE = 99;
+    private static final long MARGIN_MS = 50;
+    private static final long MAX_TIMEOUT_MS = 10_000;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[KEYS];
+
+    // The key of a request frame such as "010C\r", "010C1\r", "010C0D1\r" or "03\r". Allocation-free.
+    public static int keyOf(byte[] frame, int length) {
+        int digits = 0;
+        while (digits < length && ResponsePayload.hexValue(frame[digits]) >= 0) digits++;
+        if (digits < 2) return NO_KEY; // AT commands and anything else that is not an OBD request
+        int mode = ResponsePayload.hexValue(frame[0]) << 4 | ResponsePayload.hexValue(frame[1]);
+        if (mode != 0x01) return OTHER_MODES + mode;
+        if (digits < 4) return NO_KEY;
+        // "010C" and "010C1" (with a response count) are one PID, anything longer asks for several
+        if (digits > 5) return MULTI_PID;
+        return ResponsePayload.hexValue(frame[2]) << 4 | ResponsePayload.hexValue(frame[3]);
+    }
+
+    public static int keyOf(String command) {
+        return command == null ? NO_KEY : keyOf(command.getBytes(), command.length());
+    }
+
+    /**
+     * @param key     from keyOf(), NO_KEY for the default
+     * @param floorMs the shortest deadline that is safe right now
+     * @return how long to wait for the prompt
+     */
+    public synchronized long timeoutMs(int key, long floorMs) {
+        LatencyHistogram histogram = key >= 0 ? histograms[key] : null;
+        if (histogram == null || histogram.getCount() < MIN_SAMPLES) return ElmResponseReader.DEFAULT_TIMEOUT_MS;
+        long p = histogram.percentileMs(PERCENTILE);
+        return Math.min(MAX_TIMEOUT_MS, Math.max(floorMs, p + p / 2 + MARGIN_MS));
+    }
+
+    // Records the time from sending a request to its prompt
+    public synchronized void onResponse(int key, long roundTripNanos) {
+        if (key < 0) return;
+        histogram(key).add(roundTripNanos);
+    }
+
+    // The request ran into its deadline; the next deadline of its kind will be longer
+    public synchronized void onTimeout(int key, long deadlineMs) {
+        if (key < 0) return;
+        histogram(key).add(Math.min(MAX_TIMEOUT_MS, deadlineMs * 2) * 1_000_000L);
+        Log.w(TAG, String.format(Locale.US, "%s timed out after %d ms", describeKey(key), deadlineMs));
+    }
+
+    private LatencyHistogram histogram(int key) {
+        if (histograms[key] == null) histograms[key] = new LatencyHistogram();
+        return histograms[key];
+    }
+
+    /**
+     * The learned histograms as one line of text for persisting, kinds separated by ' ', e.g.
+     * "12=10:30,11:2 256=13:25".
+     */
+    public synchronized String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (int key = 0; key < KEYS; key++) {
+            if (histograms[key] == null || histograms[key].getCount() == 0) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(key).append('=').append(histograms[key].encode());
+        }
+        return sb.toString();
+    }
+
+    // Takes over the histograms of an earlier connection to the same vehicle; invalid entries are skipped
+    public synchronized void restore(String encoded) {
+        if (encoded == null || encoded.isEmpty()) return;
+        int restored = 0;
+        for (String entry : encoded.split(" ")) {
+            int equals = entry.indexOf('=');
+            if (equals < 0) continue;
+            try {
+                int key = Integer.parseInt(entry.substring(0, equals));
+                LatencyHistogram histogram = LatencyHistogram.decode(entry.substring(equals + 1));
+                if (key < 0 || key >= KEYS || histogram == null) continue;
+                histograms[key] = histogram;
+                restored++;
+            } catch (NumberFormatException e) {
+                // Skip it
+            }
+        }
+        Log.i(TAG, "Restored learned timeouts of " + restored + " request kinds");
+    }
+
+    // Learned deadlines, for logs and comparing vehicles
+    public synchronized String describe(long floorMs) {
+        StringBuilder sb = new StringBuilder();
+        for (int key = 0; key < KEYS; key++) {
+            if (histograms[key] == null || histograms[key].getCount() < MIN_SAMPLES) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(describeKey(key)).append(' ').append(timeoutMs(key, floorMs)).append(" ms");
+        }
+        return sb.length() > 0 ? sb.toString() : "none learned";
+    }
+
+    private static String describeKey(int key) {
+        if (key == MULTI_PID) return "multi-PID";
+        if (key >= OTHER_MODES) return String.format(Locale.US, "mode %02X", key - OTHER_MODES);
+        return String.format(Locale.US, "01%02X", key);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.zavobd.obd;
+
+// Any mode 01 PID from the PidDecoders catalog, decoded by its table entry instead of a dedicated class.
+public class DecodedPidCommand extends AbstractObdCommand {
+
+    private final PidDecoder decoder;
+    private double decodedValue = 0;
+
+    public DecodedPidCommand(PidDecoder decoder) {
+        super(decoder.getCommand(), decoder.getName(), decoder.getUnit());
+        this.decoder = decoder;
+    }
+
+    @Override
+    protected void performCalculations() {
+        if (!decoder.isNumeric()) {
+            this.value = data[0];
+            return;
+        }
+        decodedValue = decoder.decode(data);
+        if (!decoder.isInRange(decodedValue)) {
+            // Cannot come from a well-formed reply, so the bytes were not what we asked for
+            status = ResponseStatus.UNPARSEABLE;
+            decodedValue = 0;
+        }
+        this.value = (int) Math.round(decodedValue);
+    }
+
+    public PidDecoder getDecoder() {
+        return decoder;
+    }
+
+    // The value with its full precision, e.g. 0.745 V for an O2 sensor
+    public double getDecodedValue() {
+        return decodedValue;
+    }
+
+    @Override
+    public double getNumericValue() {
+        if (status != ResponseStatus.OK) return Double.NaN;
+        return decoder.isNumeric() ? decodedValue : value;
+    }
+
+    @Override
+    public String getFormattedResult() {
+        if (!hasValue()) return describeMissingValue();
+        return decoder.isNumeric() ? decoder.format(decodedValue) : decoder.formatText(data, dataLength);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.zavobd.obd;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Everything one {@link DiagnosticSweep} found: the stored, pending and permanent codes, and the
+ * freeze frame with the code that triggered it.
+ */
+public class DiagnosticReport {
+
+    final ArrayList<String> storedCodes = new ArrayList<>();
+    final ArrayList<String> pendingCodes = new ArrayList<>();
+    final ArrayList<String> permanentCodes = new ArrayList<>();
+    // False if the vehicle did not answer mode 0A (non-CAN vehicles have no permanent codes)
+    boolean permanentSupported = false;
+    String freezeFrameCode = null;
+    // Why a DTC mode went unanswered even after a retry (e.g. BUS_ERROR), null if all of them were answered
+    ResponseStatus error = null;
+    // PID name -> formatted value, in PID order
+    final LinkedHashMap<String, String> freezeFrame = new LinkedHashMap<>();
+    long durationNanos;
+    int requestCount;
+
+    public ArrayList<String> getStoredCodes() {
+        return storedCodes;
+    }
+
+    public ArrayList<String> getPendingCodes() {
+        return pendingCodes;
+    }
+
+    public ArrayList<String> getPermanentCodes() {
+        return permanentCodes;
+    }
+
+    public boolean isPermanentSupported() {
+        return permanentSupported;
+    }
+
+    // The code stored with the freeze frame, e.g. "P0133", or null if there is no freeze frame
+    public String getFreezeFrameCode() {
+        return freezeFrameCode;
+    }
+
+    public LinkedHashMap<String, String> getFreezeFrame() {
+        return freezeFrame;
+    }
+
+    // Set if a DTC mode got an error instead of an answer, so its codes may be missing; null otherwise
+    public ResponseStatus getError() {
+        return error;
+    }
+
+    public boolean hasCodes() {
+        return !storedCodes.isEmpty() || !pendingCodes.isEmpty() || !permanentCodes.isEmpty();
+    }
+
+    // Wall time of the whole sweep
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000L;
+    }
+
+    // Vehicle requests sent, AT commands not included
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        parts.add("stored " + storedCodes);
+        parts.add("pending " + pendingCodes);
+        if (permanentSupported) parts.add("permanent " + permanentCodes);
+        if (error != null) parts.add("incomplete: " + error);
+        if (freezeFrameCode != null) parts.add("freeze frame of " + freezeFrameCode + " " + freezeFrame);
+        return String.join(", ", parts) + " in " + getDurationMillis() + " ms, " + requestCount + " requests";
+    }
+}
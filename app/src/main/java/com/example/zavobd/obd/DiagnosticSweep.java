@@ -0,0 +1,178 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads all diagnostic state in one go: stored (03), pending (07) and permanent (0A) codes, then
+ * the freeze frame (mode 02, frame 0) if there are codes.
+ *
+ * The wire lock is held for the whole sweep, so the requests go out back to back with no live
+ * polls or idle waits between them, and headers are switched on once for all three DTC modes
+ * instead of around each. Mode 0A is only asked on CAN, where it exists. The freeze frame is read
+ * with headers off: first the code that triggered it (020200), then its supported-PID bitmaps,
+ * then the supported PIDs the catalog can decode, up to three per request on CAN.
+ *
+ * A DTC mode that fails with a transient error (BUS ERROR, STOPPED...) is asked again once; if it
+ * fails again the report says so rather than passing the missing codes off as none.
+ *
+ * When live polling addresses one ECU physically, the DTC modes are still broadcast to all of them
+ * and the physical header is restored afterwards.
+ */
+public class DiagnosticSweep {
+
+    private static final String TAG = "DiagnosticSweep";
+    // Mode 02 requests carry PID and frame number pairs; a CAN single frame has room for three
+    private static final int MAX_FREEZE_FRAME_PIDS_PER_REQUEST = 3;
+
+    private final ObdChannel channel;
+    private final int[] payload = new int[256];
+    // Request header live polling uses, e.g. 0x7E0; 0 when it broadcasts
+    private volatile int physicalHeader = 0;
+
+    public DiagnosticSweep(ObdChannel channel) {
+        this.channel = channel;
+    }
+
+    public void setPhysicalHeader(int physicalHeader) {
+        this.physicalHeader = physicalHeader;
+    }
+
+    /**
+     * @param describedProtocol the ATDPN reply, e.g. "A6"; null if unknown (treated as CAN without headers)
+     */
+    public DiagnosticReport run(String describedProtocol) throws IOException, InterruptedException {
+        DiagnosticReport report = new DiagnosticReport();
+        long start = System.nanoTime();
+        boolean can = describedProtocol == null || Mode01Batcher.isCanProtocol(describedProtocol);
+        int headerDigits = IsoTpAssembler.headerDigitsFor(describedProtocol);
+
+        ReentrantLock wireLock = channel.getWireLock();
+        wireLock.lock();
+        try {
+            int header = physicalHeader;
+            if (header != 0) channel.executeText("ATSH7DF"); // Codes from every ECU
+            if (headerDigits != IsoTpAssembler.HEADERS_OFF) channel.executeText("ATH1");
+            try {
+                readCodes(report, "03", can, headerDigits);
+                readCodes(report, "07", can, headerDigits);
+                if (can) readCodes(report, "0A", true, headerDigits);
+            } finally {
+                if (headerDigits != IsoTpAssembler.HEADERS_OFF) channel.executeText("ATH0");
+                if (header != 0) channel.executeText(String.format(Locale.US, "ATSH%03X", header));
+            }
+            if (!report.storedCodes.isEmpty() || !report.pendingCodes.isEmpty()) {
+                readFreezeFrame(report, can);
+            }
+        } finally {
+            wireLock.unlock();
+        }
+        report.durationNanos = System.nanoTime() - start;
+        Log.i(TAG, "Sweep: " + report);
+        return report;
+    }
+
+    private void readCodes(DiagnosticReport report, String mode, boolean can, int headerDigits)
+            throws IOException, InterruptedException {
+        DtcCommand command = new DtcCommand(mode);
+        command.setFormat(can, headerDigits);
+        channel.execute(command);
+        report.requestCount++;
+        if (command.getStatus().getRecovery() == ResponseStatus.Recovery.RETRY) {
+            Log.w(TAG, "Mode " + mode + " got " + command.getStatus() + ", asking again");
+            channel.execute(command);
+            report.requestCount++;
+        }
+        if (command.getStatus().isError() && report.error == null) report.error = command.getStatus();
+        switch (mode) {
+            case "03": report.storedCodes.addAll(command.getFormattedCodes()); break;
+            case "07": report.pendingCodes.addAll(command.getFormattedCodes()); break;
+            default:
+                report.permanentSupported = command.getStatus() == ResponseStatus.OK;
+                report.permanentCodes.addAll(command.getFormattedCodes());
+                break;
+        }
+    }
+
+    private void readFreezeFrame(DiagnosticReport report, boolean can) throws IOException {
+        int length = request(report, "020200");
+        int at = find(length, 0x02);
+        if (at < 0 || at + 5 > length || (payload[at + 3] == 0 && payload[at + 4] == 0)) {
+            return; // No freeze frame stored
+        }
+        report.freezeFrameCode = PidDecoders.formatDtc(payload[at + 3], payload[at + 4]);
+
+        SupportedPids supported = new SupportedPids();
+        for (int basePid : SupportedPids.BITMAP_PIDS) {
+            length = request(report, String.format(Locale.US, "02%02X00", basePid));
+            at = find(length, basePid);
+            if (at < 0 || at + 7 > length) break;
+            supported.addBitmap(basePid, payload[at + 3], payload[at + 4], payload[at + 5], payload[at + 6]);
+            if (!supported.hasNextBitmap(basePid)) break;
+        }
+
+        int perRequest = can ? MAX_FREEZE_FRAME_PIDS_PER_REQUEST : 1;
+        int[] group = new int[perRequest];
+        int grouped = 0;
+        for (int pid = 0x03; pid < 0x100; pid++) {
+            // Bitmaps and the triggering code are already known
+            if (pid % 0x20 == 0 || !supported.isSupported(pid) || PidDecoders.dataLength(pid) == 0) continue;
+            group[grouped++] = pid;
+            if (grouped == perRequest) {
+                readFreezeFramePids(report, group, grouped);
+                grouped = 0;
+            }
+        }
+        if (grouped > 0) readFreezeFramePids(report, group, grouped);
+    }
+
+    // Asks for the PIDs in one request and falls back to one by one if the vehicle does not answer that
+    private void readFreezeFramePids(DiagnosticReport report, int[] pids, int count) throws IOException {
+        StringBuilder request = new StringBuilder("02");
+        for (int i = 0; i < count; i++) request.append(String.format(Locale.US, "%02X00", pids[i]));
+        int found = parseFreezeFrame(report, request(report, request.toString()));
+        if (found == 0 && count > 1) {
+            for (int i = 0; i < count; i++) {
+                parseFreezeFrame(report, request(report, String.format(Locale.US, "02%02X00", pids[i])));
+            }
+        }
+    }
+
+    // "42 PID 00 data PID 00 data ...": decodes every PID of the reply, returns how many there were
+    private int parseFreezeFrame(DiagnosticReport report, int length) {
+        int found = 0;
+        int i = 0;
+        while (i < length && payload[i] != 0x42) i++;
+        i++;
+        int[] data = new int[8];
+        while (i + 2 < length) {
+            int pid = payload[i];
+            PidDecoder decoder = PidDecoders.get(pid);
+            int dataLength = PidDecoders.dataLength(pid);
+            if (decoder == null || dataLength == 0 || i + 2 + dataLength > length) break;
+            System.arraycopy(payload, i + 2, data, 0, dataLength);
+            String value = decoder.isNumeric() ? decoder.format(decoder.decode(data)) : decoder.formatText(data, dataLength);
+            report.freezeFrame.put(decoder.getName(), value);
+            found++;
+            i += 2 + dataLength;
+        }
+        return found;
+    }
+
+    private int request(DiagnosticReport report, String request) throws IOException {
+        channel.executeText(request);
+        report.requestCount++;
+        return ResponsePayload.decode(channel.getReader(), payload);
+    }
+
+    // Position of "42 <pid> 00" in the payload, or -1
+    private int find(int length, int pid) {
+        for (int i = 0; i + 2 < length; i++) {
+            if (payload[i] == 0x42 && payload[i + 1] == pid && payload[i + 2] == 0x00) return i;
+        }
+        return -1;
+    }
+}
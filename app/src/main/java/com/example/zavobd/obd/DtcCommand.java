@@ -5,79 +5,129 @@ import android.util.Log;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads trouble codes: stored (mode 03), pending (07) or permanent (0A).
+ *
+ * The reply is assembled per ECU by {@link IsoTpAssembler}, so long lists spread over several CAN
+ * frames and answers from several ECUs at once are all decoded. On CAN each ECU's message is
+ * "43 <count> A B A B ...", on the older protocols every line is "43 A B A B A B" padded with
+ * zeros. Codes reported by more than one ECU are listed once.
+ */
 public class DtcCommand extends AbstractObdCommand {
 
-    // We override the default value and unit, as this command returns a list.
+    private static final String TAG = "DtcCommand";
+
+    private final int responseSid;
+    private final IsoTpAssembler assembler = new IsoTpAssembler();
+    private boolean canProtocol = true;
+    private int headerDigits = IsoTpAssembler.HEADERS_OFF;
+
     private final List<String> troubleCodes = new ArrayList<>();
+    // ECU that reported each code, IsoTpAssembler.NO_HEADER when headers were off
+    private final List<Integer> codeEcus = new ArrayList<>();
 
     public DtcCommand() {
-        super("03", "Diagnostic Trouble Codes", "");
+        this("03");
+    }
+
+    // mode is "03", "07" or "0A"
+    public DtcCommand(String mode) {
+        super(mode, nameOf(mode), "");
+        this.responseSid = 0x40 + Integer.parseInt(mode, 16);
+    }
+
+    private static String nameOf(String mode) {
+        switch (mode) {
+            case "07": return "Pending Trouble Codes";
+            case "0A": return "Permanent Trouble Codes";
+            default: return "Diagnostic Trouble Codes";
+        }
+    }
+
+    /**
+     * How the reply is laid out: CAN replies carry a code count, and with headers on (ATH1) the
+     * headers tell ECUs apart. See {@link IsoTpAssembler#headerDigitsFor(String)}.
+     */
+    public void setFormat(boolean canProtocol, int headerDigits) {
+        this.canProtocol = canProtocol;
+        this.headerDigits = headerDigits;
     }
 
     @Override
-    protected void performCalculations() {
-        Log.i("DtcCommand", "performCalculations started. Raw response: '" + rawResponse + "'");
-        // Clear any previous codes
+    protected void readReply(ElmResponseReader reader) {
         troubleCodes.clear();
-
-        // The response for DTCs (03) is complex. Example: "4301330171"
-        // "43" is the header. The rest are pairs of bytes representing codes.
-        // "0133" and "0171" are two separate codes.
-        if (rawResponse != null && rawResponse.startsWith("43")) {
-            String codes = rawResponse.substring(2); // Remove the "43" header
-            Log.i("DtcCommand", "Codes string after removing '43': '" + codes + "'");
-            // Loop through the response string, taking 4 characters (2 bytes) at a time.
-            for (int i = 0; i < codes.length(); i += 4) {
-                if (i + 4 <= codes.length()) {
-                    String hexCode = codes.substring(i, i + 4);
-                    // Ignore the "0000" padding that some cars send
-                    Log.d("DtcCommand", "Processing hexCode: '" + hexCode + "'");
-                    if (!hexCode.equals("0000")) {
-                        troubleCodes.add(formatDtc(hexCode));
-                        Log.d("DtcCommand", "Added formatted DTC: '" + formatDtc(hexCode) + "'");
-                    }
+        codeEcus.clear();
+        rawResponse = null;
+        int messages = assembler.assemble(reader, headerDigits);
+        boolean answered = false;
+        for (int m = 0; m < messages; m++) {
+            int length = assembler.getLength(m);
+            if (length == 0 || assembler.getByte(m, 0) != responseSid) continue;
+            answered = true;
+            if (!assembler.isComplete(m)) {
+                Log.w(TAG, "Incomplete reply from ECU " + Integer.toHexString(assembler.getEcu(m)) + ", keeping what arrived");
+            }
+            int first = 1;
+            int end = length;
+            if (canProtocol) {
+                first = 2; // Skip the count
+                if (length > 1) end = Math.min(length, first + 2 * assembler.getByte(m, 1));
+            }
+            for (int i = first; i + 1 < end; i += 2) {
+                int a = assembler.getByte(m, i);
+                int b = assembler.getByte(m, i + 1);
+                if (a == 0 && b == 0) continue; // Padding
+                String code = PidDecoders.formatDtc(a, b);
+                if (!troubleCodes.contains(code)) {
+                    troubleCodes.add(code);
+                    codeEcus.add(assembler.getEcu(m));
                 }
             }
-        } else {
-            Log.w("DtcCommand", "rawResponse is null or does not start with '43'. rawResponse: '" + rawResponse + "'");
         }
-        Log.i("DtcCommand", "performCalculations finished. Trouble codes list: " + troubleCodes.toString());
+        status = answered ? ResponseStatus.OK : ResponsePayload.classify(reader);
+        Log.i(TAG, command + ": " + troubleCodes.size() + " code(s) from " + messages + " message(s): " + troubleCodes);
     }
 
-    // This method formats a 4-char hex code (e.g., "0133") into a standard DTC (e.g., "P0133")
-    private String formatDtc(String hexCode) {
-        char firstChar = hexCode.charAt(0);
-        char firstLetter;
-
-        switch (firstChar) {
-            case '0': case '1': firstLetter = 'P'; break; // Powertrain
-            case '2': case '3': firstLetter = 'P'; break; // Powertrain (manufacturer specific)
-            case '4': case '5': firstLetter = 'C'; break; // Chassis
-            case '6': case '7': firstLetter = 'C'; break; // Chassis (manufacturer specific)
-            case '8': case '9': firstLetter = 'B'; break; // Body
-            case 'A': case 'B': firstLetter = 'B'; break; // Body (manufacturer specific)
-            case 'C': case 'D': firstLetter = 'U'; break; // Network
-            case 'E': case 'F': firstLetter = 'U'; break; // Network (manufacturer specific)
-            default: firstLetter = '?'; break;
-        }
-        return firstLetter + hexCode;
+    @Override
+    protected void performCalculations() {
+        // Everything is decoded in readReply()
     }
 
-    // Custom getter to return the list of formatted codes
+    // Codes in the order they were reported, e.g. ["P0133", "U0100"]
     public List<String> getFormattedCodes() {
         return troubleCodes;
     }
 
-    // Override the default getFormattedResult to be more descriptive
+    // The ECU (CAN id, e.g. 0x7E8) that reported getFormattedCodes().get(index)
+    public int getEcu(int index) {
+        return codeEcus.get(index);
+    }
+
+    // The assembled messages as hex, one per ECU; built on demand
+    @Override
+    public String getRawResponse() {
+        if (status != ResponseStatus.OK) return super.getRawResponse();
+        StringBuilder sb = new StringBuilder();
+        for (int m = 0; m < assembler.getMessageCount(); m++) {
+            if (m > 0) sb.append(' ');
+            if (assembler.getEcu(m) != IsoTpAssembler.NO_HEADER) {
+                sb.append(Integer.toHexString(assembler.getEcu(m)).toUpperCase()).append(':');
+            }
+            for (int i = 0; i < assembler.getLength(m); i++) {
+                int b = assembler.getByte(m, i);
+                sb.append(Character.toUpperCase(Character.forDigit(b >> 4, 16)));
+                sb.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
     @Override
     public String getFormattedResult() {
-        Log.i("DtcCommand", "getFormattedResult called. Current troubleCodes: " + troubleCodes.toString());
+        if (status != null && status.isError()) return describeMissingValue();
         if (troubleCodes.isEmpty()) {
-            Log.i("DtcCommand", "Trouble codes list is empty. Returning 'No trouble codes found.'");
             return "No trouble codes found.";
         }
-        String result = String.join(", ", troubleCodes);
-        Log.i("DtcCommand", "Formatted result string: '" + result + "'"); // Assuming 'result' holds the String.join output
-        return result;
+        return String.join(", ", troubleCodes);
     }
-}
\ No newline at end of file
+}
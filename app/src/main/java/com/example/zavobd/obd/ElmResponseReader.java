@@ -0,0 +1,310 @@
+package com.example.zavobd.obd;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads prompt-terminated responses from an ELM327 adapter.
+ *
+ * A background pump thread does bulk blocking reads from the adapter stream into a ring buffer.
+ * Callers of {@link #readResponse(long)} wait on that buffer with a deadline, so there is no
+ * sleep-polling and a response is handed over as soon as the '>' prompt arrives.
+ *
+ * The bytes of the last response are kept in a reusable frame buffer, split into lines on CR/LF.
+ * Line terminators and empty lines are dropped. Only one thread should read responses at a time.
+ *
+ * An optional stall watchdog ({@link #setStallTimeoutMs(long)}) fails a read as soon as the adapter
+ * has been silent for that long. An ELM327 always answers within its own ECU timeout, if only with
+ * NO DATA, so silence beyond it means the link is gone, long before the read deadline would say so.
+ * Protocol searches and bus inits print their progress slowly and are left to the deadline.
+ *
+ * A reply that carries an ELM327 message (NO DATA, CAN ERROR, STOPPED, LV RESET...) is complete
+ * with it, and is handed over once the adapter has been quiet for ERROR_PROMPT_GRACE_MS after it,
+ * prompt or not: some adapters drop the prompt after errors, or go idle after LV RESET and ACT
+ * ALERT. A prompt that still comes is skipped by the next read.
+ */
+public class ElmResponseReader implements Closeable {
+
+    // Returned by readResponse() when the '>' prompt did not arrive before the deadline.
+    public static final int TIMEOUT = -1;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private static final int RING_SIZE = 4096; // Must be a power of two
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final int MAX_LINES = 64;
+    // How long to wait for the prompt after an ELM327 message; it normally follows within a few ms
+    private static final long ERROR_PROMPT_GRACE_NANOS = 50_000_000L;
+
+    private final InputStream in;
+    private final Object lock = new Object();
+
+    // Bytes received from the adapter but not yet consumed by a reader.
+    private final byte[] ring = new byte[RING_SIZE];
+    private int ringRead = 0;
+    private int ringCount = 0;
+    private IOException failure = null;
+    private boolean closed = false;
+    private Thread pumpThread = null;
+    // 0 when the watchdog is off
+    private volatile long stallTimeoutNanos = 0;
+
+    // The last complete (or partial, on timeout) response.
+    private byte[] frame = new byte[256];
+    private int frameLength = 0;
+    private final int[] lineStart = new int[MAX_LINES];
+    private final int[] lineEnd = new int[MAX_LINES];
+    private int lineCount = 0;
+    private boolean lineOpen = false;
+    // The last reply was handed over on an ELM327 message without its prompt, which may still come
+    private boolean promptOwed = false;
+    // System.nanoTime() when the first byte of the last response was seen, 0 if none came
+    private long firstByteNanos = 0;
+
+    public ElmResponseReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Fails reads once the adapter has been silent for this long; 0 turns the watchdog off
+    public void setStallTimeoutMs(long stallTimeoutMs) {
+        this.stallTimeoutNanos = stallTimeoutMs * 1_000_000L;
+    }
+
+    /**
+     * Waits for the next '>' prompt and stores everything before it in the frame buffer.
+     *
+     * @return the number of bytes in the frame, or {@link #TIMEOUT} if the deadline passed first.
+     *         On timeout the partial response is still available through the getters.
+     * @throws IOException if the adapter stream failed or was closed, or stalled while the
+     *         watchdog is on.
+     */
+    public int readResponse(long timeoutMs) throws IOException {
+        frameLength = 0;
+        lineCount = 0;
+        lineOpen = false;
+        firstByteNanos = 0;
+        long now = System.nanoTime();
+        long deadline = now + timeoutMs * 1_000_000L;
+        long stallNanos = stallTimeoutNanos;
+        long lastByteNanos = now;
+        boolean errorSeen = false;
+
+        synchronized (lock) {
+            startPumpLocked();
+            while (true) {
+                if (ringCount > 0) lastByteNanos = System.nanoTime();
+                while (ringCount > 0) {
+                    byte b = ring[ringRead];
+                    ringRead = (ringRead + 1) & RING_MASK;
+                    ringCount--;
+                    if (b == '>') {
+                        if (promptOwed && frameLength == 0) {
+                            promptOwed = false; // The late prompt of the previous reply
+                            continue;
+                        }
+                        endLine();
+                        lock.notifyAll(); // The pump may be waiting for free space
+                        return frameLength;
+                    }
+                    if (b != '\r' && b != '\n') {
+                        promptOwed = false;
+                        if (firstByteNanos == 0) firstByteNanos = lastByteNanos;
+                    }
+                    int lines = lineCount;
+                    append(b);
+                    if (lineCount > lines && ResponsePayload.errorStatus(frame, lineStart[lines], lineEnd[lines]) != null) {
+                        errorSeen = true;
+                    }
+                    if (frameLength == 3 && stallNanos > 0 && isSlowProgress()) stallNanos = 0;
+                }
+                lock.notifyAll();
+                if (failure != null) {
+                    throw failure;
+                }
+                if (closed) {
+                    throw new EOFException("Reader closed");
+                }
+                now = System.nanoTime();
+                if (errorSeen && now - lastByteNanos >= ERROR_PROMPT_GRACE_NANOS) {
+                    endLine();
+                    promptOwed = true;
+                    return frameLength;
+                }
+                if (stallNanos > 0 && now - lastByteNanos >= stallNanos) {
+                    endLine();
+                    throw new IOException("Adapter silent for " + (now - lastByteNanos) / 1_000_000L + " ms, link stalled");
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    endLine();
+                    return TIMEOUT;
+                }
+                if (stallNanos > 0) remaining = Math.min(remaining, lastByteNanos + stallNanos - now);
+                if (errorSeen) remaining = Math.min(remaining, lastByteNanos + ERROR_PROMPT_GRACE_NANOS - now);
+                try {
+                    lock.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Restore interrupt status
+                    endLine();
+                    return TIMEOUT;
+                }
+            }
+        }
+    }
+
+    // Drops any bytes that arrived outside of a request, e.g. a late reply to a timed out command.
+    public void discardPending() {
+        synchronized (lock) {
+            ringRead = (ringRead + ringCount) & RING_MASK;
+            ringCount = 0;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * When the first byte of the last response arrived (System.nanoTime()), 0 if none did. Unlike
+     * the prompt, it does not wait for the adapter to stop listening for further ECUs, so it tells
+     * how fast the ECU answers.
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    public byte[] getBuffer() {
+        return frame;
+    }
+
+    public int getLength() {
+        return frameLength;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLineStart(int line) {
+        return lineStart[line];
+    }
+
+    public int getLineEnd(int line) {
+        return lineEnd[line];
+    }
+
+    // The frame as text with lines joined by '\r'. Allocates, so keep it off the hot path.
+    public String getText() {
+        StringBuilder sb = new StringBuilder(frameLength + lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            if (i > 0) sb.append('\r');
+            for (int j = lineStart[i]; j < lineEnd[i]; j++) {
+                sb.append((char) (frame[j] & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    // The frame with all whitespace dropped, e.g. "410C1AF8", the form the adapter sends after ATS0.
+    // Allocates, so keep it off the hot path.
+    public String getCompactText() {
+        StringBuilder sb = new StringBuilder(frameLength);
+        for (int i = 0; i < lineCount; i++) {
+            for (int j = lineStart[i]; j < lineEnd[i]; j++) {
+                byte b = frame[j];
+                if (b != ' ' && b != '\t') sb.append((char) (b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        if (pumpThread != null) {
+            pumpThread.interrupt();
+        }
+    }
+
+    // "SEARCHING..." and "BUS INIT: ..." take seconds to complete
+    private boolean isSlowProgress() {
+        return (frame[0] == 'S' && frame[1] == 'E' && frame[2] == 'A')
+                || (frame[0] == 'B' && frame[1] == 'U' && frame[2] == 'S');
+    }
+
+    private void append(byte b) {
+        if (b == '\r' || b == '\n') {
+            endLine();
+            return;
+        }
+        if (b == 0) {
+            return; // Some clones emit NUL bytes between lines
+        }
+        if (!lineOpen) {
+            if (lineCount == MAX_LINES) {
+                return; // Unreasonably long response, keep what we have
+            }
+            lineStart[lineCount] = frameLength;
+            lineOpen = true;
+        }
+        if (frameLength == frame.length) {
+            byte[] grown = new byte[frame.length * 2];
+            System.arraycopy(frame, 0, grown, 0, frameLength);
+            frame = grown;
+        }
+        frame[frameLength++] = b;
+    }
+
+    private void endLine() {
+        if (lineOpen) {
+            lineEnd[lineCount++] = frameLength;
+            lineOpen = false;
+        }
+    }
+
+    private void startPumpLocked() {
+        if (pumpThread == null && !closed) {
+            pumpThread = new Thread(this::pump, "ElmResponseReader");
+            pumpThread.setDaemon(true);
+            pumpThread.start();
+        }
+    }
+
+    private void pump() {
+        byte[] chunk = new byte[512];
+        try {
+            while (true) {
+                int n = in.read(chunk);
+                if (n < 0) {
+                    throw new EOFException("Adapter stream closed");
+                }
+                synchronized (lock) {
+                    int offset = 0;
+                    while (offset < n) {
+                        while (ringCount == RING_SIZE && !closed) {
+                            lock.wait(); // Wait for the reader to make room
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        int writePos = (ringRead + ringCount) & RING_MASK;
+                        int space = Math.min(RING_SIZE - ringCount, RING_SIZE - writePos);
+                        int count = Math.min(space, n - offset);
+                        System.arraycopy(chunk, offset, ring, writePos, count);
+                        ringCount += count;
+                        offset += count;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for space, nothing more to do
+        }
+    }
+}
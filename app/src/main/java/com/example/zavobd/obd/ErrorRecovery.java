@@ -0,0 +1,67 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+/**
+ * Decides what the polling thread does about each reply, starting from the recovery its status
+ * calls for ({@link ResponseStatus#getRecovery()}) and escalating when errors keep coming.
+ *
+ * A transient error (BUS ERROR, STOPPED, a timeout) is retried MAX_RETRIES times, after which the
+ * PID goes without a value for this poll. ERRORS_TO_REINIT requests in a row that end that way
+ * mean the bus or the adapter is in a bad state, so the adapter is initialised again, as it is
+ * straight away for UNABLE TO CONNECT or LV RESET. If MAX_REINITS initialisations in a row do not
+ * bring back a single good reply, the link itself is re-established.
+ *
+ * Any reply that is an answer (data, NO DATA) shows the link works and resets the escalation.
+ */
+public class ErrorRecovery {
+
+    private static final String TAG = "ErrorRecovery";
+
+    private static final int MAX_RETRIES = 1;
+    private static final int ERRORS_TO_REINIT = 5;
+    private static final int MAX_REINITS = 2;
+
+    private int consecutiveErrors = 0;
+    private int reinits = 0;
+    private long errorCount = 0;
+
+    /**
+     * @param status  how the request was answered
+     * @param attempt how often the same request was already retried, 0 for the first reply
+     * @return what to do next; SKIP leaves the PID without a value until its next poll
+     */
+    public ResponseStatus.Recovery onReply(ResponseStatus status, int attempt) {
+        ResponseStatus.Recovery recovery = status.getRecovery();
+        switch (recovery) {
+            case NONE:
+                consecutiveErrors = 0;
+                reinits = 0;
+                return recovery;
+            case SKIP:
+                if (status == ResponseStatus.NO_DATA) consecutiveErrors = 0;
+                return recovery;
+            default:
+                break;
+        }
+        errorCount++;
+        if (recovery == ResponseStatus.Recovery.RETRY) {
+            if (attempt < MAX_RETRIES) return recovery;
+            if (++consecutiveErrors < ERRORS_TO_REINIT) return ResponseStatus.Recovery.SKIP;
+            Log.w(TAG, consecutiveErrors + " requests in a row failed, last with " + status);
+            recovery = ResponseStatus.Recovery.REINIT;
+        }
+        consecutiveErrors = 0;
+        if (++reinits > MAX_REINITS) {
+            Log.w(TAG, MAX_REINITS + " initialisations did not help against " + status + ", reconnecting");
+            reinits = 0;
+            return ResponseStatus.Recovery.RECONNECT;
+        }
+        return recovery;
+    }
+
+    // Adapter, bus and link errors seen so far, retries included
+    public long getErrorCount() {
+        return errorCount;
+    }
+}
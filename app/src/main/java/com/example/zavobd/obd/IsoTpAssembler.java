@@ -0,0 +1,252 @@
+package com.example.zavobd.obd;
+
+/**
+ * Rebuilds each ECU's complete message from the reply lines of any request that can span several
+ * CAN frames (modes 03, 07, 0A, 09, ...), in one pass over the reader's bytes and without Strings.
+ *
+ * With headers on (ATH1) every line is "header PCI data...", e.g. "7E8 10 0A 43 04 01 33 01 71"
+ * followed by "7E8 21 02 17 ...". The PCI byte tells a single frame (0L, L bytes), a first frame
+ * (1L LL, total length) and consecutive frames (2N, sequence N). Frames of different ECUs may be
+ * interleaved; they are told apart by their header, so each ECU gets its own message.
+ *
+ * With headers off the adapter strips the PCI: a multi-frame reply is a byte count line ("00A")
+ * followed by "0:", "1:", ... lines, and any other hex line is a message of its own. ECUs cannot
+ * be told apart, so multi-ECU replies should be requested with headers on.
+ *
+ * Lines that are not hex (SEARCHING..., NO DATA, CAN ERROR) are skipped. A multi-frame message
+ * with a missing or out-of-order frame is kept but reported as incomplete.
+ *
+ * Not thread-safe; reuse one instance per thread, results stay valid until the next assemble().
+ */
+public final class IsoTpAssembler {
+
+    // ECU of every message when headers are off
+    public static final int NO_HEADER = -1;
+    // headerDigits for assemble()
+    public static final int HEADERS_OFF = 0;
+    public static final int CAN_11_BIT = 3;
+    public static final int CAN_29_BIT = 8;
+
+    private static final int MAX_MESSAGES = 32;
+
+    private final int[] ecu = new int[MAX_MESSAGES];
+    private final int[] start = new int[MAX_MESSAGES];
+    private final int[] length = new int[MAX_MESSAGES];
+    // Declared size of the message; bytes beyond it are padding
+    private final int[] expected = new int[MAX_MESSAGES];
+    private final int[] nextSequence = new int[MAX_MESSAGES];
+    private final boolean[] broken = new boolean[MAX_MESSAGES];
+    private int messageCount = 0;
+
+    // Message bytes; every message owns [start, start + expected)
+    private int[] bytes = new int[512];
+    private int used = 0;
+
+    // State of the line being parsed
+    private int lineMessage;
+    private int lineBytes;
+    private int lineHeader;
+    private int linePci;
+    private int lineSequence;
+    private boolean lineColon;
+
+    // The header size of the ATDPN protocol, e.g. "A6" (CAN 11 bit) or "7" (CAN 29 bit); HEADERS_OFF for non-CAN
+    public static int headerDigitsFor(String describedProtocolNumber) {
+        if (describedProtocolNumber == null || describedProtocolNumber.isEmpty()) return HEADERS_OFF;
+        switch (Character.toUpperCase(describedProtocolNumber.charAt(describedProtocolNumber.length() - 1))) {
+            case '6': case '8': case 'A': case 'B': case 'C':
+                return CAN_11_BIT;
+            case '7': case '9':
+                return CAN_29_BIT;
+            default:
+                return HEADERS_OFF;
+        }
+    }
+
+    /**
+     * Splits the reply held by the reader into per-ECU messages.
+     *
+     * @param headerDigits CAN_11_BIT or CAN_29_BIT if the reply was requested with headers on, else HEADERS_OFF
+     * @return the number of messages
+     */
+    public int assemble(ElmResponseReader reader, int headerDigits) {
+        messageCount = 0;
+        used = 0;
+        int current = -1; // Multi-frame message being received with headers off
+        byte[] buf = reader.getBuffer();
+        for (int line = 0; line < reader.getLineCount(); line++) {
+            int end = reader.getLineEnd(line);
+            int savedCount = messageCount;
+            int savedUsed = used;
+            int savedCurrent = current;
+            int savedLength = -1;
+            int savedSequence = 0;
+
+            lineMessage = -1;
+            lineBytes = 0;
+            lineHeader = 0;
+            lineColon = false;
+            int digits = 0;
+            int pending = -1;
+            boolean text = false;
+            for (int i = reader.getLineStart(line); i < end && !text; i++) {
+                byte b = buf[i];
+                if (b == ' ') continue;
+                if (b == ':' && headerDigits == HEADERS_OFF && !lineColon && digits == 1) {
+                    // "N:" consecutive line of the current multi-frame message
+                    lineColon = true;
+                    lineMessage = current;
+                    if (current >= 0) {
+                        savedLength = length[current];
+                        savedSequence = nextSequence[current];
+                        if (pending != nextSequence[current]) {
+                            broken[current] = true;
+                            lineMessage = -1;
+                        }
+                        nextSequence[current] = (pending + 1) & 0x0F;
+                    }
+                    pending = -1;
+                    continue;
+                }
+                int v = ResponsePayload.hexValue(b);
+                if (v < 0) {
+                    text = true;
+                    break;
+                }
+                if (digits++ < headerDigits) {
+                    lineHeader = (lineHeader << 4) | v;
+                    continue;
+                }
+                if (pending < 0) {
+                    pending = v;
+                    continue;
+                }
+                int value = (pending << 4) | v;
+                pending = -1;
+                if (headerDigits == HEADERS_OFF) {
+                    if (lineBytes == 0 && !lineColon) lineMessage = reserve(NO_HEADER, 0, true);
+                    append(lineMessage, value);
+                    lineBytes++;
+                } else {
+                    onFramedByte(value);
+                }
+            }
+
+            if (text) {
+                // Not a reply line after all: undo whatever it started
+                messageCount = savedCount;
+                used = savedUsed;
+                current = savedCurrent;
+                if (savedLength >= 0) {
+                    length[current] = savedLength;
+                    nextSequence[current] = savedSequence;
+                }
+                continue;
+            }
+            if (headerDigits == HEADERS_OFF && !lineColon && digits == 3) {
+                // "00A": byte count of the multi-frame message that follows
+                messageCount = savedCount;
+                used = savedUsed;
+                int count = (lineMessage >= 0 ? bytes[start[lineMessage]] << 4 : 0) | pending;
+                current = reserve(NO_HEADER, count, false);
+            } else if (headerDigits == HEADERS_OFF && !lineColon && lineMessage >= 0) {
+                expected[lineMessage] = length[lineMessage]; // A single line holds the whole message
+            }
+        }
+        return messageCount;
+    }
+
+    // One data byte of a headers-on line: the PCI byte(s) first, then payload
+    private void onFramedByte(int value) {
+        int index = lineBytes++;
+        if (index == 0) {
+            linePci = value;
+            int type = value >> 4;
+            if (type == 0) {
+                lineMessage = reserve(lineHeader, value & 0x0F, false);
+            } else if (type == 2) {
+                lineMessage = find(lineHeader);
+                lineSequence = value & 0x0F;
+                if (lineMessage >= 0 && lineSequence != nextSequence[lineMessage]) {
+                    broken[lineMessage] = true; // A frame went missing; what follows would land in the wrong place
+                    lineMessage = -1;
+                } else if (lineMessage >= 0) {
+                    nextSequence[lineMessage] = (lineSequence + 1) & 0x0F;
+                }
+            } else {
+                lineMessage = -1; // First frame waits for its length byte; flow control carries no data
+            }
+            return;
+        }
+        if (index == 1 && linePci >> 4 == 1) {
+            int total = ((linePci & 0x0F) << 8) | value;
+            int previous = find(lineHeader);
+            if (previous >= 0) broken[previous] = true; // Started over before finishing
+            lineMessage = reserve(lineHeader, total, false);
+            nextSequence[lineMessage] = 1;
+            return;
+        }
+        if (lineMessage >= 0) append(lineMessage, value);
+    }
+
+    // New message of size count; growable only for the last message, for lines of unknown length
+    private int reserve(int header, int count, boolean growable) {
+        if (messageCount == MAX_MESSAGES) return -1;
+        int m = messageCount++;
+        ecu[m] = header;
+        start[m] = used;
+        length[m] = 0;
+        expected[m] = growable ? Integer.MAX_VALUE : count;
+        nextSequence[m] = 0;
+        broken[m] = false;
+        if (!growable) ensureCapacity(used + count);
+        used += growable ? 0 : count;
+        return m;
+    }
+
+    private void append(int m, int value) {
+        if (m < 0 || length[m] >= expected[m]) return; // Padding of the last frame
+        if (expected[m] == Integer.MAX_VALUE) {
+            ensureCapacity(used + 1);
+            used++;
+        }
+        bytes[start[m] + length[m]++] = value;
+    }
+
+    // The last message of this ECU that is still waiting for frames
+    private int find(int header) {
+        for (int m = messageCount - 1; m >= 0; m--) {
+            if (ecu[m] == header) return length[m] < expected[m] && !broken[m] ? m : -1;
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= bytes.length) return;
+        int[] grown = new int[Math.max(size, bytes.length * 2)];
+        System.arraycopy(bytes, 0, grown, 0, used);
+        bytes = grown;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    // The CAN id of the ECU that sent message m (e.g. 0x7E8), NO_HEADER with headers off
+    public int getEcu(int m) {
+        return ecu[m];
+    }
+
+    public int getLength(int m) {
+        return length[m];
+    }
+
+    public int getByte(int m, int index) {
+        return bytes[start[m] + index];
+    }
+
+    // False if frames were missing or out of order
+    public boolean isComplete(int m) {
+        return !broken[m] && length[m] == expected[m];
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.zavobd.obd;
+
+/**
+ * A streaming histogram of round-trip times with logarithmic buckets, four per doubling (about
+ * 19 % wide), from 1 ms to about 13.8 s. Old samples fade: once AGE_AT samples are in, every
+ * count is halved, so the percentiles follow an ECU whose timing changes.
+ *
+ * Fixed size and allocation-free, so one can be kept per command and fed on the polling path.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 56;
+    private static final int AGE_AT = 512;
+    // Upper edge of each bucket in nanoseconds: 2^(i/4) ms
+    private static final long[] UPPER_NANOS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            UPPER_NANOS[i] = (long) (Math.pow(2, i / 4.0) * 1_000_000L);
+        }
+    }
+
+    private final int[] counts = new int[BUCKETS];
+    private int total = 0;
+
+    public void add(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && nanos > UPPER_NANOS[bucket]) bucket++;
+        counts[bucket]++;
+        if (++total >= AGE_AT) {
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+        }
+    }
+
+    // Samples currently counted, after aging
+    public int getCount() {
+        return total;
+    }
+
+    // The upper edge of the bucket holding the given percentile, in ms; 0 without samples
+    public long percentileMs(int percentile) {
+        if (total == 0) return 0;
+        long rank = ((long) total * percentile + 99) / 100;
+        int seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return (UPPER_NANOS[i] + 999_999L) / 1_000_000L;
+        }
+        return UPPER_NANOS[BUCKETS - 1] / 1_000_000L;
+    }
+
+    // The non-empty buckets as "bucket:count" pairs joined by ',', e.g. "12:40,13:3"
+    String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(i).append(':').append(counts[i]);
+        }
+        return sb.toString();
+    }
+
+    // Parses the output of encode(). Returns null if the text is not a valid histogram.
+    static LatencyHistogram decode(String text) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        try {
+            for (String pair : text.split(",")) {
+                int colon = pair.indexOf(':');
+                if (colon < 0) return null;
+                int bucket = Integer.parseInt(pair.substring(0, colon));
+                int count = Integer.parseInt(pair.substring(colon + 1));
+                if (bucket < 0 || bucket >= BUCKETS || count < 0 || count > AGE_AT) return null;
+                histogram.counts[bucket] = count;
+                histogram.total += count;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return histogram.total < AGE_AT ? histogram : null;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Packs several mode 01 PIDs into one request and splits the combined reply back up.
+ *
+ * CAN ECUs accept up to six PIDs per mode 01 request, e.g. "010D0C10", and answer with one
+ * "41" followed by each PID and its data bytes. Replies longer than a single CAN frame come back as
+ * ISO-TP multi-frame text: a byte count line ("00E") followed by "0:", "1:", ... prefixed lines.
+ *
+ * Demultiplexing relies on knowing how many data bytes each PID returns, so only PIDs in the
+ * {@link PidDecoders} catalog are batched. Batching turns itself off on non-CAN protocols and on
+ * ECUs that keep rejecting multi-PID requests; callers then fall back to one request per PID.
+ */
+public class Mode01Batcher {
+
+    private static final String TAG = "Mode01Batcher";
+
+    public static final int MAX_PIDS_PER_REQUEST = 6;
+    // Batches that come back with nothing usable before we give up on batching for this connection
+    private static final int MAX_FAILED_BATCHES = 2;
+
+    public static int dataLength(int pid) {
+        return PidDecoders.dataLength(pid);
+    }
+
+    public static boolean isBatchable(int pid) {
+        return dataLength(pid) > 0;
+    }
+
+    private boolean enabled = true;
+    private int failedBatches = 0;
+
+    // Splits a reply into the messages of the ECUs that answered
+    private final IsoTpAssembler assembler = new IsoTpAssembler();
+    // Payload bytes of the last parsed reply, and where each PID's data starts in it (-1 if absent)
+    private final int[] payload = new int[256];
+    private int payloadLength = 0;
+    private final int[] pidOffset = new int[256];
+
+    public Mode01Batcher() {
+        Arrays.fill(pidOffset, -1);
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    // True for the ATDPN replies (e.g. "A6" or "6") of the CAN protocols 6-C
+    public static boolean isCanProtocol(String describedProtocolNumber) {
+        if (describedProtocolNumber == null || describedProtocolNumber.isEmpty()) return false;
+        char protocol = Character.toUpperCase(describedProtocolNumber.charAt(describedProtocolNumber.length() - 1));
+        return (protocol >= '6' && protocol <= '9') || (protocol >= 'A' && protocol <= 'C');
+    }
+
+    // Takes the ATDPN reply (e.g. "A6" or "6"); batching is only used on CAN protocols 6-C.
+    public synchronized void setProtocol(String describedProtocolNumber) {
+        if (describedProtocolNumber == null || describedProtocolNumber.isEmpty()) return;
+        if (!isCanProtocol(describedProtocolNumber)) {
+            enabled = false;
+            Log.i(TAG, "Protocol " + describedProtocolNumber + " is not CAN, multi-PID requests disabled.");
+        }
+    }
+
+    // For vehicles already known to reject multi-PID requests
+    public synchronized void disable() {
+        enabled = false;
+    }
+
+    // Writes e.g. "010D0C10\r" for the PIDs of commands[from, to) into frame and returns its length.
+    // A response count (1-15) goes before the CR, e.g. "010D0C101\r"; 0 for none.
+    public int buildRequest(AbstractObdCommand[] commands, int from, int to, int responseCountHint, byte[] frame) {
+        int length = 0;
+        frame[length++] = '0';
+        frame[length++] = '1';
+        for (int i = from; i < to; i++) {
+            byte[] request = commands[i].getRequestFrame(); // "01XX\r"
+            frame[length++] = request[2];
+            frame[length++] = request[3];
+        }
+        if (responseCountHint > 0) {
+            frame[length++] = (byte) Character.toUpperCase(Character.forDigit(responseCountHint, 16));
+        }
+        frame[length++] = '\r';
+        return length;
+    }
+
+    /**
+     * Parses the reply held by the reader for a multi-PID request.
+     *
+     * @return true if at least one requested PID was found. A reply with nothing usable counts
+     *         towards disabling batching for this connection.
+     */
+    public synchronized boolean parse(ElmResponseReader reader, AbstractObdCommand[] commands, int from, int to) {
+        for (int i = from; i < to; i++) pidOffset[commands[i].getPid()] = -1;
+        payloadLength = 0;
+
+        // Every answering ECU sends a message of its own; a "41" inside one may be PID 0x41
+        int found = 0;
+        int messages = assembler.assemble(reader, IsoTpAssembler.HEADERS_OFF);
+        for (int m = 0; m < messages; m++) {
+            int messageStart = payloadLength;
+            int length = Math.min(assembler.getLength(m), payload.length - payloadLength);
+            for (int i = 0; i < length; i++) payload[payloadLength++] = assembler.getByte(m, i);
+            found += parseMessage(commands, from, to, messageStart, payloadLength);
+        }
+
+        if (found == 0) {
+            if (++failedBatches >= MAX_FAILED_BATCHES && enabled) {
+                enabled = false;
+                Log.w(TAG, "ECU keeps rejecting multi-PID requests, falling back to single requests.");
+            }
+            return false;
+        }
+        failedBatches = 0;
+        return true;
+    }
+
+    // Hands a command its share of the last parsed reply, or NO DATA if the ECU left it out.
+    public synchronized void applyTo(AbstractObdCommand command) {
+        int offset = pidOffset[command.getPid()];
+        if (offset < 0) {
+            command.applyStatus(ResponseStatus.NO_DATA);
+        } else {
+            command.applyData(payload, offset, dataLength(command.getPid()));
+        }
+    }
+
+    // Walks the PID + data groups after the "41" of one ECU's message in payload[pos, end)
+    private int parseMessage(AbstractObdCommand[] commands, int from, int to, int pos, int end) {
+        if (pos >= end || payload[pos] != 0x41) return 0; // Not a mode 01 reply
+        int found = 0;
+        pos++;
+        while (pos < end) {
+            int pid = payload[pos];
+            int length = dataLength(pid);
+            if (length == 0 || !isRequested(pid, commands, from, to) || pos + 1 + length > end) {
+                break; // Can't tell where the next PID starts, stop here
+            }
+            if (pidOffset[pid] < 0) {
+                pidOffset[pid] = pos + 1;
+                found++;
+            }
+            pos += 1 + length;
+        }
+        return found;
+    }
+
+    private static boolean isRequested(int pid, AbstractObdCommand[] commands, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (commands[i].getPid() == pid) return true;
+        }
+        return false;
+    }
+}
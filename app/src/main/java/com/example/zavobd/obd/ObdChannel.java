@@ -0,0 +1,269 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The link to one adapter. Owns its streams and makes sure exactly one request is on the wire.
+ *
+ * Requests come in two ways, both serialized on the same wire lock:
+ * - submit() from any thread: queued (bounded, FIFO) and run by the channel's own worker, with a
+ *   Future for the result. When the queue is full the request is rejected instead of piling up.
+ * - execute() and friends, synchronous and allocation-free for mode 01 commands: meant for the
+ *   polling thread, which cannot afford a hand-off per sample.
+ * The lock is fair, so queued work and polling take turns instead of one starving the other.
+ *
+ * Pacing (the gap between commands and the adapter timeout) is learned and applied here, since it
+ * belongs to the adapter rather than to whoever sends the request. So are the read deadlines,
+ * per kind of request ({@link CommandTimeouts}), once the watchdog is on. After a request ran into
+ * its deadline the adapter is stopped before the next one goes out, so a late reply cannot be
+ * taken for the next request's.
+ */
+public class ObdChannel {
+
+    private static final String TAG = "ObdChannel";
+
+    public static final int QUEUE_CAPACITY = 32;
+    // The stall watchdog allows the adapter's ECU timeout plus this before declaring the link dead
+    private static final long STALL_MARGIN_MS = 250;
+    private static final long MIN_STALL_MS = 300;
+    // Learned deadlines are at least the adapter's ECU timeout plus this; below the stall margin,
+    // so a hung request times out and is retried before the watchdog declares the link dead
+    private static final long DEADLINE_MARGIN_MS = 100;
+
+    private final OutputStream out;
+    private final ElmResponseReader reader;
+    private final AdaptivePacer pacer;
+    private final CommandTimeouts timeouts;
+    private final ReentrantLock wireLock = new ReentrantLock(true);
+    private final ThreadPoolExecutor worker;
+    private volatile boolean watchdog = false;
+
+    public ObdChannel(InputStream in, OutputStream out) {
+        this(in, out, new AdaptivePacer(), new CommandTimeouts());
+    }
+
+    // A channel over a new link to an adapter that was already paced, e.g. after a reconnect
+    public ObdChannel(InputStream in, OutputStream out, AdaptivePacer pacer, CommandTimeouts timeouts) {
+        this.out = out;
+        this.pacer = pacer;
+        this.timeouts = timeouts;
+        this.reader = new ElmResponseReader(in);
+        this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // --- Queued requests, from any thread ---
+
+    /**
+     * Queues a command. The future completes with the command itself once its result is in, or
+     * fails with the IOException that broke the link.
+     *
+     * @throws RejectedExecutionException if the queue is full or the channel is closed
+     */
+    public <T extends AbstractObdCommand> Future<T> submit(final T command) {
+        return worker.submit(() -> {
+            execute(command);
+            return command;
+        });
+    }
+
+    // Queues a text request such as "ATRV" or "03"; completes with the cleaned response.
+    public Future<String> submit(final String command) {
+        return worker.submit(() -> executeText(command));
+    }
+
+    // --- Synchronous requests, for the polling thread ---
+
+    // Sends a command and decodes its reply into it.
+    public void execute(AbstractObdCommand command) throws IOException, InterruptedException {
+        wireLock.lock();
+        try {
+            applyPacing();
+            pacer.awaitTurn();
+            armWatchdog();
+            int key = command.getTimeoutKey();
+            long deadlineMs = deadlineMs(key);
+            long start = System.nanoTime();
+            command.run(reader, out, deadlineMs);
+            long roundTrip = System.nanoTime() - start;
+            pacer.onResponse(command.getPid(), command.getStatus(), replyLatency(start, roundTrip));
+            onReply(key, command.getStatus() == ResponseStatus.TIMEOUT, deadlineMs, roundTrip);
+        } finally {
+            wireLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a request and returns the reply with all whitespace removed, or "TIMEOUT" if the
+     * prompt did not arrive in time. For AT commands and one-off requests.
+     */
+    public String executeText(String command) throws IOException {
+        wireLock.lock();
+        try {
+            if (!command.startsWith("AT")) applyPacing();
+            try {
+                pacer.awaitTurn();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int key = CommandTimeouts.keyOf(command);
+            long deadlineMs = deadlineMs(key);
+            long start = System.nanoTime();
+            String response;
+            if (send((command + "\r").getBytes(), -1, deadlineMs) == ElmResponseReader.TIMEOUT) {
+                Log.w(TAG, "Timeout waiting for response to " + command);
+                response = "TIMEOUT";
+            } else {
+                response = reader.getCompactText();
+            }
+            long roundTrip = System.nanoTime() - start;
+            pacer.onResponse(command, response, replyLatency(start, roundTrip));
+            onReply(key, "TIMEOUT".equals(response), deadlineMs, roundTrip);
+            return response;
+        } finally {
+            wireLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a pre-encoded request (including the trailing CR) and leaves the framed reply in
+     * {@link #getReader()}. The caller must hold the wire lock around this call and whatever
+     * parsing it does afterwards, so no other request replaces the reply in between.
+     *
+     * @param pid the mode 01 PID for pacing statistics, -1 for anything else
+     * @return how the request was answered; OK means there is a reply to parse
+     */
+    public ResponseStatus exchange(byte[] frame, int length, int pid) throws IOException, InterruptedException {
+        if (!wireLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("exchange() needs the wire lock");
+        }
+        applyPacing();
+        pacer.awaitTurn();
+        int key = CommandTimeouts.keyOf(frame, length < 0 ? frame.length : length);
+        long deadlineMs = deadlineMs(key);
+        long start = System.nanoTime();
+        ResponseStatus status = send(frame, length, deadlineMs) == ElmResponseReader.TIMEOUT
+                ? ResponseStatus.TIMEOUT
+                : ResponsePayload.scanStatus(reader);
+        long roundTrip = System.nanoTime() - start;
+        pacer.onResponse(pid, status, replyLatency(start, roundTrip));
+        // The reply is the caller's to parse; after a timeout there is nothing to parse
+        onReply(key, status == ResponseStatus.TIMEOUT, deadlineMs, roundTrip);
+        return status;
+    }
+
+    // Held around exchange() and the parsing of its reply. Reentrant, so execute() may be called while holding it.
+    public ReentrantLock getWireLock() {
+        return wireLock;
+    }
+
+    // The reply to the last request. Only meaningful while holding the wire lock.
+    public ElmResponseReader getReader() {
+        return reader;
+    }
+
+    // Learned adapter timing, for comparing adapters
+    public AdaptivePacer getPacer() {
+        return pacer;
+    }
+
+    // Learned read deadlines of this vehicle, carried over to the channel of a new link
+    public CommandTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    // Learned deadlines as they apply right now, for logs
+    public String describeDeadlines() {
+        return timeouts.describe(pacer.getAppliedTimeoutMs() + DEADLINE_MARGIN_MS);
+    }
+
+    // The read deadline a request of this kind gets right now
+    public long getDeadlineMs(int key) {
+        return deadlineMs(key);
+    }
+
+    /**
+     * Fails requests with an IOException as soon as the adapter stays silent for longer than its
+     * ECU timeout allows, instead of waiting out the full read timeout, and gives requests their
+     * learned deadlines. Off by default: turn it on once the protocol is settled, since a protocol
+     * search keeps the adapter busy for seconds.
+     */
+    public void setWatchdog(boolean enabled) {
+        watchdog = enabled;
+    }
+
+    public void close() {
+        worker.shutdownNow();
+        reader.close();
+    }
+
+    private int send(byte[] frame, int length, long deadlineMs) throws IOException {
+        reader.discardPending(); // Drop stale bytes so they are not taken for this response
+        armWatchdog();
+        out.write(frame, 0, length < 0 ? frame.length : length);
+        out.flush();
+        // Blocks until the '>' prompt arrives or the read times out
+        return reader.readResponse(deadlineMs);
+    }
+
+    private long deadlineMs(int key) {
+        if (!watchdog) return ElmResponseReader.DEFAULT_TIMEOUT_MS;
+        return timeouts.timeoutMs(key, pacer.getAppliedTimeoutMs() + DEADLINE_MARGIN_MS);
+    }
+
+    // Learns from the round trip of a settled link, and stops the adapter if the request timed out
+    private void onReply(int key, boolean timedOut, long deadlineMs, long roundTripNanos) throws IOException {
+        if (!watchdog) return;
+        if (!timedOut) {
+            timeouts.onResponse(key, roundTripNanos);
+            return;
+        }
+        timeouts.onTimeout(key, deadlineMs);
+        resync();
+    }
+
+    // A timed out request may still be running in the adapter. Any byte stops an ELM327 that is
+    // busy, with "STOPPED" and a prompt; a space is ignored by one that is idle.
+    private void resync() throws IOException {
+        reader.discardPending();
+        out.write(' ');
+        out.flush();
+        reader.readResponse(pacer.getAppliedTimeoutMs() + DEADLINE_MARGIN_MS);
+        Log.d(TAG, "Adapter stopped after a timeout: " + reader.getCompactText());
+    }
+
+    // Time from sending a request to the first byte of its reply, which is what the pacer sizes the
+    // adapter's timeout from. The round trip would include the timeout itself and feed on it.
+    private long replyLatency(long startNanos, long roundTripNanos) {
+        long first = reader.getFirstByteNanos();
+        return first > startNanos ? first - startNanos : roundTripNanos;
+    }
+
+    private void armWatchdog() {
+        reader.setStallTimeoutMs(watchdog ? Math.max(MIN_STALL_MS, pacer.getAppliedTimeoutMs() + STALL_MARGIN_MS) : 0);
+    }
+
+    // Pushes newly learned timing values to the adapter. Done before a request rather than after
+    // one, so the reply the caller is about to parse is not replaced by the adjustment's "OK".
+    private void applyPacing() throws IOException {
+        if (!pacer.hasPendingAdjustment()) return;
+        for (String atCommand : pacer.getAdjustmentCommands()) {
+            executeText(atCommand);
+        }
+        pacer.onAdjustmentApplied();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.zavobd.obd;
+
+import java.util.Locale;
+
+/**
+ * How to turn the data bytes of one mode 01 PID into a value: byte count, formula, unit and the
+ * range the formula can produce (SAE J1979). Bit-encoded PIDs such as fuel system status have a
+ * text format instead of a formula.
+ *
+ * Entries are immutable and shared; see {@link PidDecoders} for the catalog.
+ */
+public final class PidDecoder {
+
+    // Computes the value from data bytes A, B, C... (data[0], data[1], ...)
+    public interface Formula {
+        double apply(int[] data);
+    }
+
+    // Describes a bit-encoded PID, e.g. "Closed loop" for fuel system status
+    public interface TextFormat {
+        String format(int[] data, int length);
+    }
+
+    private final int pid;
+    private final String name;
+    private final int dataLength;
+    private final String unit;
+    private final double min;
+    private final double max;
+    private final String valueFormat;
+    private final Formula formula;
+    private final TextFormat textFormat;
+
+    PidDecoder(int pid, String name, int dataLength, String unit, double min, double max, int decimals,
+               Formula formula, TextFormat textFormat) {
+        this.pid = pid;
+        this.name = name;
+        this.dataLength = dataLength;
+        this.unit = unit;
+        this.min = min;
+        this.max = max;
+        this.valueFormat = "%." + decimals + "f";
+        this.formula = formula;
+        this.textFormat = textFormat;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    // The request string, e.g. "010C"
+    public String getCommand() {
+        return String.format(Locale.US, "01%02X", pid);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean isNumeric() {
+        return formula != null;
+    }
+
+    // Only valid for numeric entries; data must hold at least getDataLength() bytes.
+    public double decode(int[] data) {
+        return formula.apply(data);
+    }
+
+    public boolean isInRange(double value) {
+        // A little slack for floating point rounding at the ends of the range
+        return value >= min - 1e-6 && value <= max + 1e-6;
+    }
+
+    public String format(double value) {
+        String number = String.format(Locale.US, valueFormat, value);
+        return unit.isEmpty() ? number : number + " " + unit;
+    }
+
+    public String formatText(int[] data, int length) {
+        return textFormat.format(data, length);
+    }
+}
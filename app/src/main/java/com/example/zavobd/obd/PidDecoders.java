@@ -0,0 +1,297 @@
+package com.example.zavobd.obd;
+
+import java.util.Locale;
+
+/**
+ * Catalog of mode 01 PID decoders (SAE J1979), indexed by PID byte.
+ *
+ * Covers everything in {@link PidList} and most of the standard PIDs beyond it. Any PID with an
+ * entry here is decoded from the framed reply bytes like the dedicated command classes, and is
+ * batchable because its byte count is known.
+ */
+public final class PidDecoders {
+
+    private static final PidDecoder[] TABLE = new PidDecoder[256];
+
+    private static final String CELSIUS = "°C";
+
+    static {
+        // --- PIDs supported bitmaps ---
+        for (int base = 0x00; base <= 0xC0; base += 0x20) {
+            text(base, "PIDs supported [" + hex(base + 1) + "-" + hex(base + 0x20) + "]", 4, PidDecoders::formatHexBytes);
+        }
+
+        // --- 0x01 - 0x1F ---
+        text(0x01, "Monitor status since DTCs cleared", 4, (d, n) ->
+                ((d[0] & 0x80) != 0 ? "MIL on, " : "MIL off, ") + (d[0] & 0x7F) + " DTCs");
+        text(0x02, "DTC that caused freeze frame", 2, (d, n) -> formatDtc(d[0], d[1]));
+        text(0x03, "Fuel system status", 2, (d, n) -> fuelSystemStatus(d[0]));
+        percent(0x04, "Calculated engine load");
+        temperature(0x05, "Engine coolant temperature");
+        fuelTrim(0x06, "Short term fuel trim - Bank 1");
+        fuelTrim(0x07, "Long term fuel trim - Bank 1");
+        fuelTrim(0x08, "Short term fuel trim - Bank 2");
+        fuelTrim(0x09, "Long term fuel trim - Bank 2");
+        numeric(0x0A, "Fuel pressure", 1, "kPa", 0, 765, 0, d -> 3 * d[0]);
+        numeric(0x0B, "Intake manifold absolute pressure", 1, "kPa", 0, 255, 0, d -> d[0]);
+        numeric(0x0C, "Engine RPM", 2, "RPM", 0, 16383.75, 0, d -> word(d, 0) / 4.0);
+        numeric(0x0D, "Vehicle speed", 1, "km/h", 0, 255, 0, d -> d[0]);
+        numeric(0x0E, "Timing advance", 1, "°", -64, 63.5, 1, d -> d[0] / 2.0 - 64);
+        temperature(0x0F, "Intake air temperature");
+        numeric(0x10, "MAF air flow rate", 2, "g/s", 0, 655.35, 2, d -> word(d, 0) / 100.0);
+        percent(0x11, "Throttle position");
+        text(0x12, "Commanded secondary air status", 1, (d, n) -> secondaryAirStatus(d[0]));
+        text(0x13, "Oxygen sensors present (2 banks)", 1, (d, n) -> formatBits(d[0]));
+        for (int pid = 0x14; pid <= 0x1B; pid++) {
+            // B is the short term trim for this sensor, 0xFF if the sensor is not used for trim
+            numeric(pid, "O2 sensor " + (pid - 0x13) + " voltage", 2, "V", 0, 1.275, 3, d -> d[0] / 200.0);
+        }
+        text(0x1C, "OBD standards this vehicle conforms to", 1, (d, n) -> obdStandard(d[0]));
+        text(0x1D, "Oxygen sensors present (4 banks)", 1, (d, n) -> formatBits(d[0]));
+        text(0x1E, "Auxiliary input status", 1, (d, n) -> (d[0] & 0x01) != 0 ? "PTO active" : "PTO inactive");
+        numeric(0x1F, "Run time since engine start", 2, "s", 0, 65535, 0, d -> word(d, 0));
+
+        // --- 0x21 - 0x3F ---
+        numeric(0x21, "Distance traveled with MIL on", 2, "km", 0, 65535, 0, d -> word(d, 0));
+        numeric(0x22, "Fuel rail pressure (relative to manifold vacuum)", 2, "kPa", 0, 5177.265, 1, d -> 0.079 * word(d, 0));
+        numeric(0x23, "Fuel rail gauge pressure", 2, "kPa", 0, 655350, 0, d -> 10 * word(d, 0));
+        for (int pid = 0x24; pid <= 0x2B; pid++) {
+            numeric(pid, "O2 sensor " + (pid - 0x23) + " air-fuel equivalence ratio", 4, "λ", 0, 2, 3, d -> word(d, 0) * 2.0 / 65536);
+        }
+        percent(0x2C, "Commanded EGR");
+        fuelTrim(0x2D, "EGR error");
+        percent(0x2E, "Commanded evaporative purge");
+        percent(0x2F, "Fuel tank level input");
+        numeric(0x30, "Warm-ups since codes cleared", 1, "", 0, 255, 0, d -> d[0]);
+        numeric(0x31, "Distance traveled since codes cleared", 2, "km", 0, 65535, 0, d -> word(d, 0));
+        numeric(0x32, "Evap. system vapor pressure", 2, "Pa", -8192, 8191.75, 2, d -> (short) word(d, 0) / 4.0);
+        numeric(0x33, "Absolute barometric pressure", 1, "kPa", 0, 255, 0, d -> d[0]);
+        for (int pid = 0x34; pid <= 0x3B; pid++) {
+            numeric(pid, "O2 sensor " + (pid - 0x33) + " air-fuel equivalence ratio", 4, "λ", 0, 2, 3, d -> word(d, 0) * 2.0 / 65536);
+        }
+        numeric(0x3C, "Catalyst temperature (Bank 1, Sensor 1)", 2, CELSIUS, -40, 6513.5, 1, d -> word(d, 0) / 10.0 - 40);
+        numeric(0x3D, "Catalyst temperature (Bank 2, Sensor 1)", 2, CELSIUS, -40, 6513.5, 1, d -> word(d, 0) / 10.0 - 40);
+        numeric(0x3E, "Catalyst temperature (Bank 1, Sensor 2)", 2, CELSIUS, -40, 6513.5, 1, d -> word(d, 0) / 10.0 - 40);
+        numeric(0x3F, "Catalyst temperature (Bank 2, Sensor 2)", 2, CELSIUS, -40, 6513.5, 1, d -> word(d, 0) / 10.0 - 40);
+
+        // --- 0x41 - 0x5F ---
+        text(0x41, "Monitor status this drive cycle", 4, PidDecoders::formatHexBytes);
+        numeric(0x42, "Control module voltage", 2, "V", 0, 65.535, 2, d -> word(d, 0) / 1000.0);
+        numeric(0x43, "Absolute load value", 2, "%", 0, 25700, 1, d -> word(d, 0) * 100.0 / 255);
+        numeric(0x44, "Commanded air-fuel equivalence ratio", 2, "λ", 0, 2, 3, d -> word(d, 0) * 2.0 / 65536);
+        percent(0x45, "Relative throttle position");
+        temperature(0x46, "Ambient air temperature");
+        percent(0x47, "Absolute throttle position B");
+        percent(0x48, "Absolute throttle position C");
+        percent(0x49, "Accelerator pedal position D");
+        percent(0x4A, "Accelerator pedal position E");
+        percent(0x4B, "Accelerator pedal position F");
+        percent(0x4C, "Commanded throttle actuator");
+        numeric(0x4D, "Time run with MIL on", 2, "min", 0, 65535, 0, d -> word(d, 0));
+        numeric(0x4E, "Time since trouble codes cleared", 2, "min", 0, 65535, 0, d -> word(d, 0));
+        text(0x4F, "Maximum values for ratio, voltage, current and MAP", 4, PidDecoders::formatHexBytes);
+        numeric(0x50, "Maximum MAF air flow rate", 4, "g/s", 0, 2550, 0, d -> d[0] * 10);
+        text(0x51, "Fuel type", 1, (d, n) -> fuelType(d[0]));
+        percent(0x52, "Ethanol fuel");
+        numeric(0x53, "Absolute evap. system vapor pressure", 2, "kPa", 0, 327.675, 3, d -> word(d, 0) / 200.0);
+        numeric(0x54, "Evap. system vapor pressure", 2, "Pa", -32768, 32767, 0, d -> (short) word(d, 0));
+        fuelTrim(0x55, "Short term secondary O2 trim - Bank 1", 2);
+        fuelTrim(0x56, "Long term secondary O2 trim - Bank 1", 2);
+        fuelTrim(0x57, "Short term secondary O2 trim - Bank 2", 2);
+        fuelTrim(0x58, "Long term secondary O2 trim - Bank 2", 2);
+        numeric(0x59, "Fuel rail absolute pressure", 2, "kPa", 0, 655350, 0, d -> 10 * word(d, 0));
+        percent(0x5A, "Relative accelerator pedal position");
+        percent(0x5B, "Hybrid battery pack remaining life");
+        temperature(0x5C, "Engine oil temperature");
+        numeric(0x5D, "Fuel injection timing", 2, "°", -210, 301.9921875, 2, d -> word(d, 0) / 128.0 - 210);
+        numeric(0x5E, "Engine fuel rate", 2, "L/h", 0, 3276.75, 2, d -> word(d, 0) / 20.0);
+        text(0x5F, "Emission requirements", 1, (d, n) -> "0x" + hex(d[0]));
+
+        // --- 0x61 - 0x67 ---
+        numeric(0x61, "Driver's demand engine torque", 1, "%", -125, 130, 0, d -> d[0] - 125);
+        numeric(0x62, "Actual engine torque", 1, "%", -125, 130, 0, d -> d[0] - 125);
+        numeric(0x63, "Engine reference torque", 2, "Nm", 0, 65535, 0, d -> word(d, 0));
+        numeric(0x64, "Engine percent torque at idle", 5, "%", -125, 130, 0, d -> d[0] - 125);
+        text(0x65, "Auxiliary input / output supported", 2, PidDecoders::formatHexBytes);
+        numeric(0x66, "Mass air flow sensor A", 5, "g/s", 0, 2048, 2, d -> word(d, 1) / 32.0);
+        numeric(0x67, "Engine coolant temperature (sensor 1)", 3, CELSIUS, -40, 215, 0, d -> d[1] - 40);
+
+        // --- 0xA6 ---
+        numeric(0xA6, "Odometer", 4, "km", 0, 429496729.5, 1,
+                d -> (((long) d[0] << 24) | (d[1] << 16) | (d[2] << 8) | d[3]) / 10.0);
+    }
+
+    private PidDecoders() {}
+
+    // The decoder for a PID byte, or null if it is not in the catalog.
+    public static PidDecoder get(int pid) {
+        return pid >= 0 && pid < 256 ? TABLE[pid] : null;
+    }
+
+    // The decoder for a request string such as "010C", or null.
+    public static PidDecoder forCommand(String command) {
+        if (command == null || command.length() != 4 || !command.startsWith("01")) return null;
+        int high = Character.digit(command.charAt(2), 16);
+        int low = Character.digit(command.charAt(3), 16);
+        return high < 0 || low < 0 ? null : TABLE[high << 4 | low];
+    }
+
+    // Data bytes returned for a PID, 0 where unknown.
+    public static int dataLength(int pid) {
+        PidDecoder decoder = get(pid);
+        return decoder != null ? decoder.getDataLength() : 0;
+    }
+
+    // A command for any request string: decoded through the catalog if possible, shown raw otherwise.
+    public static AbstractObdCommand createCommand(String command) {
+        PidDecoder decoder = forCommand(command);
+        return decoder != null ? new DecodedPidCommand(decoder) : new RawCommand(command);
+    }
+
+    // --- Entry helpers ---
+
+    private static void numeric(int pid, String name, int length, String unit, double min, double max, int decimals,
+                                PidDecoder.Formula formula) {
+        TABLE[pid] = new PidDecoder(pid, name, length, unit, min, max, decimals, formula, null);
+    }
+
+    private static void text(int pid, String name, int length, PidDecoder.TextFormat format) {
+        TABLE[pid] = new PidDecoder(pid, name, length, "", 0, 0, 0, null, format);
+    }
+
+    // A * 100 / 255
+    private static void percent(int pid, String name) {
+        numeric(pid, name, 1, "%", 0, 100, 1, d -> d[0] * 100.0 / 255);
+    }
+
+    // A - 40
+    private static void temperature(int pid, String name) {
+        numeric(pid, name, 1, CELSIUS, -40, 215, 0, d -> d[0] - 40);
+    }
+
+    // A * 100 / 128 - 100
+    private static void fuelTrim(int pid, String name) {
+        fuelTrim(pid, name, 1);
+    }
+
+    // J1979 lists the maximum as 99.2 %; 0xFF decodes to 99.21875 %
+    private static void fuelTrim(int pid, String name, int length) {
+        numeric(pid, name, length, "%", -100, 99.21875, 1, d -> d[0] * 100.0 / 128 - 100);
+    }
+
+    private static int word(int[] data, int offset) {
+        return (data[offset] << 8) | data[offset + 1];
+    }
+
+    // --- Text formats ---
+
+    private static String hex(int value) {
+        return String.format(Locale.US, "%02X", value);
+    }
+
+    private static String formatHexBytes(int[] data, int length) {
+        StringBuilder sb = new StringBuilder(length * 3);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(hex(data[i]));
+        }
+        return sb.toString();
+    }
+
+    private static String formatBits(int value) {
+        StringBuilder sb = new StringBuilder(8);
+        for (int bit = 7; bit >= 0; bit--) sb.append((value >> bit) & 1);
+        return sb.toString();
+    }
+
+    // Two bytes as a standard code, e.g. 0x01 0x33 -> "P0133"
+    static String formatDtc(int a, int b) {
+        return "PCBU".charAt(a >> 6) + Integer.toString((a >> 4) & 0x03) + hex(a & 0x0F).charAt(1) + hex(b);
+    }
+
+    private static String fuelSystemStatus(int a) {
+        switch (a) {
+            case 0x00: return "Motor off";
+            case 0x01: return "Open loop, not yet warm";
+            case 0x02: return "Closed loop";
+            case 0x04: return "Open loop, load or decel";
+            case 0x08: return "Open loop, system failure";
+            case 0x10: return "Closed loop, feedback fault";
+            default: return "0x" + hex(a);
+        }
+    }
+
+    private static String secondaryAirStatus(int a) {
+        switch (a) {
+            case 0x01: return "Upstream";
+            case 0x02: return "Downstream of catalytic converter";
+            case 0x04: return "From outside atmosphere or off";
+            case 0x08: return "Pump commanded on for diagnostics";
+            default: return "0x" + hex(a);
+        }
+    }
+
+    private static String obdStandard(int a) {
+        switch (a) {
+            case 1: return "OBD-II (CARB)";
+            case 2: return "OBD (EPA)";
+            case 3: return "OBD and OBD-II";
+            case 4: return "OBD-I";
+            case 5: return "Not OBD compliant";
+            case 6: return "EOBD (Europe)";
+            case 7: return "EOBD and OBD-II";
+            case 8: return "EOBD and OBD";
+            case 9: return "EOBD, OBD and OBD-II";
+            case 10: return "JOBD (Japan)";
+            case 11: return "JOBD and OBD-II";
+            case 12: return "JOBD and EOBD";
+            case 13: return "JOBD, EOBD and OBD-II";
+            case 17: return "EMD";
+            case 18: return "EMD+";
+            case 19: return "HD OBD-C";
+            case 20: return "HD OBD";
+            case 21: return "WWH OBD";
+            case 23: return "HD EOBD-I";
+            case 24: return "HD EOBD-I N";
+            case 25: return "HD EOBD-II";
+            case 26: return "HD EOBD-II N";
+            case 28: return "OBDBr-1";
+            case 29: return "OBDBr-2";
+            case 30: return "KOBD";
+            case 31: return "IOBD I";
+            case 32: return "IOBD II";
+            case 33: return "HD EOBD-IV";
+            default: return "Standard " + a;
+        }
+    }
+
+    private static String fuelType(int a) {
+        switch (a) {
+            case 0x00: return "Not available";
+            case 0x01: return "Gasoline";
+            case 0x02: return "Methanol";
+            case 0x03: return "Ethanol";
+            case 0x04: return "Diesel";
+            case 0x05: return "LPG";
+            case 0x06: return "CNG";
+            case 0x07: return "Propane";
+            case 0x08: return "Electric";
+            case 0x09: return "Bifuel running Gasoline";
+            case 0x0A: return "Bifuel running Methanol";
+            case 0x0B: return "Bifuel running Ethanol";
+            case 0x0C: return "Bifuel running LPG";
+            case 0x0D: return "Bifuel running CNG";
+            case 0x0E: return "Bifuel running Propane";
+            case 0x0F: return "Bifuel running Electricity";
+            case 0x10: return "Bifuel running electric and combustion engine";
+            case 0x11: return "Hybrid gasoline";
+            case 0x12: return "Hybrid Ethanol";
+            case 0x13: return "Hybrid Diesel";
+            case 0x14: return "Hybrid Electric";
+            case 0x15: return "Hybrid running electric and combustion engine";
+            case 0x16: return "Hybrid Regenerative";
+            case 0x17: return "Bifuel running diesel";
+            default: return "0x" + hex(a);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Keeps track of which live PIDs the vehicle actually answers, so the ones it does not stop taking
+ * bus time from the ones it does.
+ *
+ * A PID that gets FAILURES_TO_QUARANTINE answers in a row saying it has no value (NO DATA, or "?"
+ * from the adapter) is quarantined: it is only probed again after FIRST_REPROBE_MS, and every
+ * probe that fails doubles the wait, up to MAX_REPROBE_MS. The first value it returns puts it back
+ * on its normal schedule, e.g. a PID an ECU only reports once the engine is warm.
+ *
+ * Only PIDs set with {@link #setQuarantinable(int[])} are held back, i.e. those that only custom
+ * scans ask for; the dashboard and fuel figures keep polling theirs whatever happens. Timeouts and
+ * faults of the bus or the adapter (BUS ERROR, STOPPED, LV RESET...) say nothing about the PID and
+ * are not counted; the polling thread's error recovery deals with them. PIDs the vehicle reports as
+ * unsupported are never polled in the first place.
+ */
+public class PidHealth {
+
+    private static final String TAG = "PidHealth";
+
+    private static final int FAILURES_TO_QUARANTINE = 3;
+    private static final long FIRST_REPROBE_MS = 2000;
+    private static final long MAX_REPROBE_MS = 64_000;
+
+    // Polls in a row without a value, per PID
+    private final int[] failures = new int[256];
+    // Current wait between probes of a quarantined PID, 0 while it is healthy
+    private final long[] reprobeMs = new long[256];
+    private int quarantinedCount = 0;
+    // PIDs that may be quarantined
+    private final boolean[] quarantinable = new boolean[256];
+
+    /**
+     * Sets the PIDs that may be quarantined, replacing the previous set. A quarantined PID that is
+     * no longer in it goes straight back on its schedule.
+     */
+    public synchronized void setQuarantinable(int[] pids) {
+        boolean[] wanted = new boolean[quarantinable.length];
+        for (int pid : pids) {
+            if (pid >= 0 && pid < wanted.length) wanted[pid] = true;
+        }
+        for (int pid = 0; pid < quarantinable.length; pid++) {
+            quarantinable[pid] = wanted[pid];
+            if (wanted[pid]) continue;
+            failures[pid] = 0;
+            if (reprobeMs[pid] > 0) {
+                reprobeMs[pid] = 0;
+                quarantinedCount--;
+            }
+        }
+    }
+
+    /**
+     * @param pid    the mode 01 PID that was polled; anything else is ignored
+     * @param status how it was answered
+     * @return how long to leave the PID alone before polling it again, 0 to keep its normal schedule
+     */
+    public synchronized long onReply(int pid, ResponseStatus status) {
+        if (pid < 0 || pid >= failures.length || !quarantinable[pid]) return 0;
+        if (status == ResponseStatus.OK) {
+            failures[pid] = 0;
+            if (reprobeMs[pid] > 0) {
+                reprobeMs[pid] = 0;
+                quarantinedCount--;
+                Log.i(TAG, String.format(Locale.US, "01%02X answers again, back on its schedule", pid));
+            }
+            return 0;
+        }
+        if (!countsAgainstPid(status)) return reprobeMs[pid];
+        if (reprobeMs[pid] > 0) {
+            reprobeMs[pid] = Math.min(MAX_REPROBE_MS, reprobeMs[pid] * 2);
+        } else if (++failures[pid] >= FAILURES_TO_QUARANTINE) {
+            reprobeMs[pid] = FIRST_REPROBE_MS;
+            quarantinedCount++;
+            Log.i(TAG, String.format(Locale.US, "01%02X failed %d polls in a row (last %s), probing it every %d ms",
+                    pid, failures[pid], status, FIRST_REPROBE_MS));
+        }
+        return reprobeMs[pid];
+    }
+
+    // Answers that tell the PID has no value, as opposed to a fault of the link that would hit any PID
+    private static boolean countsAgainstPid(ResponseStatus status) {
+        return status == ResponseStatus.NO_DATA || status == ResponseStatus.NOT_UNDERSTOOD;
+    }
+
+    public synchronized boolean isQuarantined(int pid) {
+        return pid >= 0 && pid < reprobeMs.length && reprobeMs[pid] > 0;
+    }
+
+    // The wait before the next probe of a quarantined PID, 0 if it is healthy
+    public synchronized long getReprobeMs(int pid) {
+        return pid >= 0 && pid < reprobeMs.length ? reprobeMs[pid] : 0;
+    }
+
+    public synchronized int getQuarantinedCount() {
+        return quarantinedCount;
+    }
+
+    // The quarantined PIDs among the given ones, as their commands ("0110")
+    public synchronized ArrayList<String> quarantinedOf(int[] pids) {
+        ArrayList<String> commands = new ArrayList<>();
+        if (quarantinedCount == 0) return commands;
+        for (int pid : pids) {
+            if (isQuarantined(pid)) commands.add(String.format(Locale.US, "01%02X", pid));
+        }
+        return commands;
+    }
+
+    public synchronized String describe() {
+        if (quarantinedCount == 0) return "none quarantined";
+        StringBuilder sb = new StringBuilder();
+        for (int pid = 0; pid < reprobeMs.length; pid++) {
+            if (reprobeMs[pid] == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(String.format(Locale.US, "01%02X every %d s", pid, reprobeMs[pid] / 1000));
+        }
+        return sb.toString();
+    }
+}
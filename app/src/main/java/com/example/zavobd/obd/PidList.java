@@ -19,6 +19,11 @@ public class PidList {
         pids.add(new PID("015C", "Engine Oil Temperature"));
         pids.add(new PID("0167", "Engine Coolant Temperature at thermostat")); // May not be widely supported
         pids.add(new PID("01A6", "Odometer")); // May not be widely supported
+        pids.add(new PID("010E", "Timing Advance"));
+        pids.add(new PID("0145", "Relative Throttle Position"));
+        pids.add(new PID("0149", "Accelerator Pedal Position D"));
+        pids.add(new PID("0161", "Driver's Demand Engine Torque"));
+        pids.add(new PID("0162", "Actual Engine Torque"));
 
         // --- Fuel System ---
         pids.add(new PID("010A", "Fuel Pressure"));
@@ -26,14 +31,17 @@ public class PidList {
         pids.add(new PID("015E", "Engine Fuel Rate"));
         pids.add(new PID("0123", "Fuel Rail Pressure"));
         pids.add(new PID("0159", "Fuel Rail Absolute Pressure"));
+        pids.add(new PID("0151", "Fuel Type"));
+        pids.add(new PID("0152", "Ethanol Fuel Percentage"));
 
         // --- Air Intake / Exhaust ---
         pids.add(new PID("010F", "Intake Air Temperature"));
         pids.add(new PID("0110", "MAF Air Flow Rate"));
         pids.add(new PID("010B", "Intake Manifold Absolute Pressure"));
         pids.add(new PID("0133", "Barometric Pressure"));
-        pids.add(new PID("0142", "Catalyst Temperature (Bank 1, Sensor 1)"));
-        pids.add(new PID("0143", "Catalyst Temperature (Bank 2, Sensor 1)"));
+        pids.add(new PID("013C", "Catalyst Temperature (Bank 1, Sensor 1)"));
+        pids.add(new PID("013D", "Catalyst Temperature (Bank 2, Sensor 1)"));
+        pids.add(new PID("0144", "Commanded Air-Fuel Equivalence Ratio"));
 
         // --- Oxygen Sensors (crucial for diagnostics) ---
         pids.add(new PID("0114", "O2 Sensor 1, Bank 1 (Voltage)"));
@@ -49,11 +57,11 @@ public class PidList {
         pids.add(new PID("012C", "Commanded EGR"));
         pids.add(new PID("012D", "EGR Error"));
         pids.add(new PID("012E", "Commanded Evaporative Purge"));
-        pids.add(new PID("0131", "Distance traveled with MIL on"));
+        pids.add(new PID("0121", "Distance traveled with MIL on"));
 
         // --- Electrical ---
-        pids.add(new PID("0121", "Distance traveled since codes cleared"));
-        pids.add(new PID("014D", "Control Module Voltage"));
+        pids.add(new PID("0131", "Distance traveled since codes cleared"));
+        pids.add(new PID("0142", "Control Module Voltage"));
         pids.add(new PID("015B", "Hybrid/EV Battery Remaining Life"));
 
         // --- Timing & Status ---
@@ -67,4 +75,20 @@ public class PidList {
 
         return pids;
     }
+
+    // The list above, minus the PIDs the vehicle reported as unsupported. A null set keeps everything.
+    public static ArrayList<PID> getSupportedPids(SupportedPids vehicleSupport) {
+        ArrayList<PID> pids = getSupportedPids();
+        if (vehicleSupport == null || vehicleSupport.isEmpty()) {
+            return pids;
+        }
+        ArrayList<PID> filtered = new ArrayList<>();
+        for (PID pid : pids) {
+            int pidByte = Integer.parseInt(pid.getCommand().substring(2), 16);
+            if (vehicleSupport.isSupported(pidByte)) {
+                filtered.add(pid);
+            }
+        }
+        return filtered;
+    }
 }
\ No newline at end of file
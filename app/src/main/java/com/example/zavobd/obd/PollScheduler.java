@@ -0,0 +1,220 @@
+package com.example.zavobd.obd;
+
+import java.util.Locale;
+
+/**
+ * Decides which PIDs to poll next, based on a target refresh interval per PID.
+ *
+ * Entries sit in a binary min-heap ordered by their next deadline, so the most overdue PID is
+ * always taken first. When the bus cannot keep up, every PID is overdue and fast signals still
+ * come round most often because their deadlines move forward in the smallest steps.
+ * When nothing is due the caller can wait exactly until the next deadline instead of sleeping
+ * a fixed amount.
+ *
+ * Not thread-safe; meant to be driven by the polling thread only.
+ */
+public class PollScheduler {
+
+    // Smoothing factor for the measured interval between two samples of a PID
+    private static final double RATE_ALPHA = 0.2;
+
+    private final AbstractObdCommand[] commands;
+    private final long[] intervalNanos;
+    private final long[] nextDueNanos;
+    private final long[] lastSampleNanos;
+    private final double[] avgIntervalNanos;
+    private final long[] sampleCount;
+    // Minimum wait before the next poll, set for collected entries by deferCollected(); 0 for none
+    private final long[] deferNanos;
+    private int size = 0;
+
+    // Heap of entry indices, ordered by nextDueNanos
+    private final int[] heap;
+    // Entries handed out by the last collectDue() call
+    private final int[] collected;
+    private int collectedCount = 0;
+
+    public PollScheduler(int capacity) {
+        commands = new AbstractObdCommand[capacity];
+        intervalNanos = new long[capacity];
+        nextDueNanos = new long[capacity];
+        lastSampleNanos = new long[capacity];
+        avgIntervalNanos = new double[capacity];
+        sampleCount = new long[capacity];
+        deferNanos = new long[capacity];
+        heap = new int[capacity];
+        collected = new int[capacity];
+    }
+
+    // Adds a command to poll every intervalMs. New entries are due immediately.
+    public void add(AbstractObdCommand command, long intervalMs) {
+        int index = size++;
+        commands[index] = command;
+        intervalNanos[index] = intervalMs * 1_000_000L;
+        nextDueNanos[index] = Long.MIN_VALUE / 4; // System.nanoTime() may be negative
+        heap[index] = index;
+        siftUp(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Takes up to max commands that are due at nowNanos, most overdue first, into out.
+     * With fillEarly set, room left in a batch is topped up with commands that would be due
+     * within half their interval anyway, so a multi-PID request carries as much as it can.
+     * Every collected command must be followed by a call to {@link #completeCollected(long)}.
+     *
+     * @return the number of commands written to out
+     */
+    public int collectDue(long nowNanos, AbstractObdCommand[] out, int max, boolean fillEarly) {
+        collectedCount = 0;
+        while (collectedCount < max && size - collectedCount > 0) {
+            int top = heap[0];
+            long due = nextDueNanos[top];
+            boolean isDue = due <= nowNanos;
+            boolean early = fillEarly && collectedCount > 0 && due - intervalNanos[top] / 2 <= nowNanos;
+            if (!isDue && !early) break;
+            popTop();
+            collected[collectedCount] = top;
+            out[collectedCount++] = commands[top];
+        }
+        return collectedCount;
+    }
+
+    // Keeps out[position] of the last collectDue() call off the bus for at least delayNanos after it was polled,
+    // e.g. while the vehicle does not answer it. Takes effect in completeCollected().
+    public void deferCollected(int position, long delayNanos) {
+        if (position < collectedCount) deferNanos[collected[position]] = delayNanos;
+    }
+
+    // Puts the collected commands back in the queue, due one interval after their previous deadline.
+    // An entry that fell more than a whole interval behind restarts from now instead of bursting to catch up.
+    public void completeCollected(long polledAtNanos) {
+        for (int i = 0; i < collectedCount; i++) {
+            int index = collected[i];
+            if (sampleCount[index] > 0) {
+                double interval = polledAtNanos - lastSampleNanos[index];
+                avgIntervalNanos[index] = avgIntervalNanos[index] == 0
+                        ? interval
+                        : avgIntervalNanos[index] + RATE_ALPHA * (interval - avgIntervalNanos[index]);
+            }
+            lastSampleNanos[index] = polledAtNanos;
+            sampleCount[index]++;
+            long next = nextDueNanos[index] + intervalNanos[index];
+            if (next < polledAtNanos - intervalNanos[index]) next = polledAtNanos;
+            if (deferNanos[index] > 0) {
+                next = Math.max(next, polledAtNanos + deferNanos[index]);
+                deferNanos[index] = 0;
+            }
+            nextDueNanos[index] = next;
+            int slot = size - collectedCount + i;
+            heap[slot] = index;
+            siftUp(slot);
+        }
+        collectedCount = 0;
+    }
+
+    // Nanoseconds until the earliest deadline, 0 if something is already due.
+    public long nanosUntilNextDue(long nowNanos) {
+        if (size == 0) return Long.MAX_VALUE;
+        return Math.max(0, nextDueNanos[heap[0]] - nowNanos);
+    }
+
+    // --- Achieved rates ---
+
+    public AbstractObdCommand getCommand(int index) {
+        return commands[index];
+    }
+
+    public double getTargetRateHz(int index) {
+        return 1e9 / intervalNanos[index];
+    }
+
+    // The sample rate this PID actually gets, 0 until it has been polled twice.
+    public double getAchievedRateHz(int index) {
+        return avgIntervalNanos[index] > 0 ? 1e9 / avgIntervalNanos[index] : 0;
+    }
+
+    public long getSampleCount(int index) {
+        return sampleCount[index];
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            if (intervalNanos[i] == 0) {
+                sb.append(String.format(Locale.US, "%s %.1f Hz (unthrottled)", commands[i].getCommand(), getAchievedRateHz(i)));
+            } else {
+                sb.append(String.format(Locale.US, "%s %.1f/%.1f Hz",
+                        commands[i].getCommand(), getAchievedRateHz(i), getTargetRateHz(i)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A sensible refresh interval for a mode 01 PID: fast-changing engine signals get 100 ms,
+     * temperatures a few seconds, and slow or static values much longer.
+     */
+    public static long defaultIntervalMs(int pid) {
+        switch (pid) {
+            case 0x04: case 0x0B: case 0x0C: case 0x0D: case 0x0E: case 0x10: case 0x11:
+            case 0x45: case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B: case 0x4C: case 0x5E:
+                return 100;
+            case 0x06: case 0x07: case 0x08: case 0x09: case 0x2C: case 0x2D: case 0x2E:
+            case 0x0A: case 0x22: case 0x23: case 0x59:
+                return 500;
+            case 0x1F: case 0x42:
+                return 1000;
+            case 0x05: case 0x0F: case 0x3C: case 0x3D: case 0x3E: case 0x3F:
+            case 0x46: case 0x5C: case 0x67:
+                return 2000;
+            case 0x21: case 0x31: case 0x32: case 0xA6:
+                return 5000;
+            case 0x2F: case 0x33: case 0x5B:
+                return 10000;
+            case 0x03: case 0x1C: case 0x1D: case 0x01: case 0x30: case 0x41: case 0x4D: case 0x4E:
+                return 30000;
+            default:
+                if (pid >= 0x14 && pid <= 0x1B) return 250; // O2 sensors
+                if (pid >= 0x24 && pid <= 0x2B) return 250; // Wide-range O2 sensors, ratio and voltage
+                if (pid >= 0x34 && pid <= 0x3B) return 250; // Wide-range O2 sensors, ratio and current
+                return 1000;
+        }
+    }
+
+    // Removes the root of the heap; the freed slot at the end is reused by completeCollected().
+    private void popTop() {
+        int last = size - collectedCount - 1;
+        heap[0] = heap[last];
+        heap[last] = -1;
+        if (last > 0) siftDown(0, last);
+    }
+
+    private void siftUp(int slot) {
+        int index = heap[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >> 1;
+            if (nextDueNanos[heap[parent]] <= nextDueNanos[index]) break;
+            heap[slot] = heap[parent];
+            slot = parent;
+        }
+        heap[slot] = index;
+    }
+
+    private void siftDown(int slot, int heapSize) {
+        int index = heap[slot];
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && nextDueNanos[heap[child + 1]] < nextDueNanos[heap[child]]) child++;
+            if (nextDueNanos[heap[child]] >= nextDueNanos[index]) break;
+            heap[slot] = heap[child];
+            slot = child;
+        }
+        heap[slot] = index;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.zavobd.obd;
+
+// Any PID without a dedicated command class. The response is shown as-is.
+public class RawCommand extends AbstractObdCommand {
+
+    public RawCommand(String command) {
+        super(command, command, "");
+    }
+
+    @Override
+    protected void performCalculations() {
+        // Nothing to decode
+    }
+
+    @Override
+    public String getFormattedResult() {
+        return "Raw: " + getRawResponse();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.zavobd.obd;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnect attempts: exponential from baseMs up to maxMs, each randomised
+ * between half and all of its step ("equal jitter").
+ *
+ * The first retry comes almost at once, since most Bluetooth dropouts last well under a second;
+ * an adapter that stays away is then tried less and less often. The jitter keeps several apps or
+ * retries from hammering the adapter in lockstep.
+ */
+public class ReconnectBackoff {
+
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempts = 0;
+
+    public ReconnectBackoff(long baseMs, long maxMs) {
+        this(baseMs, maxMs, new Random());
+    }
+
+    // With a seeded Random for reproducible delays
+    public ReconnectBackoff(long baseMs, long maxMs, Random random) {
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    // The delay before the next attempt, in [step / 2, step] where step doubles every attempt
+    public long nextDelayMs() {
+        long step = Math.min(maxMs, baseMs << Math.min(attempts, 30));
+        attempts++;
+        long half = step / 2;
+        return half + (long) (random.nextDouble() * (step - half + 1));
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void reset() {
+        attempts = 0;
+    }
+}
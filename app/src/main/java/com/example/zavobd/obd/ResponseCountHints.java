@@ -0,0 +1,99 @@
+package com.example.zavobd.obd;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Learns how many ECUs answer each mode 01 PID, so requests can carry the ELM327 response count
+ * (e.g. "010C1"). Without it the adapter keeps listening for more ECUs for its whole timeout after
+ * the last answer; with it the prompt comes as soon as that many answers are in.
+ *
+ * A PID gets its hint once it was answered by the same number of ECUs LEARN_REPLIES times in a
+ * row. A hinted request that comes back short (fewer messages, "?", or NO DATA for a PID that has
+ * answered before) drops the hint and learning starts over; after MAX_FAILURES the PID is no
+ * longer hinted at all, e.g. for adapters that do not understand the suffix. Bus and adapter
+ * errors are not held against the hint.
+ *
+ * With physical addressing ({@link #setSingleResponder(boolean)}) exactly one ECU can answer, so
+ * every request, multi-PID ones included, is hinted with 1.
+ */
+public class ResponseCountHints {
+
+    private static final String TAG = "ResponseCountHints";
+
+    private static final int LEARN_REPLIES = 3;
+    private static final int MAX_FAILURES = 2;
+    // The suffix is a single hex digit
+    private static final int MAX_HINT = 0xF;
+
+    private final byte[] seenCount = new byte[256];
+    private final byte[] streak = new byte[256];
+    private final byte[] hint = new byte[256];
+    private final byte[] failures = new byte[256];
+    private final boolean[] answered = new boolean[256];
+    private boolean singleResponder = false;
+
+    // The response count to append to a request for this PID, 0 for none
+    public synchronized int hintFor(int pid) {
+        if (pid < 0 || pid > 0xFF) return 0;
+        if (singleResponder) return failures[pid] >= MAX_FAILURES ? 0 : 1;
+        return hint[pid];
+    }
+
+    // The response count for a multi-PID request; only known when a single ECU is addressed
+    public synchronized int hintForBatch() {
+        return singleResponder ? 1 : 0;
+    }
+
+    public synchronized void setSingleResponder(boolean singleResponder) {
+        this.singleResponder = singleResponder;
+    }
+
+    public synchronized boolean isSingleResponder() {
+        return singleResponder;
+    }
+
+    /**
+     * Records the reply to a single-PID request.
+     *
+     * @param messages how many ECUs answered (see {@link ResponsePayload#countMessages})
+     * @param sentHint the response count the request carried, 0 for none
+     * @param status   how the request was answered
+     * @return false if a hinted request came back incomplete; the hint is dropped
+     */
+    public synchronized boolean onReply(int pid, int messages, int sentHint, ResponseStatus status) {
+        if (pid < 0 || pid > 0xFF || status.isError()) return true; // Bus and adapter faults say nothing about the count
+        boolean ok = status == ResponseStatus.OK;
+        if (sentHint > 0) {
+            if (ok && messages >= sentHint) {
+                answered[pid] = true;
+                return true;
+            }
+            if (!answered[pid] && status == ResponseStatus.NO_DATA) return true; // Never supported, not a hint problem
+            hint[pid] = 0;
+            streak[pid] = 0;
+            failures[pid]++;
+            Log.w(TAG, String.format(Locale.US, "PID %02X: %d of %d answers with the count hint (%s), hint dropped",
+                    pid, messages, sentHint, status));
+            return false;
+        }
+        if (!ok || messages == 0) {
+            streak[pid] = 0;
+            return true;
+        }
+        answered[pid] = true;
+        if (failures[pid] >= MAX_FAILURES || messages > MAX_HINT) return true;
+        if (messages == seenCount[pid]) {
+            if (streak[pid] < LEARN_REPLIES) streak[pid]++;
+        } else {
+            seenCount[pid] = (byte) messages;
+            streak[pid] = 1;
+        }
+        if (streak[pid] >= LEARN_REPLIES && hint[pid] != messages) {
+            hint[pid] = (byte) messages;
+            Log.i(TAG, String.format(Locale.US, "PID %02X: answered by %d ECU(s), requests now carry the count", pid, messages));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.zavobd.obd;
+
+// Decodes the hex text of an ELM327 reply into data bytes.
+public final class ResponsePayload {
+
+    // Value of each ASCII byte as a hex digit, -1 for anything else
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    // ELM327 messages, without spaces: they are matched ignoring the spaces of the reply
+    private static final byte[] NO_DATA = "NODATA".getBytes();
+    private static final byte[] BUS_INIT = "BUSINIT".getBytes();
+    private static final byte[] ERROR = "ERROR".getBytes();
+    private static final byte[] UNABLE_TO_CONNECT = "UNABLETOCONNECT".getBytes();
+    private static final byte[] STOPPED = "STOPPED".getBytes();
+    private static final byte[] BUFFER_FULL = "BUFFERFULL".getBytes();
+    private static final byte[][] ADAPTER_RESETS = {"LVRESET".getBytes(), "ACTALERT".getBytes(), "LPALERT".getBytes()};
+    private static final byte[][] BUS_ERRORS = {"CANERROR".getBytes(), "BUSERROR".getBytes(), "DATAERROR".getBytes(),
+            "RXERROR".getBytes(), "FBERROR".getBytes(), "BUSBUSY".getBytes()};
+
+    static {
+        java.util.Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private ResponsePayload() {}
+
+    /**
+     * Turns the reply lines held by the reader into payload bytes, dropping ISO-TP length and
+     * "n:" sequence prefixes. Lines that are not plain hex (SEARCHING..., NO DATA) are skipped.
+     * When several ECUs answer, their messages follow each other, each trimmed to its own byte
+     * count so the padding of one multi-frame message does not end up between two answers.
+     *
+     * @return the number of bytes written to payload
+     */
+    public static int decode(ElmResponseReader reader, int[] payload) {
+        int payloadLength = 0;
+        // The multi-frame message being decoded: where it starts in payload and its byte count, -1 if none
+        int messageStart = 0;
+        int declaredLength = -1;
+        byte[] buf = reader.getBuffer();
+        for (int line = 0; line < reader.getLineCount(); line++) {
+            int start = reader.getLineStart(line);
+            int end = reader.getLineEnd(line);
+
+            int colon = -1;
+            int hexDigits = 0;
+            boolean hexOnly = true;
+            for (int i = start; i < end; i++) {
+                byte b = buf[i];
+                if (b == ':' && colon < 0) colon = i;
+                else if (hexValue(b) >= 0) hexDigits++;
+                else if (b != ' ') hexOnly = false;
+            }
+            if (!hexOnly) continue; // SEARCHING..., NO DATA and friends
+
+            if (colon < 0 && hexDigits == 3) {
+                // ISO-TP first line: total byte count of the multi-frame message that follows
+                payloadLength = endMessage(payloadLength, messageStart, declaredLength);
+                messageStart = payloadLength;
+                declaredLength = parseHex(buf, start, end);
+                continue;
+            }
+            if (colon < 0) {
+                // A single frame, i.e. a message of its own from another ECU
+                payloadLength = endMessage(payloadLength, messageStart, declaredLength);
+                declaredLength = -1;
+            }
+
+            int digit = -1;
+            for (int i = colon < 0 ? start : colon + 1; i < end && payloadLength < payload.length; i++) {
+                int v = hexValue(buf[i]);
+                if (v < 0) continue;
+                if (digit < 0) {
+                    digit = v;
+                } else {
+                    payload[payloadLength++] = (digit << 4) | v;
+                    digit = -1;
+                }
+            }
+        }
+        return endMessage(payloadLength, messageStart, declaredLength);
+    }
+
+    // The payload length once the padding of a multi-frame message's last frame is dropped
+    private static int endMessage(int payloadLength, int messageStart, int declaredLength) {
+        if (declaredLength < 0) return payloadLength;
+        return Math.min(payloadLength, messageStart + declaredLength);
+    }
+
+    /**
+     * Counts the messages in a reply with headers off, i.e. how many ECUs answered: every hex line
+     * is one, except the "n:" lines of a multi-frame message, which follow its byte count line.
+     * Allocation-free.
+     */
+    public static int countMessages(ElmResponseReader reader) {
+        int messages = 0;
+        byte[] buf = reader.getBuffer();
+        for (int line = 0; line < reader.getLineCount(); line++) {
+            int start = reader.getLineStart(line);
+            int end = reader.getLineEnd(line);
+            boolean hexOnly = end > start;
+            for (int i = start; i < end && hexOnly; i++) {
+                hexOnly = hexValue(buf[i]) >= 0 || buf[i] == ' ';
+            }
+            if (hexOnly) messages++; // A single frame reply, or the byte count line of a multi-frame one
+        }
+        return messages;
+    }
+
+    private static int parseHex(byte[] buf, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int v = hexValue(buf[i]);
+            if (v >= 0) value = (value << 4) | v;
+        }
+        return value;
+    }
+
+    static int hexValue(byte b) {
+        return HEX_VALUES[b & 0xFF];
+    }
+
+    // Works out why a reply did not contain the expected data. Allocation-free.
+    public static ResponseStatus classify(ElmResponseReader reader) {
+        ResponseStatus error = errorStatus(reader);
+        if (error != null) return error;
+        return reader.getLineCount() > 0 ? ResponseStatus.UNPARSEABLE : ResponseStatus.NOT_UNDERSTOOD;
+    }
+
+    // Quick verdict on a reply: OK if any line could carry data. Allocation-free.
+    public static ResponseStatus scanStatus(ElmResponseReader reader) {
+        byte[] buf = reader.getBuffer();
+        for (int line = 0; line < reader.getLineCount(); line++) {
+            if (isHexLine(buf, reader.getLineStart(line), reader.getLineEnd(line))) {
+                return ResponseStatus.OK;
+            }
+        }
+        return classify(reader);
+    }
+
+    // The first ELM327 message in the reply, e.g. NO_DATA or BUS_ERROR; null if there is none. Allocation-free.
+    public static ResponseStatus errorStatus(ElmResponseReader reader) {
+        byte[] buf = reader.getBuffer();
+        for (int line = 0; line < reader.getLineCount(); line++) {
+            ResponseStatus status = errorStatus(buf, reader.getLineStart(line), reader.getLineEnd(line));
+            if (status != null) return status;
+        }
+        return null;
+    }
+
+    /**
+     * The ELM327 message on one line of a reply, null for data and for anything else that is not
+     * one (SEARCHING..., OK, the version). These messages end the reply: only the prompt follows.
+     */
+    public static ResponseStatus errorStatus(byte[] buf, int start, int end) {
+        if (end - start == 1 && buf[start] == '?') return ResponseStatus.NOT_UNDERSTOOD;
+        if (end == start || isHexLine(buf, start, end)) return null; // Data, the common case
+        if (containsToken(buf, start, end, NO_DATA)) return ResponseStatus.NO_DATA;
+        if (containsToken(buf, start, end, BUS_INIT)) {
+            // "BUS INIT: ...OK" is progress, "BUS INIT: ...ERROR" means the vehicle did not respond
+            return containsToken(buf, start, end, ERROR) ? ResponseStatus.NO_CONNECTION : null;
+        }
+        if (containsToken(buf, start, end, UNABLE_TO_CONNECT)) return ResponseStatus.NO_CONNECTION;
+        if (containsToken(buf, start, end, STOPPED)) return ResponseStatus.STOPPED;
+        if (containsToken(buf, start, end, BUFFER_FULL)) return ResponseStatus.BUFFER_FULL;
+        for (byte[] token : BUS_ERRORS) {
+            if (containsToken(buf, start, end, token)) return ResponseStatus.BUS_ERROR;
+        }
+        for (byte[] token : ADAPTER_RESETS) {
+            if (containsToken(buf, start, end, token)) return ResponseStatus.ADAPTER_RESET;
+        }
+        // Internal errors are "ERR" and a two digit code, e.g. ERR94 after the CAN module was reset
+        if (end - start == 5 && buf[start] == 'E' && buf[start + 1] == 'R' && buf[start + 2] == 'R'
+                && isDigit(buf[start + 3]) && isDigit(buf[start + 4])) {
+            return ResponseStatus.ADAPTER_RESET;
+        }
+        return null;
+    }
+
+    // The ELM327 message in a reply taken as text, e.g. from ObdChannel.executeText(); null if there is none
+    public static ResponseStatus errorStatus(String response) {
+        if (response == null || response.isEmpty()) return null;
+        byte[] bytes = response.getBytes();
+        return errorStatus(bytes, 0, bytes.length);
+    }
+
+    // Hex digits, spaces and the ':' of ISO-TP sequence numbers only
+    private static boolean isHexLine(byte[] buf, int start, int end) {
+        if (end == start) return false;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (hexValue(b) < 0 && b != ' ' && b != ':') return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // Whether the line holds the token, skipping spaces in the line: "NO DATA" and "NODATA" both match NODATA
+    static boolean containsToken(byte[] buf, int start, int end, byte[] token) {
+        for (int i = start; i + token.length <= end; i++) {
+            int j = 0;
+            int k = i;
+            while (j < token.length && k < end) {
+                if (buf[k] == ' ' && j > 0) {
+                    k++;
+                    continue;
+                }
+                if (buf[k] != token[j]) break;
+                j++;
+                k++;
+            }
+            if (j == token.length) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.zavobd.obd;
+
+// Outcome of a single request, as far as the reply tells us.
+public enum ResponseStatus {
+    OK(Recovery.NONE),               // The expected reply with all its data bytes
+    NO_DATA(Recovery.SKIP),          // The ECU did not answer, usually an unsupported PID
+    TIMEOUT(Recovery.RETRY),         // No '>' prompt before the read deadline
+    NOT_UNDERSTOOD(Recovery.SKIP),   // "?" or an empty line, the adapter did not get the command
+    UNPARSEABLE(Recovery.SKIP),      // A reply came back but not the one we asked for
+    STOPPED(Recovery.RETRY),         // "STOPPED": a byte from us cut the adapter short
+    BUFFER_FULL(Recovery.RETRY),     // "BUFFER FULL": the adapter could not pass the reply on fast enough
+    BUS_ERROR(Recovery.RETRY),       // "CAN ERROR", "BUS ERROR", "DATA ERROR", "RX ERROR", "FB ERROR", "BUS BUSY"
+    NO_CONNECTION(Recovery.REINIT),  // "UNABLE TO CONNECT", "BUS INIT: ...ERROR": the vehicle is not on the selected protocol
+    ADAPTER_RESET(Recovery.REINIT);  // "LV RESET", "ACT ALERT", "LP ALERT", "ERRnn": the adapter lost its settings or is about to
+
+    // What to do about a reply with this status. ErrorRecovery escalates when the same thing keeps happening.
+    public enum Recovery {
+        NONE,     // Nothing wrong
+        RETRY,    // A transient fault: send the same request again
+        SKIP,     // The reply is final: the PID has no value this time, the link is fine
+        REINIT,   // The adapter or the bus needs to be set up again
+        RECONNECT // Nothing short of a new link will help
+    }
+
+    private final Recovery recovery;
+
+    ResponseStatus(Recovery recovery) {
+        this.recovery = recovery;
+    }
+
+    public Recovery getRecovery() {
+        return recovery;
+    }
+
+    // True for replies reporting a fault of the adapter, the bus or the link rather than an answer of the ECU
+    public boolean isError() {
+        return recovery == Recovery.RETRY || recovery == Recovery.REINIT;
+    }
+}
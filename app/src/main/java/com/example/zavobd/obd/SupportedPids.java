@@ -0,0 +1,76 @@
+package com.example.zavobd.obd;
+
+/**
+ * The set of mode 01 PIDs a vehicle answers, as reported by the 0100/0120/0140/... bitmaps.
+ *
+ * Stored as four longs (one bit per PID 0x00-0xFF) so it is cheap to keep, check and persist.
+ */
+public class SupportedPids {
+
+    // Base PIDs of the "PIDs supported" bitmaps, each covering the next 32 PIDs
+    public static final int[] BITMAP_PIDS = {0x00, 0x20, 0x40, 0x60, 0x80, 0xA0, 0xC0};
+
+    private final long[] bits = new long[4];
+
+    public boolean isSupported(int pid) {
+        if (pid < 0 || pid > 0xFF) return false;
+        if (pid == 0x00) return true; // Every OBD-II ECU answers 0100
+        return (bits[pid >> 6] & (1L << (pid & 63))) != 0;
+    }
+
+    public void add(int pid) {
+        if (pid < 0 || pid > 0xFF) return; // The lowest bit of the 0xE0 bitmap would be PID 0x100
+        bits[pid >> 6] |= 1L << (pid & 63);
+    }
+
+    /**
+     * Merges one bitmap reply. Bit 7 of A stands for basePid + 1, bit 0 of D for basePid + 0x20.
+     * Replies from several ECUs are simply merged into the same set.
+     */
+    public void addBitmap(int basePid, int a, int b, int c, int d) {
+        int bitmap = (a << 24) | (b << 16) | (c << 8) | d;
+        for (int i = 0; i < 32; i++) {
+            if ((bitmap & (1 << (31 - i))) != 0) {
+                add(basePid + 1 + i);
+            }
+        }
+    }
+
+    // True if the vehicle reported support for the bitmap following this one.
+    public boolean hasNextBitmap(int basePid) {
+        return basePid + 0x20 <= 0xFF && isSupported(basePid + 0x20);
+    }
+
+    public boolean isEmpty() {
+        return bits[0] == 0 && bits[1] == 0 && bits[2] == 0 && bits[3] == 0;
+    }
+
+    public int count() {
+        return Long.bitCount(bits[0]) + Long.bitCount(bits[1]) + Long.bitCount(bits[2]) + Long.bitCount(bits[3]);
+    }
+
+    // 64 hex characters, for persisting the set.
+    public String toHex() {
+        StringBuilder sb = new StringBuilder(64);
+        for (long word : bits) {
+            String hex = Long.toHexString(word);
+            for (int i = hex.length(); i < 16; i++) sb.append('0');
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+
+    // Parses the output of toHex(). Returns null if the text is not a valid set.
+    public static SupportedPids fromHex(String hex) {
+        if (hex == null || hex.length() != 64) return null;
+        SupportedPids pids = new SupportedPids();
+        try {
+            for (int i = 0; i < 4; i++) {
+                pids.bits[i] = Long.parseUnsignedLong(hex.substring(i * 16, i * 16 + 16), 16);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return pids;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.zavobd.trip;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * On-disk layout of a trip, shared by TripRecorder and TripLog.
+ *
+ * A trip is a directory of fixed-size segment files (seg-00000.trip, seg-00001.trip, ...), each
+ * memory-mapped while it is written. A segment starts with a one-page header:
+ *
+ *   0  int   MAGIC
+ *   4  int   VERSION
+ *   8  int   segment number
+ *   12 int   committed end: offset just past the last complete record
+ *   16 long  wall-clock millis when the segment was started, for display
+ *   24 int   number of index entries
+ *   64       index entries: long nanos, int offset
+ *
+ * Records follow the header back to back:
+ *
+ *   byte    PID
+ *   byte    flags: raw byte count in the low 4 bits, FLAG_HAS_VALUE
+ *   varint  nanos since the previous record
+ *   varint  zigzag delta of the value in VALUE_SCALE units vs. the previous value of this PID, if present
+ *   bytes   raw data bytes A, B, C...
+ *
+ * Every INDEX_SPACING bytes (and at the start of each segment) the writer adds an index entry and
+ * resets the delta state: the entry's record is timed relative to the entry's nanos and values
+ * start again from zero. A reader can therefore start decoding at any index entry, which is what
+ * makes seeking into a long trip instant.
+ */
+final class TripFormat {
+
+    static final int MAGIC = 0x5A545250; // "ZTRP"
+    static final int VERSION = 1;
+
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int HEADER_SIZE = 4096;
+    static final int PAGE_SIZE = 4096;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_SEGMENT = 8;
+    static final int OFFSET_COMMITTED_END = 12;
+    static final int OFFSET_WALL_CLOCK = 16;
+    static final int OFFSET_INDEX_COUNT = 24;
+    static final int OFFSET_INDEX = 64;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final int MAX_INDEX_ENTRIES = (HEADER_SIZE - OFFSET_INDEX) / INDEX_ENTRY_SIZE;
+    // 4 MiB of records / 16 KiB = 256 entries, within MAX_INDEX_ENTRIES
+    static final int INDEX_SPACING = 16 * 1024;
+
+    static final int MAX_RAW_BYTES = 8;
+    static final int FLAG_HAS_VALUE = 0x10;
+    // PID + flags + two 10-byte varints + raw bytes
+    static final int MAX_RECORD_SIZE = 2 + 10 + 10 + MAX_RAW_BYTES;
+
+    // Values are kept to a thousandth of their unit; the raw bytes are exact
+    static final double VALUE_SCALE = 1000.0;
+
+    private TripFormat() {
+    }
+
+    static String segmentName(int segment) {
+        return String.format(Locale.US, "seg-%05d.trip", segment);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.zavobd.trip;
+
+import static com.example.zavobd.trip.TripFormat.FLAG_HAS_VALUE;
+import static com.example.zavobd.trip.TripFormat.HEADER_SIZE;
+import static com.example.zavobd.trip.TripFormat.INDEX_ENTRY_SIZE;
+import static com.example.zavobd.trip.TripFormat.OFFSET_INDEX;
+import static com.example.zavobd.trip.TripFormat.VALUE_SCALE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a trip written by TripRecorder, including one that is still being written or whose
+ * recording was cut short: each segment is read up to its committed end.
+ *
+ * Segments are memory-mapped read-only and only the headers are read up front, so opening a long
+ * trip and seeking into it costs a binary search over the index plus at most INDEX_SPACING bytes
+ * of decoding.
+ */
+public class TripLog {
+
+    private final ArrayList<Segment> segments = new ArrayList<>();
+
+    private TripLog() {
+    }
+
+    public static TripLog open(File directory) throws IOException {
+        TripLog log = new TripLog();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("seg-") && name.endsWith(".trip"));
+        if (files == null) throw new IOException("Not a trip directory: " + directory);
+        Arrays.sort(files); // Zero-padded numbers sort by name
+        for (File file : files) {
+            Segment segment = Segment.open(file);
+            if (segment != null) log.segments.add(segment);
+        }
+        return log;
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    // Time of the first sample, or 0 for an empty trip
+    public long getStartNanos() {
+        return segments.isEmpty() ? 0 : segments.get(0).entryNanos[0];
+    }
+
+    // Wall-clock millis when recording started, or 0 for an empty trip
+    public long getStartWallClockMillis() {
+        return segments.isEmpty() ? 0 : segments.get(0).buffer.getLong(TripFormat.OFFSET_WALL_CLOCK);
+    }
+
+    // All samples from the start
+    public Cursor cursor() {
+        return seek(Long.MIN_VALUE);
+    }
+
+    // Samples from the first one at or after nanos
+    public Cursor seek(long nanos) {
+        Cursor cursor = new Cursor();
+        if (segments.isEmpty()) return cursor;
+        int segment = 0;
+        for (int low = 1, high = segments.size() - 1; low <= high; ) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).entryNanos[0] < nanos) {
+                segment = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // Start at the last index entry strictly before nanos, so samples stamped exactly nanos are not skipped
+        cursor.enter(segment, segments.get(segment).lastEntryBefore(nanos));
+        cursor.skipUntil(nanos);
+        return cursor;
+    }
+
+    // One decoded record, refilled by Cursor.next()
+    public static final class Sample {
+        private int pid;
+        private long nanos;
+        private double value;
+        private final int[] raw = new int[TripFormat.MAX_RAW_BYTES];
+        private int rawLength;
+
+        public int getPid() {
+            return pid;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        // Decoded value to VALUE_SCALE precision, NaN if the sample had none
+        public double getValue() {
+            return value;
+        }
+
+        public boolean hasValue() {
+            return !Double.isNaN(value);
+        }
+
+        public int getRawLength() {
+            return rawLength;
+        }
+
+        public int getRaw(int index) {
+            return raw[index];
+        }
+
+        void copyFrom(Sample other) {
+            pid = other.pid;
+            nanos = other.nanos;
+            value = other.value;
+            rawLength = other.rawLength;
+            System.arraycopy(other.raw, 0, raw, 0, rawLength);
+        }
+    }
+
+    // Walks the samples in order, across segments
+    public final class Cursor {
+        private int segmentIndex = -1;
+        private ByteBuffer buffer;
+        private int end;
+        private long[] entryNanos;
+        private int[] entryOffsets;
+        private int nextEntry;
+        private long previousNanos;
+        private final long[] previousValues = new long[256];
+        // The first sample at or after the seek target, already decoded by skipUntil()
+        private final Sample pending = new Sample();
+        private boolean hasPending = false;
+
+        private Cursor() {
+        }
+
+        /**
+         * Decodes the next sample into {@code sample}.
+         *
+         * @return false at the end of the trip
+         */
+        public boolean next(Sample sample) {
+            if (hasPending) {
+                sample.copyFrom(pending);
+                hasPending = false;
+                return true;
+            }
+            while (buffer == null || buffer.position() >= end) {
+                if (segmentIndex + 1 >= segments.size()) return false;
+                enter(segmentIndex + 1, 0);
+            }
+            int position = buffer.position();
+            if (nextEntry < entryOffsets.length && entryOffsets[nextEntry] == position) {
+                previousNanos = entryNanos[nextEntry];
+                Arrays.fill(previousValues, 0);
+                nextEntry++;
+            }
+            sample.pid = buffer.get() & 0xFF;
+            int flags = buffer.get() & 0xFF;
+            previousNanos += TripFormat.getVarLong(buffer);
+            sample.nanos = previousNanos;
+            if ((flags & FLAG_HAS_VALUE) != 0) {
+                long scaled = previousValues[sample.pid] + TripFormat.unzigzag(TripFormat.getVarLong(buffer));
+                previousValues[sample.pid] = scaled;
+                sample.value = scaled / VALUE_SCALE;
+            } else {
+                sample.value = Double.NaN;
+            }
+            sample.rawLength = flags & 0x0F;
+            for (int i = 0; i < sample.rawLength; i++) {
+                sample.raw[i] = buffer.get() & 0xFF;
+            }
+            return true;
+        }
+
+        private void enter(int index, int entry) {
+            Segment segment = segments.get(index);
+            segmentIndex = index;
+            buffer = segment.buffer.duplicate();
+            buffer.position(segment.entryOffsets[entry]);
+            end = segment.end;
+            entryNanos = segment.entryNanos;
+            entryOffsets = segment.entryOffsets;
+            nextEntry = entry;
+        }
+
+        private void skipUntil(long nanos) {
+            while (next(pending)) {
+                if (pending.nanos >= nanos) {
+                    hasPending = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Segment {
+        final ByteBuffer buffer;
+        final int end;
+        final long[] entryNanos;
+        final int[] entryOffsets;
+
+        private Segment(ByteBuffer buffer, int end, long[] entryNanos, int[] entryOffsets) {
+            this.buffer = buffer;
+            this.end = end;
+            this.entryNanos = entryNanos;
+            this.entryOffsets = entryOffsets;
+        }
+
+        // Null for a segment that holds no complete record
+        static Segment open(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long length = raf.length();
+                if (length < HEADER_SIZE) return null;
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                if (buffer.getInt(TripFormat.OFFSET_MAGIC) != TripFormat.MAGIC
+                        || buffer.getInt(TripFormat.OFFSET_VERSION) != TripFormat.VERSION) {
+                    throw new IOException("Not a trip segment: " + file);
+                }
+                int end = (int) Math.min(buffer.getInt(TripFormat.OFFSET_COMMITTED_END), length);
+                if (end <= HEADER_SIZE) return null;
+
+                // Entries written just before a record that never completed lie at or past the end
+                int count = Math.min(buffer.getInt(TripFormat.OFFSET_INDEX_COUNT), TripFormat.MAX_INDEX_ENTRIES);
+                int valid = 0;
+                long[] nanos = new long[count];
+                int[] offsets = new int[count];
+                for (int i = 0; i < count; i++) {
+                    int entry = OFFSET_INDEX + i * INDEX_ENTRY_SIZE;
+                    int offset = buffer.getInt(entry + 8);
+                    if (offset >= end) break;
+                    nanos[valid] = buffer.getLong(entry);
+                    offsets[valid] = offset;
+                    valid++;
+                }
+                if (valid == 0) return null;
+                return new Segment(buffer, end, Arrays.copyOf(nanos, valid), Arrays.copyOf(offsets, valid));
+            }
+        }
+
+        // Binary search over the index; 0 if nanos is not after the segment's start
+        int lastEntryBefore(long nanos) {
+            int found = 0;
+            for (int low = 1, high = entryNanos.length - 1; low <= high; ) {
+                int mid = (low + high) >>> 1;
+                if (entryNanos[mid] < nanos) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.zavobd.trip;
+
+import static com.example.zavobd.trip.TripFormat.FLAG_HAS_VALUE;
+import static com.example.zavobd.trip.TripFormat.HEADER_SIZE;
+import static com.example.zavobd.trip.TripFormat.INDEX_ENTRY_SIZE;
+import static com.example.zavobd.trip.TripFormat.INDEX_SPACING;
+import static com.example.zavobd.trip.TripFormat.MAX_INDEX_ENTRIES;
+import static com.example.zavobd.trip.TripFormat.MAX_RAW_BYTES;
+import static com.example.zavobd.trip.TripFormat.MAX_RECORD_SIZE;
+import static com.example.zavobd.trip.TripFormat.OFFSET_COMMITTED_END;
+import static com.example.zavobd.trip.TripFormat.OFFSET_INDEX;
+import static com.example.zavobd.trip.TripFormat.OFFSET_INDEX_COUNT;
+import static com.example.zavobd.trip.TripFormat.PAGE_SIZE;
+import static com.example.zavobd.trip.TripFormat.VALUE_SCALE;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Appends every polled sample of a trip to memory-mapped segment files (see TripFormat).
+ *
+ * record() only stores into the mapped segment, so the polling thread can call it at any rate
+ * without touching the file system. Everything that can block runs on the recorder's own thread:
+ * the next segment is created and its pages touched ahead of time, and each filled page is
+ * flushed (msync) as soon as the writer moves past it. A record only counts once the header's
+ * committed end has moved past it, so after the process dies the segment reads back up to the last
+ * complete record, and after a power loss at most the page being written is missing.
+ */
+public class TripRecorder implements Closeable {
+
+    private static final String TAG = "TripRecorder";
+
+    private final File directory;
+    private final int segmentSize;
+    private final ExecutorService background;
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+
+    private Segment current;
+    private Future<Segment> next;
+    private int nextSegmentNumber;
+    // Where the next index entry is due in the current segment
+    private int nextIndexOffset;
+    // Delta state, reset at every index entry
+    private long previousNanos;
+    private final long[] previousValues = new long[256];
+    private long recordCount = 0;
+    private boolean closed = false;
+    private boolean failed = false;
+
+    // Starts a new trip in its own directory below tripsDirectory
+    public static TripRecorder start(File tripsDirectory) throws IOException {
+        File directory = new File(tripsDirectory, "trip-" + System.currentTimeMillis());
+        if (!directory.mkdirs()) throw new IOException("Cannot create " + directory);
+        return new TripRecorder(directory, TripFormat.SEGMENT_SIZE);
+    }
+
+    TripRecorder(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        activate(Segment.create(directory, 0, segmentSize));
+        nextSegmentNumber = 1;
+        prepareNext();
+    }
+
+    /**
+     * Appends one sample. Never blocks on I/O; drops the sample only if the recorder is closed or
+     * has failed.
+     *
+     * @param nanos     System.nanoTime() of the sample
+     * @param value     decoded value, NaN if there is none
+     * @param raw       data bytes A, B, C... of which the first rawLength (at most 8) are stored
+     */
+    public synchronized void record(int pid, long nanos, double value, int[] raw, int rawLength) {
+        if (closed || failed) return;
+        MappedByteBuffer buffer = current.buffer;
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            if (!rotate()) return;
+            buffer = current.buffer;
+        }
+        int start = buffer.position();
+        if (start >= nextIndexOffset) {
+            addIndexEntry(buffer, start, nanos);
+        }
+
+        int count = Math.min(rawLength, MAX_RAW_BYTES);
+        boolean hasValue = !Double.isNaN(value);
+        buffer.put((byte) pid);
+        buffer.put((byte) (count | (hasValue ? FLAG_HAS_VALUE : 0)));
+        TripFormat.putVarLong(buffer, Math.max(0, nanos - previousNanos));
+        previousNanos = Math.max(previousNanos, nanos);
+        if (hasValue) {
+            long scaled = Math.round(value * VALUE_SCALE);
+            TripFormat.putVarLong(buffer, TripFormat.zigzag(scaled - previousValues[pid & 0xFF]));
+            previousValues[pid & 0xFF] = scaled;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) raw[i]);
+        }
+        int end = buffer.position();
+        buffer.putInt(OFFSET_COMMITTED_END, end); // The record counts from here on
+        recordCount++;
+
+        if (end / PAGE_SIZE != start / PAGE_SIZE) {
+            requestFlush(current);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() {
+        Segment last;
+        Future<Segment> unused;
+        long records;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            last = current;
+            unused = next;
+            records = recordCount;
+        }
+        background.execute(() -> {
+            last.buffer.force();
+            try {
+                // The segment prepared ahead was never written, so it is not part of the trip
+                Segment segment = unused.get();
+                if (!segment.file.delete()) Log.w(TAG, "Could not delete " + segment.file);
+            } catch (Exception e) {
+                Log.w(TAG, "Next segment was not prepared", e);
+            }
+        });
+        background.shutdown();
+        try {
+            background.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, "Trip recorded: " + records + " samples in " + directory);
+    }
+
+    private void addIndexEntry(MappedByteBuffer buffer, int offset, long nanos) {
+        nextIndexOffset = offset + INDEX_SPACING;
+        int count = buffer.getInt(OFFSET_INDEX_COUNT);
+        if (count >= MAX_INDEX_ENTRIES) return; // Only if segments are made larger than the index covers
+        int entry = OFFSET_INDEX + count * INDEX_ENTRY_SIZE;
+        buffer.putLong(entry, nanos);
+        buffer.putInt(entry + 8, offset);
+        buffer.putInt(OFFSET_INDEX_COUNT, count + 1);
+        // Decoding can start here, so nothing may refer to earlier records
+        previousNanos = nanos;
+        Arrays.fill(previousValues, 0);
+    }
+
+    // Switches to the segment mapped ahead. Only waits if the background thread has fallen behind.
+    private boolean rotate() {
+        final Segment full = current;
+        background.execute(() -> full.buffer.force());
+        try {
+            activate(next.get());
+        } catch (Exception e) {
+            Log.e(TAG, "Could not continue the trip in a new segment, recording stops", e);
+            failed = true;
+            return false;
+        }
+        prepareNext();
+        return true;
+    }
+
+    private void activate(Segment segment) {
+        current = segment;
+        current.buffer.putLong(TripFormat.OFFSET_WALL_CLOCK, System.currentTimeMillis());
+        nextIndexOffset = HEADER_SIZE;
+    }
+
+    private void prepareNext() {
+        final int number = nextSegmentNumber++;
+        next = background.submit(() -> Segment.create(directory, number, segmentSize));
+    }
+
+    // Coalesces page flushes: at most one is queued at a time
+    private void requestFlush(final Segment segment) {
+        if (flushPending.compareAndSet(false, true)) {
+            background.execute(() -> {
+                flushPending.set(false);
+                segment.buffer.force();
+            });
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File directory, int number, int size) throws IOException {
+            File file = new File(directory, TripFormat.segmentName(number));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(TripFormat.OFFSET_MAGIC, TripFormat.MAGIC);
+                buffer.putInt(TripFormat.OFFSET_VERSION, TripFormat.VERSION);
+                buffer.putInt(TripFormat.OFFSET_SEGMENT, number);
+                buffer.putInt(OFFSET_COMMITTED_END, HEADER_SIZE);
+                buffer.putInt(OFFSET_INDEX_COUNT, 0);
+                // Fault every page in now, so the writer never waits for the file system to allocate one
+                for (int page = HEADER_SIZE; page < size; page += PAGE_SIZE) {
+                    buffer.put(page, (byte) 0);
+                }
+                buffer.position(HEADER_SIZE);
+                return new Segment(file, buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.AdapterCapture;
+import com.example.zavobd.obd.AdapterReplay;
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures a session against the simulator, then replays it through a fresh CommunicationThread
+ * as fast as possible and checks that the same values come out, much faster than they went in.
+ */
+public class AdapterReplayTest {
+
+    private static final int[] PIDS = {0x0C, 0x0D, 0x10};
+    private static final long CAPTURE_MS = 1_000;
+
+    @Test
+    public void replaysCapturedSessionFasterThanRealTime() throws Exception {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        Elm327Simulator simulator = new Elm327Simulator().setLatency(2_000, 1_000);
+        AdapterCapture capture = new AdapterCapture(captured);
+        CommunicationThread recording = new CommunicationThread(null,
+                capture.wrap(simulator.getInputStream()), capture.wrap(simulator.getOutputStream()), (what, result) -> { });
+        // Closed before the thread stops, so the capture does not end with requests cut off mid-shutdown
+        long recordedSamples = runSession(recording, CAPTURE_MS, null, capture);
+        simulator.close();
+
+        AdapterReplay replay = AdapterReplay.load(new ByteArrayInputStream(captured.toByteArray()));
+        CountDownLatch ended = new CountDownLatch(1);
+        CommunicationThread replaying = new CommunicationThread(null, replay.getInputStream(), replay.getOutputStream(),
+                (what, result) -> {
+                    if (what == CommunicationThread.MSG_CONNECTION_LOST) ended.countDown();
+                });
+        long start = System.nanoTime();
+        long replayedSamples = runSession(replaying, 0, ended, null);
+        double replayMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format(Locale.US,
+                "replay: %d exchanges, %d served, %d unmatched, %d samples in %.1f ms (%.0fx real time)",
+                replay.getExchangeCount(), replay.getServedCount(), replay.getMismatchCount(), replayedSamples,
+                replayMs, CAPTURE_MS / replayMs));
+        // The pacer reacts to timing, so the replayed session may adjust differently and skip a few exchanges
+        assertTrue("Replay diverged from the capture", replay.getServedCount() * 2 >= replay.getExchangeCount());
+        assertTrue("Replay decoded nothing", replayedSamples > 0 && recordedSamples > 0);
+        assertTrue("Replay not faster than real time", replayMs * 5 < CAPTURE_MS);
+
+        LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+        replaying.getSnapshot().readInto(frame);
+        assertEquals(800, frame.get(0x0C), 0);
+        assertEquals(0, frame.get(0x0D), 0);
+        assertEquals(3.0, frame.get(0x10), 0.001);
+    }
+
+    // Polls PIDS for durationMs, or until the adapter stream ends when ended is given, closing stopFirst before stopping
+    private static long runSession(CommunicationThread thread, long durationMs, CountDownLatch ended,
+                                   Closeable stopFirst) throws Exception {
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.start();
+        thread.setLivePids(PIDS);
+        if (ended != null) {
+            assertTrue("Replay did not reach the end", ended.await(10, TimeUnit.SECONDS));
+        } else {
+            Thread.sleep(durationMs);
+        }
+        if (stopFirst != null) stopFirst.close();
+        thread.cancel();
+        thread.join(1000);
+        return thread.getSampleCount();
+    }
+}
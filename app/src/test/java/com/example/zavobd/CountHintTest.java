@@ -0,0 +1,83 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Polls through an adapter that keeps listening for more ECUs after every answer, as a real one
+ * does for its timeout, and checks that response counts and physical addressing cut that wait.
+ */
+public class CountHintTest {
+
+    private static final long RESPONSE_WAIT_MICROS = 30_000;
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+
+    private void poll(Elm327Simulator configured, int... pids) throws Exception {
+        simulator = configured.setLatency(2_000, 0).setResponseWait(RESPONSE_WAIT_MICROS);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), (what, result) -> { });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.setLivePids(pids);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void addressesTheOnlyEcuPhysically() throws Exception {
+        poll(new Elm327Simulator(), 0x0C, 0x0D, 0x10, 0x2F);
+        Thread.sleep(300);
+        long startSamples = thread.getSampleCount();
+        long start = System.nanoTime();
+        Thread.sleep(1000);
+        double perSecond = (thread.getSampleCount() - startSamples) / ((System.nanoTime() - start) / 1e9);
+        System.out.println(String.format(Locale.US, "Physical addressing with count hints: %.1f samples/s", perSecond));
+
+        assertEquals(1, simulator.getRequestCount("ATSH7E0"));
+        assertTrue(simulator.getRequestCount("010C0D102F1") > 0);
+        // Waiting out the adapter after every batch of four would cap this at 4 / 32 ms
+        assertTrue(perSecond > 2 * 4 / ((RESPONSE_WAIT_MICROS + 2_000) / 1e6));
+    }
+
+    @Test
+    public void learnsHowManyEcusAnswerEachPid() throws Exception {
+        // K-line: no multi-PID requests, and the transmission ECU also reports the speed
+        poll(new Elm327Simulator().setVehicleProtocol('3').setSecondEcu(0x00, 0x0D), 0x0C, 0x0D);
+        awaitRequests("010C1");
+        awaitRequests("010D2");
+
+        // The transmission goes quiet: the hint of 2 comes back short and is learned again as 1
+        simulator.setSecondEcu();
+        awaitRequests("010D1");
+    }
+
+    @Test
+    public void fallsBackWhenTheAdapterRejectsCounts() throws Exception {
+        poll(new Elm327Simulator().setResponseCountSupported(false), 0x0C, 0x0D);
+        awaitRequests("ATSH7DF");
+        long samples = thread.getSampleCount();
+        Thread.sleep(300);
+        assertTrue("Polling stopped", thread.getSampleCount() > samples);
+        assertEquals(1, simulator.getRequestCount("ATSH7DF"));
+    }
+
+    private void awaitRequests(String command) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (simulator.getRequestCount(command) == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue("No " + command, simulator.getRequestCount(command) > 0);
+    }
+}
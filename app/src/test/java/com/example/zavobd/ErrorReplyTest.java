@@ -0,0 +1,127 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polls through an adapter that answers with ELM327 error messages and checks that each one is
+ * recovered from the way it calls for, and that the PID shows no value rather than a 0. Also checks
+ * that a listener failing on the polling thread does not stop it.
+ */
+public class ErrorReplyTest {
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+    private volatile boolean connectionLost = false;
+    private final List<String> speedResults = new ArrayList<>();
+
+    private void poll(Elm327Simulator configured, int... pids) throws Exception {
+        simulator = configured.setLatency(2_000, 0);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), (what, result) -> {
+            if (what == CommunicationThread.MSG_CONNECTION_LOST) connectionLost = true;
+            if (what == CommunicationThread.MSG_UPDATE_PID_RESULT) {
+                // Callbacks run on the polling thread, where the results can be read directly
+                String speed = thread.getPidResults().get("010D");
+                synchronized (speedResults) {
+                    if (speed != null) speedResults.add(speed);
+                }
+            }
+        });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.setLivePids(pids);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void retriesABusErrorAndShowsNoValueIfItPersists() throws Exception {
+        poll(new Elm327Simulator().setPid(0x0D, 50).injectError("010D", "CAN ERROR", 3), 0x0D);
+        awaitSamples(20);
+
+        // The first poll failed twice, the second recovered on its retry
+        synchronized (speedResults) {
+            assertEquals("-", speedResults.get(0));
+            assertEquals("50 km/h", speedResults.get(1));
+        }
+        assertEquals(3, thread.getErrorCount());
+        assertEquals(50, thread.getSnapshot().getLatest(0x0D), 0);
+        assertEquals(0, thread.getReinitCount());
+    }
+
+    @Test
+    public void reinitialisesAfterUnableToConnectAndLowVoltageReset() throws Exception {
+        poll(new Elm327Simulator(), 0x0D);
+        awaitSamples(10);
+        simulator.injectError("010D", "UNABLE TO CONNECT", 1);
+        awaitReinits(1);
+        awaitSamples(10);
+
+        // The adapter restarts with echo on and automatic protocol selection
+        simulator.injectError("010D", "LV RESET", 1);
+        awaitReinits(2);
+        long samples = thread.getSampleCount();
+        awaitSamples(10);
+        assertTrue(thread.getSampleCount() > samples);
+        assertEquals(3, simulator.getRequestCount("ATE0"));
+        assertEquals(0, thread.getSnapshot().getLatest(0x0D), 0);
+        assertFalse(connectionLost);
+    }
+
+    @Test
+    public void doesNotWaitForThePromptAClonesDrops() throws Exception {
+        // K-line, so every PID is a request of its own; 0x0A is not supported and answers NO DATA
+        poll(new Elm327Simulator().setVehicleProtocol('3').setPromptAfterErrors(false), 0x0A, 0x0C);
+        long start = System.nanoTime();
+        awaitSamples(40);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        // Waiting for the prompt would take the read timeout, or the watchdog would take the link down
+        assertTrue("40 samples took " + elapsedMs + " ms", elapsedMs < 3000);
+        assertEquals(800, thread.getSnapshot().getLatest(0x0C), 0);
+        assertFalse(connectionLost);
+    }
+
+    @Test
+    public void keepsPollingWhenAListenerThrows() throws Exception {
+        simulator = new Elm327Simulator().setLatency(2_000, 0);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), (what, result) -> {
+            if (what == CommunicationThread.MSG_CONNECTION_LOST) connectionLost = true;
+            throw new IllegalStateException("Broken subscriber");
+        });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.setLivePids(new int[] {0x0C});
+        thread.start();
+        awaitSamples(50);
+        assertTrue(thread.isAlive());
+        assertFalse(connectionLost);
+    }
+
+    private void awaitSamples(long count) throws InterruptedException {
+        long target = thread.getSampleCount() + count;
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getSampleCount() < target && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue("Polling stalled", thread.getSampleCount() >= target);
+    }
+
+    private void awaitReinits(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getReinitCount() < count && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(count, thread.getReinitCount());
+    }
+}
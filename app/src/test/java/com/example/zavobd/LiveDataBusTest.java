@@ -0,0 +1,148 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class LiveDataBusTest {
+
+    private static final int DTC = CommunicationThread.MSG_UPDATE_DTC_RESULT;
+    private static final int SCAN = CommunicationThread.MSG_UPDATE_PID_RESULT;
+    private static final int LOST = CommunicationThread.MSG_CONNECTION_LOST;
+
+    private static final Executor DIRECT = Runnable::run;
+    private static final CommunicationThread.Listener IGNORE = (what, result) -> { };
+
+    private final LiveDataBus bus = new LiveDataBus();
+    private int changes = 0;
+
+    // Holds callbacks until the test runs them, like a looper that has not got round to them yet
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        void runAll() {
+            for (Runnable runnable : pending) runnable.run();
+            pending.clear();
+        }
+    }
+
+    private LiveDataBus.Subscription subscribe(int[] pids, int... messages) {
+        return bus.subscribe(pids, messages, DIRECT, IGNORE);
+    }
+
+    @Test
+    public void pollsTheUnionOfSubscribedPids() {
+        bus.setOnPidsChangedListener(() -> changes++);
+        LiveDataBus.Subscription dashboard = subscribe(new int[] {0x0D, 0x0C});
+        LiveDataBus.Subscription fuel = subscribe(new int[] {0x0D, 0x05, 0x100});
+        assertArrayEquals(new int[] {0x05, 0x0C, 0x0D}, bus.getPolledPids());
+        assertEquals(2, changes);
+
+        // Nothing new to poll, so the polling thread is left alone
+        LiveDataBus.Subscription logger = subscribe(new int[] {0x0C});
+        assertEquals(2, changes);
+        bus.unsubscribe(logger);
+        assertEquals(2, changes);
+
+        bus.unsubscribe(fuel);
+        assertArrayEquals(new int[] {0x0C, 0x0D}, bus.getPolledPids());
+        bus.unsubscribe(dashboard);
+        bus.unsubscribe(dashboard);
+        assertArrayEquals(new int[0], bus.getPolledPids());
+        assertEquals(4, changes);
+        assertEquals(0, bus.getSubscriberCount());
+    }
+
+    @Test
+    public void tellsWhichPidsOnlyCustomScansNeed() {
+        bus.setOnPidsChangedListener(() -> changes++);
+        LiveDataBus.Subscription dashboard = subscribe(new int[] {0x0C, 0x0D});
+        subscribe(new int[] {0x0D, 0x11}, SCAN);
+        assertArrayEquals(new int[] {0x0C, 0x0D, 0x11}, bus.getPolledPids());
+        assertArrayEquals(new int[] {0x11}, bus.getScanOnlyPids());
+
+        // The union shrinks by 0x0C only, but 0x0D becomes scan-only too
+        bus.unsubscribe(dashboard);
+        assertArrayEquals(new int[] {0x0D, 0x11}, bus.getPolledPids());
+        assertArrayEquals(new int[] {0x0D, 0x11}, bus.getScanOnlyPids());
+        assertEquals(3, changes);
+
+        // A change to the scan-only PIDs alone is reported as well
+        subscribe(new int[] {0x11});
+        assertArrayEquals(new int[] {0x0D, 0x11}, bus.getPolledPids());
+        assertArrayEquals(new int[] {0x0D}, bus.getScanOnlyPids());
+        assertEquals(4, changes);
+    }
+
+    @Test
+    public void wantsOnlySubscribedMessages() {
+        assertFalse(bus.wants(DTC));
+        assertTrue(bus.wants(LOST));
+
+        LiveDataBus.Subscription codes = subscribe(new int[0], DTC);
+        assertTrue(bus.wants(DTC));
+        assertFalse(bus.wants(SCAN));
+        // Codes out of the mask's range are never wanted, except the connection loss
+        assertFalse(bus.wants(CommunicationThread.MSG_INVALID_DEVICE));
+        assertTrue(bus.wants(LOST));
+
+        bus.unsubscribe(codes);
+        assertFalse(bus.wants(DTC));
+    }
+
+    @Test
+    public void deliversThroughEachSubscribersExecutor() {
+        QueueExecutor screen = new QueueExecutor();
+        QueueExecutor logger = new QueueExecutor();
+        List<String> received = new ArrayList<>();
+        bus.subscribe(new int[0], new int[] {DTC}, screen, (what, result) -> received.add("screen " + what + " " + result));
+        bus.subscribe(new int[0], new int[] {SCAN}, logger, (what, result) -> received.add("logger " + what + " " + result));
+
+        bus.onResult(DTC, "P0133");
+        // Nothing runs on the publishing thread
+        assertTrue(received.isEmpty());
+        assertEquals(1, screen.pending.size());
+        assertEquals(0, logger.pending.size());
+        screen.runAll();
+        assertEquals("screen 3 P0133", received.get(0));
+
+        // Everyone hears about a lost connection
+        bus.onResult(LOST, null);
+        assertEquals(1, screen.pending.size());
+        assertEquals(1, logger.pending.size());
+    }
+
+    @Test
+    public void keepsDeliveringWhenASubscriberFails() {
+        List<Object> received = new ArrayList<>();
+        bus.subscribe(new int[0], new int[] {DTC}, DIRECT, (what, result) -> {
+            throw new IllegalStateException("Broken subscriber");
+        });
+        bus.subscribe(new int[0], new int[] {DTC}, DIRECT, (what, result) -> received.add(result));
+        bus.onResult(DTC, "P0300");
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void reportsChangedPidsOutsideItsLock() {
+        List<Boolean> locked = new ArrayList<>();
+        bus.setOnPidsChangedListener(() -> locked.add(Thread.holdsLock(bus)));
+        LiveDataBus.Subscription dashboard = subscribe(new int[] {0x0C});
+        bus.unsubscribe(dashboard);
+        assertEquals(2, locked.size());
+        assertFalse(locked.get(0));
+        assertFalse(locked.get(1));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public class LiveSnapshotTest {
+
+    @Test
+    public void publishesWholeFrames() {
+        LiveSnapshot snapshot = new LiveSnapshot();
+        LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+        // Nothing published yet
+        assertFalse(snapshot.readInto(frame));
+        assertFalse(frame.has(0x0C));
+
+        snapshot.beginWrite();
+        snapshot.put(0x0C, 1726);
+        snapshot.put(0x0D, 40);
+        // Nothing is readable while the frame is being written
+        assertEquals(0, snapshot.getSequence());
+        snapshot.endWrite(1234);
+
+        assertTrue(snapshot.readInto(frame));
+        assertEquals(1726, frame.get(0x0C), 0);
+        assertEquals(40, frame.get(0x0D), 0);
+        assertEquals(1234, frame.getTimestampNanos());
+        // Nothing newer yet
+        assertFalse(snapshot.readInto(frame));
+
+        snapshot.clear();
+        assertTrue(snapshot.readInto(frame));
+        assertFalse(frame.has(0x0C));
+        assertFalse(frame.has(0x0D));
+    }
+
+    @Test
+    public void neverHandsOutATornFrame() throws Exception {
+        LiveSnapshot snapshot = new LiveSnapshot();
+        // The writer fills every PID slot with the same number per frame and now and then clears them all.
+        // It pauses briefly between frames, as polling does, so the reader gets a chance to finish a copy
+        Thread writer = new Thread(() -> {
+            for (int i = 1; !Thread.currentThread().isInterrupted(); i++) {
+                if (i % 10 == 0) {
+                    snapshot.clear();
+                } else {
+                    snapshot.beginWrite();
+                    for (int pid = 0; pid < LiveSnapshot.PID_SLOTS; pid++) snapshot.put(pid, i);
+                    snapshot.endWrite(i);
+                }
+                LockSupport.parkNanos(20_000);
+            }
+        });
+        AtomicReference<String> torn = new AtomicReference<>();
+        int frames = 0;
+        writer.start();
+        try {
+            LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+            long end = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < end && torn.get() == null) {
+                if (!snapshot.readInto(frame)) continue;
+                frames++;
+                double first = frame.get(0);
+                for (int pid = 1; pid < LiveSnapshot.PID_SLOTS; pid++) {
+                    double value = frame.get(pid);
+                    if (Double.compare(value, first) != 0) {
+                        torn.set("Slot 0 holds " + first + ", slot " + pid + " holds " + value);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            writer.interrupt();
+            writer.join(1000);
+        }
+        assertEquals(null, torn.get());
+        assertTrue("Only " + frames + " frames read", frames > 10);
+    }
+}
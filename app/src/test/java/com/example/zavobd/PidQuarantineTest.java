@@ -0,0 +1,70 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Polls a K-line car with three PIDs it leaves unanswered, each taking the ECU timeout to come
+ * back as NO DATA, and checks that they stop holding up the ones it answers, are reported as
+ * not answering, and rejoin once the car answers them.
+ */
+public class PidQuarantineTest {
+
+    private static final long ECU_TIMEOUT_MICROS = 100_000;
+    private static final int[] PIDS = {0x0C, 0x0A, 0x0D, 0x22, 0x4F};
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void deadPidsLeaveTheBusToTheOthersAndRejoinWhenTheyAnswer() throws Exception {
+        // 0x0A, 0x22 and 0x4F are not set, so the car answers NO DATA after its timeout
+        simulator = new Elm327Simulator().setVehicleProtocol('3').setLatency(2_000, 0)
+                .injectDelay("010A", ECU_TIMEOUT_MICROS, Integer.MAX_VALUE)
+                .injectDelay("0122", ECU_TIMEOUT_MICROS, Integer.MAX_VALUE)
+                .injectDelay("014F", ECU_TIMEOUT_MICROS, Integer.MAX_VALUE);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), (what, result) -> { });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        // A custom scan of these PIDs, nobody else needs them
+        thread.setScanOnlyPids(PIDS);
+        thread.setLivePids(PIDS);
+        thread.start();
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (thread.getPidHealth().getQuarantinedCount() < 3 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(3, thread.getPidHealth().getQuarantinedCount());
+
+        // Every round would take over 300 ms with them; without them the answered PIDs get the bus
+        long samples = thread.getSampleCount();
+        Thread.sleep(1000);
+        long perSecond = thread.getSampleCount() - samples;
+        System.out.println("Samples per second with 3 of 5 PIDs quarantined: " + perSecond);
+        assertTrue("Only " + perSecond + " samples/s", perSecond > 100);
+        assertEquals(Arrays.asList("010A", "0122", "014F"), thread.getPidHealth().quarantinedOf(PIDS));
+
+        // The car starts answering 0x0A, e.g. once the engine is warm
+        simulator.setPid(0x0A, 0x80).injectDelay("010A", 0, 0);
+        deadline = System.nanoTime() + 10_000_000_000L;
+        while (thread.getPidHealth().isQuarantined(0x0A) && System.nanoTime() < deadline) Thread.sleep(10);
+        assertFalse(thread.getPidHealth().isQuarantined(0x0A));
+        Thread.sleep(100);
+        assertEquals(384, thread.getSnapshot().getLatest(0x0A), 0);
+        assertEquals(Arrays.asList("0122", "014F"), thread.getPidHealth().quarantinedOf(PIDS));
+    }
+}
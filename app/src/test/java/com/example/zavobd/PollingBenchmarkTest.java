@@ -0,0 +1,227 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end polling throughput against the in-process ELM327 simulator, one test per screen's PID set.
+ *
+ * Each run reports samples/sec (PID values decoded) and p50/p99 latency. For message results that is
+ * from the last request reaching the adapter to the result being published; for the numeric screens,
+ * which read the LiveSnapshot, it is the age of a frame when a reader polling every
+ * FRAME_POLL_MICROS picks it up. The simulated ECU answers after
+ * ECU_LATENCY_MICROS plus jitter, roughly what a CAN car behind a good adapter does. Numbers are
+ * printed rather than asserted so the suite can be compared across changes on any machine.
+ */
+public class PollingBenchmarkTest {
+
+    private static final long ECU_LATENCY_MICROS = 2_000;
+    private static final long ECU_JITTER_MICROS = 1_000;
+    private static final long WARMUP_MS = 300;
+    private static final long MEASURE_MS = 2_000;
+    private static final long FRAME_POLL_MICROS = 100;
+    // Serial speed of a typical Bluetooth adapter's link to its ELM327 chip
+    private static final int SERIAL_BAUD = 38_400;
+    // Result code meaning "read from the snapshot"
+    private static final int FROM_SNAPSHOT = -1;
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+    private Recorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Elm327Simulator()
+                .setLatency(ECU_LATENCY_MICROS, ECU_JITTER_MICROS)
+                .setStoredDtcs(0x0133, 0x0171, 0x0300, 0x0420);
+        recorder = new Recorder(simulator);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), recorder);
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0); // As fast as the adapter answers
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void dashboard() throws Exception {
+        assertTrue(measureLiveData("dashboard", new int[] {0x0C, 0x0D}, FROM_SNAPSHOT) > 0);
+    }
+
+    @Test
+    public void fuelStats() throws Exception {
+        assertTrue(measureLiveData("fuel stats", new int[] {0x0D, 0x10, 0x2F}, FROM_SNAPSHOT) > 0);
+    }
+
+    @Test
+    public void customScan() throws Exception {
+        int[] pids = {0x04, 0x05, 0x0B, 0x0C, 0x0D, 0x0F, 0x10, 0x11, 0x2F, 0x33, 0x42, 0x5C};
+        assertTrue(measureLiveData("custom scan", pids, CommunicationThread.MSG_UPDATE_PID_RESULT) > 0);
+    }
+
+    @Test
+    public void dtcScan() throws Exception {
+        // One-shot mode: start a scan, wait for its result, repeat
+        long end = System.nanoTime() + MEASURE_MS * 1_000_000L;
+        long start = System.nanoTime();
+        int scans = 0;
+        recorder.reset(CommunicationThread.MSG_UPDATE_DTC_RESULT);
+        while (System.nanoTime() < end) {
+            thread.setMode(CommunicationThread.MODE_DTC_SCAN);
+            assertTrue("DTC scan did not finish", recorder.awaitResults(scans + 1, 2000));
+            scans++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report("dtc scan", scans / seconds, recorder);
+        assertTrue(scans > 0);
+    }
+
+    @Test
+    public void compactResponses() throws Exception {
+        // Dashboard and fuel PIDs over a 38400 baud adapter: once with spaces and CR LF left on, as
+        // many adapters power up, and once with the compact transport settings of the init
+        double[] verbose = measureWireCost(false);
+        double[] compact = measureWireCost(true);
+        System.out.println(String.format(Locale.US, "%-12s %8.1f samples/s  %5.1f bytes/sample", "verbose", verbose[1], verbose[0]));
+        System.out.println(String.format(Locale.US, "%-12s %8.1f samples/s  %5.1f bytes/sample", "compact", compact[1], compact[0]));
+        assertTrue(compact[0] < verbose[0]);
+        assertTrue(compact[1] > verbose[1]);
+    }
+
+    // {bytes on the wire per sample, samples per second} for polling on a link of its own
+    private double[] measureWireCost(boolean compact) throws Exception {
+        Elm327Simulator link = new Elm327Simulator()
+                .setLatency(ECU_LATENCY_MICROS, ECU_JITTER_MICROS)
+                .setBaudRate(SERIAL_BAUD);
+        CommunicationThread polling = new CommunicationThread(link.getInputStream(), link.getOutputStream(), new Recorder(link));
+        try {
+            polling.performSanityCheck();
+            if (!compact) {
+                polling.getChannel().executeText("ATS1");
+                polling.getChannel().executeText("ATL1");
+            }
+            polling.setIntervalOverrideMs(0);
+            polling.setLivePids(new int[] {0x0C, 0x0D, 0x10, 0x2F});
+            polling.start();
+            Thread.sleep(WARMUP_MS);
+            long startSamples = polling.getSampleCount();
+            long startBytes = link.getBytesToApp() + link.getBytesFromApp();
+            long start = System.nanoTime();
+            Thread.sleep(MEASURE_MS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long samples = polling.getSampleCount() - startSamples;
+            long bytes = link.getBytesToApp() + link.getBytesFromApp() - startBytes;
+            return new double[] {(double) bytes / samples, samples / seconds};
+        } finally {
+            polling.cancel();
+            polling.join(1000);
+            link.close();
+        }
+    }
+
+    private double measureLiveData(String name, int[] pids, int resultCode) throws InterruptedException {
+        Thread frameReader = null;
+        if (resultCode == FROM_SNAPSHOT) {
+            frameReader = new Thread(() -> {
+                LiveSnapshot.Frame frame = new LiveSnapshot.Frame();
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (thread.getSnapshot().readInto(frame)) {
+                        recorder.record(System.nanoTime() - frame.getTimestampNanos());
+                    }
+                    LockSupport.parkNanos(FRAME_POLL_MICROS * 1_000L);
+                }
+            });
+            frameReader.start();
+        }
+        recorder.reset(resultCode);
+        thread.setLivePids(pids);
+        Thread.sleep(WARMUP_MS);
+        recorder.reset(resultCode);
+        long startSamples = thread.getSampleCount();
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double samplesPerSecond = (thread.getSampleCount() - startSamples) / seconds;
+        thread.setLivePids(new int[0]);
+        if (frameReader != null) {
+            frameReader.interrupt();
+            frameReader.join(1000);
+        }
+        report(name, samplesPerSecond, recorder);
+        return samplesPerSecond;
+    }
+
+    private static void report(String name, double perSecond, Recorder recorder) {
+        System.out.println(String.format(Locale.US, "%-12s %8.1f samples/s  p50 %6.2f ms  p99 %6.2f ms  (%d results)",
+                name, perSecond, recorder.percentileMs(50), recorder.percentileMs(99), recorder.count()));
+    }
+
+    // Collects the latencies of one result type.
+    private static class Recorder implements CommunicationThread.Listener {
+        private final Elm327Simulator simulator;
+        private long[] latencies = new long[1 << 16];
+        private int count = 0;
+        private int resultCode = -1;
+
+        Recorder(Elm327Simulator simulator) {
+            this.simulator = simulator;
+        }
+
+        // Like a single screen: only its own result type is built
+        @Override
+        public synchronized boolean wants(int what) {
+            return what == resultCode || what == CommunicationThread.MSG_CONNECTION_LOST;
+        }
+
+        @Override
+        public synchronized void onResult(int what, Object result) {
+            if (what == resultCode) record(System.nanoTime() - simulator.getLastRequestNanos());
+        }
+
+        synchronized void record(long latencyNanos) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latencyNanos;
+            notifyAll();
+        }
+
+        synchronized void reset(int resultCode) {
+            this.resultCode = resultCode;
+            count = 0;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized boolean awaitResults(int expected, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (count < expected) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized double percentileMs(int percentile) {
+            if (count == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, count * percentile / 100)] / 1e6;
+        }
+    }
+}
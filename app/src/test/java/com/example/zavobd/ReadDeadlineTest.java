@@ -0,0 +1,62 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.CommandTimeouts;
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Polls the simulator until the read deadlines are learned, then holds up one reply and checks
+ * that it costs a fraction of a second, without the watchdog taking the link down.
+ */
+public class ReadDeadlineTest {
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+    private volatile boolean connectionLost = false;
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void aHungRequestCostsAFractionOfASecond() throws Exception {
+        simulator = new Elm327Simulator().setLatency(2_000, 1_000);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(), (what, result) -> {
+            if (what == CommunicationThread.MSG_CONNECTION_LOST) connectionLost = true;
+        });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.setLivePids(new int[] {0x0C, 0x0D});
+        thread.start();
+        awaitSamples(200);
+        long deadlineMs = thread.getChannel().getDeadlineMs(CommandTimeouts.MULTI_PID);
+        System.out.println("Learned deadlines: " + thread.getChannel().describeDeadlines());
+        assertTrue("Deadline " + deadlineMs + " ms", deadlineMs < 400);
+
+        simulator.injectDelay("010C", 3_000_000, 1);
+        long start = System.nanoTime();
+        awaitSamples(20);
+        long recoveredMs = (System.nanoTime() - start) / 1_000_000L;
+        System.out.println("Polling went on " + recoveredMs + " ms after a reply was held up for 3 s");
+        assertTrue("Took " + recoveredMs + " ms", recoveredMs < 1000);
+        assertEquals(1, thread.getErrorCount());
+        assertEquals(800, thread.getSnapshot().getLatest(0x0C), 0);
+        assertFalse(connectionLost);
+    }
+
+    private void awaitSamples(long count) throws InterruptedException {
+        long target = thread.getSampleCount() + count;
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getSampleCount() < target && System.nanoTime() < deadline) Thread.sleep(5);
+        assertTrue("Polling stalled", thread.getSampleCount() >= target);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.zavobd.obd.Elm327Simulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops, power-cycles and stalls the simulated adapter under a polling CommunicationThread and
+ * checks that it gets the adapter back and keeps polling without the UI noticing.
+ */
+public class ReconnectTest {
+
+    private Elm327Simulator simulator;
+    private CommunicationThread thread;
+    private volatile boolean connectionLost = false;
+    private volatile boolean reachable = true;
+    private final AtomicLong firstReconnectNanos = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Elm327Simulator().setLatency(2_000, 1_000);
+        thread = new CommunicationThread(simulator.getInputStream(), simulator.getOutputStream(),
+                (what, result) -> {
+                    if (what == CommunicationThread.MSG_CONNECTION_LOST) connectionLost = true;
+                });
+        thread.setReconnector(() -> {
+            firstReconnectNanos.compareAndSet(0, System.nanoTime());
+            if (!reachable) throw new IOException("Adapter out of range");
+            simulator.dropLink(); // A new socket: whatever the old one had in flight is gone
+            return new CommunicationThread.Link(simulator.getInputStream(), simulator.getOutputStream(), null);
+        });
+        thread.performSanityCheck();
+        thread.setIntervalOverrideMs(0);
+        thread.setLivePids(new int[] {0x0C, 0x0D});
+        thread.start();
+        awaitSamples(20);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        thread.cancel();
+        thread.join(1000);
+        simulator.close();
+    }
+
+    @Test
+    public void resumesWithoutReinitialisingAfterADropout() throws Exception {
+        simulator.dropLink();
+        awaitReconnect();
+        awaitSamples(20);
+        // The adapter kept its settings, so it was not initialised again
+        assertEquals(1, simulator.getRequestCount("ATE0"));
+        assertFalse(connectionLost);
+    }
+
+    @Test
+    public void reinitialisesAnAdapterThatLostPower() throws Exception {
+        simulator.powerCycle();
+        awaitReconnect();
+        awaitSamples(20);
+        assertEquals(2, simulator.getRequestCount("ATE0"));
+        assertFalse(connectionLost);
+    }
+
+    @Test
+    public void detectsAStalledLinkQuickly() throws Exception {
+        reachable = false;
+        long stalled = System.nanoTime();
+        simulator.setSilent(true);
+        while (firstReconnectNanos.get() == 0) Thread.sleep(10);
+        long detectedMs = (firstReconnectNanos.get() - stalled) / 1_000_000L;
+        // Well before the 5 s read timeout would have given up
+        assertTrue("Stall detected after " + detectedMs + " ms", detectedMs < 1000);
+
+        Thread.sleep(500); // Out of range for a while, retried with backoff
+        simulator.setSilent(false);
+        reachable = true;
+        awaitReconnect();
+        awaitSamples(20);
+        assertFalse(connectionLost);
+    }
+
+    private void awaitReconnect() throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (thread.getReconnectCount() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(1, thread.getReconnectCount());
+    }
+
+    private void awaitSamples(long count) throws InterruptedException {
+        long target = thread.getSampleCount() + count;
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getSampleCount() < target && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue("Polling stalled", thread.getSampleCount() >= target);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.zavobd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.content.SharedPreferences;
+
+import com.example.zavobd.obd.SupportedPids;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class SupportedPidStoreTest {
+
+    // Just enough of SharedPreferences for the store, kept in memory
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override public Map<String, ?> getAll() { return new HashMap<>(values); }
+        @Override public String getString(String key, String defValue) { return values.containsKey(key) ? (String) values.get(key) : defValue; }
+        @SuppressWarnings("unchecked")
+        @Override public Set<String> getStringSet(String key, Set<String> defValues) { return values.containsKey(key) ? (Set<String>) values.get(key) : defValues; }
+        @Override public int getInt(String key, int defValue) { return values.containsKey(key) ? (Integer) values.get(key) : defValue; }
+        @Override public long getLong(String key, long defValue) { return values.containsKey(key) ? (Long) values.get(key) : defValue; }
+        @Override public float getFloat(String key, float defValue) { return values.containsKey(key) ? (Float) values.get(key) : defValue; }
+        @Override public boolean getBoolean(String key, boolean defValue) { return values.containsKey(key) ? (Boolean) values.get(key) : defValue; }
+        @Override public boolean contains(String key) { return values.containsKey(key); }
+        @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) { }
+        @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) { }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, Object> pending = new HashMap<>();
+
+                @Override public Editor putString(String key, String value) { pending.put(key, value); return this; }
+                @Override public Editor putStringSet(String key, Set<String> value) { pending.put(key, value); return this; }
+                @Override public Editor putInt(String key, int value) { pending.put(key, value); return this; }
+                @Override public Editor putLong(String key, long value) { pending.put(key, value); return this; }
+                @Override public Editor putFloat(String key, float value) { pending.put(key, value); return this; }
+                @Override public Editor putBoolean(String key, boolean value) { pending.put(key, value); return this; }
+                @Override public Editor remove(String key) { pending.put(key, null); return this; }
+                @Override public Editor clear() { values.clear(); return this; }
+                @Override public void apply() { commit(); }
+
+                @Override
+                public boolean commit() {
+                    for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                        if (entry.getValue() == null) values.remove(entry.getKey());
+                        else values.put(entry.getKey(), entry.getValue());
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+
+    private static SupportedPids pidsOf(int... pids) {
+        SupportedPids set = new SupportedPids();
+        for (int pid : pids) set.add(pid);
+        return set;
+    }
+
+    @Test
+    public void keysVehiclesByVinOrAdapter() {
+        assertEquals("VIN:WVWZZZ1JZXW000001", SupportedPidStore.vehicleKey("WVWZZZ1JZXW000001", "00:11:22:33:44:55"));
+        assertEquals("MAC:00:11:22:33:44:55", SupportedPidStore.vehicleKey(null, "00:11:22:33:44:55"));
+        assertEquals("MAC:00:11:22:33:44:55", SupportedPidStore.vehicleKey("", "00:11:22:33:44:55"));
+    }
+
+    @Test
+    public void keepsASetPerVehicle() {
+        SupportedPidStore store = new SupportedPidStore(new MemoryPreferences());
+        String golf = SupportedPidStore.vehicleKey("WVWZZZ1JZXW000001", null);
+        String astra = SupportedPidStore.vehicleKey("W0L0AHL3582000002", null);
+        assertNull(store.load(golf));
+        assertNull(store.loadLastVehicle());
+
+        store.save(golf, pidsOf(0x0C, 0x0D, 0x5E));
+        store.save(astra, pidsOf(0x0C, 0x10, 0xA6));
+
+        assertEquals(pidsOf(0x0C, 0x0D, 0x5E).toHex(), store.load(golf).toHex());
+        assertEquals(pidsOf(0x0C, 0x10, 0xA6).toHex(), store.load(astra).toHex());
+        // The last save marks the vehicle the PID picker offers
+        assertEquals(store.load(astra).toHex(), store.loadLastVehicle().toHex());
+
+        store.setLastVehicle(golf);
+        SupportedPids last = store.loadLastVehicle();
+        assertNotNull(last);
+        assertEquals(store.load(golf).toHex(), last.toHex());
+
+        // Saving again replaces the vehicle's set
+        store.save(golf, pidsOf(0x0C));
+        assertEquals(1, store.load(golf).count());
+        assertEquals(3, store.load(astra).count());
+    }
+
+    @Test
+    public void keepsFuelTypeAndTimeoutsPerVehicle() {
+        SupportedPidStore store = new SupportedPidStore(new MemoryPreferences());
+        String golf = SupportedPidStore.vehicleKey("WVWZZZ1JZXW000001", null);
+        String other = SupportedPidStore.vehicleKey(null, "00:11:22:33:44:55");
+
+        assertNull(store.loadFuelType(golf));
+        store.saveFuelType(golf, 4);
+        store.saveFuelType(other, -1);
+        assertEquals(Integer.valueOf(4), store.loadFuelType(golf));
+        assertEquals(Integer.valueOf(-1), store.loadFuelType(other));
+
+        assertNull(store.loadTimeouts(golf));
+        store.saveTimeouts(golf, "010C:30");
+        assertEquals("010C:30", store.loadTimeouts(golf));
+        assertNull(store.loadTimeouts(other));
+        // The extra keys do not disturb the PID set
+        assertNull(store.load(golf));
+    }
+}
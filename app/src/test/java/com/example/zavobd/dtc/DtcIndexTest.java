@@ -0,0 +1,97 @@
+package com.example.zavobd.dtc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class DtcIndexTest {
+
+    @Test
+    public void packsCodesAsTheEcuSendsThem() {
+        assertEquals(0x0133, DtcIndex.pack("P0133"));
+        assertEquals(0x4105, DtcIndex.pack("C0105"));
+        assertEquals(0xC100, DtcIndex.pack("U0100"));
+        assertEquals(0x2A00, DtcIndex.pack("p2a00"));
+        assertEquals(-1, DtcIndex.pack("P4133")); // Second character is 0-3
+        assertEquals(-1, DtcIndex.pack("X0133"));
+        assertEquals(-1, DtcIndex.pack("P013"));
+        assertEquals(-1, DtcIndex.pack(null));
+    }
+
+    @Test
+    public void findsEveryCodeAndNothingElse() throws IOException {
+        TreeMap<Integer, String> table = DtcIndexWriter.parse(new StringReader(
+                "# comment\n\nU0100\tLost Communication With ECM/PCM A\nP0133\tO2 Sensor Slow Response\n"
+                        + "C0035\tLeft Front Wheel Speed Sensor Circuit\nP0300\tRandom/Multiple Cylinder Misfire Detected\n"
+                        + "B1000\tÉtiquette\n"));
+        DtcIndex index = DtcIndex.wrap(ByteBuffer.wrap(compile(table)));
+        assertEquals(5, index.size());
+        for (int code : table.keySet()) {
+            assertEquals(table.get(code), index.describe(code));
+        }
+        assertEquals(0x0133, index.getCode(0));
+        assertEquals(0xC100, index.getCode(index.size() - 1)); // U codes sort last as unsigned keys
+        assertNull(index.describe(0x0134));
+        assertNull(index.describe(0x0000));
+        assertNull(index.describe(0xFFFF));
+
+        DtcIndex empty = DtcIndex.wrap(ByteBuffer.wrap(compile(new TreeMap<>())));
+        assertEquals(-1, empty.indexOf(0x0133));
+    }
+
+    @Test
+    public void rejectsBadInput() {
+        try {
+            DtcIndexWriter.parse(new StringReader("P0133\tA\nP0133\tB\n"));
+            fail("Duplicate accepted");
+        } catch (IOException expected) {
+        }
+        try {
+            DtcIndexWriter.parse(new StringReader("P0133 no tab\n"));
+            fail("Malformed line accepted");
+        } catch (IOException expected) {
+        }
+        try {
+            DtcIndex.wrap(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 0, 0, 0, 0}));
+            fail("Foreign data accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void shippedAssetMatchesItsSource() throws IOException {
+        // Unit tests run from the module directory
+        File source = new File("dtc/generic.tsv");
+        File asset = new File("src/main/assets/dtc/generic.dtc");
+        TreeMap<Integer, String> table;
+        try (Reader in = new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8)) {
+            table = DtcIndexWriter.parse(in);
+        }
+        assertTrue("Regenerate " + asset + " with DtcIndexWriter",
+                Arrays.equals(compile(table), Files.readAllBytes(asset.toPath())));
+
+        DtcIndex index = DtcIndex.map(asset);
+        assertEquals(table.size(), index.size());
+        assertEquals("O2 Sensor Circuit Slow Response (Bank 1 Sensor 1)", index.describe(DtcIndex.pack("P0133")));
+        assertEquals("Lost Communication With ECM/PCM A", index.describe(DtcIndex.pack("U0100")));
+    }
+
+    private static byte[] compile(TreeMap<Integer, String> table) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DtcIndexWriter.write(table, out);
+        return out.toByteArray();
+    }
+}
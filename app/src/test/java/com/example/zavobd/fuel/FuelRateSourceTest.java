@@ -0,0 +1,53 @@
+package com.example.zavobd.fuel;
+
+import com.example.zavobd.LiveSnapshot;
+import com.example.zavobd.obd.SupportedPids;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FuelRateSourceTest {
+
+    @Test
+    public void prefersTheCheapestSourceTheVehicleSupports() {
+        assertEquals(FuelRateSource.ENGINE_FUEL_RATE, FuelRateSource.select(supporting(0x0B, 0x0C, 0x0F, 0x10, 0x5E)));
+        assertEquals(FuelRateSource.MAF, FuelRateSource.select(supporting(0x0B, 0x0C, 0x0F, 0x10)));
+        assertEquals(FuelRateSource.SPEED_DENSITY, FuelRateSource.select(supporting(0x0B, 0x0C, 0x0F)));
+        assertEquals(FuelRateSource.NONE, FuelRateSource.select(supporting(0x0B, 0x0C)));
+        assertEquals(FuelRateSource.MAF, FuelRateSource.select(null));
+        assertArrayEquals(new int[] {0x5E}, FuelRateSource.ENGINE_FUEL_RATE.getPids());
+        assertEquals(-1, FuelRateSource.NONE.getTriggerPid());
+    }
+
+    @Test
+    public void convertsWithTheVehiclesFuel() {
+        LiveSnapshot values = new LiveSnapshot();
+        values.beginWrite();
+        values.put(0x10, 10.0); // g/s
+        values.put(0x5E, 4.2);
+        values.endWrite(0);
+        assertEquals(4.2, FuelRateSource.ENGINE_FUEL_RATE.litersPerHour(values, FuelType.DIESEL), 0);
+        assertEquals(10.0 * 3600 / (14.7 * 745), FuelRateSource.MAF.litersPerHour(values, FuelType.fromCode(0x01)), 1e-9);
+        assertEquals(10.0 * 3600 / (14.5 * 832), FuelRateSource.MAF.litersPerHour(values, FuelType.fromCode(0x04)), 1e-9);
+        assertSame(FuelType.ETHANOL, FuelType.fromCode(0x12)); // Hybrid ethanol
+        assertSame(FuelType.GASOLINE, FuelType.fromCode(-1));
+        // Not all speed-density inputs polled yet
+        assertTrue(Double.isNaN(FuelRateSource.SPEED_DENSITY.litersPerHour(values, FuelType.GASOLINE)));
+    }
+
+    @Test
+    public void estimatesAirflowFromManifoldPressure() {
+        // A 2.0 L engine at 3000 rpm, wide open at 100 kPa and 27 C draws about 49 g/s
+        assertEquals(49.4, FuelRateSource.estimateAirflow(100, 3000, 26.85), 0.1);
+        // Idle: low vacuum pressure and RPM
+        double idle = FuelRateSource.estimateAirflow(30, 800, 26.85);
+        assertTrue("Idle airflow " + idle, idle > 2 && idle < 5);
+    }
+
+    private static SupportedPids supporting(int... pids) {
+        SupportedPids supported = new SupportedPids();
+        for (int pid : pids) supported.add(pid);
+        return supported;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.zavobd.fuel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FuelStatsTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void integratesOverRealElapsedTime() {
+        FuelStats stats = new FuelStats();
+        // 6 L/h at 60 km/h is 10 L/100km, however unevenly the samples arrive
+        long[] gapsMs = {100, 250, 50, 400, 100, 1000, 200, 300, 150, 100, 900, 50, 500, 250};
+        long nanos = 0;
+        stats.update(nanos, 6, 60);
+        long totalMs = 0;
+        for (long gap : gapsMs) {
+            nanos += gap * 1_000_000L;
+            totalMs += gap;
+            stats.update(nanos, 6, 60);
+        }
+        double hours = totalMs / 3_600_000.0;
+        assertEquals(6 * hours, stats.getTripFuelLiters(), 1e-9);
+        assertEquals(60 * hours, stats.getTripDistanceKm(), 1e-9);
+        assertEquals(10, stats.getTripLitersPer100km(), 1e-9);
+        assertEquals(6, stats.getTripLitersPerHour(), 1e-9);
+        assertEquals(10, stats.getWindowLitersPer100km(), 1e-9);
+        assertEquals(6, stats.getWindowLitersPerHour(), 1e-9);
+        assertEquals(10, stats.getInstantLitersPer100km(), 1e-9);
+        assertEquals(10, stats.getEwmaLitersPer100km(), 1e-9);
+    }
+
+    @Test
+    public void windowForgetsOldIntervalsButTripKeepsThem() {
+        FuelStats stats = new FuelStats();
+        long nanos = 0;
+        for (int i = 0; i <= 100; i++, nanos += SECOND) stats.update(nanos, 12, 60); // 20 L/100km
+        for (int i = 0; i < FuelStats.WINDOW_SIZE + 1; i++, nanos += SECOND) stats.update(nanos, 3, 60); // 5 L/100km
+        assertEquals(5, stats.getWindowLitersPer100km(), 1e-9);
+        assertEquals(3, stats.getWindowLitersPerHour(), 1e-9);
+        double trip = stats.getTripLitersPer100km();
+        assertTrue("Trip average " + trip, trip > 15 && trip < 20);
+        // Thirteen seconds are more than two time constants: most of the way to the new rate
+        assertTrue(stats.getEwmaLitersPerHour() < 3 + 9 * 0.1);
+    }
+
+    @Test
+    public void idleBurnsFuelWithoutDistance() {
+        FuelStats stats = new FuelStats();
+        for (int i = 0; i <= 3600; i++) stats.update(i * SECOND, 0.8, 0);
+        assertEquals(0.8, stats.getTripFuelLiters(), 1e-9);
+        assertEquals(0, stats.getTripDistanceKm(), 0);
+        assertTrue(Double.isNaN(stats.getTripLitersPer100km()));
+        assertTrue(Double.isNaN(stats.getInstantLitersPer100km()));
+        assertEquals(0.8, stats.getWindowLitersPerHour(), 1e-9);
+    }
+
+    @Test
+    public void skipsGapsAndUnknownSamples() {
+        FuelStats stats = new FuelStats();
+        stats.update(0, 6, 60);
+        stats.update(SECOND, Double.NaN, 60); // Ignored
+        stats.update(2 * SECOND, 6, 60);
+        stats.update(60 * SECOND, 6, 60); // After a reconnect: nothing known about the minute between
+        stats.update(61 * SECOND, 6, Double.NaN);
+        assertEquals(6 * 3 / 3600.0, stats.getTripFuelLiters(), 1e-12);
+        assertEquals(60 * 2 / 3600.0, stats.getTripDistanceKm(), 1e-12);
+
+        stats.reset();
+        assertEquals(0, stats.getTripFuelLiters(), 0);
+        assertTrue(Double.isNaN(stats.getInstantLitersPerHour()));
+        assertTrue(Double.isNaN(stats.getWindowLitersPerHour()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.zavobd.obd;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdapterInitializerTest {
+
+    private Elm327Simulator simulator;
+    private ObdChannel channel;
+
+    private AdapterInitializer connect(Elm327Simulator configured) {
+        simulator = configured.setLatency(20_000, 0).setAtLatency(2_000);
+        channel = new ObdChannel(simulator.getInputStream(), simulator.getOutputStream());
+        return new AdapterInitializer(channel);
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) channel.close();
+        if (simulator != null) simulator.close();
+    }
+
+    @Test
+    public void probesAnUnknownAdapter() throws Exception {
+        AdapterInitializer initializer = connect(new Elm327Simulator()
+                .setVehicleProtocol('3')
+                .setVersion("ELM327 v2.1")
+                .setAdaptiveTimingSupported(false));
+        AdapterProfile profile = initializer.initialize(null);
+
+        assertTrue(initializer.wasProbed());
+        assertEquals("3", profile.getProtocol());
+        assertEquals("3", initializer.getDescribedProtocol());
+        assertEquals("ELM327 v2.1", profile.getVersion());
+        assertFalse(profile.has(AdapterProfile.ADAPTIVE_TIMING));
+        assertTrue(initializer.getFirstResponse().contains("4100"));
+        // The protocol is fixed for the polling that follows
+        assertEquals("3", channel.executeText("ATDPN"));
+    }
+
+    @Test
+    public void initialisesFromTheProfileInFiveCommands() throws Exception {
+        AdapterInitializer probing = connect(new Elm327Simulator());
+        AdapterProfile first = probing.initialize(null);
+        tearDown();
+
+        AdapterInitializer initializer = connect(new Elm327Simulator());
+        AdapterProfile profile = initializer.initialize(AdapterProfile.decode(first.encode()));
+        assertFalse(initializer.wasProbed());
+        assertEquals(5, initializer.getRequestCount()); // ATE0, ATL0, ATS0, ATSP6, 0100
+        assertTrue(initializer.getRequestCount() < probing.getRequestCount());
+        assertEquals("6", initializer.getDescribedProtocol());
+        assertTrue(profile.has(AdapterProfile.ADAPTIVE_TIMING));
+        assertEquals(0, simulator.getRequestCount("ATI"));
+        System.out.printf("Initialisation: probed %d ms (%d commands), from profile %d ms (%d commands)%n",
+                probing.getDurationMillis(), probing.getRequestCount(),
+                initializer.getDurationMillis(), initializer.getRequestCount());
+    }
+
+    @Test
+    public void fallsBackWhenTheCachedProtocolFails() throws Exception {
+        AdapterInitializer initializer = connect(new Elm327Simulator().setVehicleProtocol('6'));
+        AdapterProfile profile = initializer.initialize(new AdapterProfile("3", AdapterProfile.MULTI_PID, "ELM327 v1.5"));
+        assertTrue(initializer.wasProbed());
+        assertEquals("6", profile.getProtocol());
+        assertTrue(initializer.getFirstResponse().contains("4100"));
+    }
+
+    @Test
+    public void profileSurvivesPersisting() {
+        AdapterProfile profile = new AdapterProfile("6", AdapterProfile.ADAPTIVE_TIMING, "OBDII v1.5; clone");
+        AdapterProfile decoded = AdapterProfile.decode(profile.encode());
+        assertEquals("6", decoded.getProtocol());
+        assertEquals("OBDII v1.5; clone", decoded.getVersion());
+        assertTrue(decoded.has(AdapterProfile.ADAPTIVE_TIMING));
+        assertFalse(decoded.has(AdapterProfile.MULTI_PID));
+        assertTrue(decoded.with(AdapterProfile.MULTI_PID, true).has(AdapterProfile.MULTI_PID));
+
+        assertNull(AdapterProfile.decode(null));
+        assertNull(AdapterProfile.decode("0;3;ELM327")); // Automatic is not a protocol
+        assertNull(AdapterProfile.decode("6;x;ELM327"));
+        assertEquals("6", AdapterProfile.protocolOf("A6"));
+        assertEquals("B", AdapterProfile.protocolOf("b"));
+    }
+}
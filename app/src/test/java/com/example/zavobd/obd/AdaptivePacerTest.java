@@ -0,0 +1,25 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePacerTest {
+
+    @Test
+    public void derivesTheTimeoutFromResponseTimes() {
+        AdaptivePacer pacer = new AdaptivePacer();
+        for (int i = 0; i < 32; i++) pacer.onResponse("010C", "410C1AF8", 30_000_000L);
+        // 30 ms plus the 20 ms margin, in 4 ms steps; a steady ECU gets the aggressive adaptive timing
+        assertTrue(pacer.hasPendingAdjustment());
+        assertArrayEquals(new String[] {"ATST0D", "ATAT2"}, pacer.getAdjustmentCommands());
+        pacer.onAdjustmentApplied();
+        assertFalse(pacer.hasPendingAdjustment());
+
+        // Two answers missed in a row: back to twice the timeout, at least the power-on default
+        pacer.onResponse("010C", "NODATA", 52_000_000L);
+        pacer.onResponse("010C", "NODATA", 52_000_000L);
+        assertEquals(0x32, pacer.getTimeoutSetting());
+        assertEquals(1, pacer.getAdaptiveMode());
+    }
+}
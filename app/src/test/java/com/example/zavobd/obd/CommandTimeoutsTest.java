@@ -0,0 +1,70 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandTimeoutsTest {
+
+    @Test
+    public void keysRequestsByKind() {
+        assertEquals(0x0C, CommandTimeouts.keyOf("010C"));
+        assertEquals(0x0C, CommandTimeouts.keyOf("010C1"));
+        assertEquals(CommandTimeouts.MULTI_PID, CommandTimeouts.keyOf("010C0D1"));
+        assertEquals(CommandTimeouts.keyOf("03"), CommandTimeouts.keyOf("03\r".getBytes(), 3));
+        assertTrue(CommandTimeouts.keyOf("03") != CommandTimeouts.keyOf("07"));
+        assertEquals(CommandTimeouts.NO_KEY, CommandTimeouts.keyOf("ATSP0"));
+        assertEquals(CommandTimeouts.NO_KEY, CommandTimeouts.keyOf("01"));
+    }
+
+    @Test
+    public void derivesDeadlinesFromTheP99() {
+        CommandTimeouts timeouts = new CommandTimeouts();
+        int speed = CommandTimeouts.keyOf("010D");
+        assertEquals(ElmResponseReader.DEFAULT_TIMEOUT_MS, timeouts.timeoutMs(speed, 100));
+        for (int i = 0; i < 100; i++) timeouts.onResponse(speed, (20 + i % 10) * 1_000_000L);
+        // p99 30 ms, rounded up to its bucket, plus half of it plus 50 ms; then at least the floor
+        long learned = timeouts.timeoutMs(speed, 0);
+        assertTrue("Learned " + learned, learned >= 95 && learned < 110);
+        assertEquals(300, timeouts.timeoutMs(speed, 300));
+
+        // A slow multi-frame mode 03 on K-line gets more than the default
+        int codes = CommandTimeouts.keyOf("03");
+        for (int i = 0; i < 30; i++) timeouts.onResponse(codes, 4_000_000_000L);
+        assertTrue(timeouts.timeoutMs(codes, 0) > ElmResponseReader.DEFAULT_TIMEOUT_MS);
+    }
+
+    @Test
+    public void growsADeadlineThatWasTooTight() {
+        CommandTimeouts timeouts = new CommandTimeouts();
+        int rpm = CommandTimeouts.keyOf("010C");
+        for (int i = 0; i < 100; i++) timeouts.onResponse(rpm, 10_000_000L);
+        long tight = timeouts.timeoutMs(rpm, 0);
+        timeouts.onTimeout(rpm, tight);
+        timeouts.onTimeout(rpm, tight);
+        assertTrue(timeouts.timeoutMs(rpm, 0) >= 2 * tight);
+    }
+
+    @Test
+    public void restoresWhatWasLearnedOnTheVehicle() {
+        CommandTimeouts learned = new CommandTimeouts();
+        for (int i = 0; i < 600; i++) {
+            learned.onResponse(0x0C, (5 + i % 7) * 1_000_000L);
+            learned.onResponse(CommandTimeouts.MULTI_PID, (8 + i % 5) * 1_000_000L);
+        }
+        CommandTimeouts restored = new CommandTimeouts();
+        restored.restore(learned.encode() + " 999=1:1 12=x");
+        assertEquals(learned.timeoutMs(0x0C, 0), restored.timeoutMs(0x0C, 0));
+        assertEquals(learned.timeoutMs(CommandTimeouts.MULTI_PID, 0), restored.timeoutMs(CommandTimeouts.MULTI_PID, 0));
+        assertEquals(learned.encode(), restored.encode());
+    }
+
+    @Test
+    public void histogramForgetsOldSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 500; i++) histogram.add(100_000_000L);
+        for (int i = 0; i < 2000; i++) histogram.add(10_000_000L);
+        assertTrue(histogram.getCount() < 512);
+        assertEquals(12, histogram.percentileMs(99)); // 10 ms, rounded up to the edge of its bucket (11.3 ms)
+    }
+}
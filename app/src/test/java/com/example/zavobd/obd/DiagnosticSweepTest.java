@@ -0,0 +1,81 @@
+package com.example.zavobd.obd;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the diagnostic sweep against the simulator, with an ECU latency that makes any idle gap
+ * between requests show up in the sweep's duration.
+ */
+public class DiagnosticSweepTest {
+
+    private static final long LATENCY_MICROS = 20_000;
+
+    private Elm327Simulator simulator;
+    private ObdChannel channel;
+
+    private DiagnosticSweep connect(Elm327Simulator configured) throws Exception {
+        simulator = configured.setLatency(LATENCY_MICROS, 0);
+        channel = new ObdChannel(simulator.getInputStream(), simulator.getOutputStream());
+        channel.executeText("ATE0");
+        return new DiagnosticSweep(channel);
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) channel.close();
+        if (simulator != null) simulator.close();
+    }
+
+    @Test
+    public void readsAllModesAndTheFreezeFrameBackToBack() throws Exception {
+        DiagnosticSweep sweep = connect(new Elm327Simulator()
+                .setStoredDtcs(0x0133, 0x0300)
+                .setPendingDtcs(0x0171)
+                .setPermanentDtcs(0x0133)
+                .setFreezeFrame(0x0133));
+        sweep.run("A6"); // Loads the decoder catalog and friends, which would dwarf the gaps we look for
+        DiagnosticReport report = sweep.run("A6");
+
+        assertEquals(Arrays.asList("P0133", "P0300"), report.getStoredCodes());
+        assertEquals(Collections.singletonList("P0171"), report.getPendingCodes());
+        assertEquals(Collections.singletonList("P0133"), report.getPermanentCodes());
+        assertTrue(report.isPermanentSupported());
+        assertEquals("P0133", report.getFreezeFrameCode());
+        assertEquals("800 RPM", report.getFreezeFrame().get("Engine RPM"));
+        assertEquals("83 °C", report.getFreezeFrame().get("Engine coolant temperature"));
+        assertTrue(report.getFreezeFrame().containsKey("Calculated engine load"));
+
+        // The ECU's own time is all the sweep costs
+        long ecuMillis = report.getRequestCount() * LATENCY_MICROS / 1000;
+        assertTrue(report + " vs " + ecuMillis + " ms of ECU time", report.getDurationMillis() < ecuMillis + 50);
+        // Several PIDs per mode 02 request: 3 DTC modes, 020200, 2 bitmaps and far fewer requests than PIDs
+        assertTrue(report.toString(), report.getRequestCount() < 6 + report.getFreezeFrame().size());
+
+        // Headers are off again for live polling
+        assertEquals("410C0C80", channel.executeText("010C"));
+    }
+
+    @Test
+    public void skipsTheFreezeFrameWithoutCodes() throws Exception {
+        DiagnosticReport report = connect(new Elm327Simulator()).run("6");
+        assertFalse(report.hasCodes());
+        assertTrue(report.isPermanentSupported());
+        assertNull(report.getFreezeFrameCode());
+        assertEquals(3, report.getRequestCount());
+    }
+
+    @Test
+    public void toleratesCodesWithoutAFreezeFrame() throws Exception {
+        DiagnosticReport report = connect(new Elm327Simulator().setPendingDtcs(0x0442)).run(null);
+        assertEquals(Collections.singletonList("P0442"), report.getPendingCodes());
+        assertNull(report.getFreezeFrameCode());
+        assertTrue(report.getFreezeFrame().isEmpty());
+        assertEquals(4, report.getRequestCount()); // 03, 07, 0A and the 020200 that came back empty
+    }
+}
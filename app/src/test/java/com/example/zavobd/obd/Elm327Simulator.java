@@ -0,0 +1,791 @@
+package com.example.zavobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ELM327 adapter with a CAN (11 bit, 500 kbaud) vehicle behind it, in-process.
+ *
+ * Hand {@link #getInputStream()} and {@link #getOutputStream()} to the code under test in place of
+ * the Bluetooth socket streams. Requests are answered on a worker thread after a configurable
+ * latency, so the app side sees the same timing behaviour it would over the air.
+ *
+ * Emulated: AT commands (echo, linefeeds, spaces, headers, protocol, timeouts), "SEARCHING..." on
+ * the first request after automatic protocol selection, UNABLE TO CONNECT on the wrong protocol, NO DATA, multi-PID mode 01 requests,
+ * ISO-TP multi-frame replies, supported-PID bitmaps, DTC modes 03/07/0A, freeze frame 0 (mode 02,
+ * up to three PIDs per request), clearing with 04 and the VIN (0902).
+ *
+ * Link faults: {@link #dropLink()} cuts the Bluetooth link, {@link #powerCycle()} also resets the
+ * adapter, and {@link #setSilent(boolean)} makes it swallow requests as a stalled link would.
+ * Adapter and bus faults: {@link #injectError(String, String, int)} answers requests with an ELM327
+ * message such as CAN ERROR, {@link #setPromptAfterErrors(boolean)} drops the prompt after
+ * those messages as some clones do, and {@link #injectDelay(String, long, int)} holds up replies.
+ * As on a real ELM327, a byte received while a request is being answered stops it with STOPPED.
+ */
+public class Elm327Simulator {
+
+    private static final String VERSION = "ELM327 v1.5";
+    private static final int ECU_HEADER = 0x7E8;
+    private static final int SECOND_ECU_HEADER = 0x7E9;
+    private static final int FUNCTIONAL_HEADER = 0x7DF;
+
+    // Vehicle state
+    private final Map<Integer, int[]> pids = new TreeMap<>();
+    private final List<Integer> storedDtcs = new ArrayList<>();
+    private final List<Integer> pendingDtcs = new ArrayList<>();
+    private final List<Integer> permanentDtcs = new ArrayList<>();
+    // Mode 01 values captured by setFreezeFrame(), and the code that caused it; 0 if none
+    private final Map<Integer, int[]> freezeFrame = new TreeMap<>();
+    private int freezeFrameDtc = 0;
+    private String vin = "WVWZZZ1JZXW000001";
+    // The ATSP number of the protocol the vehicle speaks
+    private char vehicleProtocol = '6';
+    // Mode 01 PIDs a second ECU (7E9) answers as well; it only hears broadcast requests
+    private final List<Integer> secondEcuPids = new ArrayList<>();
+
+    // Adapter state
+    private boolean echo = true;
+    private boolean linefeeds = false;
+    private boolean spaces = true;
+    private boolean headers = false;
+    private boolean automaticProtocol = true;
+    private char selectedProtocol = '0';
+    private boolean searched = false;
+    private String version = VERSION;
+    private boolean adaptiveTimingSupported = true;
+    private boolean responseCountSupported = true;
+    private int requestHeader = FUNCTIONAL_HEADER;
+    // Requests answered with an ELM327 message instead, keyed by the start of the request, and how many more times
+    private final Map<String, String> injectedErrors = new HashMap<>();
+    private final Map<String, Integer> injectedErrorCounts = new HashMap<>();
+    private boolean promptAfterErrors = true;
+
+    // Timing
+    private final Random random = new Random(42);
+    private long latencyMicros = 0;
+    private long jitterMicros = 0;
+    private long atLatencyMicros = 0;
+    // How long the adapter listens for further ECUs after the last answer, unless a response count says it has them all
+    private long responseWaitMicros = 0;
+    private long pendingWaitMicros = 0;
+    private final Map<String, long[]> commandLatencies = new HashMap<>();
+    // Extra delay for the next requests starting with the key: {micros, remaining count}
+    private final Map<String, long[]> injectedDelays = new HashMap<>();
+
+    private final LinkedBlockingQueue<String> requests = new LinkedBlockingQueue<>();
+    private final StringBuilder pendingRequest = new StringBuilder();
+    // Replaced when the link drops; the app reconnects by asking for the streams again
+    private volatile ByteQueue toApp = new ByteQueue();
+    private volatile OutputStream fromApp = newLink();
+    private volatile boolean closed = false;
+    private volatile boolean silent = false;
+    // Set while a request is being answered; a byte from the app meanwhile stops it. Guarded by pendingRequest.
+    private boolean busy = false;
+    private boolean stopRequested = false;
+    private final Thread worker;
+    private volatile long requestCount = 0;
+    private final Map<String, Integer> commandCounts = new HashMap<>();
+    private volatile long lastRequestNanos = 0;
+    private volatile long bytesToApp = 0;
+    private volatile long bytesFromApp = 0;
+    // Speed of the adapter's serial side, 0 for unlimited
+    private volatile int baudRate = 0;
+
+    public Elm327Simulator() {
+        // A typical petrol car at idle
+        setPid(0x04, 0x33);             // Engine load 20 %
+        setPid(0x05, 0x7B);             // Coolant 83 °C
+        setPid(0x06, 0x80);             // STFT 0 %
+        setPid(0x07, 0x82);             // LTFT 1.6 %
+        setPid(0x0B, 0x21);             // MAP 33 kPa
+        setPid(0x0C, 0x0C, 0x80);       // 800 RPM
+        setPid(0x0D, 0x00);             // 0 km/h
+        setPid(0x0F, 0x3C);             // IAT 20 °C
+        setPid(0x10, 0x01, 0x2C);       // MAF 3.00 g/s
+        setPid(0x11, 0x20);             // Throttle 12.5 %
+        setPid(0x1F, 0x01, 0x2C);       // Run time 300 s
+        setPid(0x2F, 0x80);             // Fuel level 50 %
+        setPid(0x33, 0x64);             // Baro 100 kPa
+        setPid(0x42, 0x37, 0x78);       // 14.2 V
+        setPid(0x46, 0x3C);             // Ambient 20 °C
+        setPid(0x51, 0x01);             // Gasoline
+        setPid(0x5C, 0x78);             // Oil 80 °C
+
+        worker = new Thread(this::serve, "Elm327Simulator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // --- Configuration ---
+
+    // Sets the data bytes returned for a mode 01 PID; the PID becomes supported.
+    public synchronized Elm327Simulator setPid(int pid, int... data) {
+        pids.put(pid, data.clone());
+        return this;
+    }
+
+    public synchronized Elm327Simulator removePid(int pid) {
+        pids.remove(pid);
+        return this;
+    }
+
+    // Codes as their two-byte value, e.g. 0x0133 for P0133.
+    public synchronized Elm327Simulator setStoredDtcs(Integer... codes) {
+        storedDtcs.clear();
+        java.util.Collections.addAll(storedDtcs, codes);
+        return this;
+    }
+
+    public synchronized Elm327Simulator setPendingDtcs(Integer... codes) {
+        pendingDtcs.clear();
+        java.util.Collections.addAll(pendingDtcs, codes);
+        return this;
+    }
+
+    public synchronized Elm327Simulator setPermanentDtcs(Integer... codes) {
+        permanentDtcs.clear();
+        java.util.Collections.addAll(permanentDtcs, codes);
+        return this;
+    }
+
+    // Stores freeze frame 0 for this code, with the current value of every mode 01 PID.
+    public synchronized Elm327Simulator setFreezeFrame(int dtc) {
+        freezeFrame.clear();
+        freezeFrame.putAll(pids);
+        freezeFrame.put(0x02, new int[] {dtc >> 8, dtc & 0xFF});
+        freezeFrameDtc = dtc;
+        return this;
+    }
+
+    public synchronized Elm327Simulator setVin(String vin) {
+        this.vin = vin;
+        return this;
+    }
+
+    // Requests on any other protocol get UNABLE TO CONNECT; the automatic search finds it
+    public synchronized Elm327Simulator setVehicleProtocol(char protocol) {
+        this.vehicleProtocol = protocol;
+        return this;
+    }
+
+    // The ATI reply
+    public synchronized Elm327Simulator setVersion(String version) {
+        this.version = version;
+        return this;
+    }
+
+    // Clones without adaptive timing answer ATAT with "?"
+    public synchronized Elm327Simulator setAdaptiveTimingSupported(boolean supported) {
+        this.adaptiveTimingSupported = supported;
+        return this;
+    }
+
+    // Time the ECU takes to answer a request: latency plus a uniformly distributed 0..jitter.
+    public synchronized Elm327Simulator setLatency(long latencyMicros, long jitterMicros) {
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        return this;
+    }
+
+    // Latency for one request, e.g. "03", overriding the default.
+    public synchronized Elm327Simulator setLatency(String command, long latencyMicros, long jitterMicros) {
+        commandLatencies.put(command, new long[] {latencyMicros, jitterMicros});
+        return this;
+    }
+
+    // The adapter's wait for more answers after the last one, skipped when the request's response count is reached.
+    public synchronized Elm327Simulator setResponseWait(long responseWaitMicros) {
+        this.responseWaitMicros = responseWaitMicros;
+        return this;
+    }
+
+    // Adapters before v1.3 answer requests with a response count digit with "?"
+    public synchronized Elm327Simulator setResponseCountSupported(boolean supported) {
+        this.responseCountSupported = supported;
+        return this;
+    }
+
+    /**
+     * Answers the next requests starting with the given one, e.g. "010C" (which includes "010C1" and
+     * multi-PID requests starting with it), with an ELM327 message such as "CAN ERROR". "LV RESET"
+     * also resets the adapter to its defaults. A negative count keeps answering with it.
+     */
+    public synchronized Elm327Simulator injectError(String command, String message, int times) {
+        injectedErrors.put(command, message);
+        injectedErrorCounts.put(command, times);
+        return this;
+    }
+
+    // Holds up the replies to the next requests starting with the given one, as a glitching link or ECU would
+    public synchronized Elm327Simulator injectDelay(String command, long delayMicros, int times) {
+        injectedDelays.put(command, new long[] {delayMicros, times});
+        return this;
+    }
+
+    // Some clones end NO DATA, CAN ERROR and friends without the '>' prompt
+    public synchronized Elm327Simulator setPromptAfterErrors(boolean prompt) {
+        this.promptAfterErrors = prompt;
+        return this;
+    }
+
+    // A second ECU that answers these mode 01 PIDs (and its 0100 bitmap) too; none for a single-ECU car.
+    public synchronized Elm327Simulator setSecondEcu(Integer... pidList) {
+        secondEcuPids.clear();
+        java.util.Collections.addAll(secondEcuPids, pidList);
+        return this;
+    }
+
+    // Time the adapter takes to answer an AT command, which never reaches the vehicle.
+    public synchronized Elm327Simulator setAtLatency(long latencyMicros) {
+        this.atLatencyMicros = latencyMicros;
+        return this;
+    }
+
+    // Adds the transfer time of every request and reply at this serial speed, e.g. 38400
+    public Elm327Simulator setBaudRate(int baudRate) {
+        this.baudRate = baudRate;
+        return this;
+    }
+
+    // Swallows requests without a reply, like an adapter whose link stalled
+    public Elm327Simulator setSilent(boolean silent) {
+        this.silent = silent;
+        return this;
+    }
+
+    // --- Link faults ---
+
+    // The app's input stream ends and its output stream fails; the adapter keeps its settings
+    public void dropLink() {
+        synchronized (pendingRequest) {
+            ByteQueue dropped = toApp;
+            toApp = new ByteQueue();
+            fromApp = newLink();
+            requests.clear();
+            pendingRequest.setLength(0);
+            dropped.close();
+        }
+    }
+
+    // Drops the link and loses power, so the adapter comes back with its defaults
+    public void powerCycle() {
+        synchronized (this) {
+            resetAdapter();
+        }
+        dropLink();
+    }
+
+    // --- Streams for the app side ---
+
+    public InputStream getInputStream() {
+        return toApp;
+    }
+
+    public OutputStream getOutputStream() {
+        return fromApp;
+    }
+
+    // Requests received so far, including AT commands
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    // Bytes sent to the app so far: echoes, replies, line ends and prompts
+    public long getBytesToApp() {
+        return bytesToApp;
+    }
+
+    // Bytes received from the app so far, including the CR of every request
+    public long getBytesFromApp() {
+        return bytesFromApp;
+    }
+
+    // How often this command was received, e.g. "ATE0"
+    public synchronized int getRequestCount(String command) {
+        Integer count = commandCounts.get(command);
+        return count == null ? 0 : count;
+    }
+
+    // System.nanoTime() when the last complete request arrived
+    public long getLastRequestNanos() {
+        return lastRequestNanos;
+    }
+
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        toApp.close();
+    }
+
+    // --- Request handling ---
+
+    private OutputStream newLink() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (closed) throw new IOException("Simulator closed");
+                synchronized (pendingRequest) {
+                    if (this != fromApp) throw new IOException("Link dropped");
+                    bytesFromApp++;
+                    if (busy) {
+                        // The byte stops the request being answered and is dropped
+                        busy = false;
+                        stopRequested = true;
+                        pendingRequest.notifyAll();
+                        return;
+                    }
+                    if (b == '\r') {
+                        lastRequestNanos = System.nanoTime();
+                        requests.add(pendingRequest.toString());
+                        pendingRequest.setLength(0);
+                    } else if (b != '\n') {
+                        pendingRequest.append((char) b);
+                    }
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                for (int i = 0; i < len; i++) write(b[off + i]);
+            }
+        };
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                String request = requests.poll(100, TimeUnit.MILLISECONDS);
+                if (request == null || silent) continue;
+                // The link the request came in on, which is where its reply goes even if it drops meanwhile
+                ByteQueue link = toApp;
+                requestCount++;
+                String response;
+                long delayMicros;
+                boolean prompt;
+                boolean echoed;
+                synchronized (this) {
+                    String command = request.replace(" ", "").toUpperCase(Locale.US);
+                    commandCounts.merge(command, 1, Integer::sum);
+                    echoed = echo;
+                    String error = takeInjectedError(command);
+                    response = error != null ? error : respond(command);
+                    prompt = promptAfterErrors || (error == null && !isMessage(response));
+                    delayMicros = delayFor(command);
+                }
+                StringBuilder out = new StringBuilder();
+                if (echoed) out.append(request).append(eol());
+                out.append(response).append(eol()).append(eol());
+                if (prompt) out.append('>');
+                byte[] bytes = out.toString().getBytes();
+                bytesToApp += bytes.length;
+                long baud = baudRate;
+                if (baud > 0) {
+                    // Both directions share the serial link; 10 bits per byte with start and stop bits
+                    delayMicros += (request.length() + 1 + bytes.length) * 10_000_000L / baud;
+                }
+                if (delayMicros > 0 && !answerFor(delayMicros)) {
+                    bytes = ("STOPPED" + eol() + eol() + ">").getBytes();
+                }
+                link.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // Waits while the request is being answered. Returns false if a byte from the app stopped it.
+    private boolean answerFor(long delayMicros) throws InterruptedException {
+        long deadline = System.nanoTime() + delayMicros * 1000L;
+        synchronized (pendingRequest) {
+            busy = true;
+            stopRequested = false;
+            try {
+                while (!stopRequested) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return true;
+                    pendingRequest.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                }
+                return false;
+            } finally {
+                busy = false;
+            }
+        }
+    }
+
+    private String takeInjectedError(String command) {
+        for (Map.Entry<String, String> entry : injectedErrors.entrySet()) {
+            String key = entry.getKey();
+            if (!command.startsWith(key)) continue;
+            int remaining = injectedErrorCounts.get(key);
+            if (remaining == 0) continue;
+            injectedErrorCounts.put(key, remaining - 1);
+            if (entry.getValue().equals("LV RESET")) {
+                resetAdapter();
+                return entry.getValue() + eol() + eol() + version;
+            }
+            return entry.getValue();
+        }
+        return null;
+    }
+
+    // Replies that are an ELM327 message rather than data or an AT command's answer
+    private static boolean isMessage(String response) {
+        return response.endsWith("NO DATA") || response.endsWith("UNABLE TO CONNECT") || response.equals("?");
+    }
+
+    private long delayFor(String command) {
+        for (Map.Entry<String, long[]> entry : injectedDelays.entrySet()) {
+            long[] delay = entry.getValue();
+            if (delay[1] > 0 && command.startsWith(entry.getKey())) {
+                delay[1]--;
+                pendingWaitMicros = 0;
+                return delay[0];
+            }
+        }
+        long[] custom = commandLatencies.get(command);
+        if (custom != null) return custom[0] + jitter(custom[1]);
+        if (command.startsWith("AT")) return atLatencyMicros;
+        long wait = pendingWaitMicros;
+        pendingWaitMicros = 0;
+        return latencyMicros + jitter(jitterMicros) + wait;
+    }
+
+    private long jitter(long maxMicros) {
+        return maxMicros > 0 ? (long) (random.nextDouble() * maxMicros) : 0;
+    }
+
+    private String eol() {
+        return linefeeds ? "\r\n" : "\r";
+    }
+
+    private String respond(String command) {
+        if (command.isEmpty()) return "?";
+        if (command.startsWith("AT")) return respondAt(command.substring(2));
+        if (!isHex(command)) return "?";
+        int responseCount = 0;
+        if (command.length() % 2 != 0) {
+            // Mode 01 requests may end in the number of answers to wait for, e.g. "010C1"
+            if (!responseCountSupported || !command.startsWith("01") || command.length() < 5) return "?";
+            responseCount = Character.digit(command.charAt(command.length() - 1), 16);
+            command = command.substring(0, command.length() - 1);
+        }
+
+        if (!automaticProtocol && selectedProtocol != vehicleProtocol) return "UNABLE TO CONNECT";
+        String searching = "";
+        if (automaticProtocol && !searched) {
+            searched = true;
+            searching = "SEARCHING..." + eol();
+        }
+        int mode = Integer.parseInt(command.substring(0, 2), 16);
+        int[] payload;
+        int answers = 1;
+        switch (mode) {
+            case 0x01:
+                payload = requestHeader == FUNCTIONAL_HEADER || requestHeader == ECU_HEADER - 8 ? mode01(command, pids) : null;
+                int[] second = requestHeader == FUNCTIONAL_HEADER || requestHeader == SECOND_ECU_HEADER - 8
+                        ? mode01(command, secondEcuPayloadPids()) : null;
+                answers = (payload != null ? 1 : 0) + (second != null ? 1 : 0);
+                if (second != null) {
+                    String secondFrame = frame(second, SECOND_ECU_HEADER);
+                    pendingWaitMicros = responseCount > 0 && answers >= responseCount ? 0 : responseWaitMicros;
+                    return searching + (payload != null ? frame(payload) + eol() : "") + secondFrame;
+                }
+                break;
+            case 0x02: payload = mode02(command); break;
+            case 0x03: payload = dtcs(0x43, storedDtcs); break;
+            case 0x07: payload = dtcs(0x47, pendingDtcs); break;
+            case 0x0A: payload = dtcs(0x4A, permanentDtcs); break;
+            case 0x04:
+                storedDtcs.clear();
+                pendingDtcs.clear();
+                freezeFrame.clear();
+                freezeFrameDtc = 0;
+                payload = new int[] {0x44};
+                break;
+            case 0x09: payload = command.equals("0902") ? vinPayload() : null; break;
+            default: payload = null; break;
+        }
+        pendingWaitMicros = payload != null && responseCount > 0 && answers >= responseCount ? 0 : responseWaitMicros;
+        return searching + (payload == null ? "NO DATA" : frame(payload));
+    }
+
+    // The second ECU's PIDs with their current values
+    private Map<Integer, int[]> secondEcuPayloadPids() {
+        Map<Integer, int[]> values = new TreeMap<>();
+        for (int pid : secondEcuPids) {
+            if (pids.containsKey(pid)) values.put(pid, pids.get(pid));
+        }
+        return values;
+    }
+
+    private String respondAt(String at) {
+        if (at.equals("Z")) {
+            resetAdapter();
+            return eol() + version;
+        }
+        if (at.equals("I")) return version;
+        if (at.equals("@1")) return "OBDII to RS232 Interpreter";
+        if (at.equals("RV")) return "12.6V";
+        if (at.equals("DP")) return automaticProtocol ? "AUTO, ISO 15765-4 (CAN 11/500)" : "ISO 15765-4 (CAN 11/500)";
+        if (at.equals("DPN")) return automaticProtocol ? "A" + vehicleProtocol : String.valueOf(selectedProtocol);
+        if (at.equals("E0") || at.equals("E1")) { echo = at.endsWith("1"); return "OK"; }
+        if (at.equals("L0") || at.equals("L1")) { linefeeds = at.endsWith("1"); return "OK"; }
+        if (at.equals("S0") || at.equals("S1")) { spaces = at.endsWith("1"); return "OK"; }
+        if (at.equals("H0") || at.equals("H1")) { headers = at.endsWith("1"); return "OK"; }
+        if (at.startsWith("SP") || at.startsWith("TP")) {
+            String protocol = at.substring(2);
+            automaticProtocol = protocol.equals("0") || protocol.startsWith("A");
+            selectedProtocol = automaticProtocol ? '0' : protocol.charAt(0);
+            searched = false;
+            return "OK";
+        }
+        if (at.startsWith("AT") && !adaptiveTimingSupported) return "?";
+        if (at.startsWith("SH")) {
+            requestHeader = Integer.parseInt(at.substring(2), 16);
+            return "OK";
+        }
+        if (at.startsWith("ST") || at.startsWith("AT") || at.startsWith("CAF")
+                || at.equals("D") || at.equals("WS") || at.startsWith("M")) {
+            return "OK";
+        }
+        return "?";
+    }
+
+    private void resetAdapter() {
+        echo = true;
+        linefeeds = false;
+        spaces = true;
+        headers = false;
+        automaticProtocol = true;
+        selectedProtocol = '0';
+        requestHeader = FUNCTIONAL_HEADER;
+        searched = false;
+    }
+
+    private int[] mode01(String command, Map<Integer, int[]> pids) {
+        int count = (command.length() - 2) / 2;
+        if (count > 6) return null; // The adapter only sends up to 6 PIDs
+        List<Integer> out = new ArrayList<>();
+        out.add(0x41);
+        for (int i = 0; i < count; i++) {
+            int pid = Integer.parseInt(command.substring(2 + 2 * i, 4 + 2 * i), 16);
+            int[] data = pid % 0x20 == 0 ? bitmap(pids, pid) : pids.get(pid);
+            if (data == null || (pid == 0x00 && pids.isEmpty())) continue;
+            out.add(pid);
+            for (int b : data) out.add(b);
+        }
+        return out.size() > 1 ? toArray(out) : null;
+    }
+
+    // "02 PID 00 [PID 00 [PID 00]]": answers from freeze frame 0 like mode 01 does from live values
+    private int[] mode02(String command) {
+        int count = (command.length() - 2) / 4;
+        if (count == 0 || count > 3 || (command.length() - 2) % 4 != 0) return null;
+        List<Integer> out = new ArrayList<>();
+        out.add(0x42);
+        for (int i = 0; i < count; i++) {
+            int pid = Integer.parseInt(command.substring(2 + 4 * i, 4 + 4 * i), 16);
+            int frame = Integer.parseInt(command.substring(4 + 4 * i, 6 + 4 * i), 16);
+            int[] data;
+            if (frame != 0) {
+                data = null;
+            } else if (pid == 0x02) {
+                data = new int[] {freezeFrameDtc >> 8, freezeFrameDtc & 0xFF}; // 0000 when there is no freeze frame
+            } else {
+                data = pid % 0x20 == 0 ? (freezeFrame.isEmpty() ? null : bitmap(freezeFrame, pid)) : freezeFrame.get(pid);
+            }
+            if (data == null) continue;
+            out.add(pid);
+            out.add(frame);
+            for (int b : data) out.add(b);
+        }
+        return out.size() > 1 ? toArray(out) : null;
+    }
+
+    private static int[] bitmap(Map<Integer, int[]> pids, int basePid) {
+        boolean any = false;
+        int[] bytes = new int[4];
+        for (int i = 1; i <= 0x20; i++) {
+            int pid = basePid + i;
+            boolean supported = pids.containsKey(pid) || (i == 0x20 && hasPidsAbove(pids, pid));
+            if (supported) {
+                bytes[(i - 1) / 8] |= 0x80 >> ((i - 1) % 8);
+                any = true;
+            }
+        }
+        return any || basePid == 0 ? bytes : null;
+    }
+
+    private static boolean hasPidsAbove(Map<Integer, int[]> pids, int pid) {
+        for (int key : pids.keySet()) {
+            if (key > pid) return true;
+        }
+        return false;
+    }
+
+    private static int[] dtcs(int responseMode, List<Integer> codes) {
+        int[] payload = new int[2 + 2 * codes.size()];
+        payload[0] = responseMode;
+        payload[1] = codes.size();
+        for (int i = 0; i < codes.size(); i++) {
+            payload[2 + 2 * i] = codes.get(i) >> 8;
+            payload[3 + 2 * i] = codes.get(i) & 0xFF;
+        }
+        return payload;
+    }
+
+    private int[] vinPayload() {
+        int[] payload = new int[3 + vin.length()];
+        payload[0] = 0x49;
+        payload[1] = 0x02;
+        payload[2] = 0x01;
+        for (int i = 0; i < vin.length(); i++) payload[3 + i] = vin.charAt(i);
+        return payload;
+    }
+
+    // Renders a reply the way the ELM327 prints it with CAN auto formatting on.
+    private String frame(int[] payload) {
+        return frame(payload, ECU_HEADER);
+    }
+
+    private String frame(int[] payload, int ecuHeader) {
+        StringBuilder sb = new StringBuilder();
+        if (payload.length <= 7) {
+            // Single frame
+            if (headers) {
+                sb.append(header(ecuHeader)).append(separator()).append(hex(payload.length)).append(separator());
+                appendBytes(sb, payload, 0, payload.length);
+                for (int i = payload.length; i < 7; i++) sb.append(separator()).append("00");
+            } else {
+                appendBytes(sb, payload, 0, payload.length);
+            }
+            return sb.toString();
+        }
+        // ISO-TP multi-frame: 6 bytes in the first frame, 7 in each consecutive one
+        if (headers) {
+            sb.append(header(ecuHeader)).append(separator()).append(hex(0x10 | (payload.length >> 8)))
+                    .append(separator()).append(hex(payload.length & 0xFF)).append(separator());
+            appendBytes(sb, payload, 0, 6);
+            int sequence = 1;
+            for (int pos = 6; pos < payload.length; pos += 7, sequence++) {
+                sb.append(eol()).append(header(ecuHeader)).append(separator()).append(hex(0x20 | (sequence & 0x0F))).append(separator());
+                appendPadded(sb, payload, pos, 7);
+            }
+        } else {
+            sb.append(String.format("%03X", payload.length)).append(eol());
+            sb.append("0:").append(spaces ? " " : "");
+            appendBytes(sb, payload, 0, 6);
+            int sequence = 1;
+            for (int pos = 6; pos < payload.length; pos += 7, sequence++) {
+                sb.append(eol()).append(Integer.toHexString(sequence & 0x0F).toUpperCase(Locale.US)).append(':')
+                        .append(spaces ? " " : "");
+                appendPadded(sb, payload, pos, 7);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String header(int ecuHeader) {
+        return Integer.toHexString(ecuHeader).toUpperCase(Locale.US);
+    }
+
+    private String separator() {
+        return spaces ? " " : "";
+    }
+
+    private void appendBytes(StringBuilder sb, int[] bytes, int from, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(separator());
+            sb.append(hex(bytes[from + i]));
+        }
+    }
+
+    // Consecutive frames always carry 7 bytes; the last one is padded
+    private void appendPadded(StringBuilder sb, int[] bytes, int from, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(separator());
+            sb.append(from + i < bytes.length ? hex(bytes[from + i]) : "00");
+        }
+    }
+
+    private static String hex(int value) {
+        return String.format("%02X", value & 0xFF);
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
+    // Bytes on their way to the app, read like a socket input stream.
+    private static class ByteQueue extends InputStream {
+        private byte[] buffer = new byte[4096];
+        private int start = 0;
+        private int end = 0;
+        private boolean closed = false;
+
+        synchronized void write(byte[] bytes) {
+            if (end + bytes.length > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length, end - start + bytes.length) * 2];
+                System.arraycopy(buffer, start, grown, 0, end - start);
+                end -= start;
+                start = 0;
+                buffer = grown;
+            }
+            System.arraycopy(bytes, 0, buffer, end, bytes.length);
+            end += bytes.length;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            try {
+                while (start == end && !closed) wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (start == end) return -1;
+            int count = Math.min(len, end - start);
+            System.arraycopy(buffer, start, b, off, count);
+            start += count;
+            if (start == end) start = end = 0;
+            return count;
+        }
+
+        @Override
+        public synchronized int available() {
+            return end - start;
+        }
+    }
+}
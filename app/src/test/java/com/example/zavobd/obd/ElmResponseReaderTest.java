@@ -0,0 +1,243 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the prompt-driven reader against a scripted in-memory adapter and checks framing and latency.
+ */
+public class ElmResponseReaderTest {
+
+    // Answers every command written to it with a fixed reply, like an adapter that is always ready.
+    private static class ScriptedAdapter {
+        private final LinkedBlockingQueue<Integer> pending = new LinkedBlockingQueue<>();
+        private final String reply;
+
+        ScriptedAdapter(String reply) {
+            this.reply = reply;
+        }
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return pending.take();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                b[off] = (byte) read();
+                int n = 1;
+                Integer next;
+                while (n < len && (next = pending.poll()) != null) {
+                    b[off + n++] = (byte) (int) next;
+                }
+                return n;
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\r') {
+                    feed(reply);
+                }
+            }
+        };
+
+        void feed(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                pending.add((int) text.charAt(i));
+            }
+        }
+    }
+
+    @Test
+    public void splitsResponseIntoLines() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        adapter.feed("SEARCHING...\r41 0C 1A F8 \r\r>");
+
+        assertEquals(24, reader.readResponse(1000));
+        assertEquals(2, reader.getLineCount());
+        assertEquals("SEARCHING...\r41 0C 1A F8 ", reader.getText());
+        reader.close();
+    }
+
+    @Test
+    public void timesOutWithoutPrompt() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        adapter.feed("41 0D");
+
+        long start = System.nanoTime();
+        assertEquals(ElmResponseReader.TIMEOUT, reader.readResponse(100));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue("Returned too early: " + elapsedMs, elapsedMs >= 100);
+        assertTrue("Deadline overrun: " + elapsedMs, elapsedMs < 1000);
+        assertEquals("41 0D", reader.getText());
+
+        // The rest of the reply completes the next frame
+        adapter.feed(" 32\r>");
+        assertEquals(3, reader.readResponse(1000));
+        assertEquals("32", reader.getText().trim());
+        reader.close();
+    }
+
+    @Test
+    public void watchdogFailsSilentLinkEarly() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        reader.setStallTimeoutMs(100);
+
+        adapter.feed("41 0D");
+        long start = System.nanoTime();
+        try {
+            reader.readResponse(5000);
+            fail("Stall not detected");
+        } catch (IOException expected) {
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue("Stall detected late: " + elapsedMs, elapsedMs < 1000);
+
+        // A protocol search is slow by nature and gets the whole deadline
+        adapter.feed("\r>SEARCHING...\r");
+        reader.readResponse(1000);
+        new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            adapter.feed("41 0D 00\r>");
+        }).start();
+        assertEquals(8, reader.readResponse(5000) - "SEARCHING...".length());
+        reader.close();
+    }
+
+    @Test
+    public void handsOverErrorsWithoutWaitingForAMissingPrompt() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        adapter.feed("CAN ERROR\r");
+
+        long start = System.nanoTime();
+        assertEquals(9, reader.readResponse(5000));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue("Waited for the prompt: " + elapsedMs, elapsedMs < 1000);
+        assertEquals(ResponseStatus.BUS_ERROR, ResponsePayload.classify(reader));
+
+        // A prompt that comes late is not taken for the end of the next reply
+        adapter.feed("\r>41 0D 00\r>");
+        reader.readResponse(1000);
+        assertEquals("41 0D 00", reader.getText());
+        reader.close();
+    }
+
+    @Test
+    public void classifiesEveryElmMessage() throws IOException {
+        Object[][] replies = {
+                {"41 0C 1A F8", ResponseStatus.OK},
+                {"7E8 06 41 00 BE 1F A8 13", ResponseStatus.OK},
+                {"NO DATA", ResponseStatus.NO_DATA},
+                {"NODATA", ResponseStatus.NO_DATA},
+                {"?", ResponseStatus.NOT_UNDERSTOOD},
+                {"STOPPED", ResponseStatus.STOPPED},
+                {"BUFFER FULL", ResponseStatus.BUFFER_FULL},
+                {"CAN ERROR", ResponseStatus.BUS_ERROR},
+                {"BUS ERROR", ResponseStatus.BUS_ERROR},
+                {"BUS BUSY", ResponseStatus.BUS_ERROR},
+                {"FB ERROR", ResponseStatus.BUS_ERROR},
+                {"41 0C 1A <DATA ERROR", ResponseStatus.BUS_ERROR},
+                {"<RX ERROR", ResponseStatus.BUS_ERROR},
+                {"SEARCHING...\rUNABLE TO CONNECT", ResponseStatus.NO_CONNECTION},
+                {"BUS INIT: ...ERROR", ResponseStatus.NO_CONNECTION},
+                {"LV RESET", ResponseStatus.ADAPTER_RESET},
+                {"ACT ALERT", ResponseStatus.ADAPTER_RESET},
+                {"ERR94", ResponseStatus.ADAPTER_RESET},
+                {"SEARCHING...", ResponseStatus.UNPARSEABLE},
+        };
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        for (Object[] reply : replies) {
+            adapter.feed(reply[0] + "\r\r>");
+            reader.readResponse(1000);
+            assertEquals((String) reply[0], reply[1], ResponsePayload.scanStatus(reader));
+        }
+        assertNull(ResponsePayload.errorStatus("BUSINIT:...OK410C1AF8"));
+        assertEquals(ResponseStatus.NO_DATA, ResponsePayload.errorStatus("SEARCHING...NODATA"));
+        reader.close();
+    }
+
+    @Test
+    public void discardsStaleBytes() throws IOException, InterruptedException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        adapter.feed("44\r>");
+        assertEquals(2, reader.readResponse(1000));
+
+        adapter.feed("STALE");
+        Thread.sleep(50); // Let the pump take it off the stream
+        reader.discardPending();
+        adapter.feed("43 00\r>");
+        reader.readResponse(1000);
+        assertEquals("43 00", reader.getText());
+        reader.close();
+    }
+
+    @Test
+    public void timesTheFirstByteBeforeThePrompt() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        // The answer comes at once, the prompt only once the adapter stops listening for more ECUs
+        new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                adapter.feed("\r41 0C 1A F8\r");
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            adapter.feed("\r>");
+        }).start();
+
+        long start = System.nanoTime();
+        assertTrue(reader.readResponse(1000) > 0);
+        long firstMs = (reader.getFirstByteNanos() - start) / 1_000_000L;
+        assertTrue("First byte after " + firstMs + " ms", firstMs >= 20 && firstMs < 150);
+        reader.close();
+    }
+
+    @Test
+    public void perCommandLatency() throws IOException {
+        ScriptedAdapter adapter = new ScriptedAdapter("41 0C 1A F8 \r\r>");
+        ElmResponseReader reader = new ElmResponseReader(adapter.in);
+        byte[] request = "010C\r".getBytes();
+        int rounds = 500;
+        long[] latencies = new long[rounds];
+
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            adapter.out.write(request);
+            assertTrue(reader.readResponse(1000) > 0);
+            latencies[i] = System.nanoTime() - start;
+        }
+        reader.close();
+
+        Arrays.sort(latencies);
+        double p50Ms = latencies[rounds / 2] / 1e6;
+        double p99Ms = latencies[rounds * 99 / 100] / 1e6;
+        System.out.printf("ElmResponseReader per-command latency: p50=%.3f ms, p99=%.3f ms%n", p50Ms, p99Ms);
+        // The old available()/sleep(20) loop added up to 20 ms to every response
+        assertTrue("p50 latency too high: " + p50Ms + " ms", p50Ms < 5.0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ErrorRecoveryTest {
+
+    @Test
+    public void retriesTransientErrorsOnceThenSkips() {
+        ErrorRecovery recovery = new ErrorRecovery();
+        assertEquals(ResponseStatus.Recovery.RETRY, recovery.onReply(ResponseStatus.BUS_ERROR, 0));
+        assertEquals(ResponseStatus.Recovery.SKIP, recovery.onReply(ResponseStatus.STOPPED, 1));
+        assertEquals(ResponseStatus.Recovery.NONE, recovery.onReply(ResponseStatus.OK, 0));
+        // Answers are final, and a PID the ECU does not have is no reason to re-initialise
+        for (int i = 0; i < 20; i++) {
+            assertEquals(ResponseStatus.Recovery.SKIP, recovery.onReply(ResponseStatus.NO_DATA, 0));
+        }
+        assertEquals(2, recovery.getErrorCount());
+    }
+
+    @Test
+    public void escalatesWhenErrorsKeepComing() {
+        ErrorRecovery recovery = new ErrorRecovery();
+        ResponseStatus.Recovery last = null;
+        int requests = 0;
+        while (last != ResponseStatus.Recovery.REINIT) {
+            recovery.onReply(ResponseStatus.BUS_ERROR, 0);
+            last = recovery.onReply(ResponseStatus.BUS_ERROR, 1);
+            requests++;
+        }
+        assertEquals(5, requests);
+
+        // Straight to a re-init, and a new link when those do not help either
+        assertEquals(ResponseStatus.Recovery.REINIT, recovery.onReply(ResponseStatus.NO_CONNECTION, 0));
+        assertEquals(ResponseStatus.Recovery.RECONNECT, recovery.onReply(ResponseStatus.ADAPTER_RESET, 0));
+
+        // A good reply resets the escalation
+        recovery.onReply(ResponseStatus.OK, 0);
+        assertEquals(ResponseStatus.Recovery.REINIT, recovery.onReply(ResponseStatus.NO_CONNECTION, 0));
+    }
+}
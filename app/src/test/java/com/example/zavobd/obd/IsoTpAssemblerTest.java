@@ -0,0 +1,108 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds reply text as the adapter prints it through a real reader and checks the assembled
+ * messages, then runs DtcCommand against the simulator for many codes and several formats.
+ */
+public class IsoTpAssemblerTest {
+
+    private final IsoTpAssembler assembler = new IsoTpAssembler();
+
+    @Test
+    public void joinsMultiFrameReplyWithHeadersOff() throws IOException {
+        int count = assembler.assemble(read("SEARCHING...\r00A\r0: 43 04 01 33 01 71\r1: 02 17 C1 23 00 00 00\r"),
+                IsoTpAssembler.HEADERS_OFF);
+        assertEquals(1, count);
+        assertMessage(0, IsoTpAssembler.NO_HEADER, 0x43, 0x04, 0x01, 0x33, 0x01, 0x71, 0x02, 0x17, 0xC1, 0x23);
+        assertTrue(assembler.isComplete(0));
+    }
+
+    @Test
+    public void singleLinesAreMessagesOfTheirOwn() throws IOException {
+        // Two ECUs answering with single frames, headers off; also without spaces
+        assertEquals(2, assembler.assemble(read("43 01 01 33\r4300\r"), IsoTpAssembler.HEADERS_OFF));
+        assertMessage(0, IsoTpAssembler.NO_HEADER, 0x43, 0x01, 0x01, 0x33);
+        assertMessage(1, IsoTpAssembler.NO_HEADER, 0x43, 0x00);
+    }
+
+    @Test
+    public void keepsInterleavedEcusApartByHeader() throws IOException {
+        String reply = "7E8 10 0A 43 04 01 33 01 71\r"
+                + "7E9 04 43 01 C1 00 00 00 00\r"
+                + "7E8 21 02 17 C1 23 00 00 00\r";
+        assertEquals(2, assembler.assemble(read(reply), IsoTpAssembler.CAN_11_BIT));
+        assertMessage(0, 0x7E8, 0x43, 0x04, 0x01, 0x33, 0x01, 0x71, 0x02, 0x17, 0xC1, 0x23);
+        assertMessage(1, 0x7E9, 0x43, 0x01, 0xC1, 0x00);
+        assertTrue(assembler.isComplete(0));
+        assertTrue(assembler.isComplete(1));
+    }
+
+    @Test
+    public void readsExtendedHeadersWithoutSpaces() throws IOException {
+        String reply = "18DAF110100843020133\r18DAF1102101710000000000\r";
+        assertEquals(1, assembler.assemble(read(reply), IsoTpAssembler.CAN_29_BIT));
+        assertMessage(0, 0x18DAF110, 0x43, 0x02, 0x01, 0x33, 0x01, 0x71, 0x00, 0x00);
+    }
+
+    @Test
+    public void flagsMissingFrames() throws IOException {
+        String reply = "7E8 10 14 43 09 01 33 01 71\r7E8 22 02 17 C1 23 00 00 00\r";
+        assertEquals(1, assembler.assemble(read(reply), IsoTpAssembler.CAN_11_BIT));
+        assertFalse(assembler.isComplete(0));
+        assertEquals(6, assembler.getLength(0)); // The frame after the gap is not appended
+        assertEquals(0, assembler.assemble(read("CAN ERROR\r"), IsoTpAssembler.HEADERS_OFF));
+        assertEquals(0, assembler.assemble(read("NO DATA\r"), IsoTpAssembler.CAN_11_BIT));
+    }
+
+    @Test
+    public void decodesManyCodesFromSeveralEcus() throws Exception {
+        Integer[] stored = {0x0133, 0x0171, 0x0217, 0xC123, 0x0300, 0x0420, 0x4105};
+        for (String format : new String[] {"ATH0", "ATH1", "ATS0"}) {
+            Elm327Simulator simulator = new Elm327Simulator().setStoredDtcs(stored).setPendingDtcs(0x0442);
+            ObdChannel channel = new ObdChannel(simulator.getInputStream(), simulator.getOutputStream());
+            channel.executeText("ATE0");
+            channel.executeText(format);
+            boolean headers = format.equals("ATH1");
+
+            DtcCommand storedCommand = new DtcCommand("03");
+            storedCommand.setFormat(true, headers ? IsoTpAssembler.CAN_11_BIT : IsoTpAssembler.HEADERS_OFF);
+            channel.execute(storedCommand);
+            assertEquals(format, ResponseStatus.OK, storedCommand.getStatus());
+            assertEquals(format, java.util.Arrays.asList("P0133", "P0171", "P0217", "U0123", "P0300", "P0420", "C0105"),
+                    storedCommand.getFormattedCodes());
+            if (headers) assertEquals(0x7E8, storedCommand.getEcu(0));
+
+            DtcCommand pending = new DtcCommand("07");
+            pending.setFormat(true, headers ? IsoTpAssembler.CAN_11_BIT : IsoTpAssembler.HEADERS_OFF);
+            channel.execute(pending);
+            assertEquals(java.util.Collections.singletonList("P0442"), pending.getFormattedCodes());
+
+            DtcCommand permanent = new DtcCommand("0A");
+            channel.execute(permanent);
+            assertTrue(permanent.getFormattedCodes().isEmpty());
+            channel.close();
+            simulator.close();
+        }
+    }
+
+    private void assertMessage(int m, int ecu, int... bytes) {
+        assertEquals(ecu, assembler.getEcu(m));
+        assertEquals(bytes.length, assembler.getLength(m));
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals("byte " + i, bytes[i], assembler.getByte(m, i));
+        }
+    }
+
+    private static ElmResponseReader read(String reply) throws IOException {
+        ElmResponseReader reader = new ElmResponseReader(new ByteArrayInputStream((reply + ">").getBytes()));
+        assertTrue(reader.readResponse(1000) >= 0);
+        return reader;
+    }
+}
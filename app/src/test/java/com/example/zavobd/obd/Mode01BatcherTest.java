@@ -0,0 +1,91 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Splits canned multi-PID replies back up into the PIDs that were asked for.
+ */
+public class Mode01BatcherTest {
+
+    private static final String[] REQUESTS = {"010C", "010D", "0105", "0104", "010B", "0111"};
+
+    private static AbstractObdCommand[] commandsFor(String... requests) {
+        AbstractObdCommand[] commands = new AbstractObdCommand[requests.length];
+        for (int i = 0; i < commands.length; i++) commands[i] = new RawCommand(requests[i]);
+        return commands;
+    }
+
+    // Feeds the reply to a reader and has the batcher parse it
+    private static boolean parse(Mode01Batcher batcher, String reply, AbstractObdCommand[] commands) throws IOException {
+        try (PipedOutputStream adapter = new PipedOutputStream()) {
+            ElmResponseReader reader = new ElmResponseReader(new PipedInputStream(adapter, 1024));
+            adapter.write(reply.getBytes(StandardCharsets.US_ASCII));
+            assertTrue(reader.readResponse(1000) > 0);
+            boolean found = batcher.parse(reader, commands, 0, commands.length);
+            reader.close();
+            return found;
+        }
+    }
+
+    // The command's share of the last parsed reply, as a single-PID reply
+    private static String responseOf(Mode01Batcher batcher, AbstractObdCommand command) {
+        batcher.applyTo(command);
+        return command.getRawResponse();
+    }
+
+    @Test
+    public void splitsASingleFrameAnswer() throws IOException {
+        Mode01Batcher batcher = new Mode01Batcher();
+        AbstractObdCommand[] commands = commandsFor("010C", "010D", "0105");
+        assertTrue(parse(batcher, "41 0D 28 0C 0C 80 \r\r>", commands));
+        assertEquals("410C0C80", responseOf(batcher, commands[0]));
+        assertEquals("410D28", responseOf(batcher, commands[1]));
+        // Left out by the ECU
+        assertEquals("NODATA", responseOf(batcher, commands[2]));
+    }
+
+    @Test
+    public void splitsMultiFrameAnswersOfTwoEcus() throws IOException {
+        // The engine ECU answers four of the PIDs, the transmission ECU the speed, MAP and throttle.
+        // Both answers take two frames and their last frames are padded
+        String reply = "00A\r"
+                + "0: 41 0C 0C 80 0D 28 \r"
+                + "1: 05 7B 04 33 00 00 00 \r"
+                + "009\r"
+                + "0: 41 0D 29 0B 21 11 \r"
+                + "1: 20 AA AA AA AA AA AA \r\r>";
+        Mode01Batcher batcher = new Mode01Batcher();
+        AbstractObdCommand[] commands = commandsFor(REQUESTS);
+        assertTrue(parse(batcher, reply, commands));
+
+        String[] expected = {"410C0C80", "410D28", "41057B", "410433", "410B21", "411120"};
+        for (int i = 0; i < REQUESTS.length; i++) {
+            assertEquals(REQUESTS[i], expected[i], responseOf(batcher, commands[i]));
+        }
+    }
+
+    @Test
+    public void tellsTheNextEcuFromPid41() throws IOException {
+        // The monitor status of this drive cycle is PID 0x41, the same byte that starts every answer.
+        // Here only the second ECU reports it, after the throttle
+        String reply = "41 0C 0C 80 0D 28 \r"
+                + "008\r"
+                + "0: 41 41 00 07 65 00 \r"
+                + "1: 11 20 00 00 00 00 00 \r\r>";
+        Mode01Batcher batcher = new Mode01Batcher();
+        AbstractObdCommand[] commands = commandsFor("010C", "010D", "0141", "0111");
+        assertTrue(parse(batcher, reply, commands));
+
+        assertEquals("410C0C80", responseOf(batcher, commands[0]));
+        assertEquals("410D28", responseOf(batcher, commands[1]));
+        assertEquals("414100076500", responseOf(batcher, commands[2]));
+        assertEquals("411120", responseOf(batcher, commands[3]));
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.zavobd.obd;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ObdChannelTest {
+
+    private Elm327Simulator simulator;
+    private ObdChannel channel;
+
+    // Tracks who owns the wire: a request is on it from its first byte until the app reads the prompt
+    private final AtomicInteger overlaps = new AtomicInteger();
+    private volatile boolean requestOnWire = false;
+
+    private ObdChannel connect(Elm327Simulator configured) throws IOException {
+        simulator = configured.setPid(0x0C, 0x1A, 0xF8).setPid(0x05, 0x7B);
+        InputStream in = new FilterInputStream(simulator.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b == '>') requestOnWire = false;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                for (int i = 0; i < count; i++) {
+                    if (b[off + i] == '>') requestOnWire = false;
+                }
+                return count;
+            }
+        };
+        OutputStream out = new FilterOutputStream(simulator.getOutputStream()) {
+            private boolean writing = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (!writing && requestOnWire) overlaps.incrementAndGet();
+                writing = b != '\r';
+                if (b == '\r') requestOnWire = true;
+                super.write(b);
+            }
+        };
+        channel = new ObdChannel(in, out);
+        channel.executeText("ATE0");
+        channel.executeText("ATSP6");
+        return channel;
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) channel.close();
+        if (simulator != null) simulator.close();
+    }
+
+    @Test
+    public void neverPutsTwoRequestsOnTheWire() throws Exception {
+        connect(new Elm327Simulator().setLatency(500, 500));
+        final List<Throwable> failures = new ArrayList<>();
+        Thread poller = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    AbstractObdCommand rpm = PidDecoders.createCommand("010C");
+                    channel.execute(rpm);
+                    assertEquals(ResponseStatus.OK, rpm.getStatus());
+                    assertEquals(1726, rpm.getNumericValue(), 1e-6);
+                }
+            } catch (Throwable t) {
+                synchronized (failures) {
+                    failures.add(t);
+                }
+            }
+        });
+        poller.start();
+
+        // Meanwhile requests are queued from here, a batch at a time so the queue does not overflow
+        for (int batch = 0; batch < 6; batch++) {
+            List<Future<String>> texts = new ArrayList<>();
+            List<Future<AbstractObdCommand>> commands = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                texts.add(channel.submit("0105"));
+                commands.add(channel.submit(PidDecoders.createCommand("0105")));
+            }
+            for (Future<String> text : texts) assertEquals("41057B", text.get());
+            for (Future<AbstractObdCommand> command : commands) assertEquals(83, command.get().getNumericValue(), 1e-6);
+        }
+        poller.join(10_000);
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(0, overlaps.get());
+        // Each request went out once; the pacer's ATST and ATAT adjustments come on top
+        assertEquals(200, simulator.getRequestCount("010C"));
+        assertEquals(60, simulator.getRequestCount("0105"));
+    }
+
+    @Test
+    public void rejectsRequestsBeyondTheQueue() throws Exception {
+        connect(new Elm327Simulator());
+        channel.getWireLock().lock();
+        List<Future<String>> queued = new ArrayList<>();
+        try {
+            // The worker takes the first request and waits for the wire; the rest fill the queue
+            queued.add(channel.submit("0105"));
+            long deadline = System.currentTimeMillis() + 2000;
+            while (!channel.getWireLock().hasQueuedThreads() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertTrue(channel.getWireLock().hasQueuedThreads());
+
+            for (int i = 0; i < ObdChannel.QUEUE_CAPACITY; i++) queued.add(channel.submit("0105"));
+            try {
+                channel.submit("0105");
+                fail("The queue holds " + ObdChannel.QUEUE_CAPACITY + " requests");
+            } catch (RejectedExecutionException expected) {
+                // Full
+            }
+        } finally {
+            channel.getWireLock().unlock();
+        }
+
+        // Everything that was accepted still runs
+        for (Future<String> request : queued) assertEquals("41057B", request.get());
+        assertEquals("41057B", channel.submit("0105").get());
+    }
+
+    @Test
+    public void exchangeNeedsTheWireLock() throws Exception {
+        connect(new Elm327Simulator());
+        byte[] frame = "010C\r".getBytes();
+        try {
+            channel.exchange(frame, -1, 0x0C);
+            fail("exchange() without the wire lock");
+        } catch (IllegalStateException expected) {
+            // Nothing was sent
+        }
+        assertEquals(2, simulator.getRequestCount());
+
+        channel.getWireLock().lock();
+        try {
+            assertEquals(ResponseStatus.OK, channel.exchange(frame, -1, 0x0C));
+            assertEquals("410C1AF8", channel.getReader().getCompactText());
+        } finally {
+            channel.getWireLock().unlock();
+        }
+        assertEquals(0, overlaps.get());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class PidDecodersTest {
+
+    private static final double DELTA = 1e-6;
+
+    // Data bytes of every PID in the catalog, as listed in SAE J1979
+    private static final int[][] DATA_LENGTHS = {
+            {0x00, 4}, {0x01, 4}, {0x02, 2}, {0x03, 2}, {0x04, 1}, {0x05, 1}, {0x06, 1}, {0x07, 1},
+            {0x08, 1}, {0x09, 1}, {0x0A, 1}, {0x0B, 1}, {0x0C, 2}, {0x0D, 1}, {0x0E, 1}, {0x0F, 1},
+            {0x10, 2}, {0x11, 1}, {0x12, 1}, {0x13, 1}, {0x14, 2}, {0x15, 2}, {0x16, 2}, {0x17, 2},
+            {0x18, 2}, {0x19, 2}, {0x1A, 2}, {0x1B, 2}, {0x1C, 1}, {0x1D, 1}, {0x1E, 1}, {0x1F, 2},
+            {0x20, 4}, {0x21, 2}, {0x22, 2}, {0x23, 2}, {0x24, 4}, {0x25, 4}, {0x26, 4}, {0x27, 4},
+            {0x28, 4}, {0x29, 4}, {0x2A, 4}, {0x2B, 4}, {0x2C, 1}, {0x2D, 1}, {0x2E, 1}, {0x2F, 1},
+            {0x30, 1}, {0x31, 2}, {0x32, 2}, {0x33, 1}, {0x34, 4}, {0x35, 4}, {0x36, 4}, {0x37, 4},
+            {0x38, 4}, {0x39, 4}, {0x3A, 4}, {0x3B, 4}, {0x3C, 2}, {0x3D, 2}, {0x3E, 2}, {0x3F, 2},
+            {0x40, 4}, {0x41, 4}, {0x42, 2}, {0x43, 2}, {0x44, 2}, {0x45, 1}, {0x46, 1}, {0x47, 1},
+            {0x48, 1}, {0x49, 1}, {0x4A, 1}, {0x4B, 1}, {0x4C, 1}, {0x4D, 2}, {0x4E, 2}, {0x4F, 4},
+            {0x50, 4}, {0x51, 1}, {0x52, 1}, {0x53, 2}, {0x54, 2}, {0x55, 2}, {0x56, 2}, {0x57, 2},
+            {0x58, 2}, {0x59, 2}, {0x5A, 1}, {0x5B, 1}, {0x5C, 1}, {0x5D, 2}, {0x5E, 2}, {0x5F, 1},
+            {0x60, 4}, {0x61, 1}, {0x62, 1}, {0x63, 2}, {0x64, 5}, {0x65, 2}, {0x66, 5}, {0x67, 3},
+            {0x80, 4}, {0xA0, 4}, {0xA6, 4}, {0xC0, 4},
+    };
+
+    private static double decode(int pid, int... data) {
+        PidDecoder decoder = PidDecoders.get(pid);
+        assertEquals(data.length, decoder.getDataLength());
+        double value = decoder.decode(data);
+        assertTrue(String.format(Locale.US, "%02X decodes to %f", pid, value), decoder.isInRange(value));
+        return value;
+    }
+
+    @Test
+    public void decodesKnownReplies() {
+        assertEquals(1726, decode(0x0C, 0x1A, 0xF8), DELTA);
+        assertEquals(16383.75, decode(0x0C, 0xFF, 0xFF), DELTA);
+
+        // Temperatures are offset by 40
+        assertEquals(83, decode(0x05, 0x7B), DELTA);
+        assertEquals(-40, decode(0x05, 0x00), DELTA);
+        assertEquals(20, decode(0x0F, 0x3C), DELTA);
+        assertEquals(215, decode(0x0F, 0xFF), DELTA);
+
+        // O2 voltage comes from A; B is the sensor's trim, 0xFF when it is not used for trim
+        assertEquals(0.7, decode(0x14, 0x8C, 0x80), DELTA);
+        assertEquals(0.7, decode(0x14, 0x8C, 0xFF), DELTA);
+        assertEquals(0, decode(0x06, 0x80), DELTA);
+        assertEquals(7.8125, decode(0x06, 0x8A), DELTA);
+        assertEquals(-100, decode(0x06, 0x00), DELTA);
+        assertEquals(99.21875, decode(0x06, 0xFF), DELTA);
+
+        // Equivalence ratio from AB; CD is the sensor voltage
+        assertEquals(1.0, decode(0x24, 0x80, 0x00, 0x80, 0x00), DELTA);
+        assertEquals(0.9, decode(0x24, 0x73, 0x33, 0x00, 0x00), 1e-4);
+
+        // Evap vapour pressure is a signed word
+        assertEquals(-1, decode(0x32, 0xFF, 0xFC), DELTA);
+        assertEquals(64, decode(0x32, 0x01, 0x00), DELTA);
+        assertEquals(-8192, decode(0x32, 0x80, 0x00), DELTA);
+
+        assertEquals(100, decode(0x43, 0x00, 0xFF), DELTA);
+        assertEquals(25700, decode(0x43, 0xFF, 0xFF), DELTA);
+        assertEquals(15, decode(0x5E, 0x01, 0x2C), DELTA);
+
+        // The odometer's top byte must not turn the value negative
+        assertEquals(200000.5, decode(0xA6, 0x00, 0x1E, 0x84, 0x85), DELTA);
+        assertEquals(429496729.5, decode(0xA6, 0xFF, 0xFF, 0xFF, 0xFF), DELTA);
+    }
+
+    @Test
+    public void knowsTheDataLengthOfEveryPid() {
+        int[] expected = new int[256];
+        for (int[] entry : DATA_LENGTHS) expected[entry[0]] = entry[1];
+        for (int pid = 0; pid < 256; pid++) {
+            assertEquals(Integer.toHexString(pid), expected[pid], PidDecoders.dataLength(pid));
+        }
+    }
+
+    @Test
+    public void decodesTheWholeByteRangeWithinTheDeclaredRange() {
+        for (int pid = 0; pid < 256; pid++) {
+            PidDecoder decoder = PidDecoders.get(pid);
+            if (decoder == null || !decoder.isNumeric()) continue;
+            int[] low = new int[decoder.getDataLength()];
+            int[] high = new int[decoder.getDataLength()];
+            Arrays.fill(high, 0xFF);
+            assertTrue(Integer.toHexString(pid), decoder.isInRange(decoder.decode(low)));
+            assertTrue(Integer.toHexString(pid), decoder.isInRange(decoder.decode(high)));
+        }
+    }
+
+    @Test
+    public void buildsRequestsRegardlessOfTheDefaultLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("ar", "EG"));
+            for (int pid = 0; pid < 256; pid++) {
+                PidDecoder decoder = PidDecoders.get(pid);
+                if (decoder == null) continue;
+                String command = decoder.getCommand();
+                assertTrue(command, command.matches("01[0-9A-F]{2}"));
+                assertSame(decoder, PidDecoders.forCommand(command));
+            }
+            assertEquals("PIDs supported [21-40]", PidDecoders.get(0x20).getName());
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+}
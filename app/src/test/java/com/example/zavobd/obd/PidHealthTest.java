@@ -0,0 +1,83 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PidHealthTest {
+
+    private static PidHealth healthOf(int... scanOnlyPids) {
+        PidHealth health = new PidHealth();
+        health.setQuarantinable(scanOnlyPids);
+        return health;
+    }
+
+    @Test
+    public void quarantinesAfterRepeatedFailuresAndBacksOff() {
+        PidHealth health = healthOf(0x0C, 0x10);
+        assertEquals(0, health.onReply(0x10, ResponseStatus.NO_DATA));
+        assertEquals(0, health.onReply(0x10, ResponseStatus.NOT_UNDERSTOOD));
+        assertEquals(2000, health.onReply(0x10, ResponseStatus.NO_DATA));
+        assertTrue(health.isQuarantined(0x10));
+
+        // Every failed probe doubles the wait, up to a limit
+        assertEquals(4000, health.onReply(0x10, ResponseStatus.NO_DATA));
+        assertEquals(8000, health.onReply(0x10, ResponseStatus.NOT_UNDERSTOOD));
+        for (int i = 0; i < 10; i++) health.onReply(0x10, ResponseStatus.NO_DATA);
+        assertEquals(64_000, health.getReprobeMs(0x10));
+        assertEquals(Arrays.asList("0110"), health.quarantinedOf(new int[] {0x0C, 0x10}));
+    }
+
+    @Test
+    public void aPidThatAnswersAgainRejoins() {
+        PidHealth health = healthOf(0x5C);
+        for (int i = 0; i < 5; i++) health.onReply(0x5C, ResponseStatus.NO_DATA);
+        assertEquals(1, health.getQuarantinedCount());
+
+        assertEquals(0, health.onReply(0x5C, ResponseStatus.OK));
+        assertFalse(health.isQuarantined(0x5C));
+        assertEquals(0, health.getQuarantinedCount());
+        // It starts over with the full number of failures
+        assertEquals(0, health.onReply(0x5C, ResponseStatus.NO_DATA));
+        assertEquals(0, health.onReply(0x5C, ResponseStatus.NO_DATA));
+    }
+
+    @Test
+    public void faultsOfTheLinkDoNotCountAgainstAPid() {
+        PidHealth health = healthOf(0x0C);
+        health.onReply(0x0C, ResponseStatus.NO_DATA);
+        health.onReply(0x0C, ResponseStatus.NO_DATA);
+        for (int i = 0; i < 10; i++) {
+            // A bus glitch: error recovery retries them, they do not mean the PID is missing
+            assertEquals(0, health.onReply(0x0C, ResponseStatus.TIMEOUT));
+            assertEquals(0, health.onReply(0x0C, ResponseStatus.BUS_ERROR));
+            assertEquals(0, health.onReply(0x0C, ResponseStatus.ADAPTER_RESET));
+        }
+        assertFalse(health.isQuarantined(0x0C));
+
+        // Nor do they change the wait of a quarantined one
+        health.onReply(0x0C, ResponseStatus.NO_DATA);
+        assertEquals(2000, health.onReply(0x0C, ResponseStatus.STOPPED));
+        assertTrue(health.isQuarantined(0x0C));
+        // Requests that are not mode 01 PIDs are not tracked
+        assertEquals(0, health.onReply(-1, ResponseStatus.NO_DATA));
+    }
+
+    @Test
+    public void onlyPidsOfCustomScansAreQuarantined() {
+        PidHealth health = healthOf(0x10);
+        // The dashboard's RPM keeps its schedule even when the car does not answer it for a while
+        for (int i = 0; i < 10; i++) assertEquals(0, health.onReply(0x0C, ResponseStatus.NO_DATA));
+        assertFalse(health.isQuarantined(0x0C));
+
+        for (int i = 0; i < 3; i++) health.onReply(0x10, ResponseStatus.NO_DATA);
+        assertTrue(health.isQuarantined(0x10));
+        // The dashboard subscribes to it as well: it goes back on its schedule straight away
+        health.setQuarantinable(new int[0]);
+        assertFalse(health.isQuarantined(0x10));
+        assertEquals(0, health.getQuarantinedCount());
+        assertEquals(0, health.onReply(0x10, ResponseStatus.NO_DATA));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PollSchedulerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long T0 = 1_000 * MS;
+
+    private final AbstractObdCommand rpm = new RawCommand("010C");
+    private final AbstractObdCommand speed = new RawCommand("010D");
+    private final AbstractObdCommand coolant = new RawCommand("0105");
+    private final AbstractObdCommand[] out = new AbstractObdCommand[3];
+
+    private PollScheduler schedulerOf(long rpmMs, long speedMs, long coolantMs) {
+        PollScheduler scheduler = new PollScheduler(3);
+        scheduler.add(rpm, rpmMs);
+        scheduler.add(speed, speedMs);
+        scheduler.add(coolant, coolantMs);
+        return scheduler;
+    }
+
+    // Polls everything at T0 until the deadlines are T0 plus one interval
+    private void prime(PollScheduler scheduler) {
+        for (int i = 0; i < 2; i++) {
+            assertEquals(scheduler.size(), scheduler.collectDue(T0, out, out.length, false));
+            scheduler.completeCollected(T0);
+        }
+    }
+
+    private int poll(PollScheduler scheduler, long nowNanos, int max, boolean fillEarly) {
+        int count = scheduler.collectDue(nowNanos, out, max, fillEarly);
+        scheduler.completeCollected(nowNanos);
+        return count;
+    }
+
+    @Test
+    public void takesTheMostOverdueFirst() {
+        PollScheduler scheduler = schedulerOf(100, 500, 2000);
+        prime(scheduler);
+
+        // At T0 + 3 s all three are late, RPM by the most
+        assertEquals(3, scheduler.collectDue(T0 + 3000 * MS, out, 3, false));
+        assertArrayEquals(new AbstractObdCommand[] {rpm, speed, coolant}, out);
+        scheduler.completeCollected(T0 + 3000 * MS);
+
+        // One at a time, a polled entry goes back behind the ones still waiting
+        PollScheduler single = schedulerOf(2000, 500, 100);
+        prime(single);
+        AbstractObdCommand[] order = new AbstractObdCommand[3];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, poll(single, T0 + 3000 * MS, 1, false));
+            order[i] = out[0];
+        }
+        assertArrayEquals(new AbstractObdCommand[] {coolant, speed, rpm}, order);
+    }
+
+    @Test
+    public void topsUpABatchWithEntriesDueSoon() {
+        PollScheduler scheduler = schedulerOf(100, 500, 2000);
+        prime(scheduler);
+
+        // Only RPM is due at T0 + 300 ms; speed is within half its interval, coolant is not
+        assertEquals(1, scheduler.collectDue(T0 + 300 * MS, out, 3, false));
+        assertSame(rpm, out[0]);
+        scheduler.completeCollected(T0 + 300 * MS);
+
+        PollScheduler early = schedulerOf(100, 500, 2000);
+        prime(early);
+        assertEquals(2, early.collectDue(T0 + 300 * MS, out, 3, true));
+        assertSame(rpm, out[0]);
+        assertSame(speed, out[1]);
+        early.completeCollected(T0 + 300 * MS);
+
+        // Nothing is topped up when nothing is due at all
+        PollScheduler idle = schedulerOf(100, 500, 2000);
+        prime(idle);
+        assertEquals(0, idle.collectDue(T0 + 50 * MS, out, 3, true));
+        idle.completeCollected(T0 + 50 * MS);
+    }
+
+    @Test
+    public void restartsAnEntryThatFellAWholeIntervalBehind() {
+        PollScheduler scheduler = new PollScheduler(1);
+        scheduler.add(rpm, 100);
+        prime(scheduler);
+
+        // 50 ms late: the next deadline keeps the cadence
+        assertEquals(1, poll(scheduler, T0 + 150 * MS, 1, false));
+        assertEquals(50 * MS, scheduler.nanosUntilNextDue(T0 + 150 * MS));
+
+        // 800 ms late: one poll now, then the interval again instead of eight polls back to back
+        assertEquals(1, poll(scheduler, T0 + 1000 * MS, 1, false));
+        assertEquals(0, scheduler.nanosUntilNextDue(T0 + 1000 * MS));
+        assertEquals(1, poll(scheduler, T0 + 1000 * MS, 1, false));
+        assertEquals(100 * MS, scheduler.nanosUntilNextDue(T0 + 1000 * MS));
+        assertEquals(0, poll(scheduler, T0 + 1050 * MS, 1, false));
+    }
+
+    @Test
+    public void defersACollectedEntryOnce() {
+        PollScheduler scheduler = new PollScheduler(2);
+        scheduler.add(rpm, 100);
+        scheduler.add(speed, 100);
+        prime(scheduler);
+
+        assertEquals(2, scheduler.collectDue(T0 + 100 * MS, out, 2, false));
+        int speedAt = out[0] == speed ? 0 : 1;
+        scheduler.deferCollected(speedAt, 5000 * MS);
+        // Positions outside the batch are ignored
+        scheduler.deferCollected(2, 5000 * MS);
+        scheduler.completeCollected(T0 + 100 * MS);
+
+        // RPM keeps its interval while speed stays off the bus for 5 s
+        for (long t = 200; t < 5100; t += 100) {
+            assertEquals(1, poll(scheduler, T0 + t * MS, 2, false));
+            assertSame(rpm, out[0]);
+        }
+        assertEquals(2, poll(scheduler, T0 + 5100 * MS, 2, false));
+        // After that it is back on its interval
+        assertEquals(2, poll(scheduler, T0 + 5200 * MS, 2, false));
+    }
+
+    @Test
+    public void tellsHowLongUntilTheNextDeadline() {
+        PollScheduler scheduler = new PollScheduler(3);
+        assertEquals(Long.MAX_VALUE, scheduler.nanosUntilNextDue(T0));
+
+        scheduler.add(speed, 500);
+        scheduler.add(rpm, 100);
+        // New entries are due immediately
+        assertEquals(0, scheduler.nanosUntilNextDue(T0));
+        prime(scheduler);
+        assertEquals(100 * MS, scheduler.nanosUntilNextDue(T0));
+        assertEquals(60 * MS, scheduler.nanosUntilNextDue(T0 + 40 * MS));
+        assertEquals(0, scheduler.nanosUntilNextDue(T0 + 200 * MS));
+    }
+
+    @Test
+    public void givesOxygenSensorsTheirOwnInterval() {
+        for (int pid : new int[] {0x14, 0x1B, 0x24, 0x2B, 0x34, 0x3B}) {
+            assertEquals(Integer.toHexString(pid), 250, PollScheduler.defaultIntervalMs(pid));
+        }
+        // The PIDs between the two wide-range O2 groups are not sensors
+        assertEquals(500, PollScheduler.defaultIntervalMs(0x2C));
+        assertEquals(10000, PollScheduler.defaultIntervalMs(0x2F));
+        assertEquals(30000, PollScheduler.defaultIntervalMs(0x30));
+        assertEquals(5000, PollScheduler.defaultIntervalMs(0x31));
+        assertEquals(5000, PollScheduler.defaultIntervalMs(0x32));
+        assertEquals(10000, PollScheduler.defaultIntervalMs(0x33));
+        assertEquals(2000, PollScheduler.defaultIntervalMs(0x3C));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void growsWithJitterUpToTheCap() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 2000, new Random(7));
+        long step = 100;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(attempt + ": " + delay, delay >= step / 2 && delay <= step);
+            step = Math.min(2000, step * 2);
+        }
+        assertEquals(10, backoff.getAttempts());
+
+        backoff.reset();
+        assertTrue(backoff.nextDelayMs() <= 100);
+    }
+
+    @Test
+    public void spreadsRetriesApart() {
+        // Two clients that lose the adapter at the same moment do not retry in lockstep
+        ReconnectBackoff first = new ReconnectBackoff(1000, 30_000, new Random(1));
+        ReconnectBackoff second = new ReconnectBackoff(1000, 30_000, new Random(2));
+        int same = 0;
+        for (int i = 0; i < 8; i++) {
+            if (first.nextDelayMs() == second.nextDelayMs()) same++;
+        }
+        assertTrue(same < 2);
+    }
+}
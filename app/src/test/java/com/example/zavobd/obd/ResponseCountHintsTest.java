@@ -0,0 +1,56 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCountHintsTest {
+
+    @Test
+    public void learnsTheNumberOfAnswersPerPid() {
+        ResponseCountHints hints = new ResponseCountHints();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, hints.hintFor(0x0C));
+            hints.onReply(0x0C, 1, 0, ResponseStatus.OK);
+            hints.onReply(0x0D, 2, 0, ResponseStatus.OK);
+        }
+        assertEquals(1, hints.hintFor(0x0C));
+        assertEquals(2, hints.hintFor(0x0D));
+        assertEquals(0, hints.hintForBatch());
+
+        // A different count restarts learning
+        hints.onReply(0x05, 1, 0, ResponseStatus.OK);
+        hints.onReply(0x05, 1, 0, ResponseStatus.OK);
+        hints.onReply(0x05, 2, 0, ResponseStatus.OK);
+        assertEquals(0, hints.hintFor(0x05));
+    }
+
+    @Test
+    public void dropsAHintThatCameBackShort() {
+        ResponseCountHints hints = new ResponseCountHints();
+        for (int i = 0; i < 3; i++) hints.onReply(0x0D, 2, 0, ResponseStatus.OK);
+        assertTrue(hints.onReply(0x0D, 2, 2, ResponseStatus.OK));
+        assertFalse(hints.onReply(0x0D, 1, 2, ResponseStatus.OK));
+        assertEquals(0, hints.hintFor(0x0D));
+
+        // Learned again, fails again: the PID is not hinted any more
+        for (int i = 0; i < 3; i++) hints.onReply(0x0D, 1, 0, ResponseStatus.OK);
+        assertEquals(1, hints.hintFor(0x0D));
+        assertFalse(hints.onReply(0x0D, 0, 1, ResponseStatus.NOT_UNDERSTOOD));
+        for (int i = 0; i < 5; i++) hints.onReply(0x0D, 1, 0, ResponseStatus.OK);
+        assertEquals(0, hints.hintFor(0x0D));
+    }
+
+    @Test
+    public void hintsEverythingWhenOneEcuIsAddressed() {
+        ResponseCountHints hints = new ResponseCountHints();
+        hints.setSingleResponder(true);
+        assertEquals(1, hints.hintFor(0x42));
+        assertEquals(1, hints.hintForBatch());
+        // A PID that never answered is unsupported, which is no reason to stop hinting
+        assertTrue(hints.onReply(0x42, 0, 1, ResponseStatus.NO_DATA));
+        assertTrue(hints.onReply(0x0C, 1, 1, ResponseStatus.OK));
+        assertTrue(hints.onReply(0x0C, 0, 1, ResponseStatus.BUS_ERROR));
+        assertFalse(hints.onReply(0x0C, 0, 1, ResponseStatus.NO_DATA));
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.zavobd.obd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SupportedPidsTest {
+
+    @Test
+    public void parsesABitmapReply() {
+        // 41 00 BE 1F A8 13, the example reply of SAE J1979
+        SupportedPids pids = new SupportedPids();
+        pids.addBitmap(0x00, 0xBE, 0x1F, 0xA8, 0x13);
+
+        int[] expected = {0x01, 0x03, 0x04, 0x05, 0x06, 0x07, 0x0C, 0x0D, 0x0E, 0x0F,
+                0x10, 0x11, 0x13, 0x15, 0x1C, 0x1F, 0x20};
+        for (int pid : expected) assertTrue(Integer.toHexString(pid), pids.isSupported(pid));
+        assertEquals(expected.length, pids.count());
+        assertFalse(pids.isSupported(0x02));
+        assertFalse(pids.isSupported(0x21));
+    }
+
+    @Test
+    public void followsTheBitmapChain() {
+        // Every bitmap but the last reports the next one in its lowest bit
+        SupportedPids pids = new SupportedPids();
+        for (int base : SupportedPids.BITMAP_PIDS) pids.addBitmap(base, 0x80, 0, 0, 0x01);
+        pids.addBitmap(0xE0, 0x80, 0, 0, 0x02);
+
+        for (int base : SupportedPids.BITMAP_PIDS) assertTrue(Integer.toHexString(base), pids.hasNextBitmap(base));
+        // There is no bitmap past 0xE0
+        assertFalse(pids.hasNextBitmap(0xE0));
+
+        // A bitmap that leaves out its successor ends the walk there
+        SupportedPids broken = new SupportedPids();
+        broken.addBitmap(0x00, 0xFF, 0xFF, 0xFF, 0xFF);
+        broken.addBitmap(0x20, 0xFF, 0xFF, 0xFF, 0xFE);
+        assertTrue(broken.hasNextBitmap(0x00));
+        assertFalse(broken.hasNextBitmap(0x20));
+        assertFalse(broken.hasNextBitmap(0x40));
+    }
+
+    @Test
+    public void checksTheEdgesOfTheRange() {
+        SupportedPids pids = new SupportedPids();
+        // 0100 is always supported, even before any bitmap was read
+        assertTrue(pids.isSupported(0x00));
+        assertFalse(pids.isSupported(0x01));
+        assertTrue(pids.isEmpty());
+
+        pids.addBitmap(0x00, 0x80, 0, 0, 0x01);
+        // The lowest bit of the last bitmap points past the end of the range and is dropped
+        pids.addBitmap(0xE0, 0, 0, 0, 0x03);
+        assertTrue(pids.isSupported(0x01));
+        assertTrue(pids.isSupported(0x20));
+        assertTrue(pids.isSupported(0xFF));
+        assertFalse(pids.isSupported(0x21));
+        assertFalse(pids.isSupported(0xFE));
+        assertFalse(pids.isSupported(-1));
+        assertFalse(pids.isSupported(0x100));
+        assertEquals(3, pids.count());
+    }
+
+    @Test
+    public void roundTripsThroughHex() {
+        SupportedPids pids = new SupportedPids();
+        pids.addBitmap(0x00, 0xBE, 0x1F, 0xA8, 0x13);
+        pids.add(0x40);
+        pids.add(0xFF);
+
+        String hex = pids.toHex();
+        assertEquals(64, hex.length());
+        SupportedPids restored = SupportedPids.fromHex(hex);
+        assertNotNull(restored);
+        assertEquals(hex, restored.toHex());
+        for (int pid = 0; pid <= 0xFF; pid++) assertEquals(pids.isSupported(pid), restored.isSupported(pid));
+
+        assertNull(SupportedPids.fromHex(null));
+        assertNull(SupportedPids.fromHex(hex.substring(1)));
+        assertNull(SupportedPids.fromHex(hex.substring(1) + "g"));
+    }
+}
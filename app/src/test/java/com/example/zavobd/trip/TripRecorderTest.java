@@ -0,0 +1,128 @@
+package com.example.zavobd.trip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes trips with small segments so rotation and the index are exercised, and reads them back.
+ */
+public class TripRecorderTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final long START_NANOS = 5_000_000_000L;
+    private static final long STEP_NANOS = 1_000_000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("trip").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackEverySampleAcrossSegments() throws Exception {
+        int samples = 40_000;
+        TripRecorder recorder = new TripRecorder(directory, SEGMENT_SIZE);
+        for (int i = 0; i < samples; i++) record(recorder, i);
+        recorder.close();
+
+        assertTrue("Expected several segments", directory.listFiles().length > 3);
+        TripLog log = TripLog.open(directory);
+        assertEquals(START_NANOS, log.getStartNanos());
+        TripLog.Cursor cursor = log.cursor();
+        TripLog.Sample sample = new TripLog.Sample();
+        for (int i = 0; i < samples; i++) {
+            assertTrue("Missing sample " + i, cursor.next(sample));
+            assertSample(i, sample);
+        }
+        assertFalse(cursor.next(sample));
+    }
+
+    @Test
+    public void seekStartsAtFirstSampleAtOrAfterTarget() throws Exception {
+        TripRecorder recorder = new TripRecorder(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 30_000; i++) record(recorder, i);
+        recorder.close();
+
+        TripLog log = TripLog.open(directory);
+        TripLog.Sample sample = new TripLog.Sample();
+        for (int target : new int[] {0, 1, 4_097, 12_345, 29_998}) {
+            TripLog.Cursor cursor = log.seek(nanosOf(target));
+            assertTrue(cursor.next(sample));
+            assertSample(target, sample);
+            assertTrue(cursor.next(sample));
+            assertSample(target + 1, sample);
+        }
+        assertFalse(log.seek(nanosOf(30_000)).next(sample));
+    }
+
+    @Test
+    public void ignoresBytesPastTheCommittedEnd() throws Exception {
+        TripRecorder recorder = new TripRecorder(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 1_000; i++) record(recorder, i);
+
+        // As if the process died in the middle of the next record: never closed, garbage after the end
+        File segment = new File(directory, TripFormat.segmentName(0));
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(TripFormat.OFFSET_COMMITTED_END);
+            int end = raf.readInt();
+            raf.seek(end);
+            raf.write(new byte[] {0x0C, 0x1F, (byte) 0xFF, (byte) 0xFF});
+        }
+
+        TripLog.Cursor cursor = TripLog.open(directory).cursor();
+        TripLog.Sample sample = new TripLog.Sample();
+        int count = 0;
+        while (cursor.next(sample)) assertSample(count++, sample);
+        assertEquals(1_000, count);
+        recorder.close();
+    }
+
+    private static long nanosOf(int i) {
+        return START_NANOS + i * STEP_NANOS;
+    }
+
+    // Cycles through RPM, speed and an O2 sensor, with every 7th sample lacking a value
+    private static void record(TripRecorder recorder, int i) {
+        int pid = pidOf(i);
+        int[] raw = {i & 0xFF, (i >> 8) & 0xFF};
+        recorder.record(pid, nanosOf(i), valueOf(i), raw, pid == 0x0D ? 1 : 2);
+    }
+
+    private static int pidOf(int i) {
+        return new int[] {0x0C, 0x0D, 0x14}[i % 3];
+    }
+
+    private static double valueOf(int i) {
+        if (i % 7 == 0) return Double.NaN;
+        return 800 + (i % 500) * 0.25;
+    }
+
+    private static void assertSample(int i, TripLog.Sample sample) {
+        assertEquals(pidOf(i), sample.getPid());
+        assertEquals(nanosOf(i), sample.getNanos());
+        if (Double.isNaN(valueOf(i))) {
+            assertFalse(sample.hasValue());
+        } else {
+            assertEquals(valueOf(i), sample.getValue(), 0.0005);
+        }
+        assertEquals(pidOf(i) == 0x0D ? 1 : 2, sample.getRawLength());
+        assertEquals(i & 0xFF, sample.getRaw(0));
+    }
+}